@@ -587,10 +587,15 @@ public final class Constants {
     public static final String SERVICE_DESCRIPTION = "Service to handle metrics requests.";
     public static final String PROCESSOR_MAX_DELAY_MS = "metrics.processor.max.delay.ms";
     public static final String QUEUE_SIZE = "metrics.processor.queue.size";
+    public static final String PROCESSOR_SHARDS = "metrics.processor.shards";
 
     public static final String ENTITY_TABLE_NAME = "metrics.data.entity.tableName";
     public static final String METRICS_TABLE_PREFIX = "metrics.data.table.prefix";
     public static final String TIME_SERIES_TABLE_ROLL_TIME = "metrics.data.table.ts.rollTime";
+    public static final String TIME_SERIES_TABLE_COMPACTION_ENABLED = "metrics.data.table.ts.compaction.enabled";
+    public static final String TIME_SERIES_TABLE_COMPACTION_LAG_SECONDS =
+      "metrics.data.table.ts.compaction.lag.seconds";
+    public static final String TIME_SERIES_TABLE_INDEX_ENABLED = "metrics.data.table.ts.index.enabled";
 
     public static final String METRICS_MINIMUM_RESOLUTION_SECONDS = "metrics.minimum.resolution.seconds";
     public static final String MINIMUM_RESOLUTION_RETENTION_SECONDS =
@@ -601,6 +606,7 @@ public final class Constants {
     public static final int HOUR_RESOLUTION = 3600;
     public static final long PROCESS_INTERVAL_MILLIS = 60000;
     public static final String RETENTION_SECONDS_SUFFIX = ".seconds";
+    public static final String QUERY_RESOLUTION_FALLBACK = "metrics.query.resolution.fallback.enabled";
 
     public static final String TOPIC_PREFIX = "metrics.topic.prefix";
 
@@ -619,6 +625,9 @@ public final class Constants {
     public static final int DEFAULT_TIME_SERIES_TABLE_ROLL_TIME = 3600;
 
     public static final String MESSAGING_TOPIC_NUM = "metrics.messaging.topic.num";
+    public static final String PUBLISH_BATCH_SIZE = "metrics.publish.batch.size";
+    public static final String PUBLISH_COMBINE_DROP_TAGS = "metrics.publish.combine.drop.tags";
+    public static final String PUBLISH_COMBINE_WINDOW_SECONDS = "metrics.publish.combine.window.seconds";
 
     public static final String TWILL_INSTANCE_ID = "metrics.twill.instance.id";
 
@@ -743,6 +752,11 @@ public final class Constants {
       public static final long MAX_MINUTE_RESOLUTION_QUERY_INTERVAL = 600;
       // Number of seconds to subtract from current timestamp when query without "end" time.
       public static final long QUERY_SECOND_DELAY = 2;
+
+      public static final String CACHE_ENABLED = "metrics.query.cache.enabled";
+      public static final String CACHE_MAX_POINTS = "metrics.query.cache.max.points";
+      public static final String CACHE_MAX_AGE_SECONDS = "metrics.query.cache.max.age.seconds";
+      public static final String CACHE_SETTLE_SECONDS = "metrics.query.cache.settle.seconds";
     }
 
     /**
@@ -789,6 +803,8 @@ public final class Constants {
     public static final String METRICS_PROCESSOR_STATUS_HANDLER = "metrics.processor.status.handler";
     public static final String BIND_ADDRESS = "metrics.processor.status.bind.address";
     public static final String BIND_PORT = "metrics.processor.status.bind.port";
+    public static final String EXPORT_CONTEXTS = "metrics.processor.export.contexts";
+    public static final String EXPORT_MAX_SERIES = "metrics.processor.export.max.series";
 
     public static final String SERVICE_DESCRIPTION = "Service to process application and system metrics.";
   }
@@ -799,6 +815,8 @@ public final class Constants {
   public static final class LogQuery {
     public static final String ADDRESS = "log.query.server.bind.address";
     public static final String PORT = "log.query.server.bind.port";
+    public static final String FILE_READ_PARALLELISM = "log.query.file.read.parallelism";
+    public static final String FILE_READ_THREADS = "log.query.file.read.threads";
   }
 
   /**
@@ -826,6 +844,7 @@ public final class Constants {
     // log buffer writer configs
     public static final String LOG_BUFFER_BASE_DIR = "log.buffer.base.dir";
     public static final String LOG_BUFFER_MAX_FILE_SIZE_BYTES = "log.buffer.max.file.size.bytes";
+    public static final String LOG_BUFFER_SYNC_ENABLED = "log.buffer.sync.enabled";
     // log buffer recovery configs
     public static final String LOG_BUFFER_RECOVERY_BATCH_SIZE = "log.buffer.recovery.batch.size";
     // number of events to be sent to time event queue processor from incoming queue
@@ -895,9 +914,11 @@ public final class Constants {
     public static final String PIPELINE_CONFIG_DIR = "log.process.pipeline.config.dir";
     public static final String PIPELINE_LIBRARY_DIR = "log.process.pipeline.lib.dir";
     public static final String PIPELINE_AUTO_BUFFER_RATIO = "log.process.pipeline.auto.buffer.ratio";
+    public static final String PIPELINE_SPILL_DIR = "log.process.pipeline.spill.dir";
 
     // The following properties can be defined in cdap-site and overridden in individual pipeline config xml
     public static final String PIPELINE_BUFFER_SIZE = "log.process.pipeline.buffer.size";
+    public static final String PIPELINE_SPILL_MAX_SIZE = "log.process.pipeline.spill.max.size";
     public static final String PIPELINE_EVENT_DELAY_MS = "log.process.pipeline.event.delay.ms";
     public static final String PIPELINE_KAFKA_FETCH_SIZE = "log.process.pipeline.kafka.fetch.size";
     public static final String PIPELINE_CHECKPOINT_INTERVAL_MS = "log.process.pipeline.checkpoint.interval.ms";
@@ -1312,6 +1333,7 @@ public final class Constants {
     public static final String LOCAL_DATA_CLEANUP_FREQUENCY = "messaging.local.data.cleanup.frequency.secs";
 
     public static final String CACHE_SIZE_MB = "messaging.cache.size.mb";
+    public static final String CACHE_OFF_HEAP = "messaging.cache.off.heap";
 
     public static final String HBASE_MAX_SCAN_THREADS = "messaging.hbase.max.scan.threads";
     public static final String HBASE_SCAN_CACHE_ROWS = "messaging.hbase.scan.cache.rows";
@@ -1323,14 +1345,20 @@ public final class Constants {
     public static final String SYSTEM_TOPICS = "messaging.system.topics";
     public static final String TABLE_CACHE_EXPIRATION_SECONDS = "messaging.table.expiration.seconds";
     public static final String TABLE_HBASE_SPLIT_POLICY = "messaging.table.hbase.split.policy";
+    public static final String TOPIC_DEFAULT_COMPRESSION = "messaging.topic.default.compression";
     public static final String TOPIC_DEFAULT_TTL_SECONDS = "messaging.topic.default.ttl.seconds";
     public static final String COPROCESSOR_METADATA_CACHE_UPDATE_FREQUENCY_SECONDS =
       "messaging.coprocessor.metadata.cache.update.frequency.seconds";
+    public static final String WRITER_LANES = "messaging.writer.lanes";
+    public static final String WRITER_MAX_BATCH_SIZE = "messaging.writer.max.batch.size";
+    public static final String WRITER_BATCH_LINGER_MICROS = "messaging.writer.batch.linger.micros";
 
     public static final String HTTP_SERVER_WORKER_THREADS = "messaging.http.server.worker.threads";
     public static final String HTTP_SERVER_EXECUTOR_THREADS = "messaging.http.server.executor.threads";
     public static final String HTTP_SERVER_MAX_REQUEST_SIZE_MB = "messaging.http.server.max.request.size.mb";
     public static final String HTTP_SERVER_CONSUME_CHUNK_SIZE = "messaging.http.server.consume.chunk.size";
+    public static final String HTTP_SERVER_FETCH_MAX_WAIT_MS = "messaging.http.server.fetch.max.wait.ms";
+    public static final String FETCH_WAIT_CHECK_INTERVAL_MS = "messaging.fetch.wait.check.interval.ms";
 
     // Distributed mode related configurations
     public static final String HA_FENCING_DELAY_SECONDS = "messaging.ha.fencing.delay.seconds";
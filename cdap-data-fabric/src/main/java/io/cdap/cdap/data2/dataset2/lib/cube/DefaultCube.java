@@ -16,17 +16,13 @@
 
 package io.cdap.cdap.data2.dataset2.lib.cube;
 
-import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.PeekingIterator;
 import com.google.common.collect.Sets;
-import com.google.common.collect.Table;
 import com.google.common.util.concurrent.Uninterruptibles;
-import io.cdap.cdap.api.dataset.lib.cube.AggregationFunction;
 import io.cdap.cdap.api.dataset.lib.cube.AggregationOption;
 import io.cdap.cdap.api.dataset.lib.cube.Cube;
 import io.cdap.cdap.api.dataset.lib.cube.CubeDeleteQuery;
@@ -51,7 +47,6 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.HashMap;
@@ -255,10 +250,10 @@ public class DefaultCube implements Cube, MeteredDataset {
     // 3) execute scan query
     FactTable table = resolutionToFactTable.get(query.getResolution());
     FactScanner scanner = table.scan(scan);
-    Table<Map<String, String>, String, Map<Long, Long>> resultMap = getTimeSeries(query, scanner);
+    Map<Map<String, String>, Map<String, TimeSeriesAccumulator>> resultMap = getTimeSeries(query, scanner);
 
     incrementMetric("cube.query.request.success.count", 1);
-    incrementMetric("cube.query.result.size", resultMap.size());
+    incrementMetric("cube.query.result.size", resultMap.values().stream().mapToInt(Map::size).sum());
 
     Collection<TimeSeries> timeSeries = convertToQueryResult(query, resultMap);
     incrementMetric("cube.query.result.timeseries.count", timeSeries.size());
@@ -285,6 +280,23 @@ public class DefaultCube implements Cube, MeteredDataset {
     }
   }
 
+  /**
+   * Compacts the data of the given resolution that is older than the given timestamp into blocks.
+   * Querying the cube is not affected by the compaction.
+   *
+   * @param resolution the resolution of the fact table to compact
+   * @param endTs only data with timestamp smaller than this is compacted, in seconds
+   * @return number of rows compacted
+   * @see FactTable#compact(long)
+   */
+  public int compact(int resolution, long endTs) {
+    FactTable factTable = resolutionToFactTable.get(resolution);
+    if (factTable == null) {
+      throw new IllegalArgumentException("There is no fact table for resolution " + resolution);
+    }
+    return factTable.compact(endTs);
+  }
+
   @Override
   public Collection<DimensionValue> findDimensionValues(CubeExploreQuery query) {
     LOG.trace("Searching for next-level context, query: {}", query);
@@ -374,9 +386,11 @@ public class DefaultCube implements Cube, MeteredDataset {
     return currentBest;
   }
 
-  private Table<Map<String, String>, String, Map<Long, Long>> getTimeSeries(CubeQuery query, FactScanner scanner) {
-    // {dimension values, measure} -> {time -> value}s
-    Table<Map<String, String>, String, Map<Long, Long>> result = HashBasedTable.create();
+  private Map<Map<String, String>, Map<String, TimeSeriesAccumulator>> getTimeSeries(CubeQuery query,
+                                                                                      FactScanner scanner) {
+    // {dimension values} -> {measure -> time series}
+    // The aggregation is done while scanning with primitive values, instead of collecting boxed values per data point
+    Map<Map<String, String>, Map<String, TimeSeriesAccumulator>> result = new LinkedHashMap<>();
 
     int count = 0;
     while (scanner.hasNext()) {
@@ -411,31 +425,13 @@ public class DefaultCube implements Cube, MeteredDataset {
         continue;
       }
 
-      for (TimeValue timeValue : next) {
-        Map<Long, Long> timeValues = result.get(seriesDimensions, next.getMeasureName());
-        if (timeValues == null) {
-          result.put(seriesDimensions, next.getMeasureName(), Maps.<Long, Long>newHashMap());
-        }
-
-        AggregationFunction function = query.getMeasurements().get(next.getMeasureName());
-        if (AggregationFunction.SUM == function) {
-          Long value =  result.get(seriesDimensions, next.getMeasureName()).get(timeValue.getTimestamp());
-          value = value == null ? 0 : value;
-          value += timeValue.getValue();
-          result.get(seriesDimensions, next.getMeasureName()).put(timeValue.getTimestamp(), value);
-        } else if (AggregationFunction.MAX == function) {
-          Long value = result.get(seriesDimensions, next.getMeasureName()).get(timeValue.getTimestamp());
-          value = value != null && value > timeValue.getValue() ? value : timeValue.getValue();
-          result.get(seriesDimensions, next.getMeasureName()).put(timeValue.getTimestamp(), value);
-        } else if (AggregationFunction.MIN == function) {
-          Long value =  result.get(seriesDimensions, next.getMeasureName()).get(timeValue.getTimestamp());
-          value = value != null && value < timeValue.getValue() ? value : timeValue.getValue();
-          result.get(seriesDimensions, next.getMeasureName()).put(timeValue.getTimestamp(), value);
-        } else if (AggregationFunction.LATEST == function) {
-          result.get(seriesDimensions, next.getMeasureName()).put(timeValue.getTimestamp(), timeValue.getValue());
-        } else {
-          // should never happen: developer error
-          throw new RuntimeException("Unknown MeasureType: " + function);
+      // resolve the time series once per scanned row rather than once per data point
+      if (next.size() > 0) {
+        TimeSeriesAccumulator accumulator = result.computeIfAbsent(seriesDimensions, k -> new LinkedHashMap<>())
+          .computeIfAbsent(next.getMeasureName(),
+                           k -> new TimeSeriesAccumulator(query.getMeasurements().get(next.getMeasureName())));
+        for (int i = 0; i < next.size(); i++) {
+          accumulator.add(next.getTimestamp(i), next.getValue(i));
         }
       }
       if (++count >= MAX_RECORDS_TO_SCAN) {
@@ -446,19 +442,16 @@ public class DefaultCube implements Cube, MeteredDataset {
   }
 
   private Collection<TimeSeries> convertToQueryResult(
-    CubeQuery query, Table<Map<String, String>, String, Map<Long, Long>> resultTable) {
+    CubeQuery query, Map<Map<String, String>, Map<String, TimeSeriesAccumulator>> resultMap) {
     List<TimeSeries> result = new ArrayList<>();
     // iterating each groupValue dimensions
-    for (Map.Entry<Map<String, String>, Map<String, Map<Long, Long>>> row : resultTable.rowMap().entrySet()) {
+    for (Map.Entry<Map<String, String>, Map<String, TimeSeriesAccumulator>> row : resultMap.entrySet()) {
       // iterating each measure
-      for (Map.Entry<String, Map<Long, Long>> measureEntry : row.getValue().entrySet()) {
+      for (Map.Entry<String, TimeSeriesAccumulator> measureEntry : row.getValue().entrySet()) {
         // generating time series for a grouping and a measure
         int count = 0;
-        List<TimeValue> timeValues = new ArrayList<>();
-        for (Map.Entry<Long, Long> timeValue : measureEntry.getValue().entrySet()) {
-          timeValues.add(new TimeValue(timeValue.getKey(), timeValue.getValue()));
-        }
-        Collections.sort(timeValues);
+        // data points are already sorted by timestamp
+        TimeSeriesAccumulator timeValues = measureEntry.getValue();
         List<TimeValue> resultTimeValues = new ArrayList<>();
 
         AggregationOption aggregationOption = query.getAggregationOption();
@@ -472,23 +465,33 @@ public class DefaultCube implements Cube, MeteredDataset {
           int partitionSize = timeValues.size() / query.getLimit();
           int remainder = timeValues.size() % query.getLimit();
           // ignore the first reminderth data points
-          for (List<TimeValue> interval : Iterables.partition(timeValues.subList(remainder,
-                                                                                 timeValues.size()), partitionSize)) {
+          for (int start = remainder; start < timeValues.size(); start += partitionSize) {
+            int last = start + partitionSize - 1;
             // for LATEST we only need to get the last data point in the interval
             if (aggregationOption.equals(AggregationOption.LATEST)) {
-              resultTimeValues.add(interval.get(interval.size() - 1));
+              resultTimeValues.add(new TimeValue(timeValues.getTimestamp(last), timeValues.getValue(last)));
               continue;
             }
             // for SUM we want to sum up all the values in the interval
             if (aggregationOption.equals(AggregationOption.SUM)) {
-              long sum = interval.stream().mapToLong(TimeValue::getValue).sum();
-              resultTimeValues.add(new TimeValue(interval.get(interval.size() - 1).getTimestamp(), sum));
+              long sum = 0;
+              for (int i = start; i <= last; i++) {
+                sum += timeValues.getValue(i);
+              }
+              resultTimeValues.add(new TimeValue(timeValues.getTimestamp(last), sum));
             }
           }
+        } else if (query.getInterpolator() == null) {
+          // without interpolation the data points are returned as is, up to the limit
+          int size = Math.min(timeValues.size(), query.getLimit());
+          for (int i = 0; i < size; i++) {
+            resultTimeValues.add(new TimeValue(timeValues.getTimestamp(i), timeValues.getValue(i)));
+          }
         } else {
           // TODO: CDAP-15565 remove the interpolation logic since it is never maintained and adds huge complexity
           PeekingIterator<TimeValue> timeValueItor = Iterators.peekingIterator(
-            new TimeSeriesInterpolator(timeValues, query.getInterpolator(), query.getResolution()).iterator());
+            new TimeSeriesInterpolator(timeValues.toTimeValues(), query.getInterpolator(),
+                                       query.getResolution()).iterator());
           while (timeValueItor.hasNext()) {
             TimeValue timeValue = timeValueItor.next();
             resultTimeValues.add(new TimeValue(timeValue.getTimestamp(), timeValue.getValue()));
@@ -0,0 +1,172 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.cdap.data2.dataset2.lib.cube;
+
+import io.cdap.cdap.api.dataset.lib.cube.AggregationFunction;
+import io.cdap.cdap.api.dataset.lib.cube.TimeValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aggregates the data points of a single time series of a cube query while the facts are being scanned.
+ * Data points are kept in primitive arrays. Since facts are scanned in timebase order, new data points are
+ * usually either combined with the last one or appended. Data points that arrive out of order are appended
+ * as well, and all data points are sorted and combined once when they are read.
+ */
+final class TimeSeriesAccumulator {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final AggregationFunction function;
+  private long[] timestamps;
+  private long[] values;
+  private int size;
+  private boolean sorted;
+
+  TimeSeriesAccumulator(AggregationFunction function) {
+    if (function == null) {
+      // should never happen: developer error
+      throw new RuntimeException("Unknown MeasureType: " + function);
+    }
+    this.function = function;
+    this.timestamps = new long[INITIAL_CAPACITY];
+    this.values = new long[INITIAL_CAPACITY];
+    this.sorted = true;
+  }
+
+  /**
+   * Adds a data point, combining it with the existing data point of the same timestamp based on the aggregation
+   * function.
+   */
+  void add(long timestamp, long value) {
+    if (size > 0 && timestamps[size - 1] == timestamp) {
+      values[size - 1] = combine(values[size - 1], value);
+      return;
+    }
+    if (size > 0 && timestamps[size - 1] > timestamp) {
+      sorted = false;
+    }
+    if (size == timestamps.length) {
+      timestamps = Arrays.copyOf(timestamps, size * 2);
+      values = Arrays.copyOf(values, size * 2);
+    }
+    timestamps[size] = timestamp;
+    values[size] = value;
+    size++;
+  }
+
+  /**
+   * Returns the number of data points.
+   */
+  int size() {
+    ensureSorted();
+    return size;
+  }
+
+  long getTimestamp(int idx) {
+    ensureSorted();
+    return timestamps[idx];
+  }
+
+  long getValue(int idx) {
+    ensureSorted();
+    return values[idx];
+  }
+
+  /**
+   * Returns the data points as a list of {@link TimeValue} sorted by timestamp.
+   */
+  List<TimeValue> toTimeValues() {
+    ensureSorted();
+    List<TimeValue> result = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      result.add(new TimeValue(timestamps[i], values[i]));
+    }
+    return result;
+  }
+
+  /**
+   * Sorts the data points by timestamp with a stable merge sort, so that data points of the same timestamp stay
+   * in the order they were added, and then combines the data points of the same timestamp.
+   */
+  private void ensureSorted() {
+    if (sorted) {
+      return;
+    }
+    long[] srcTimestamps = timestamps;
+    long[] srcValues = values;
+    long[] destTimestamps = new long[timestamps.length];
+    long[] destValues = new long[values.length];
+    for (int width = 1; width < size; width *= 2) {
+      for (int start = 0; start < size; start += width * 2) {
+        int mid = Math.min(start + width, size);
+        int end = Math.min(start + width * 2, size);
+        int left = start;
+        int right = mid;
+        for (int i = start; i < end; i++) {
+          // take from the left run on equal timestamps to keep the sort stable
+          if (left < mid && (right >= end || srcTimestamps[left] <= srcTimestamps[right])) {
+            destTimestamps[i] = srcTimestamps[left];
+            destValues[i] = srcValues[left++];
+          } else {
+            destTimestamps[i] = srcTimestamps[right];
+            destValues[i] = srcValues[right++];
+          }
+        }
+      }
+      long[] tmp = srcTimestamps;
+      srcTimestamps = destTimestamps;
+      destTimestamps = tmp;
+      tmp = srcValues;
+      srcValues = destValues;
+      destValues = tmp;
+    }
+
+    int newSize = 0;
+    for (int i = 0; i < size; i++) {
+      if (newSize > 0 && srcTimestamps[newSize - 1] == srcTimestamps[i]) {
+        srcValues[newSize - 1] = combine(srcValues[newSize - 1], srcValues[i]);
+      } else {
+        srcTimestamps[newSize] = srcTimestamps[i];
+        srcValues[newSize] = srcValues[i];
+        newSize++;
+      }
+    }
+    timestamps = srcTimestamps;
+    values = srcValues;
+    size = newSize;
+    sorted = true;
+  }
+
+  private long combine(long existing, long value) {
+    switch (function) {
+      case SUM:
+        return existing + value;
+      case MAX:
+        return Math.max(existing, value);
+      case MIN:
+        return Math.min(existing, value);
+      case LATEST:
+        return value;
+      default:
+        // should never happen: developer error
+        throw new RuntimeException("Unknown MeasureType: " + function);
+    }
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.cdap.data2.dataset2.lib.timeseries;
+
+import io.cdap.cdap.api.common.Bytes;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import javax.annotation.Nullable;
+
+/**
+ * Encodes the cells of a {@link FactTable} row into a single compact block value.
+ * <p>
+ * A row of a fact table holds one column per resolution interval, with the column name being the two bytes
+ * offset from the row timebase. Once the cells are old enough, {@link FactTable#compact(long)} replaces
+ * them with a single block column, encoded as:
+ * <pre>
+ *   [version][count][column offset]...[value]...
+ * </pre>
+ * Column offsets are written as zig-zag varint delta-of-delta, which takes a single byte per entry for a regularly
+ * reported metric. Values are written as zig-zag varint delta from the previous value, which keeps slow moving
+ * counters and gauges in one or two bytes per entry.
+ */
+final class FactBlockCodec {
+
+  /**
+   * Column name of the block. Column offsets are always less than the roll time, which is bounded by
+   * {@code 0xfffe}, hence this name never clashes with a regular column.
+   */
+  static final byte[] BLOCK_COLUMN = Bytes.toBytes((short) 0xffff);
+
+  private static final byte VERSION = 0;
+
+  private FactBlockCodec() {
+    // no-op
+  }
+
+  /**
+   * Returns {@code true} if the given column is the block column.
+   */
+  static boolean isBlockColumn(byte[] column) {
+    return Arrays.equals(BLOCK_COLUMN, column);
+  }
+
+  /**
+   * Returns the encoded block of a row or {@code null} if the row is not compacted.
+   */
+  @Nullable
+  static byte[] getBlock(Map<byte[], byte[]> columns) {
+    if (columns instanceof SortedMap && ((SortedMap<byte[], byte[]>) columns).comparator() != null) {
+      return columns.get(BLOCK_COLUMN);
+    }
+    for (Map.Entry<byte[], byte[]> entry : columns.entrySet()) {
+      if (isBlockColumn(entry.getKey())) {
+        return entry.getValue();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Encodes the given column values into a block.
+   *
+   * @param values map from column name to value, ordered by the column name
+   * @return the encoded block
+   */
+  static byte[] encode(NavigableMap<byte[], Long> values) {
+    ByteArrayOutputStream os = new ByteArrayOutputStream(values.size() * 3 + 8);
+    os.write(VERSION);
+    writeVarInt(os, values.size());
+
+    long prevOffset = 0;
+    long prevDelta = 0;
+    for (byte[] column : values.keySet()) {
+      long offset = toOffset(column);
+      long delta = offset - prevOffset;
+      writeVarInt(os, zigZag(delta - prevDelta));
+      prevOffset = offset;
+      prevDelta = delta;
+    }
+
+    long prevValue = 0;
+    for (long value : values.values()) {
+      writeVarInt(os, zigZag(value - prevValue));
+      prevValue = value;
+    }
+    return os.toByteArray();
+  }
+
+  /**
+   * Decodes a block created by {@link #encode(NavigableMap)}.
+   *
+   * @return map from column name to value, ordered by the column name
+   */
+  static NavigableMap<byte[], Long> decode(byte[] block) {
+    if (block.length == 0 || block[0] != VERSION) {
+      throw new IllegalArgumentException("Unsupported fact block version " + (block.length == 0 ? "" : block[0]));
+    }
+    int[] position = new int[] { 1 };
+    int count = (int) readVarInt(block, position);
+
+    byte[][] columns = new byte[count][];
+    long prevOffset = 0;
+    long prevDelta = 0;
+    for (int i = 0; i < count; i++) {
+      long delta = prevDelta + unZigZag(readVarInt(block, position));
+      prevOffset += delta;
+      prevDelta = delta;
+      columns[i] = Bytes.toBytes((short) prevOffset);
+    }
+
+    NavigableMap<byte[], Long> values = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+    long prevValue = 0;
+    for (int i = 0; i < count; i++) {
+      prevValue += unZigZag(readVarInt(block, position));
+      values.put(columns[i], prevValue);
+    }
+    return values;
+  }
+
+  /**
+   * Merges the block of a row with the regular cells of the same row. Cells are added to the block entries of
+   * the same column, since a cell written after the compaction happened holds a counter increment, or a gauge
+   * value relative to the block entry as written by {@link FactTable#add}.
+   *
+   * @param block the encoded block
+   * @param columns all columns of the row, which may include the block column
+   * @return map from column name to value, ordered by the column name
+   */
+  static NavigableMap<byte[], Long> merge(byte[] block, Map<byte[], byte[]> columns) {
+    NavigableMap<byte[], Long> values = decode(block);
+    for (Map.Entry<byte[], byte[]> entry : columns.entrySet()) {
+      if (!isBlockColumn(entry.getKey())) {
+        values.merge(entry.getKey(), Bytes.toLong(entry.getValue()), Long::sum);
+      }
+    }
+    return values;
+  }
+
+  private static long toOffset(byte[] column) {
+    return Bytes.toShort(column) & 0xffff;
+  }
+
+  private static long zigZag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static long unZigZag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static void writeVarInt(ByteArrayOutputStream os, long value) {
+    while ((value & ~0x7FL) != 0) {
+      os.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    os.write((int) value);
+  }
+
+  private static long readVarInt(byte[] buffer, int[] position) {
+    long result = 0;
+    int shift = 0;
+    while (shift < 64) {
+      byte b = buffer[position[0]++];
+      result |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return result;
+      }
+      shift += 7;
+    }
+    throw new IllegalArgumentException("Malformed varint in fact block");
+  }
+}
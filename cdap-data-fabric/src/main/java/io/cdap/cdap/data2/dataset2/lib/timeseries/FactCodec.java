@@ -35,6 +35,8 @@ public class FactCodec {
   private static final Logger LOG = LoggerFactory.getLogger(FactCodec.class);
   // current version
   private static final byte[] VERSION = new byte[] {0};
+  // prefix of the dimension values index rows, sorts after all the fact rows
+  private static final byte[] INDEX_PREFIX = new byte[] {1};
 
   // encoding types
   private static final String TYPE_MEASURE_NAME = "measureName";
@@ -66,6 +68,19 @@ public class FactCodec {
     return createRowKey(dimensionValues, measureName, ts, false, false);
   }
 
+  /**
+   * Builds row key for write operations from the row key of another measure with the same dimension values and
+   * timestamp, which saves encoding the dimension values again.
+   * @param rowKey row key created by {@link #createRowKey(List, String, long)}
+   * @param measureName measure name
+   * @return row key
+   */
+  public byte[] createRowKey(byte[] rowKey, String measureName) {
+    byte[] newRowKey = Arrays.copyOf(rowKey, rowKey.length);
+    writeEncoded(TYPE_MEASURE_NAME, measureName, newRowKey, newRowKey.length - entityTable.getIdSize());
+    return newRowKey;
+  }
+
   /**
    * Builds start row key for scan operation.
    * @param dimensionValues dimension values
@@ -147,6 +162,82 @@ public class FactCodec {
     return rowKey;
   }
 
+  /**
+   * Builds the row key of the dimension values index for the given fact row key.
+   * @param rowKey row key of the fact, as created by {@link #createRowKey(List, String, long)}
+   * @param bucketTs start of the index time bucket
+   * @return index row key
+   */
+  public byte[] createIndexRowKey(byte[] rowKey, int bucketTs) {
+    // Index row key format:
+    // <index prefix><encoded agg group><bucket time>
+    // Each index row has one column per dimension values and measure name combination seen in the time bucket,
+    // with the column name being the part of the fact row key after the time base.
+    byte[] indexRowKey = new byte[INDEX_PREFIX.length + entityTable.getIdSize() + Bytes.SIZEOF_INT];
+    System.arraycopy(INDEX_PREFIX, 0, indexRowKey, 0, INDEX_PREFIX.length);
+    System.arraycopy(rowKey, VERSION.length, indexRowKey, INDEX_PREFIX.length, entityTable.getIdSize());
+    Bytes.putInt(indexRowKey, INDEX_PREFIX.length + entityTable.getIdSize(), bucketTs);
+    return indexRowKey;
+  }
+
+  /**
+   * Builds the row key of the dimension values index for the given aggregation group and time bucket.
+   * @param dimensionValues dimension values of the aggregation group, values are ignored
+   * @param bucketTs start of the index time bucket
+   * @return index row key
+   */
+  public byte[] createIndexRowKey(List<DimensionValue> dimensionValues, int bucketTs) {
+    byte[] indexRowKey = new byte[INDEX_PREFIX.length + entityTable.getIdSize() + Bytes.SIZEOF_INT];
+    System.arraycopy(INDEX_PREFIX, 0, indexRowKey, 0, INDEX_PREFIX.length);
+    int offset = writeEncodedAggGroup(dimensionValues, indexRowKey, INDEX_PREFIX.length);
+    Bytes.putInt(indexRowKey, offset, bucketTs);
+    return indexRowKey;
+  }
+
+  /**
+   * Builds the column of the dimension values index for the given fact row key.
+   * Also applicable to the start row keys and fuzzy row masks created for scans, to match index columns with.
+   * @param rowKey row key of the fact
+   * @return index column, which are the encoded dimension values and measure name of the row key
+   */
+  public byte[] createIndexColumn(byte[] rowKey) {
+    return Arrays.copyOfRange(rowKey, VERSION.length + entityTable.getIdSize() + Bytes.SIZEOF_INT, rowKey.length);
+  }
+
+  /**
+   * Restores a fact row key from the given index row key and column. The time base of the returned row key is
+   * the start of the index time bucket, which makes it usable with {@link #getDimensionValues(byte[])} and
+   * {@link #getMeasureName(byte[])}.
+   */
+  public byte[] getIndexedRowKey(byte[] indexRowKey, byte[] indexColumn) {
+    byte[] rowKey = new byte[indexRowKey.length + indexColumn.length];
+    int offset = writeVersion(rowKey);
+    System.arraycopy(indexRowKey, INDEX_PREFIX.length, rowKey, offset, indexRowKey.length - INDEX_PREFIX.length);
+    System.arraycopy(indexColumn, 0, rowKey, indexRowKey.length, indexColumn.length);
+    return rowKey;
+  }
+
+  /**
+   * @return the start row key for scanning the fact rows, which excludes the rows of the dimension values index
+   */
+  static byte[] getFactStartRowKey() {
+    return VERSION;
+  }
+
+  /**
+   * @return the stop row key for scanning the fact rows, which excludes the rows of the dimension values index
+   */
+  static byte[] getFactStopRowKey() {
+    return Bytes.stopKeyForPrefix(VERSION);
+  }
+
+  /**
+   * @return the row key for the start time of the dimension values index, which sorts before all the index rows
+   */
+  static byte[] getIndexStartRowKey() {
+    return INDEX_PREFIX;
+  }
+
   private static int writeVersion(byte[] rowKey) {
     System.arraycopy(VERSION, 0, rowKey, 0, VERSION.length);
     return VERSION.length;
@@ -16,24 +16,43 @@
 
 package io.cdap.cdap.data2.dataset2.lib.timeseries;
 
+import com.google.common.collect.AbstractIterator;
 import io.cdap.cdap.api.dataset.lib.cube.DimensionValue;
 import io.cdap.cdap.api.dataset.lib.cube.TimeValue;
 
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
 /**
- * An single result item returned by {@link FactScanner}.
+ * An single result item returned by {@link FactScanner}. Data points are kept in primitive arrays, which can be
+ * accessed by index without creating a {@link TimeValue} per data point.
  */
 public final class FactScanResult implements Iterable<TimeValue> {
   private final String measureName;
   private final List<DimensionValue> dimensionValues;
-  private final Iterable<TimeValue> timeValues;
+  private final long[] timestamps;
+  private final long[] values;
+  private final int size;
 
   public FactScanResult(String measureName, List<DimensionValue> dimensionValues, Iterable<TimeValue> timeValues) {
+    Builder builder = new Builder(16);
+    for (TimeValue timeValue : timeValues) {
+      builder.add(timeValue.getTimestamp(), timeValue.getValue());
+    }
     this.measureName = measureName;
     this.dimensionValues = dimensionValues;
-    this.timeValues = timeValues;
+    this.timestamps = builder.timestamps;
+    this.values = builder.values;
+    this.size = builder.size;
+  }
+
+  private FactScanResult(String measureName, List<DimensionValue> dimensionValues, Builder builder) {
+    this.measureName = measureName;
+    this.dimensionValues = dimensionValues;
+    this.timestamps = builder.timestamps;
+    this.values = builder.values;
+    this.size = builder.size;
   }
 
   public String getMeasureName() {
@@ -44,8 +63,68 @@ public final class FactScanResult implements Iterable<TimeValue> {
     return dimensionValues;
   }
 
+  /**
+   * Returns the number of data points in this result.
+   */
+  public int size() {
+    return size;
+  }
+
+  public long getTimestamp(int idx) {
+    return timestamps[idx];
+  }
+
+  public long getValue(int idx) {
+    return values[idx];
+  }
+
   @Override
   public Iterator<TimeValue> iterator() {
-    return timeValues.iterator();
+    return new AbstractIterator<TimeValue>() {
+      private int idx;
+
+      @Override
+      protected TimeValue computeNext() {
+        if (idx >= size) {
+          return endOfData();
+        }
+        TimeValue timeValue = new TimeValue(timestamps[idx], values[idx]);
+        idx++;
+        return timeValue;
+      }
+    };
+  }
+
+  /**
+   * Builder for the data points of a {@link FactScanResult}.
+   */
+  static final class Builder {
+    private long[] timestamps;
+    private long[] values;
+    private int size;
+
+    Builder(int expectedSize) {
+      this.timestamps = new long[Math.max(1, expectedSize)];
+      this.values = new long[timestamps.length];
+    }
+
+    Builder add(long timestamp, long value) {
+      if (size == timestamps.length) {
+        timestamps = Arrays.copyOf(timestamps, size * 2);
+        values = Arrays.copyOf(values, size * 2);
+      }
+      timestamps[size] = timestamp;
+      values[size] = value;
+      size++;
+      return this;
+    }
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    FactScanResult build(String measureName, List<DimensionValue> dimensionValues) {
+      return new FactScanResult(measureName, dimensionValues, this);
+    }
   }
 }
@@ -18,10 +18,8 @@ package io.cdap.cdap.data2.dataset2.lib.timeseries;
 
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Lists;
 import io.cdap.cdap.api.common.Bytes;
 import io.cdap.cdap.api.dataset.lib.cube.DimensionValue;
-import io.cdap.cdap.api.dataset.lib.cube.TimeValue;
 import io.cdap.cdap.api.dataset.table.Row;
 import io.cdap.cdap.api.dataset.table.Scanner;
 
@@ -107,22 +105,29 @@ public final class FactScanner implements Iterator<FactScanResult> {
           List<DimensionValue> dimensionValues = codec.getDimensionValues(rowKey);
 
           boolean exhausted = false;
-          List<TimeValue> timeValues = Lists.newLinkedList();
-          // todo: entry set is ordered by ts?
-          for (Map.Entry<byte[], byte[]> columnValue : rowResult.getColumns().entrySet()) {
-            long ts = codec.getTimestamp(rowKey, columnValue.getKey());
-            if (ts < startTs) {
-              continue;
+          Map<byte[], byte[]> columns = rowResult.getColumns();
+          byte[] block = FactBlockCodec.getBlock(columns);
+          FactScanResult.Builder timeValues;
+          if (block == null) {
+            timeValues = new FactScanResult.Builder(columns.size());
+            // todo: entry set is ordered by ts?
+            for (Map.Entry<byte[], byte[]> columnValue : columns.entrySet()) {
+              // todo: move Bytes.toLong into codec?
+              if (!addTimeValue(rowKey, columnValue.getKey(), Bytes.toLong(columnValue.getValue()), timeValues)) {
+                exhausted = true;
+                break;
+              }
             }
-
-            if (ts > endTs) {
-              exhausted = true;
-              break;
+          } else {
+            // the row was compacted by FactTable, merge the block with cells that were written after the compaction
+            Map<byte[], Long> values = FactBlockCodec.merge(block, columns);
+            timeValues = new FactScanResult.Builder(values.size());
+            for (Map.Entry<byte[], Long> columnValue : values.entrySet()) {
+              if (!addTimeValue(rowKey, columnValue.getKey(), columnValue.getValue(), timeValues)) {
+                exhausted = true;
+                break;
+              }
             }
-
-            // todo: move Bytes.toLong into codec?
-            TimeValue timeValue = new TimeValue(ts, Bytes.toLong(columnValue.getValue()));
-            timeValues.add(timeValue);
           }
 
           if (timeValues.isEmpty() && exhausted) {
@@ -130,7 +135,7 @@ public final class FactScanner implements Iterator<FactScanResult> {
           }
 
           // todo: can return empty list, if all data is < startTs or > endTs
-          return new FactScanResult(measureName, dimensionValues, timeValues);
+          return timeValues.build(measureName, dimensionValues);
         }
 
         scanner.close();
@@ -138,4 +143,20 @@ public final class FactScanner implements Iterator<FactScanResult> {
       }
     };
   }
+
+  /**
+   * Adds the value of the given column to the time values if it is within the scan time range.
+   *
+   * @return {@code false} if the column is after the end of the scan time range, {@code true} otherwise
+   */
+  private boolean addTimeValue(byte[] rowKey, byte[] column, long value, FactScanResult.Builder timeValues) {
+    long ts = codec.getTimestamp(rowKey, column);
+    if (ts > endTs) {
+      return false;
+    }
+    if (ts >= startTs) {
+      timeValues.add(ts, value);
+    }
+    return true;
+  }
 }
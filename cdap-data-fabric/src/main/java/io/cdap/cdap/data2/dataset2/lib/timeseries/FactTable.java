@@ -38,18 +38,22 @@ import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 
@@ -65,6 +69,10 @@ public final class FactTable implements Closeable {
   // hard limits on some ops to stay on safe side
   private static final int MAX_RECORDS_TO_SCAN_DURING_SEARCH = 10 * 1000 * 1000;
   private static final int MAX_SCANS_DURING_SEARCH = 10 * 1000;
+  // the dimension values index has at most one row per aggregation group for this number of seconds
+  private static final int MIN_INDEX_BUCKET_SECONDS = 3600;
+  // column of the index start row, which holds the time from which on all facts are indexed
+  private static final byte[] INDEX_START_COLUMN = Bytes.toBytes("s");
 
   private final MetricsTable timeSeriesTable;
   private final EntityTable entityTable;
@@ -76,9 +84,17 @@ public final class FactTable implements Closeable {
   private final String putCountMetric;
   private final String incrementCountMetric;
   private final Cache<FactCacheKey, Long> factCounterCache;
+  // index entries that are known to be written, to avoid writing them for every fact
+  private final Cache<ByteBuffer, Boolean> indexCache;
+  private final int indexBucket;
+  // whether the index start time is recorded for the index being enabled or disabled
+  private volatile boolean indexStartRecorded;
+  // time from which on all facts are indexed, null if not known yet
+  private volatile Long indexStartTs;
 
   @Nullable
   private MetricsCollector metrics;
+  private long compactionLagSeconds = -1L;
 
   /**
    * Creates an instance of {@link FactTable}.
@@ -93,6 +109,25 @@ public final class FactTable implements Closeable {
    */
   public FactTable(MetricsTable timeSeriesTable,
                    EntityTable entityTable, int resolution, int rollTime) {
+    this(timeSeriesTable, entityTable, resolution, rollTime, false);
+  }
+
+  /**
+   * Creates an instance of {@link FactTable}.
+   *
+   * @param timeSeriesTable A table for storing facts information.
+   * @param entityTable The table for storing dimension encoding mappings.
+   * @param resolution Resolution in seconds
+   * @param rollTime Number of resolution for writing to a new row with a new timebase.
+   *                 Meaning the differences between timebase of two consecutive rows divided by
+   *                 resolution seconds. It essentially defines how many columns per row in the table.
+   *                 This value should be < 65535.
+   * @param indexEnabled Whether to maintain an index of the dimension values and measure names per aggregation
+   *                     group and time bucket, which is used by {@link #findSingleDimensionValue} and
+   *                     {@link #findMeasureNames} instead of scanning the facts.
+   */
+  public FactTable(MetricsTable timeSeriesTable,
+                   EntityTable entityTable, int resolution, int rollTime, boolean indexEnabled) {
     // Two bytes for column name, which is a delta timestamp
     Preconditions.checkArgument(rollTime <= MAX_ROLL_TIME, "Rolltime should be <= " + MAX_ROLL_TIME);
 
@@ -107,13 +142,31 @@ public final class FactTable implements Closeable {
     // only use the cache if the resolution is not the total resolution
     this.factCounterCache = resolution == Integer.MAX_VALUE ? null :
       CacheBuilder.newBuilder().expireAfterAccess(1L, TimeUnit.MINUTES).maximumSize(100000).build();
+
+    this.indexBucket = (int) Math.min(Integer.MAX_VALUE,
+                                      Math.max(MIN_INDEX_BUCKET_SECONDS, (long) resolution * rollTime));
+    this.indexCache = indexEnabled ?
+      CacheBuilder.newBuilder().expireAfterAccess(1L, TimeUnit.HOURS).maximumSize(100000).build() : null;
   }
 
   public void setMetricsCollector(MetricsCollector metrics) {
     this.metrics = metrics;
   }
 
+  /**
+   * Sets the minimum age in seconds of the cells being compacted by {@link #compact(long)}. Gauges older than half
+   * of it are written relative to the compacted value of the same column, which allows for clock differences
+   * between the writer and the compaction. A negative value, which is the default, means the table is not compacted.
+   */
+  public void setCompactionLag(long compactionLagSeconds) {
+    this.compactionLagSeconds = compactionLagSeconds;
+  }
+
   public void add(List<Fact> facts) {
+    if (!indexStartRecorded) {
+      recordIndexStart();
+    }
+
     // Simply collecting all rows/cols/values that need to be put to the underlying table.
     NavigableMap<byte[], NavigableMap<byte[], Long>> gaugesTable = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
     NavigableMap<byte[], NavigableMap<byte[], Long>> incrementsTable = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
@@ -123,16 +176,34 @@ public final class FactTable implements Closeable {
     NavigableMap<byte[], NavigableMap<byte[], Long>> incGaugeTable = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
     // this map is used to store the updated timestamp for the cache
     Map<FactCacheKey, Long> cacheUpdates = new HashMap<>();
+    // new entries of the dimension values index
+    NavigableMap<byte[], NavigableMap<byte[], Long>> indexTable = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+    Set<ByteBuffer> indexCacheUpdates = new HashSet<>();
+    // gauges that may be written to cells that are compacted already
+    NavigableMap<byte[], NavigableMap<byte[], Long>> compactedGauges = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+    long compactedBefore = compactionLagSeconds < 0 ? Long.MIN_VALUE :
+      TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) - compactionLagSeconds / 2;
     for (Fact fact : facts) {
+      // everything that only depends on the fact is computed once for all of its measurements
+      byte[] column = codec.createColumn(fact.getTimestamp());
+      // round to the resolution timestamp
+      long tsToResolution = fact.getTimestamp() / resolution * resolution;
+      int dimensionValuesHash = fact.getDimensionValues().hashCode();
+      byte[] factRowKey = null;
       for (Measurement measurement : fact.getMeasurements()) {
-        byte[] rowKey = codec.createRowKey(fact.getDimensionValues(), measurement.getName(), fact.getTimestamp());
-        byte[] column = codec.createColumn(fact.getTimestamp());
+        // the row keys of the measurements of a fact only differ in the encoded measure name
+        byte[] rowKey = factRowKey == null ?
+          codec.createRowKey(fact.getDimensionValues(), measurement.getName(), fact.getTimestamp()) :
+          codec.createRowKey(factRowKey, measurement.getName());
+        factRowKey = rowKey;
+        if (indexCache != null) {
+          addToIndex(indexTable, indexCacheUpdates, rowKey, fact.getTimestamp());
+        }
 
         if (MeasureType.COUNTER == measurement.getType()) {
           if (factCounterCache != null) {
-            // round to the resolution timestamp
-            long tsToResolution = fact.getTimestamp() / resolution * resolution;
-            FactCacheKey cacheKey = new FactCacheKey(fact.getDimensionValues(), measurement.getName());
+            FactCacheKey cacheKey =
+              new FactCacheKey(fact.getDimensionValues(), dimensionValuesHash, measurement.getName());
             Long existingTs = factCounterCache.getIfPresent(cacheKey);
 
             // if there is no existing ts or existing ts is greater than or equal to the current ts, this metric value
@@ -155,7 +226,7 @@ public final class FactTable implements Closeable {
             inc(incrementsTable, rowKey, column, measurement.getValue());
           }
         } else {
-          gaugesTable
+          (fact.getTimestamp() < compactedBefore ? compactedGauges : gaugesTable)
             .computeIfAbsent(rowKey, k -> Maps.newTreeMap(Bytes.BYTES_COMPARATOR))
             .put(column, measurement.getValue());
         }
@@ -166,15 +237,107 @@ public final class FactTable implements Closeable {
       gaugesTable.putAll(incGaugeTable);
       factCounterCache.putAll(cacheUpdates);
     }
+    addCompactedGauges(compactedGauges, gaugesTable);
     // todo: replace with single call, to be able to optimize rpcs in underlying table
     timeSeriesTable.put(gaugesTable);
     timeSeriesTable.increment(incrementsTable);
+    if (!indexTable.isEmpty()) {
+      timeSeriesTable.put(indexTable);
+      // only remember the index entries after they are written
+      for (ByteBuffer indexEntry : indexCacheUpdates) {
+        indexCache.put(indexEntry, Boolean.TRUE);
+      }
+    }
     if (metrics != null) {
       metrics.increment(putCountMetric, gaugesTable.size());
       metrics.increment(incrementCountMetric, incrementsTable.size());
     }
   }
 
+  /**
+   * Adds the gauge values of cells that may be compacted already to the given gauges table. Since cells are added to
+   * the block entries of the same column on scan, the difference from the block entry is written as the cell value.
+   */
+  private void addCompactedGauges(NavigableMap<byte[], NavigableMap<byte[], Long>> compactedGauges,
+                                  NavigableMap<byte[], NavigableMap<byte[], Long>> gaugesTable) {
+    for (Map.Entry<byte[], NavigableMap<byte[], Long>> row : compactedGauges.entrySet()) {
+      byte[] block = timeSeriesTable.get(row.getKey(), FactBlockCodec.BLOCK_COLUMN);
+      NavigableMap<byte[], Long> blockValues = block == null ? null : FactBlockCodec.decode(block);
+      NavigableMap<byte[], Long> gauges = gaugesTable.computeIfAbsent(row.getKey(),
+                                                                      k -> Maps.newTreeMap(Bytes.BYTES_COMPARATOR));
+      for (Map.Entry<byte[], Long> gauge : row.getValue().entrySet()) {
+        Long blockValue = blockValues == null ? null : blockValues.get(gauge.getKey());
+        gauges.put(gauge.getKey(), blockValue == null ? gauge.getValue() : gauge.getValue() - blockValue);
+      }
+    }
+  }
+
+  /**
+   * Records the time from which on all facts are indexed, unless it is recorded already. Only the facts written
+   * while the index is enabled are indexed, hence the time is removed if the index is disabled.
+   */
+  private void recordIndexStart() {
+    byte[] row = FactCodec.getIndexStartRowKey();
+    if (indexCache == null) {
+      if (timeSeriesTable.get(row, INDEX_START_COLUMN) != null) {
+        timeSeriesTable.delete(row, new byte[][] {INDEX_START_COLUMN});
+      }
+      indexStartRecorded = true;
+      return;
+    }
+
+    // all facts are indexed if there are none yet, otherwise only the ones written from now on
+    long startTs;
+    try (Scanner scanner = timeSeriesTable.scan(FactCodec.getFactStartRowKey(), FactCodec.getFactStopRowKey(), null)) {
+      startTs = scanner.next() == null ? 0L : TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    }
+    // keep the time recorded by another writer, if any
+    if (timeSeriesTable.swap(row, INDEX_START_COLUMN, null, Bytes.toBytes(startTs))) {
+      indexStartTs = startTs;
+    }
+    indexStartRecorded = true;
+  }
+
+  /**
+   * @return the start of the first index time bucket that has all its facts indexed, {@link Long#MAX_VALUE} if
+   *         the index is disabled or nothing is indexed yet
+   */
+  private long getIndexedFromTs() {
+    if (indexCache == null) {
+      return Long.MAX_VALUE;
+    }
+    Long startTs = indexStartTs;
+    if (startTs == null) {
+      byte[] value = timeSeriesTable.get(FactCodec.getIndexStartRowKey(), INDEX_START_COLUMN);
+      if (value == null) {
+        return Long.MAX_VALUE;
+      }
+      startTs = Bytes.toLong(value);
+      indexStartTs = startTs;
+    }
+    // facts written before the index was enabled may be in the same time bucket as the ones written after
+    return startTs == 0L ? 0L : (long) getIndexBucket(startTs) + indexBucket;
+  }
+
+  /**
+   * Adds the index entry for the given fact row key, unless it is known to be written already.
+   */
+  private void addToIndex(NavigableMap<byte[], NavigableMap<byte[], Long>> indexTable,
+                          Set<ByteBuffer> indexCacheUpdates, byte[] rowKey, long ts) {
+    int bucketTs = getIndexBucket(ts);
+    byte[] indexRowKey = codec.createIndexRowKey(rowKey, bucketTs);
+    byte[] indexColumn = codec.createIndexColumn(rowKey);
+    ByteBuffer indexEntry = ByteBuffer.wrap(Bytes.add(indexRowKey, indexColumn));
+    if (indexCache.getIfPresent(indexEntry) != null || !indexCacheUpdates.add(indexEntry)) {
+      return;
+    }
+    indexTable.computeIfAbsent(indexRowKey, k -> Maps.newTreeMap(Bytes.BYTES_COMPARATOR)).put(indexColumn, ts);
+  }
+
+  private int getIndexBucket(long ts) {
+    return (int) (ts / indexBucket * indexBucket);
+  }
+
   private class MeasureNameComparator implements Comparator<String> {
     private final Map<String, Long> measureNameToEntityIdMap;
 
@@ -252,6 +415,9 @@ public final class FactTable implements Closeable {
 
         boolean exhausted = false;
         for (byte[] column : row.getColumns().keySet()) {
+          if (FactBlockCodec.isBlockColumn(column)) {
+            continue;
+          }
           long ts = codec.getTimestamp(row.getRow(), column);
           if (ts < scan.getStartTs()) {
             continue;
@@ -265,14 +431,174 @@ public final class FactTable implements Closeable {
           columns.add(column);
         }
 
+        byte[] block = FactBlockCodec.getBlock(row.getColumns());
+        if (block != null) {
+          exhausted = deleteFromBlock(row.getRow(), block, scan, columns) || exhausted;
+        }
+
         // todo: do deletes efficiently, in batches, not one-by-one
-        timeSeriesTable.delete(row.getRow(), columns.toArray(new byte[columns.size()][]));
+        // an empty column list would delete the whole row in HBase, including a block that was just rewritten
+        if (!columns.isEmpty()) {
+          timeSeriesTable.delete(row.getRow(), columns.toArray(new byte[columns.size()][]));
+        }
 
         if (exhausted) {
           break;
         }
       }
     }
+    deleteFromIndex(scan);
+  }
+
+  /**
+   * Deletes the entries of the dimension values index that match the given scan, for the time buckets that are
+   * completely within the time range of the scan. An entry of a time bucket that is only partially within the time
+   * range cannot tell whether any other fact still exists for it, hence is left behind, which only makes the index
+   * lookup return more results than there is data for.
+   */
+  private void deleteFromIndex(FactScan scan) {
+    long startBucket = (scan.getStartTs() + indexBucket - 1) / indexBucket * indexBucket;
+    // the bucket containing the timestamp after the end of the scan is not completely within the scan
+    long stopBucket = (scan.getEndTs() + 1) / indexBucket * indexBucket;
+    if (startBucket >= stopBucket) {
+      return;
+    }
+
+    // match the index columns the same way as the fuzzy row filter of the scan matches the facts
+    List<DimensionValue> dimensionValues = scan.getDimensionValues();
+    Collection<String> measureNames = scan.getMeasureNames().isEmpty() ?
+      Collections.<String>singleton(null) : scan.getMeasureNames();
+    List<ImmutablePair<byte[], byte[]>> patterns = new ArrayList<>();
+    for (String measureName : measureNames) {
+      byte[] startRow = codec.createStartRowKey(dimensionValues, measureName, scan.getStartTs(), false);
+      patterns.add(new ImmutablePair<>(codec.createIndexColumn(startRow),
+                                       codec.createIndexColumn(codec.createFuzzyRowMask(dimensionValues,
+                                                                                        measureName))));
+    }
+
+    byte[] startRow = codec.createIndexRowKey(dimensionValues, (int) startBucket);
+    byte[] stopRow = codec.createIndexRowKey(dimensionValues, (int) stopBucket);
+    try (Scanner scanner = timeSeriesTable.scan(startRow, stopRow, null)) {
+      Row row;
+      while ((row = scanner.next()) != null) {
+        List<byte[]> columns = new ArrayList<>();
+        for (byte[] column : row.getColumns().keySet()) {
+          for (ImmutablePair<byte[], byte[]> pattern : patterns) {
+            if (matches(column, pattern.getFirst(), pattern.getSecond())) {
+              columns.add(column);
+              break;
+            }
+          }
+        }
+        // an empty column list would delete the whole row in HBase
+        if (!columns.isEmpty()) {
+          timeSeriesTable.delete(row.getRow(), columns.toArray(new byte[columns.size()][]));
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes the entries within the scan time range from the block of a compacted row. If no entry is left, the
+   * block column is added to the given list of columns to delete, otherwise the block is rewritten.
+   *
+   * @return {@code true} if the block has entries after the end of the scan time range
+   */
+  private boolean deleteFromBlock(byte[] rowKey, byte[] block, FactScan scan, List<byte[]> columnsToDelete) {
+    NavigableMap<byte[], Long> values = FactBlockCodec.decode(block);
+    boolean exhausted = false;
+    boolean changed = false;
+    Iterator<byte[]> iterator = values.keySet().iterator();
+    while (iterator.hasNext()) {
+      long ts = codec.getTimestamp(rowKey, iterator.next());
+      if (ts > scan.getEndTs()) {
+        exhausted = true;
+      } else if (ts >= scan.getStartTs()) {
+        iterator.remove();
+        changed = true;
+      }
+    }
+
+    if (values.isEmpty()) {
+      columnsToDelete.add(FactBlockCodec.BLOCK_COLUMN);
+    } else if (changed) {
+      NavigableMap<byte[], NavigableMap<byte[], byte[]>> update = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+      update.computeIfAbsent(rowKey, k -> new TreeMap<>(Bytes.BYTES_COMPARATOR))
+        .put(FactBlockCodec.BLOCK_COLUMN, FactBlockCodec.encode(values));
+      timeSeriesTable.putBytes(update);
+    }
+    return exhausted;
+  }
+
+  /**
+   * Compacts the cells that are older than the given timestamp into a single block column per row, as
+   * described in {@link FactBlockCodec}. Cells at or after the given timestamp are left untouched.
+   * Reading through {@link #scan(FactScan)} is not affected by the compaction.
+   * The table for the total resolution is never compacted, as it has only a single column per row.
+   * <p>
+   * Cells can still be written after they are compacted. Those cells are added to the block entries of the same
+   * column, both on scan and on the next compaction. For gauges to be overwritten correctly, the table writing the
+   * facts must have {@link #setCompactionLag(long)} called with the minimum age of the compacted cells.
+   *
+   * @param endTs only cells with timestamp smaller than this are compacted, in seconds
+   * @return number of rows compacted
+   */
+  public int compact(long endTs) {
+    if (resolution == Integer.MAX_VALUE) {
+      return 0;
+    }
+
+    int compactedRows = 0;
+    try (Scanner scanner = timeSeriesTable.scan(FactCodec.getFactStartRowKey(), FactCodec.getFactStopRowKey(), null)) {
+      Row row;
+      while ((row = scanner.next()) != null) {
+        byte[] rowKey = row.getRow();
+        byte[] block = null;
+        NavigableMap<byte[], Long> cells = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+        for (Map.Entry<byte[], byte[]> column : row.getColumns().entrySet()) {
+          if (FactBlockCodec.isBlockColumn(column.getKey())) {
+            block = column.getValue();
+          } else if (codec.getTimestamp(rowKey, column.getKey()) < endTs) {
+            cells.put(column.getKey(), Bytes.toLong(column.getValue()));
+          }
+        }
+        if (!cells.isEmpty() && compactRow(rowKey, block, cells)) {
+          compactedRows++;
+        }
+      }
+    }
+    LOG.debug("Compacted {} rows of fact table with resolution {}", compactedRows, resolution);
+    return compactedRows;
+  }
+
+  /**
+   * Adds the given cells to the block of a row, and then removes the cell values from the row. The block is only
+   * replaced if it is not changed since it was read. A cell is only deleted if it still has the compacted value,
+   * otherwise it was incremented concurrently, and the compacted value is subtracted from it instead.
+   * A failure after the block is written leaves the remaining cells counted twice, until they get deleted.
+   *
+   * @param rowKey the row key
+   * @param block the current block of the row, or {@code null} if the row is not compacted yet
+   * @param cells the values of the cells to compact
+   * @return {@code true} if the row is compacted, {@code false} if the block was changed concurrently
+   */
+  private boolean compactRow(byte[] rowKey, @Nullable byte[] block, NavigableMap<byte[], Long> cells) {
+    NavigableMap<byte[], Long> values = block == null ? new TreeMap<>(Bytes.BYTES_COMPARATOR)
+                                                      : FactBlockCodec.decode(block);
+    for (Map.Entry<byte[], Long> cell : cells.entrySet()) {
+      values.merge(cell.getKey(), cell.getValue(), Long::sum);
+    }
+    if (!timeSeriesTable.swap(rowKey, FactBlockCodec.BLOCK_COLUMN, block, FactBlockCodec.encode(values))) {
+      LOG.debug("Skip compacting row {} of fact table with resolution {}, since it is modified concurrently",
+                Bytes.toStringBinary(rowKey), resolution);
+      return false;
+    }
+    for (Map.Entry<byte[], Long> cell : cells.entrySet()) {
+      if (!timeSeriesTable.swap(rowKey, cell.getKey(), Bytes.toBytes(cell.getValue()), null)) {
+        timeSeriesTable.increment(rowKey, Collections.singletonMap(cell.getKey(), -cell.getValue()));
+      }
+    }
+    return true;
   }
 
   /**
@@ -317,6 +643,32 @@ public final class FactTable implements Closeable {
     }
 
     Set<DimensionValue> result = Sets.newHashSet();
+    long indexedFromTs = getIndexedFromTs();
+    if (endTs >= indexedFromTs) {
+      for (byte[] indexedRowKey : findInIndex(allDimensions, Math.max(startTs, indexedFromTs), endTs)) {
+        List<DimensionValue> dimensionValues = codec.getDimensionValues(indexedRowKey);
+        for (int index : dimToFillIndexes) {
+          DimensionValue dimensionValue = dimensionValues.get(index);
+          if (dimensionValue.getValue() != null) {
+            result.add(dimensionValue);
+            break;
+          }
+        }
+      }
+    }
+    // facts written before the index was enabled are not indexed, hence are found by scanning
+    if (startTs < indexedFromTs) {
+      scanSingleDimensionValue(allDimensions, dimToFillIndexes, startTs, Math.min(endTs, indexedFromTs - 1), result);
+    }
+    return result;
+  }
+
+  /**
+   * Scans the facts that match given {@link DimensionValue}s and time range for the values of the first dimension
+   * not given. Found values are added to the given result.
+   */
+  private void scanSingleDimensionValue(List<DimensionValue> allDimensions, List<Integer> dimToFillIndexes,
+                                        long startTs, long endTs, Set<DimensionValue> result) {
     int scans = 0;
     int scannedRecords = 0;
 
@@ -383,8 +735,6 @@ public final class FactTable implements Closeable {
     }
 
     LOG.trace("search for dimensions completed, scans performed: {}, scanned records: {}", scans, scannedRecords);
-
-    return result;
   }
 
   /**
@@ -404,13 +754,32 @@ public final class FactTable implements Closeable {
       allDimensions.add(new DimensionValue(dimensionName, dimensionSlice.get(dimensionName)));
     }
 
+    Set<String> measureNames = Sets.newHashSet();
+    long indexedFromTs = getIndexedFromTs();
+    if (endTs >= indexedFromTs) {
+      for (byte[] indexedRowKey : findInIndex(allDimensions, Math.max(startTs, indexedFromTs), endTs)) {
+        measureNames.add(codec.getMeasureName(indexedRowKey));
+      }
+    }
+    // facts written before the index was enabled are not indexed, hence are found by scanning
+    if (startTs < indexedFromTs) {
+      scanMeasureNames(allDimensions, startTs, Math.min(endTs, indexedFromTs - 1), measureNames);
+    }
+    return measureNames;
+  }
+
+  /**
+   * Scans the facts that match given {@link DimensionValue}s and time range for their measure names. Found measure
+   * names are added to the given result.
+   */
+  private void scanMeasureNames(List<DimensionValue> allDimensions, long startTs, long endTs,
+                                Set<String> measureNames) {
     byte[] startRow = codec.createStartRowKey(allDimensions, null, startTs, false);
     byte[] endRow = codec.createEndRowKey(allDimensions, null, endTs, false);
     endRow = Bytes.stopKeyForPrefix(endRow);
     FuzzyRowFilter fuzzyRowFilter =
       createFuzzyRowFilter(new FactScan(startTs, endTs, Collections.emptyList(), allDimensions), startRow);
 
-    Set<String> measureNames = Sets.newHashSet();
     int scannedRecords = 0;
     // todo: make configurable
 
@@ -435,8 +804,62 @@ public final class FactTable implements Closeable {
     }
 
     LOG.trace("search for measures completed, scanned records: {}", scannedRecords);
+  }
 
-    return measureNames;
+  /**
+   * Looks up the dimension values index for the facts that match given {@link DimensionValue}s in the time buckets
+   * overlapping with the given time range. The time range is only matched at the granularity of the time buckets.
+   *
+   * @param allDimensions all dimensions of the aggregation group, {@code null} values match any value
+   * @param startTs start timestamp, in sec
+   * @param endTs end timestamp, in sec
+   * @return distinct row keys to be decoded by {@link FactCodec#getDimensionValues(byte[])} and
+   *         {@link FactCodec#getMeasureName(byte[])}
+   */
+  private Collection<byte[]> findInIndex(List<DimensionValue> allDimensions, long startTs, long endTs) {
+    // the index columns have the same format as the fact row keys after the time base, match them the same way as
+    // the fuzzy row filter does when scanning the facts
+    byte[] pattern = codec.createIndexColumn(codec.createStartRowKey(allDimensions, null, startTs, false));
+    byte[] mask = codec.createIndexColumn(codec.createFuzzyRowMask(allDimensions, null));
+
+    byte[] startRow = codec.createIndexRowKey(allDimensions, getIndexBucket(startTs));
+    byte[] stopRow = Bytes.stopKeyForPrefix(codec.createIndexRowKey(allDimensions, getIndexBucket(endTs)));
+    Set<byte[]> columns = new TreeSet<>(Bytes.BYTES_COMPARATOR);
+    int scannedRecords = 0;
+    try (Scanner scanner = timeSeriesTable.scan(startRow, stopRow, null)) {
+      Row row;
+      while ((row = scanner.next()) != null) {
+        for (byte[] column : row.getColumns().keySet()) {
+          if (matches(column, pattern, mask)) {
+            columns.add(column);
+          }
+        }
+        scannedRecords += row.getColumns().size();
+        if (scannedRecords > MAX_RECORDS_TO_SCAN_DURING_SEARCH) {
+          break;
+        }
+      }
+    }
+    LOG.trace("index lookup completed, scanned index entries: {}, matched: {}", scannedRecords, columns.size());
+
+    List<byte[]> rowKeys = new ArrayList<>(columns.size());
+    for (byte[] column : columns) {
+      rowKeys.add(codec.getIndexedRowKey(startRow, column));
+    }
+    return rowKeys;
+  }
+
+  private static boolean matches(byte[] column, byte[] pattern, byte[] mask) {
+    if (column.length != pattern.length) {
+      return false;
+    }
+    for (int i = 0; i < column.length; i++) {
+      // zero in mask means the byte is fixed
+      if (mask[i] == 0 && column[i] != pattern[i]) {
+        return false;
+      }
+    }
+    return true;
   }
 
   @Override
@@ -483,22 +906,20 @@ public final class FactTable implements Closeable {
                           byte[] rowKey, byte[] column, long value) {
     NavigableMap<byte[], Long> values = incrementsTable.computeIfAbsent(rowKey,
                                                                         k -> new TreeMap<>(Bytes.BYTES_COMPARATOR));
-    Long oldValue = values.get(column);
-    long newValue = value;
-    if (oldValue != null) {
-      newValue += oldValue;
-    }
-
-    values.put(column, newValue);
+    // coalesce increments of the same cell with a single lookup
+    values.merge(column, value, Long::sum);
   }
 
   class FactCacheKey {
     private final List<DimensionValue> dimensionValues;
     private final String metricName;
+    private final int hashCode;
 
-    FactCacheKey(List<DimensionValue> dimensionValues, String metricName) {
+    FactCacheKey(List<DimensionValue> dimensionValues, int dimensionValuesHash, String metricName) {
       this.dimensionValues = dimensionValues;
       this.metricName = metricName;
+      // the hash code of the dimension values is computed once per fact and shared by all of its measurements
+      this.hashCode = 31 * dimensionValuesHash + metricName.hashCode();
     }
 
     @Override
@@ -516,7 +937,7 @@ public final class FactTable implements Closeable {
 
     @Override
     public int hashCode() {
-      return Objects.hash(dimensionValues, metricName);
+      return hashCode;
     }
   }
 }
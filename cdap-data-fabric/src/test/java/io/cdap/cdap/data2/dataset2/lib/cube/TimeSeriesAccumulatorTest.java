@@ -0,0 +1,92 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.cdap.data2.dataset2.lib.cube;
+
+import com.google.common.collect.ImmutableList;
+import io.cdap.cdap.api.dataset.lib.cube.AggregationFunction;
+import io.cdap.cdap.api.dataset.lib.cube.TimeValue;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link TimeSeriesAccumulator}.
+ */
+public class TimeSeriesAccumulatorTest {
+
+  @Test
+  public void testAggregation() {
+    Assert.assertEquals(ImmutableList.of(new TimeValue(10, 3), new TimeValue(20, 9), new TimeValue(30, 4)),
+                        accumulate(AggregationFunction.SUM).toTimeValues());
+    Assert.assertEquals(ImmutableList.of(new TimeValue(10, 2), new TimeValue(20, 5), new TimeValue(30, 4)),
+                        accumulate(AggregationFunction.MAX).toTimeValues());
+    Assert.assertEquals(ImmutableList.of(new TimeValue(10, 1), new TimeValue(20, 4), new TimeValue(30, 4)),
+                        accumulate(AggregationFunction.MIN).toTimeValues());
+    Assert.assertEquals(ImmutableList.of(new TimeValue(10, 2), new TimeValue(20, 5), new TimeValue(30, 4)),
+                        accumulate(AggregationFunction.LATEST).toTimeValues());
+  }
+
+  @Test
+  public void testOutOfOrder() {
+    TimeSeriesAccumulator accumulator = new TimeSeriesAccumulator(AggregationFunction.SUM);
+    // add more points than the initial capacity, in reverse order
+    int count = 100;
+    for (int i = count - 1; i >= 0; i--) {
+      accumulator.add(i * 60, i);
+      accumulator.add(i * 60, 1);
+    }
+    Assert.assertEquals(count, accumulator.size());
+    for (int i = 0; i < count; i++) {
+      Assert.assertEquals(i * 60, accumulator.getTimestamp(i));
+      Assert.assertEquals(i + 1, accumulator.getValue(i));
+    }
+  }
+
+  @Test
+  public void testInterleavedRuns() {
+    TimeSeriesAccumulator accumulator = new TimeSeriesAccumulator(AggregationFunction.LATEST);
+    // sorted runs of different rows, as produced by scanning the facts of multiple rows into one series
+    int count = 1000;
+    for (int run = 0; run < 3; run++) {
+      for (int i = 0; i < count; i++) {
+        accumulator.add(i, run * count + i);
+      }
+    }
+    Assert.assertEquals(count, accumulator.size());
+    for (int i = 0; i < count; i++) {
+      Assert.assertEquals(i, accumulator.getTimestamp(i));
+      // the data point added last wins
+      Assert.assertEquals(2 * count + i, accumulator.getValue(i));
+    }
+
+    // adding after reading keeps the data points combined
+    accumulator.add(0, -1);
+    accumulator.add(count, count);
+    Assert.assertEquals(count + 1, accumulator.size());
+    Assert.assertEquals(-1, accumulator.getValue(0));
+    Assert.assertEquals(count, accumulator.getValue(count));
+  }
+
+  private TimeSeriesAccumulator accumulate(AggregationFunction function) {
+    TimeSeriesAccumulator accumulator = new TimeSeriesAccumulator(function);
+    accumulator.add(10, 1);
+    accumulator.add(20, 4);
+    accumulator.add(30, 4);
+    accumulator.add(20, 5);
+    accumulator.add(10, 2);
+    return accumulator;
+  }
+}
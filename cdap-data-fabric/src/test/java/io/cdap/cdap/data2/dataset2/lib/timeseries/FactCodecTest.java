@@ -54,6 +54,13 @@ public class FactCodecTest {
     Assert.assertEquals(dimensionValues, codec.getDimensionValues(rowKey));
     Assert.assertEquals("myMetric", codec.getMeasureName(rowKey));
 
+    // testing encoding from the row key of another measure
+    byte[] otherRowKey = codec.createRowKey(rowKey, "myOtherMetric");
+    Assert.assertArrayEquals(codec.createRowKey(dimensionValues, "myOtherMetric", ts), otherRowKey);
+    Assert.assertEquals(dimensionValues, codec.getDimensionValues(otherRowKey));
+    Assert.assertEquals("myOtherMetric", codec.getMeasureName(otherRowKey));
+    Assert.assertEquals("myMetric", codec.getMeasureName(rowKey));
+
     // testing encoding without one dimension
     dimensionValues = ImmutableList.of(new DimensionValue("myTag", "myValue"));
     rowKey = codec.createRowKey(dimensionValues, "mySingleTagMetric", ts);
@@ -37,7 +37,9 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -218,7 +220,140 @@ public class FactTableTest {
     FactTable table = new FactTable(new InMemoryMetricsTable("SearchDataTable"),
                                     new EntityTable(new InMemoryMetricsTable("SearchEntityTable")),
                                     resolution, rollTimebaseInterval);
+    testSearch(table, resolution);
+  }
+
+  @Test
+  public void testSearchWithIndex() throws Exception {
+    InMemoryTableService.create("IndexedSearchEntityTable");
+    InMemoryTableService.create("IndexedSearchDataTable");
+    int resolution = Integer.MAX_VALUE;
+    int rollTimebaseInterval = 2;
+
+    InMemoryMetricsTable dataTable = new InMemoryMetricsTable("IndexedSearchDataTable");
+    FactTable table = new FactTable(dataTable, new EntityTable(new InMemoryMetricsTable("IndexedSearchEntityTable")),
+                                    resolution, rollTimebaseInterval, true);
+    testSearch(table, resolution);
+
+    // remove the facts, but not the index, the search should still find everything through the index
+    List<byte[]> factRows = new ArrayList<>();
+    int indexRows = 0;
+    try (Scanner scanner = dataTable.scan(null, null, null)) {
+      Row row;
+      while ((row = scanner.next()) != null) {
+        if (row.getRow()[0] == 0) {
+          factRows.add(row.getRow());
+        } else {
+          indexRows++;
+        }
+      }
+    }
+    Assert.assertFalse(factRows.isEmpty());
+    // the index row of the aggregation group and the row of the index start time
+    Assert.assertEquals(2, indexRows);
+    for (byte[] factRow : factRows) {
+      dataTable.delete(factRow, new byte[][] {Bytes.toBytes((short) 0), Bytes.toBytes((short) 1)});
+    }
+    testTagSearch(table, ImmutableList.of("dim1", "dim2", "dim3", "dim4"), ImmutableMap.of("dim2", "value2"),
+                  ImmutableSet.of(new DimensionValue("dim1", "value1"), new DimensionValue("dim1", "value2")));
+
+    // deleting the whole time range of the aggregation group removes its index entries
+    List<DimensionValue> dimensionValues = new ArrayList<>();
+    for (String dimensionName : ImmutableList.of("dim1", "dim2", "dim3", "dim4")) {
+      dimensionValues.add(new DimensionValue(dimensionName, null));
+    }
+    table.delete(new FactScan(0, Integer.MAX_VALUE - 1, Collections.emptyList(), dimensionValues));
+    testTagSearch(table, ImmutableList.of("dim1", "dim2", "dim3", "dim4"), ImmutableMap.of("dim2", "value2"),
+                  ImmutableSet.of());
+  }
+
+  @Test
+  public void testSearchWithIndexOfExistingFacts() throws Exception {
+    InMemoryTableService.create("ExistingIndexEntityTable");
+    InMemoryTableService.create("ExistingIndexDataTable");
+    int resolution = 1;
+    int rollTimebaseInterval = 60;
+    List<String> aggregation = ImmutableList.of("dim1", "dim2");
+    long ts = System.currentTimeMillis() / 1000;
+    // in a later index time bucket than the one the index is enabled in
+    long indexedTs = ts + 7200;
+
+    InMemoryMetricsTable dataTable = new InMemoryMetricsTable("ExistingIndexDataTable");
+    EntityTable entityTable = new EntityTable(new InMemoryMetricsTable("ExistingIndexEntityTable"));
+    FactTable table = new FactTable(dataTable, entityTable, resolution, rollTimebaseInterval);
+    writeInc(table, "metric1", ts, 1, "dim1", "value1", "dim2", "value2");
+
+    // the facts written before the index is enabled are found along with the indexed ones
+    table = new FactTable(dataTable, entityTable, resolution, rollTimebaseInterval, true);
+    writeInc(table, "metric2", indexedTs, 1, "dim1", "value3", "dim2", "value4");
+    Assert.assertEquals(ImmutableSet.of(new DimensionValue("dim1", "value1"), new DimensionValue("dim1", "value3")),
+                        table.findSingleDimensionValue(aggregation, ImmutableMap.of(), ts, indexedTs));
+    Assert.assertEquals(ImmutableSet.of("metric1", "metric2"),
+                        table.findMeasureNames(aggregation, ImmutableMap.of(), ts, indexedTs));
+
+    // remove the facts, but not the index, only the facts written after the index is enabled are found through it
+    List<Row> factRows = new ArrayList<>();
+    try (Scanner scanner = dataTable.scan(null, null, null)) {
+      Row row;
+      while ((row = scanner.next()) != null) {
+        if (row.getRow()[0] == 0) {
+          factRows.add(row);
+        }
+      }
+    }
+    Assert.assertEquals(2, factRows.size());
+    for (Row factRow : factRows) {
+      Set<byte[]> columns = factRow.getColumns().keySet();
+      dataTable.delete(factRow.getRow(), columns.toArray(new byte[columns.size()][]));
+    }
+    Assert.assertEquals(ImmutableSet.of(new DimensionValue("dim1", "value3")),
+                        table.findSingleDimensionValue(aggregation, ImmutableMap.of(), ts, indexedTs));
+    Assert.assertEquals(ImmutableSet.of("metric2"),
+                        table.findMeasureNames(aggregation, ImmutableMap.of(), ts, indexedTs));
+  }
 
+  @Test
+  public void testDeleteFromIndex() throws Exception {
+    InMemoryTableService.create("DeleteIndexEntityTable");
+    InMemoryTableService.create("DeleteIndexDataTable");
+    int resolution = 1;
+    int rollTimebaseInterval = 60;
+    List<String> aggregation = ImmutableList.of("dim1", "dim2");
+    // aligned to the start of the index time bucket
+    long ts = System.currentTimeMillis() / 1000 / 3600 * 3600;
+
+    FactTable table = new FactTable(new InMemoryMetricsTable("DeleteIndexDataTable"),
+                                    new EntityTable(new InMemoryMetricsTable("DeleteIndexEntityTable")),
+                                    resolution, rollTimebaseInterval, true);
+    writeInc(table, "metric1", ts + 10, 1, "dim1", "value1", "dim2", "value2");
+    writeInc(table, "metric2", ts + 10, 1, "dim1", "value1", "dim2", "value2");
+    writeInc(table, "metric1", ts + 20, 1, "dim1", "value3", "dim2", "value4");
+    Assert.assertEquals(ImmutableSet.of(new DimensionValue("dim1", "value1"), new DimensionValue("dim1", "value3")),
+                        table.findSingleDimensionValue(aggregation, ImmutableMap.of(), ts, ts + 3599));
+
+    // deleting a part of the index time bucket keeps the index entries
+    table.delete(new FactScan(ts, ts + 15, Collections.emptyList(), dimValues("dim1", "value1", "dim2", null)));
+    Assert.assertEquals(ImmutableSet.of(new DimensionValue("dim1", "value1"), new DimensionValue("dim1", "value3")),
+                        table.findSingleDimensionValue(aggregation, ImmutableMap.of(), ts, ts + 3599));
+
+    // deleting a measure for the whole index time bucket removes its index entries
+    writeInc(table, "metric2", ts + 10, 1, "dim1", "value1", "dim2", "value2");
+    table.delete(new FactScan(ts, ts + 3599, Collections.singleton("metric2"),
+                              dimValues("dim1", null, "dim2", null)));
+    Assert.assertEquals(ImmutableSet.of("metric1"),
+                        table.findMeasureNames(aggregation, ImmutableMap.of(), ts, ts + 3599));
+
+    // deleting by tag for the whole index time bucket only removes the index entries with the tag
+    writeInc(table, "metric1", ts + 10, 1, "dim1", "value1", "dim2", "value2");
+    table.delete(new FactScan(ts, ts + 3599, Collections.emptyList(), dimValues("dim1", "value1", "dim2", null)));
+    Assert.assertEquals(ImmutableSet.of(new DimensionValue("dim1", "value3")),
+                        table.findSingleDimensionValue(aggregation, ImmutableMap.of(), ts, ts + 3599));
+    Assert.assertEquals(ImmutableSet.of(new DimensionValue("dim2", "value4")),
+                        table.findSingleDimensionValue(aggregation, ImmutableMap.of("dim1", "value3"),
+                                                       ts, ts + 3599));
+  }
+
+  private void testSearch(FactTable table, int resolution) throws Exception {
     // aligned to start of resolution bucket
     // "/1000" because time is expected to be in seconds
     long ts = ((System.currentTimeMillis() / 1000) / resolution) * resolution;
@@ -513,6 +648,150 @@ public class FactTableTest {
     }
   }
 
+  @Test
+  public void testCompaction() throws Exception {
+    InMemoryTableService.create("CompactionEntityTable");
+    InMemoryTableService.create("CompactionDataTable");
+    int resolution = 60;
+    int columnsPerRow = 60;
+    // the roll time is the number of seconds covered by a row
+    int rowInterval = resolution * columnsPerRow;
+
+    InMemoryMetricsTable dataTable = new InMemoryMetricsTable("CompactionDataTable");
+    FactTable table = new FactTable(dataTable, new EntityTable(new InMemoryMetricsTable("CompactionEntityTable")),
+                                    resolution, rowInterval);
+    // cells of any age are compacted in this test
+    table.setCompactionLag(0);
+
+    // start two rows back, aligned to the row timebase
+    long ts = (System.currentTimeMillis() / 1000 / rowInterval - 2) * rowInterval;
+    int count = 2 * columnsPerRow;
+    long[] counters = new long[count];
+    long[] gauges = new long[count];
+    for (int i = 0; i < count; i++) {
+      counters[i] = i * 7;
+      gauges[i] = i % 2 == 0 ? -i : i * 1000L;
+      table.add(ImmutableList.of(
+        new Fact(ts + i * resolution, dimValues("dim1", "value1"),
+                 new Measurement("counter", MeasureType.COUNTER, counters[i])),
+        new Fact(ts + i * resolution, dimValues("dim1", "value1"),
+                 new Measurement("gauge", MeasureType.GAUGE, gauges[i]))));
+    }
+
+    FactScan scan = new FactScan(ts, ts + count * resolution, ImmutableList.of("counter", "gauge"),
+                                 dimValues("dim1", "value1"));
+    Table<String, List<DimensionValue>, List<TimeValue>> expected = HashBasedTable.create();
+    expected.put("counter", dimValues("dim1", "value1"), timeValues(ts, resolution, counters));
+    expected.put("gauge", dimValues("dim1", "value1"), timeValues(ts, resolution, gauges));
+    assertScan(table, expected, scan);
+
+    // compact the first row and half of the second row, for both measures
+    Assert.assertEquals(4, table.compact(ts + rowInterval + rowInterval / 2));
+    assertColumnCounts(dataTable, 1, 1, columnsPerRow / 2 + 1, columnsPerRow / 2 + 1);
+    assertScan(table, expected, scan);
+
+    // compacting again should merge the remaining cells into the existing blocks
+    Assert.assertEquals(2, table.compact(ts + 2 * rowInterval));
+    assertColumnCounts(dataTable, 1, 1, 1, 1);
+    assertScan(table, expected, scan);
+
+    // metrics written after the compaction are added to the compacted counters and overwrite the compacted gauges
+    table.add(ImmutableList.of(
+      new Fact(ts + 5 * resolution, dimValues("dim1", "value1"), new Measurement("counter", MeasureType.COUNTER, 100)),
+      new Fact(ts + 5 * resolution, dimValues("dim1", "value1"), new Measurement("gauge", MeasureType.GAUGE, 42))));
+    counters[5] += 100;
+    gauges[5] = 42;
+    expected.put("counter", dimValues("dim1", "value1"), timeValues(ts, resolution, counters));
+    expected.put("gauge", dimValues("dim1", "value1"), timeValues(ts, resolution, gauges));
+    assertScan(table, expected, scan);
+
+    // compacting again should merge the new cells into the blocks with the same result
+    Assert.assertEquals(2, table.compact(ts + 2 * rowInterval));
+    assertColumnCounts(dataTable, 1, 1, 1, 1);
+    assertScan(table, expected, scan);
+
+    // scan of a time range within a block
+    FactScan partialScan = new FactScan(ts + 10 * resolution, ts + 19 * resolution, ImmutableList.of("counter"),
+                                        dimValues("dim1", "value1"));
+    Table<String, List<DimensionValue>, List<TimeValue>> partialExpected = HashBasedTable.create();
+    partialExpected.put("counter", dimValues("dim1", "value1"),
+                        timeValues(ts + 10 * resolution, resolution, Arrays.copyOfRange(counters, 10, 20)));
+    assertScan(table, partialExpected, partialScan);
+
+    // delete the first row, which should remove the blocks of that row
+    table.delete(new FactScan(ts, ts + rowInterval - resolution, ImmutableList.of("counter", "gauge"),
+                              dimValues("dim1", "value1")));
+    assertColumnCounts(dataTable, 1, 1);
+    expected.put("counter", dimValues("dim1", "value1"),
+                 timeValues(ts + rowInterval, resolution, Arrays.copyOfRange(counters, columnsPerRow, count)));
+    expected.put("gauge", dimValues("dim1", "value1"),
+                 timeValues(ts + rowInterval, resolution, Arrays.copyOfRange(gauges, columnsPerRow, count)));
+    assertScan(table, expected, scan);
+
+    // delete part of a block, which should rewrite the block
+    table.delete(new FactScan(ts + rowInterval, ts + rowInterval + 9 * resolution, ImmutableList.of("counter"),
+                              dimValues("dim1", "value1")));
+    assertColumnCounts(dataTable, 1, 1);
+    expected.put("counter", dimValues("dim1", "value1"),
+                 timeValues(ts + rowInterval + 10 * resolution, resolution,
+                            Arrays.copyOfRange(counters, columnsPerRow + 10, count)));
+    assertScan(table, expected, scan);
+
+    // delete everything
+    table.delete(scan);
+    assertScan(table, HashBasedTable.create(), scan);
+    assertColumnCounts(dataTable);
+  }
+
+  @Test
+  public void testCompactionConcurrentIncrement() throws Exception {
+    InMemoryTableService.create("ConcurrentCompactionEntityTable");
+    InMemoryTableService.create("ConcurrentCompactionDataTable");
+    int resolution = 60;
+    int rowInterval = resolution * 60;
+    long ts = (System.currentTimeMillis() / 1000 / rowInterval - 2) * rowInterval;
+
+    // increments a cell right before the compaction tries to delete it
+    InMemoryMetricsTable dataTable = new InMemoryMetricsTable("ConcurrentCompactionDataTable") {
+      @Override
+      public boolean swap(byte[] row, byte[] column, byte[] oldValue, byte[] newValue) {
+        if (newValue == null) {
+          increment(row, ImmutableMap.of(column, 5L));
+        }
+        return super.swap(row, column, oldValue, newValue);
+      }
+    };
+    FactTable table = new FactTable(dataTable,
+                                    new EntityTable(new InMemoryMetricsTable("ConcurrentCompactionEntityTable")),
+                                    resolution, rowInterval);
+    table.setCompactionLag(0);
+
+    long[] counters = new long[10];
+    for (int i = 0; i < counters.length; i++) {
+      counters[i] = i + 1;
+      writeInc(table, "counter", ts + i * resolution, (int) counters[i], "dim1", "value1");
+    }
+    Assert.assertEquals(1, table.compact(ts + counters.length * resolution));
+
+    // none of the concurrent increments are lost
+    for (int i = 0; i < counters.length; i++) {
+      counters[i] += 5;
+    }
+    FactScan scan = new FactScan(ts, ts + counters.length * resolution, ImmutableList.of("counter"),
+                                 dimValues("dim1", "value1"));
+    Table<String, List<DimensionValue>, List<TimeValue>> expected = HashBasedTable.create();
+    expected.put("counter", dimValues("dim1", "value1"), timeValues(ts, resolution, counters));
+    assertScan(table, expected, scan);
+
+    // the cells of the concurrent increments are compacted by the next compaction
+    Assert.assertEquals(1, table.compact(ts + counters.length * resolution));
+    for (int i = 0; i < counters.length; i++) {
+      counters[i] += 5;
+    }
+    expected.put("counter", dimValues("dim1", "value1"), timeValues(ts, resolution, counters));
+    assertScan(table, expected, scan);
+  }
+
   @Test
   public void testPreSplits() throws Exception {
     InMemoryTableService.create("presplitEntityTable");
@@ -663,7 +942,13 @@ public class FactTableTest {
           timeValues = Lists.newArrayList();
           resultTable.put(result.getMeasureName(), result.getDimensionValues(), timeValues);
         }
-        timeValues.addAll(Lists.newArrayList(result.iterator()));
+        List<TimeValue> resultTimeValues = Lists.newArrayList(result.iterator());
+        // indexed access should be consistent with the iterator
+        Assert.assertEquals(resultTimeValues.size(), result.size());
+        for (int i = 0; i < result.size(); i++) {
+          Assert.assertEquals(resultTimeValues.get(i), new TimeValue(result.getTimestamp(i), result.getValue(i)));
+        }
+        timeValues.addAll(resultTimeValues);
       }
     } finally {
       scanner.close();
@@ -672,6 +957,23 @@ public class FactTableTest {
     Assert.assertEquals(expected, resultTable);
   }
 
+  private void assertColumnCounts(InMemoryMetricsTable dataTable, int... expected) {
+    List<Integer> counts = new ArrayList<>();
+    try (Scanner scanner = dataTable.scan(null, null, null)) {
+      Row row;
+      while ((row = scanner.next()) != null) {
+        if (!row.isEmpty()) {
+          counts.add(row.getColumns().size());
+        }
+      }
+    }
+    List<Integer> expectedCounts = new ArrayList<>();
+    for (int count : expected) {
+      expectedCounts.add(count);
+    }
+    Assert.assertEquals(expectedCounts, counts);
+  }
+
   /**
    * This metrics collector will remember the last value of number of increments and gauges of the fact table
    */
@@ -22,6 +22,7 @@ import io.cdap.cdap.messaging.data.RawMessage;
 import org.apache.tephra.Transaction;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 
 /**
@@ -35,6 +36,7 @@ public abstract class MessageFetcher {
   private boolean includeStart = true;
   private Long startTime;
   private Transaction transaction;
+  private long waitTimeoutMillis;
 
   // by default there is virtually no limit
   private int limit = Integer.MAX_VALUE;
@@ -96,6 +98,26 @@ public abstract class MessageFetcher {
     return this;
   }
 
+  /**
+   * Sets the maximum amount of time to wait for new messages if there is no message available when fetching.
+   * The fetch will return as soon as new messages are published to the topic, or when the timeout expired.
+   * By default this is set to {@code 0}, which means the fetch will return immediately.
+   * Implementations that don't support waiting will ignore this setting.
+   * Since messages published transactionally only become visible after the transaction is committed,
+   * the fetch may wait until the timeout expired even if such messages became visible.
+   *
+   * @param timeout the maximum time to wait
+   * @param unit the unit of the timeout
+   * @return this instance
+   */
+  public MessageFetcher setWaitTimeout(long timeout, TimeUnit unit) {
+    if (timeout < 0) {
+      throw new IllegalArgumentException("Invalid message fetching wait timeout. Timeout must be >= 0");
+    }
+    this.waitTimeoutMillis = unit.toMillis(timeout);
+    return this;
+  }
+
   @Nullable
   protected byte[] getStartOffset() {
     return startOffset;
@@ -119,6 +141,10 @@ public abstract class MessageFetcher {
     return limit;
   }
 
+  protected long getWaitTimeoutMillis() {
+    return waitTimeoutMillis;
+  }
+
   /**
    * Returns a {@link CloseableIterator} that iterates over messages fetched from the messaging system.
    *
@@ -95,6 +95,17 @@ public interface MessagingService {
    */
   MessageFetcher prepareFetch(TopicId topicId) throws TopicNotFoundException, IOException;
 
+  /**
+   * Prepares to fetch messages from multiple topics of the same namespace in one request.
+   *
+   * @param namespaceId the namespace of the topics to fetch messages from
+   * @return a {@link MultiTopicMessageFetcher} for setting up parameters for fetching messages from
+   *         the messaging system
+   * @throws IOException if failed to fetch messages
+   * @throws ServiceUnavailableException if the messaging service is not available
+   */
+  MultiTopicMessageFetcher prepareMultiTopicFetch(NamespaceId namespaceId) throws IOException;
+
   /**
    * Publishes a list of messages to the messaging system.
    *
@@ -0,0 +1,149 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.cdap.messaging;
+
+import io.cdap.cdap.api.dataset.lib.CloseableIterator;
+import io.cdap.cdap.api.messaging.TopicNotFoundException;
+import io.cdap.cdap.common.utils.ImmutablePair;
+import io.cdap.cdap.messaging.data.RawMessage;
+import io.cdap.cdap.proto.id.NamespaceId;
+import io.cdap.cdap.proto.id.TopicId;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * A builder to setup parameters for fetching messages from multiple topics of the same namespace in one request.
+ * Sub-class needs to override the {@link #fetch()} method to return a {@link CloseableIterator}
+ * for fetching messages.
+ */
+public abstract class MultiTopicMessageFetcher {
+
+  private final NamespaceId namespaceId;
+  private final List<TopicFetch> topicFetches;
+  private long waitTimeoutMillis;
+
+  protected MultiTopicMessageFetcher(NamespaceId namespaceId) {
+    this.namespaceId = namespaceId;
+    this.topicFetches = new ArrayList<>();
+  }
+
+  /**
+   * Adds a topic to fetch messages from.
+   *
+   * @param topic the name of the topic in the namespace of this fetcher
+   * @param startOffset the message id to start fetching from or {@code null} to fetch from the first
+   *                    available message in the topic
+   * @param inclusive if {@code true}, it will include the message identified by the given message id as the
+   *                  first message (if still available in the system); otherwise it won't be included.
+   * @param limit maximum number of messages to be fetched from the topic
+   * @return this instance
+   */
+  public MultiTopicMessageFetcher addTopic(String topic, @Nullable byte[] startOffset, boolean inclusive, int limit) {
+    if (limit <= 0) {
+      throw new IllegalArgumentException("Invalid message fetching limit. Limit must be > 0");
+    }
+    TopicId topicId = namespaceId.topic(topic);
+    for (TopicFetch topicFetch : topicFetches) {
+      if (topicFetch.getTopicId().equals(topicId)) {
+        throw new IllegalArgumentException("Topic " + topicId + " was already added");
+      }
+    }
+    topicFetches.add(new TopicFetch(topicId, startOffset, inclusive, limit));
+    return this;
+  }
+
+  /**
+   * Sets the maximum amount of time to wait for new messages if there is no message available in any of the topics
+   * when fetching. The fetch will return as soon as new messages are published to any of the topics, or when the
+   * timeout expired. By default this is set to {@code 0}, which means the fetch will return immediately.
+   * Implementations that don't support waiting will ignore this setting.
+   *
+   * @param timeout the maximum time to wait
+   * @param unit the unit of the timeout
+   * @return this instance
+   */
+  public MultiTopicMessageFetcher setWaitTimeout(long timeout, TimeUnit unit) {
+    if (timeout < 0) {
+      throw new IllegalArgumentException("Invalid message fetching wait timeout. Timeout must be >= 0");
+    }
+    this.waitTimeoutMillis = unit.toMillis(timeout);
+    return this;
+  }
+
+  protected NamespaceId getNamespaceId() {
+    return namespaceId;
+  }
+
+  protected List<TopicFetch> getTopicFetches() {
+    return Collections.unmodifiableList(topicFetches);
+  }
+
+  protected long getWaitTimeoutMillis() {
+    return waitTimeoutMillis;
+  }
+
+  /**
+   * Returns a {@link CloseableIterator} that iterates over messages fetched from the messaging system.
+   * Messages are grouped by topic, in the same order as the topics were added. Each element is a pair
+   * of the topic and the message.
+   *
+   * @throws TopicNotFoundException if any of the topics does not exist
+   * @throws IOException if it fails to create the iterator
+   */
+  public abstract CloseableIterator<ImmutablePair<TopicId, RawMessage>> fetch()
+    throws TopicNotFoundException, IOException;
+
+  /**
+   * Parameters for fetching from one topic.
+   */
+  protected static final class TopicFetch {
+
+    private final TopicId topicId;
+    private final byte[] startOffset;
+    private final boolean includeStart;
+    private final int limit;
+
+    private TopicFetch(TopicId topicId, @Nullable byte[] startOffset, boolean includeStart, int limit) {
+      this.topicId = topicId;
+      this.startOffset = startOffset;
+      this.includeStart = includeStart;
+      this.limit = limit;
+    }
+
+    public TopicId getTopicId() {
+      return topicId;
+    }
+
+    @Nullable
+    public byte[] getStartOffset() {
+      return startOffset;
+    }
+
+    public boolean isIncludeStart() {
+      return includeStart;
+    }
+
+    public int getLimit() {
+      return limit;
+    }
+  }
+}
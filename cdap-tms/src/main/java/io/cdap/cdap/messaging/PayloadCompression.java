@@ -0,0 +1,275 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package io.cdap.cdap.messaging;
+
+import io.cdap.cdap.api.common.Bytes;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression applied to message payloads before they are stored to the message and payload tables.
+ * The compression of a topic is recorded in the {@link TopicMetadata} and cannot be changed after the
+ * topic is created, since payloads already stored are encoded with it.
+ */
+public enum PayloadCompression {
+
+  /**
+   * Payloads are stored as is.
+   */
+  NONE("none") {
+    @Override
+    public Codec newCodec() {
+      return NONE_CODEC;
+    }
+  },
+
+  /**
+   * Payloads are compressed with the deflate algorithm. Each stored payload starts with a one byte header.
+   * If the header is {@code 0}, the rest of the bytes are the original payload, which is used for payloads
+   * that are too small or don't compress. If the header is {@code 1}, it is followed by the original
+   * payload length as a 4 bytes int and then the deflated payload.
+   */
+  DEFLATE("deflate") {
+    @Override
+    public Codec newCodec() {
+      return new DeflateCodec();
+    }
+  };
+
+  private static final Codec NONE_CODEC = new Codec() {
+    @Override
+    public byte[] compress(byte[] payload) {
+      return payload;
+    }
+
+    @Override
+    public byte[] decompress(byte[] payload) {
+      return payload;
+    }
+
+    @Override
+    public void close() {
+      // no-op
+    }
+  };
+
+  private final String name;
+
+  PayloadCompression(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Returns the name of this compression as used in the topic properties.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Creates a new {@link Codec} of this compression. The codec reuses the native compression resources across
+   * payloads, hence it should be used for encoding or decoding multiple payloads, and be closed when done.
+   */
+  public abstract Codec newCodec();
+
+  /**
+   * Encodes the given payload to the form to be stored.
+   */
+  public byte[] compress(byte[] payload) {
+    try (Codec codec = newCodec()) {
+      return codec.compress(payload);
+    }
+  }
+
+  /**
+   * Decodes a stored payload that was encoded by the {@link #compress(byte[])} method back to the original payload.
+   *
+   * @throws IllegalArgumentException if the given payload is not a valid encoded payload
+   */
+  public byte[] decompress(byte[] payload) {
+    try (Codec codec = newCodec()) {
+      return codec.decompress(payload);
+    }
+  }
+
+  /**
+   * Returns the {@link PayloadCompression} of the given name.
+   *
+   * @throws IllegalArgumentException if there is no compression with the given name
+   */
+  public static PayloadCompression fromName(String name) {
+    for (PayloadCompression compression : values()) {
+      if (compression.getName().equalsIgnoreCase(name)) {
+        return compression;
+      }
+    }
+    throw new IllegalArgumentException("Unsupported payload compression '" + name + "'. Supported values are "
+                                         + Arrays.toString(values()));
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+  /**
+   * Encodes and decodes payloads with a {@link PayloadCompression}. A codec is thread safe. It can still be used
+   * after it is closed, but it no longer reuses the compression resources.
+   */
+  public interface Codec extends Closeable {
+
+    /**
+     * Encodes the given payload to the form to be stored.
+     */
+    byte[] compress(byte[] payload);
+
+    /**
+     * Decodes a stored payload that was encoded by the {@link #compress(byte[])} method back to the original
+     * payload.
+     *
+     * @throws IllegalArgumentException if the given payload is not a valid encoded payload
+     */
+    byte[] decompress(byte[] payload);
+
+    /**
+     * Releases the compression resources held by this codec.
+     */
+    @Override
+    void close();
+  }
+
+  /**
+   * The {@link Codec} for {@link #DEFLATE}. The {@link Deflater} and {@link Inflater} are created on first use and
+   * are reset after each payload, so that the native zlib memory is only allocated once per codec.
+   */
+  private static final class DeflateCodec implements Codec {
+
+    private static final byte STORED = 0;
+    private static final byte DEFLATED = 1;
+    private static final int MIN_COMPRESS_SIZE = 64;
+
+    private Deflater deflater;
+    private Inflater inflater;
+    private boolean closed;
+
+    @Override
+    public synchronized byte[] compress(byte[] payload) {
+      if (payload.length >= MIN_COMPRESS_SIZE) {
+        Deflater compressor = closed ? new Deflater(Deflater.BEST_SPEED) : getDeflater();
+        try {
+          byte[] result = new byte[1 + Bytes.SIZEOF_INT + payload.length];
+          compressor.setInput(payload);
+          compressor.finish();
+          int offset = 1 + Bytes.SIZEOF_INT;
+          // Only use the compressed form if it fits within the original size
+          while (!compressor.finished() && offset < result.length) {
+            offset += compressor.deflate(result, offset, result.length - offset);
+          }
+          if (compressor.finished()) {
+            result[0] = DEFLATED;
+            Bytes.putInt(result, 1, payload.length);
+            return Arrays.copyOf(result, offset);
+          }
+        } finally {
+          if (closed) {
+            compressor.end();
+          } else {
+            compressor.reset();
+          }
+        }
+      }
+
+      byte[] result = new byte[1 + payload.length];
+      result[0] = STORED;
+      System.arraycopy(payload, 0, result, 1, payload.length);
+      return result;
+    }
+
+    @Override
+    public synchronized byte[] decompress(byte[] payload) {
+      if (payload.length == 0) {
+        throw new IllegalArgumentException("Invalid deflate payload with no header");
+      }
+      if (payload[0] == STORED) {
+        return Arrays.copyOfRange(payload, 1, payload.length);
+      }
+      if (payload[0] != DEFLATED) {
+        throw new IllegalArgumentException("Unknown deflate payload header " + payload[0]);
+      }
+
+      byte[] result = new byte[Bytes.toInt(payload, 1)];
+      Inflater decompressor = closed ? new Inflater() : getInflater();
+      try {
+        int offset = 1 + Bytes.SIZEOF_INT;
+        decompressor.setInput(payload, offset, payload.length - offset);
+        int length = 0;
+        while (length < result.length && !decompressor.finished()) {
+          int size = decompressor.inflate(result, length, result.length - length);
+          if (size == 0 && (decompressor.needsInput() || decompressor.needsDictionary())) {
+            break;
+          }
+          length += size;
+        }
+        if (length != result.length) {
+          throw new IllegalArgumentException("Truncated deflate payload. Expected " + result.length
+                                               + " bytes, but only got " + length + " bytes");
+        }
+        return result;
+      } catch (DataFormatException e) {
+        throw new IllegalArgumentException("Failed to inflate payload", e);
+      } finally {
+        if (closed) {
+          decompressor.end();
+        } else {
+          decompressor.reset();
+        }
+      }
+    }
+
+    @Override
+    public synchronized void close() {
+      closed = true;
+      if (deflater != null) {
+        deflater.end();
+        deflater = null;
+      }
+      if (inflater != null) {
+        inflater.end();
+        inflater = null;
+      }
+    }
+
+    private Deflater getDeflater() {
+      if (deflater == null) {
+        deflater = new Deflater(Deflater.BEST_SPEED);
+      }
+      return deflater;
+    }
+
+    private Inflater getInflater() {
+      if (inflater == null) {
+        inflater = new Inflater();
+      }
+      return inflater;
+    }
+  }
+}
@@ -64,6 +64,20 @@ public final class Schemas {
     public static final class ConsumeResponse {
       public static final Schema SCHEMA = loadSchema(ConsumeResponse.class);
     }
+
+    /**
+     * Contains schema for multi-topic consume request.
+     */
+    public static final class MultiConsumeRequest {
+      public static final Schema SCHEMA = loadSchema(MultiConsumeRequest.class);
+    }
+
+    /**
+     * Contains schema for multi-topic consume response.
+     */
+    public static final class MultiConsumeResponse {
+      public static final Schema SCHEMA = loadSchema(MultiConsumeResponse.class);
+    }
   }
 
   private Schemas() {
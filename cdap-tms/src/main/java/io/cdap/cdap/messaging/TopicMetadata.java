@@ -30,6 +30,7 @@ public class TopicMetadata {
 
   public static final String GENERATION_KEY = MessagingUtils.Constants.GENERATION_KEY;
   public static final String TTL_KEY = MessagingUtils.Constants.TTL_KEY;
+  public static final String COMPRESSION_KEY = "compression";
 
   private final TopicId topicId;
   private final Map<String, String> properties;
@@ -109,6 +110,15 @@ public class TopicMetadata {
     return Integer.parseInt(properties.get(TTL_KEY));
   }
 
+  /**
+   * Returns the {@link PayloadCompression} used for storing message payloads of the topic.
+   * Topics without the compression property have their payloads stored uncompressed.
+   */
+  public PayloadCompression getCompression() {
+    String compression = properties.get(COMPRESSION_KEY);
+    return compression == null ? PayloadCompression.NONE : PayloadCompression.fromName(compression);
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -142,6 +152,7 @@ public class TopicMetadata {
   private void validateProperties() {
     validateTTL();
     validateGeneration();
+    validateCompression();
   }
 
   /**
@@ -183,6 +194,24 @@ public class TopicMetadata {
     }
   }
 
+  /**
+   * Validates the "compression" property of the given topic.
+   *
+   * @throws IllegalArgumentException if the compression is not one of the {@link PayloadCompression} names.
+   */
+  private void validateCompression() {
+    String compression = properties.get(COMPRESSION_KEY);
+    if (compression == null) {
+      return;
+    }
+    try {
+      PayloadCompression.fromName(compression);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Invalid compression property for topic " + topicId + ". "
+                                           + e.getMessage(), e);
+    }
+  }
+
   /**
    * Turns a list of {@link Object} into a {@link Map} by using even index objects as keys and the following odd index
    * objects as values. The {@link Object#toString()} method will be used to convert {@link Object} to {@link String}.
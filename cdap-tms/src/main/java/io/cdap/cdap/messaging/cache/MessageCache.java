@@ -23,12 +23,17 @@ import io.cdap.cdap.api.dataset.lib.CloseableIterator;
 import io.cdap.cdap.api.metrics.MetricsContext;
 import io.cdap.cdap.messaging.store.MessageFilter;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.ConcurrentModificationException;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.NavigableMap;
 import java.util.NavigableSet;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
@@ -61,6 +66,11 @@ import javax.annotation.Nullable;
  *     it if needed. This essentially is to amortize the cost of the blocking weight reduction operations among all
  *     fetchers (which typically has multiple of them), without blocking the single publish as much as possible.
  *
+ * An optional {@link EntryStore} can be provided to control how entries are kept in the cache, for example,
+ * to keep entry content outside of the Java heap. Entries returned by a {@link Scanner} can be views of the stored
+ * entries, hence entries removed from the cache are only released after all the scanners that could have
+ * returned them are closed.
+ *
  * @param <T> type of entry stored in the cache
  */
 public class MessageCache<T> {
@@ -81,8 +91,16 @@ public class MessageCache<T> {
   private final AtomicBoolean needReduceWeight;
   private final AtomicBoolean adding;
   private final Weigher<T> weigher;
+  private final EntryStore<T> entryStore;
+  private final boolean deferRelease;
   private final ReadWriteLock cacheLock;
 
+  // Entries removed from the cache that are pending for release, and the number of open scanners per removal epoch,
+  // all guarded by the pendingReleases lock
+  private final Deque<PendingRelease<T>> pendingReleases;
+  private final NavigableMap<Long, Integer> openScanners;
+  private long removalEpoch;
+
   /**
    * Creates a new instance of the cache.
    *
@@ -92,6 +110,21 @@ public class MessageCache<T> {
    * @param metricsContext a {@link MetricsContext} for emitting metrics about this cache.
    */
   public MessageCache(Comparator<T> comparator, Weigher<T> weigher, Limits limits, MetricsContext metricsContext) {
+    this(comparator, weigher, limits, metricsContext, null);
+  }
+
+  /**
+   * Creates a new instance of the cache.
+   *
+   * @param comparator a {@link Comparator} for ordering cache entries
+   * @param weigher a {@link Weigher} for computing the weight of each cache entry
+   * @param limits the limits for maintaining cache weight; see class description for more detail
+   * @param metricsContext a {@link MetricsContext} for emitting metrics about this cache.
+   * @param entryStore an {@link EntryStore} for transforming entries being stored in and loaded from the cache,
+   *                   or {@code null} to keep entries as is
+   */
+  public MessageCache(Comparator<T> comparator, Weigher<T> weigher, Limits limits,
+                      MetricsContext metricsContext, @Nullable EntryStore<T> entryStore) {
     this.cache = new ConcurrentSkipListSet<>(new CacheEntryComparator<>(comparator));
     this.comparator = comparator;
     this.limits = new AtomicReference<>(limits);
@@ -100,7 +133,12 @@ public class MessageCache<T> {
     this.needReduceWeight = new AtomicBoolean();
     this.adding = new AtomicBoolean();
     this.weigher = weigher;
+    this.entryStore = entryStore == null ? new HeapEntryStore<>() : entryStore;
+    // No need to track scanners if entries are kept as is, since there is nothing to release
+    this.deferRelease = entryStore != null;
     this.cacheLock = new ReentrantReadWriteLock();
+    this.pendingReleases = new ArrayDeque<>();
+    this.openScanners = new TreeMap<>();
   }
 
   /**
@@ -157,6 +195,12 @@ public class MessageCache<T> {
                                                largestCacheEntry.getEntry());
         }
 
+        // Store the entry after the weight reduction, so that resources released by removed entries can be reused
+        T storedEntry = entryStore.store(entry);
+        if (storedEntry != entry) {
+          cacheEntry = new CacheEntry<>(storedEntry, cacheEntry.getWeight());
+        }
+
         // It's ok to "leak" this to reader even if the new weight is larger than the hard limit
         // The entry will get removed eventually and the read/write operations as a whole still give valid
         // results
@@ -196,6 +240,7 @@ public class MessageCache<T> {
     // is iterating using the returned Scanner.
     cacheLock.readLock().lock();
     T firstInCache;
+    long epoch = deferRelease ? openScanner() : -1L;
     try {
       firstInCache = cache.isEmpty() ? null : cache.first().getEntry();
       for (CacheEntry<T> cacheEntry : cache.tailSet(new CacheEntry<>(startEntry, 0), includeStart)) {
@@ -205,7 +250,7 @@ public class MessageCache<T> {
 
         MessageFilter.Result result = filter.apply(cacheEntry.getEntry());
         if (result == MessageFilter.Result.ACCEPT) {
-          entries.add(cacheEntry.getEntry());
+          entries.add(entryStore.load(cacheEntry.getEntry()));
         } else if (result == MessageFilter.Result.HOLD) {
           // Hold means not to scan more, so just break
           break;
@@ -220,6 +265,9 @@ public class MessageCache<T> {
     return new AbstractScanner<T>(entries.iterator(), firstInCache) {
       @Override
       void doClose() {
+        if (deferRelease) {
+          closeScanner(epoch);
+        }
         // Use compareAndSet to check if need to reduce weight. There will only be
         // one winner to proceed with the reduce weight call.
         if (needReduceWeight.compareAndSet(true, false)) {
@@ -322,6 +370,7 @@ public class MessageCache<T> {
    */
   private void reduceWeight() {
     int entriesRemoved = 0;
+    List<T> removedEntries = new ArrayList<>();
     cacheLock.writeLock().lock();
     try {
       long newWeight = currentWeight.get();
@@ -333,15 +382,108 @@ public class MessageCache<T> {
           break;
         }
         iterator.remove();
+        removedEntries.add(cacheEntry.getEntry());
         entriesRemoved++;
         newWeight = currentWeight.addAndGet(-1 * cacheEntry.getWeight());
       }
+
+      if (!removedEntries.isEmpty()) {
+        if (deferRelease) {
+          // Increment the epoch while holding the write lock, so that scanners opened afterward,
+          // which cannot see the removed entries, don't block the release.
+          synchronized (pendingReleases) {
+            removalEpoch++;
+            for (T entry : removedEntries) {
+              pendingReleases.add(new PendingRelease<>(entry, removalEpoch));
+            }
+          }
+        } else {
+          removedEntries.forEach(entryStore::release);
+        }
+      }
     } finally {
       cacheLock.writeLock().unlock();
     }
+    if (deferRelease) {
+      releaseEntries();
+    }
     metricsContext.increment(METRICS_ENTRIES_REMOVED, entriesRemoved);
   }
 
+  /**
+   * Registers an open scanner. Must be called while holding the cache read lock.
+   *
+   * @return the removal epoch that the scanner is opened in
+   */
+  private long openScanner() {
+    synchronized (pendingReleases) {
+      openScanners.merge(removalEpoch, 1, Integer::sum);
+      return removalEpoch;
+    }
+  }
+
+  /**
+   * Unregisters a scanner opened by {@link #openScanner()} and releases entries that can no longer be returned by
+   * any open scanner.
+   */
+  private void closeScanner(long epoch) {
+    synchronized (pendingReleases) {
+      openScanners.computeIfPresent(epoch, (k, count) -> count == 1 ? null : count - 1);
+    }
+    releaseEntries();
+  }
+
+  /**
+   * Releases entries that are removed before the oldest open scanner was opened.
+   */
+  private void releaseEntries() {
+    synchronized (pendingReleases) {
+      long minEpoch = openScanners.isEmpty() ? Long.MAX_VALUE : openScanners.firstKey();
+      // Entries removed in an epoch not later than the one that a scanner is opened in are not visible to it
+      while (!pendingReleases.isEmpty() && pendingReleases.peek().epoch <= minEpoch) {
+        entryStore.release(pendingReleases.poll().entry);
+      }
+    }
+  }
+
+  /**
+   * An entry that is removed from the cache in the given removal epoch, pending to be released.
+   *
+   * @param <T> type of the entry
+   */
+  private static final class PendingRelease<T> {
+    private final T entry;
+    private final long epoch;
+
+    private PendingRelease(T entry, long epoch) {
+      this.entry = entry;
+      this.epoch = epoch;
+    }
+  }
+
+  /**
+   * The {@link EntryStore} that keeps entries as is.
+   *
+   * @param <T> type of the entry
+   */
+  private static final class HeapEntryStore<T> implements EntryStore<T> {
+
+    @Override
+    public T store(T entry) {
+      return entry;
+    }
+
+    @Override
+    public T load(T entry) {
+      return entry;
+    }
+
+    @Override
+    public void release(T entry) {
+      // no-op
+    }
+  }
+
   /**
    * Carries the limits for the {@link MessageCache}.
    */
@@ -383,6 +525,42 @@ public class MessageCache<T> {
     int weight(T entry);
   }
 
+  /**
+   * This interface is for controlling how entries are kept in the cache. The {@link #store(Object)} method is only
+   * called by the thread adding entries and the {@link #load(Object)} method is called while holding the cache read
+   * lock. The {@link #release(Object)} method can be called by any thread, once no open {@link Scanner} can return
+   * the entry.
+   *
+   * @param <T> type of the entry
+   */
+  public interface EntryStore<T> {
+
+    /**
+     * Transforms an entry before it is being added to the cache.
+     *
+     * @param entry the entry to be added
+     * @return the entry to be kept in the cache. It can be the same as the given entry.
+     */
+    T store(T entry);
+
+    /**
+     * Transforms an entry in the cache to the one being returned by {@link #scan}. The returned entry only needs
+     * to stay valid until the {@link Scanner} returning it is closed, hence it can be a view of the stored entry.
+     *
+     * @param entry the entry as returned by the {@link #store(Object)} method
+     * @return the entry to return to the caller
+     */
+    T load(T entry);
+
+    /**
+     * Releases an entry that is removed from the cache. Entries are not necessarily released in the same order as
+     * they were stored.
+     *
+     * @param entry the entry as returned by the {@link #store(Object)} method
+     */
+    void release(T entry);
+  }
+
   /**
    * This interface is for accessing cached entries.
    *
@@ -0,0 +1,145 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.cdap.messaging.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A fixed size ring buffer in direct memory for storing byte arrays outside of the Java heap.
+ * Space is allocated at the tail and can be released in any order. Space is reclaimed from the head once the
+ * oldest allocated space is released, hence space released out of order is only reused after all the space
+ * allocated before it is released as well.
+ *
+ * Allocation can only be done by a single thread. Reading and releasing can be done by other threads, as long as
+ * no read is performed on a released space.
+ */
+public final class OffHeapRingBuffer {
+
+  private final ByteBuffer buffer;
+  private final ByteBuffer writeBuffer;
+  private final int capacity;
+  // Positions and lengths of the spaces that are allocated and not yet released, in allocation order
+  private final Map<Long, Integer> allocated;
+
+  // Positions are absolute offsets that only increase. The buffer offset is the position modulo capacity.
+  private long head;
+  private long tail;
+
+  /**
+   * Creates a new instance with the given capacity in bytes.
+   */
+  public OffHeapRingBuffer(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be > 0");
+    }
+    this.buffer = ByteBuffer.allocateDirect(capacity);
+    this.writeBuffer = buffer.duplicate();
+    this.capacity = capacity;
+    this.allocated = new LinkedHashMap<>();
+  }
+
+  /**
+   * Copies the given data into the buffer. Data is always stored in one contiguous region, hence the
+   * remaining space at the end of the buffer is skipped if it is not large enough.
+   *
+   * @param data the data to store
+   * @return the position of the data in the buffer, or {@code -1} if there is not enough space
+   */
+  public long allocate(byte[] data) {
+    int length = data.length;
+    if (length > capacity) {
+      return -1L;
+    }
+
+    long position;
+    int offset;
+    synchronized (this) {
+      position = tail;
+      offset = (int) (position % capacity);
+      if (offset + length > capacity) {
+        // Skip to the beginning of the buffer
+        position += capacity - offset;
+        offset = 0;
+      }
+      if (allocated.isEmpty()) {
+        // If everything was released, the whole buffer is available
+        head = position;
+      } else if (position + length - head > capacity) {
+        return -1L;
+      }
+    }
+
+    // Only the allocating thread writes, and the region is not visible to readers until the position is returned
+    writeBuffer.clear();
+    writeBuffer.position(offset);
+    writeBuffer.put(data);
+
+    synchronized (this) {
+      allocated.put(position, length);
+      tail = position + length;
+    }
+    return position;
+  }
+
+  /**
+   * Copies the data at the given position to a new byte array.
+   *
+   * @param position the position as returned by {@link #allocate(byte[])}
+   * @param length length of the data
+   * @return a new byte array containing the data
+   */
+  public byte[] read(long position, int length) {
+    byte[] data = new byte[length];
+    ByteBuffer readBuffer = buffer.duplicate();
+    readBuffer.position((int) (position % capacity));
+    readBuffer.get(data);
+    return data;
+  }
+
+  /**
+   * Releases the space of the data at the given position. The space is reused once all the spaces allocated
+   * before it are released.
+   *
+   * @param position the position as returned by {@link #allocate(byte[])}
+   */
+  public synchronized void release(long position) {
+    if (allocated.remove(position) == null) {
+      throw new IllegalArgumentException("No data is allocated at position " + position);
+    }
+    // Move the head to the oldest space that is still allocated
+    Iterator<Map.Entry<Long, Integer>> iterator = allocated.entrySet().iterator();
+    head = iterator.hasNext() ? iterator.next().getKey() : tail;
+  }
+
+  /**
+   * Returns the number of bytes being occupied in the buffer, including the skipped spaces and the spaces that are
+   * released but not yet reusable.
+   */
+  public synchronized long getUsed() {
+    return tail - head;
+  }
+
+  /**
+   * Returns the capacity of the buffer in bytes.
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+}
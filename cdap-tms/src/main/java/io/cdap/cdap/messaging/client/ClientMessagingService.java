@@ -34,8 +34,10 @@ import io.cdap.cdap.common.ServiceUnavailableException;
 import io.cdap.cdap.common.conf.Constants;
 import io.cdap.cdap.common.http.DefaultHttpRequestConfig;
 import io.cdap.cdap.common.internal.remote.RemoteClient;
+import io.cdap.cdap.common.utils.ImmutablePair;
 import io.cdap.cdap.messaging.MessageFetcher;
 import io.cdap.cdap.messaging.MessagingService;
+import io.cdap.cdap.messaging.MultiTopicMessageFetcher;
 import io.cdap.cdap.messaging.RollbackDetail;
 import io.cdap.cdap.messaging.Schemas;
 import io.cdap.cdap.messaging.StoreRequest;
@@ -49,10 +51,8 @@ import io.cdap.common.http.HttpRequestConfig;
 import io.cdap.common.http.HttpResponse;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericData;
-import org.apache.avro.generic.GenericDatumReader;
 import org.apache.avro.generic.GenericDatumWriter;
 import org.apache.avro.generic.GenericRecord;
-import org.apache.avro.io.DatumReader;
 import org.apache.avro.io.DatumWriter;
 import org.apache.avro.io.Decoder;
 import org.apache.avro.io.DecoderFactory;
@@ -178,6 +178,11 @@ public final class ClientMessagingService implements MessagingService {
     return new ClientMessageFetcher(topicId);
   }
 
+  @Override
+  public MultiTopicMessageFetcher prepareMultiTopicFetch(NamespaceId namespaceId) {
+    return new ClientMultiTopicMessageFetcher(namespaceId);
+  }
+
   @Nullable
   @Override
   public RollbackDetail publish(StoreRequest request) throws TopicNotFoundException, IOException {
@@ -362,21 +367,98 @@ public final class ClientMessagingService implements MessagingService {
     }
   }
 
+  /**
+   * Opens a connection to the given poll path and sends the given request encoded with the given schema.
+   * The cask common http library doesn't support read streaming, and we don't want to buffer all messages
+   * in memory, hence we use the HttpURLConnection directly instead.
+   *
+   * @param path the path to the poll endpoint
+   * @param waitTimeoutMillis number of milliseconds the server can wait for new messages
+   * @param schema the schema of the request
+   * @param request the request to send
+   * @return the {@link HttpURLConnection} with the request sent
+   */
+  private <T> HttpURLConnection sendPollRequest(String path, long waitTimeoutMillis,
+                                                Schema schema, T request) throws IOException {
+    // If wait timeout is set, the server may hold the request until new messages are available,
+    // hence extend the read timeout by the wait timeout.
+    int readTimeout = HTTP_REQUEST_CONFIG.getReadTimeout();
+    if (waitTimeoutMillis > 0) {
+      path += "?timeout=" + waitTimeoutMillis;
+      // A zero read timeout means no timeout
+      if (readTimeout > 0) {
+        readTimeout = (int) Math.min(Integer.MAX_VALUE, readTimeout + waitTimeoutMillis);
+      }
+    }
+    URL url = remoteClient.resolve(path);
+    HttpURLConnection urlConn = (HttpURLConnection)  url.openConnection();
+    urlConn.setConnectTimeout(HTTP_REQUEST_CONFIG.getConnectTimeout());
+    urlConn.setReadTimeout(readTimeout);
+    urlConn.setRequestMethod("POST");
+    urlConn.setRequestProperty(HttpHeaders.CONTENT_TYPE, "avro/binary");
+    urlConn.setDoInput(true);
+    urlConn.setDoOutput(true);
+
+    // Send the request
+    Encoder encoder = EncoderFactory.get().directBinaryEncoder(urlConn.getOutputStream(), null);
+    DatumWriter<T> datumWriter = new GenericDatumWriter<>(schema);
+    datumWriter.write(request, encoder);
+    return urlConn;
+  }
+
+  /**
+   * Checks the response of a poll request.
+   */
+  private void checkPollResponse(HttpURLConnection urlConn, int responseCode, String errorPrefix) throws IOException {
+    handleError(responseCode, () -> {
+      // If there is any error, read the response body from the error stream
+      try (InputStream errorStream = urlConn.getErrorStream()) {
+        return errorStream == null
+          ? ""
+          : urlConn.getResponseMessage() + new String(ByteStreams.toByteArray(errorStream),
+                                                      StandardCharsets.UTF_8);
+      } catch (IOException e) {
+        return "";
+      } finally {
+        urlConn.disconnect();
+      }
+    }, errorPrefix);
+    verifyContentType(urlConn.getHeaderFields(), "avro/binary");
+  }
+
+  /**
+   * Decodes a message with the Messages record schema as defined in {@link Schemas.V1.ConsumeResponse#SCHEMA}.
+   */
+  private static RawMessage decodeMessage(Decoder decoder) throws IOException {
+    // Decode the message fields directly, following the element schema of ConsumeResponse.
+    // The decoder allocates a new exactly sized buffer for each field, hence the backing array
+    // can be used without copying.
+    byte[] id = toByteArray(decoder.readBytes(null));
+    byte[] payload = toByteArray(decoder.readBytes(null));
+    return new RawMessage(id, payload);
+  }
+
+  /**
+   * Returns the content of the given {@link ByteBuffer} as a byte array. The backing array is returned
+   * if it contains exactly the buffer content, otherwise a copy is made.
+   */
+  private static byte[] toByteArray(ByteBuffer buffer) {
+    if (buffer.hasArray() && buffer.arrayOffset() == 0
+      && buffer.position() == 0 && buffer.remaining() == buffer.array().length) {
+      return buffer.array();
+    }
+    return Bytes.toBytes(buffer);
+  }
+
   /**
    * Client side implementation of {@link MessageFetcher}. It streams messages from the server with chunk encoding.
    */
   private final class ClientMessageFetcher extends MessageFetcher {
 
     private final TopicId topicId;
-    private final DatumReader<GenericRecord> messageReader;
-    private GenericRecord messageRecord;
 
     private ClientMessageFetcher(TopicId topicId) {
       this.topicId = topicId;
-
-      // These are for reading individual message (response is an array of messages)
-      this.messageRecord = new GenericData.Record(Schemas.V1.ConsumeResponse.SCHEMA.getElementType());
-      this.messageReader = new GenericDatumReader<>(Schemas.V1.ConsumeResponse.SCHEMA.getElementType());
     }
 
     @Override
@@ -396,41 +478,13 @@ public final class ClientMessagingService implements MessagingService {
         record.put("transaction", ByteBuffer.wrap(TRANSACTION_CODEC.encode(getTransaction())));
       }
 
-      // The cask common http library doesn't support read streaming, and we don't want to buffer all messages
-      // in memory, hence we use the HttpURLConnection directly instead.
-      URL url = remoteClient.resolve(createTopicPath(topicId) + "/poll");
-      final HttpURLConnection urlConn = (HttpURLConnection)  url.openConnection();
-      urlConn.setConnectTimeout(HTTP_REQUEST_CONFIG.getConnectTimeout());
-      urlConn.setReadTimeout(HTTP_REQUEST_CONFIG.getReadTimeout());
-      urlConn.setRequestMethod("POST");
-      urlConn.setRequestProperty(HttpHeaders.CONTENT_TYPE, "avro/binary");
-      urlConn.setDoInput(true);
-      urlConn.setDoOutput(true);
-
-      // Send the request
-      Encoder encoder = EncoderFactory.get().directBinaryEncoder(urlConn.getOutputStream(), null);
-      DatumWriter<GenericRecord> datumWriter = new GenericDatumWriter<>(Schemas.V1.ConsumeRequest.SCHEMA);
-      datumWriter.write(record, encoder);
-
+      final HttpURLConnection urlConn = sendPollRequest(createTopicPath(topicId) + "/poll", getWaitTimeoutMillis(),
+                                                        Schemas.V1.ConsumeRequest.SCHEMA, record);
       int responseCode = urlConn.getResponseCode();
       if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
         throw new TopicNotFoundException(topicId.getNamespace(), topicId.getTopic());
       }
-
-      handleError(responseCode, () -> {
-        // If there is any error, read the response body from the error stream
-        try (InputStream errorStream = urlConn.getErrorStream()) {
-          return errorStream == null
-            ? ""
-            : urlConn.getResponseMessage() + new String(ByteStreams.toByteArray(errorStream),
-                                                        StandardCharsets.UTF_8);
-        } catch (IOException e) {
-          return "";
-        } finally {
-          urlConn.disconnect();
-        }
-      }, "Failed to update topic " + topicId);
-      verifyContentType(urlConn.getHeaderFields(), "avro/binary");
+      checkPollResponse(urlConn, responseCode, "Failed to update topic " + topicId);
 
       // Decode the avro array manually instead of using DatumReader in order to support streaming decode.
       final InputStream inputStream = urlConn.getInputStream();
@@ -457,13 +511,102 @@ public final class ClientMessagingService implements MessagingService {
 
             itemCount--;
 
-            // Use DatumReader to decode individual message
-            // This provides greater flexibility on schema evolution.
-            // The response will likely always be an array, but the element schema can evolve.
-            messageRecord = messageReader.read(messageRecord, decoder);
+            return decodeMessage(decoder);
+          } catch (IOException e) {
+            throw Throwables.propagate(e);
+          }
+        }
+
+        @Override
+        public void close() {
+          Closeables.closeQuietly(inputStream);
+          urlConn.disconnect();
+        }
+      };
+    }
+  }
+
+  /**
+   * Client side implementation of {@link MultiTopicMessageFetcher}. It streams messages of all topics from the
+   * server with chunk encoding in one request.
+   */
+  private final class ClientMultiTopicMessageFetcher extends MultiTopicMessageFetcher {
+
+    private ClientMultiTopicMessageFetcher(NamespaceId namespaceId) {
+      super(namespaceId);
+    }
+
+    @Override
+    public CloseableIterator<ImmutablePair<TopicId, RawMessage>> fetch() throws IOException, TopicNotFoundException {
+      final NamespaceId namespaceId = getNamespaceId();
+      Schema requestSchema = Schemas.V1.MultiConsumeRequest.SCHEMA;
+      List<GenericRecord> request = new ArrayList<>();
+      for (TopicFetch topicFetch : getTopicFetches()) {
+        GenericRecord record = new GenericData.Record(requestSchema.getElementType());
+        record.put("topic", topicFetch.getTopicId().getTopic());
+        if (topicFetch.getStartOffset() != null) {
+          record.put("startFrom", ByteBuffer.wrap(topicFetch.getStartOffset()));
+        }
+        record.put("inclusive", topicFetch.isIncludeStart());
+        record.put("limit", topicFetch.getLimit());
+        request.add(record);
+      }
+
+      final HttpURLConnection urlConn = sendPollRequest(namespaceId.getNamespace() + "/poll", getWaitTimeoutMillis(),
+                                                        requestSchema, new GenericData.Array<>(requestSchema, request));
+      int responseCode = urlConn.getResponseCode();
+      if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
+        throw createTopicNotFoundException(urlConn);
+      }
+      checkPollResponse(urlConn, responseCode, "Failed to fetch from topics in namespace " + namespaceId);
+
+      // Decode the nested avro arrays manually in order to support streaming decode.
+      final InputStream inputStream = urlConn.getInputStream();
+      final Decoder decoder = DecoderFactory.get().binaryDecoder(inputStream, null);
+      final long initialTopicCount = decoder.readArrayStart();
+      return new AbstractCloseableIterator<ImmutablePair<TopicId, RawMessage>>() {
+
+        private long topicCount = initialTopicCount;
+        private boolean topicsEnded = initialTopicCount == 0;
+        private TopicId currentTopicId;
+        private long messageCount;
 
-            return new RawMessage(Bytes.toBytes((ByteBuffer) messageRecord.get("id")),
-                                  Bytes.toBytes((ByteBuffer) messageRecord.get("payload")));
+        @Override
+        protected ImmutablePair<TopicId, RawMessage> computeNext() {
+          try {
+            while (true) {
+              if (currentTopicId != null) {
+                if (messageCount > 0) {
+                  messageCount--;
+                  return ImmutablePair.of(currentTopicId, decodeMessage(decoder));
+                }
+                // The current block of messages is consumed. A zero item count signals the end of the messages
+                messageCount = decoder.arrayNext();
+                if (messageCount > 0) {
+                  continue;
+                }
+                currentTopicId = null;
+              }
+
+              if (topicsEnded) {
+                return endOfData();
+              }
+              if (topicCount == 0) {
+                topicCount = decoder.arrayNext();
+                if (topicCount == 0) {
+                  topicsEnded = true;
+                  return endOfData();
+                }
+              }
+
+              // Start reading the next topic
+              topicCount--;
+              TopicId topicId = namespaceId.topic(decoder.readString());
+              messageCount = decoder.readArrayStart();
+              if (messageCount > 0) {
+                currentTopicId = topicId;
+              }
+            }
           } catch (IOException e) {
             throw Throwables.propagate(e);
           }
@@ -476,5 +619,33 @@ public final class ClientMessagingService implements MessagingService {
         }
       };
     }
+
+    /**
+     * Creates a {@link TopicNotFoundException} based on the error response of the given connection.
+     */
+    private TopicNotFoundException createTopicNotFoundException(HttpURLConnection urlConn) {
+      String error = "";
+      try (InputStream errorStream = urlConn.getErrorStream()) {
+        if (errorStream != null) {
+          error = new String(ByteStreams.toByteArray(errorStream), StandardCharsets.UTF_8);
+        }
+      } catch (IOException e) {
+        // Ignore and fallback to the first topic
+      } finally {
+        urlConn.disconnect();
+      }
+
+      // Find the topic that is not found from the error message. Default to the first topic if not found.
+      List<TopicFetch> topicFetches = getTopicFetches();
+      String notFound = topicFetches.isEmpty() ? "" : topicFetches.get(0).getTopicId().getTopic();
+      for (TopicFetch topicFetch : topicFetches) {
+        TopicId topicId = topicFetch.getTopicId();
+        if (error.contains(new TopicNotFoundException(topicId.getNamespace(), topicId.getTopic()).getMessage())) {
+          notFound = topicId.getTopic();
+          break;
+        }
+      }
+      return new TopicNotFoundException(getNamespaceId().getNamespace(), notFound);
+    }
   }
 }
@@ -29,13 +29,14 @@ import org.apache.tephra.TransactionAware;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 
 /**
  * Implementation of {@link MessageFetcher} that implements {@link TransactionAware}. The active transaction will
  * be used for fetching messages if there is one. Otherwise messages will be fetched without transaction.
  */
-final class BasicMessageFetcher implements MessageFetcher, TransactionAware {
+final class BasicMessageFetcher implements LongPollMessageFetcher, TransactionAware {
 
   private final MessagingService messagingService;
   private final String name;
@@ -64,9 +65,16 @@ final class BasicMessageFetcher implements MessageFetcher, TransactionAware {
   @Override
   public CloseableIterator<Message> fetch(String namespace, String topic, int limit,
                                           @Nullable String afterMessageId) throws IOException, TopicNotFoundException {
+    return fetch(namespace, topic, limit, afterMessageId, 0L);
+  }
+
+  @Override
+  public CloseableIterator<Message> fetch(String namespace, String topic, int limit, @Nullable String afterMessageId,
+                                          long waitTimeoutMillis) throws IOException, TopicNotFoundException {
     io.cdap.cdap.messaging.MessageFetcher fetcher = messagingService
       .prepareFetch(new NamespaceId(namespace).topic(topic))
-      .setLimit(limit);
+      .setLimit(limit)
+      .setWaitTimeout(waitTimeoutMillis, TimeUnit.MILLISECONDS);
 
     if (afterMessageId != null) {
       fetcher.setStartMessage(Bytes.fromHexString(afterMessageId), false);
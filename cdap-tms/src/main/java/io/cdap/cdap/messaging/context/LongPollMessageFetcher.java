@@ -0,0 +1,49 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.cdap.messaging.context;
+
+import io.cdap.cdap.api.dataset.lib.CloseableIterator;
+import io.cdap.cdap.api.messaging.Message;
+import io.cdap.cdap.api.messaging.MessageFetcher;
+import io.cdap.cdap.api.messaging.TopicNotFoundException;
+
+import java.io.IOException;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link MessageFetcher} that can wait for new messages to arrive if there is no message available,
+ * instead of returning an empty result immediately.
+ */
+public interface LongPollMessageFetcher extends MessageFetcher {
+
+  /**
+   * Fetches messages from the given topic that were published after a given message id. If there is no message
+   * available, it waits until new messages are published or until the given timeout expired.
+   *
+   * @param namespace the namespace of the topic
+   * @param topic the topic to fetch messages from
+   * @param limit maximum number of messages to fetch
+   * @param afterMessageId message id to start fetching from (exclusive), or {@code null} to fetch from
+   *                       the first available message
+   * @param waitTimeoutMillis maximum number of milliseconds to wait for new messages
+   * @return a {@link CloseableIterator} of {@link Message}
+   * @throws TopicNotFoundException if the topic does not exist
+   * @throws IOException if failed to fetch messages
+   */
+  CloseableIterator<Message> fetch(String namespace, String topic, int limit, @Nullable String afterMessageId,
+                                   long waitTimeoutMillis) throws IOException, TopicNotFoundException;
+}
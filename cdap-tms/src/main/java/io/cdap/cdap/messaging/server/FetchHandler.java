@@ -27,8 +27,10 @@ import io.cdap.cdap.common.conf.Constants;
 import io.cdap.cdap.common.io.ByteBuffers;
 import io.cdap.cdap.common.logging.LogSamplers;
 import io.cdap.cdap.common.logging.Loggers;
+import io.cdap.cdap.common.utils.ImmutablePair;
 import io.cdap.cdap.messaging.MessageFetcher;
 import io.cdap.cdap.messaging.MessagingService;
+import io.cdap.cdap.messaging.MultiTopicMessageFetcher;
 import io.cdap.cdap.messaging.Schemas;
 import io.cdap.cdap.messaging.data.RawMessage;
 import io.cdap.cdap.proto.id.NamespaceId;
@@ -38,7 +40,7 @@ import io.cdap.http.BodyProducer;
 import io.cdap.http.HttpResponder;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufInputStream;
-import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.handler.codec.http.DefaultHttpHeaders;
 import io.netty.handler.codec.http.FullHttpRequest;
@@ -46,14 +48,10 @@ import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericDatumReader;
-import org.apache.avro.generic.GenericDatumWriter;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.io.DatumReader;
-import org.apache.avro.io.DatumWriter;
 import org.apache.avro.io.Decoder;
 import org.apache.avro.io.DecoderFactory;
-import org.apache.avro.io.Encoder;
-import org.apache.avro.io.EncoderFactory;
 import org.apache.tephra.TransactionCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -62,18 +60,23 @@ import java.io.IOException;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
 
 /**
  * A netty http handler for handling message fetching REST API for the messaging system.
  */
-@Path("/v1/namespaces/{namespace}/topics/{topic}")
+@Path("/v1/namespaces/{namespace}")
 public final class FetchHandler extends AbstractHttpHandler {
 
   private static final Logger LOG = LoggerFactory.getLogger(FetchHandler.class);
@@ -87,18 +90,25 @@ public final class FetchHandler extends AbstractHttpHandler {
 
   private final MessagingService messagingService;
   private int messageChunkSize;
+  private final long maxWaitMillis;
+  // Limits the number of executor threads that can be blocked by poll requests waiting for new messages
+  private final Semaphore waitPermits;
 
   @Inject
   FetchHandler(CConfiguration cConf, MessagingService messagingService) {
     this.messagingService = messagingService;
     this.messageChunkSize = cConf.getInt(Constants.MessagingSystem.HTTP_SERVER_CONSUME_CHUNK_SIZE);
+    this.maxWaitMillis = cConf.getLong(Constants.MessagingSystem.HTTP_SERVER_FETCH_MAX_WAIT_MS);
+    // Never wait if there is no executor thread, since the request is handled by the IO thread.
+    this.waitPermits = new Semaphore(cConf.getInt(Constants.MessagingSystem.HTTP_SERVER_EXECUTOR_THREADS) / 2);
   }
 
   @POST
-  @Path("poll")
+  @Path("/topics/{topic}/poll")
   public void poll(FullHttpRequest request, HttpResponder responder,
                    @PathParam("namespace") String namespace,
-                   @PathParam("topic") String topic) throws Exception {
+                   @PathParam("topic") String topic,
+                   @QueryParam("timeout") @DefaultValue("0") long timeoutMillis) throws Exception {
 
     TopicId topicId = new NamespaceId(namespace).topic(topic);
 
@@ -112,7 +122,7 @@ public final class FetchHandler extends AbstractHttpHandler {
     DatumReader<GenericRecord> datumReader = new GenericDatumReader<>(Schemas.V1.ConsumeRequest.SCHEMA);
 
     // Fetch the messages
-    CloseableIterator<RawMessage> iterator = fetchMessages(datumReader.read(null, decoder), topicId);
+    CloseableIterator<RawMessage> iterator = fetchMessages(datumReader.read(null, decoder), topicId, timeoutMillis);
     try {
       responder.sendContent(HttpResponseStatus.OK, new MessagesBodyProducer(iterator, messageChunkSize),
                             new DefaultHttpHeaders().set(HttpHeaderNames.CONTENT_TYPE, "avro/binary"));
@@ -122,11 +132,49 @@ public final class FetchHandler extends AbstractHttpHandler {
     }
   }
 
+  @POST
+  @Path("/poll")
+  public void pollTopics(FullHttpRequest request, HttpResponder responder,
+                         @PathParam("namespace") String namespace,
+                         @QueryParam("timeout") @DefaultValue("0") long timeoutMillis) throws Exception {
+    NamespaceId namespaceId = new NamespaceId(namespace);
+
+    // Currently only support avro
+    if (!"avro/binary".equals(request.headers().get(HttpHeaderNames.CONTENT_TYPE))) {
+      throw new BadRequestException("Only avro/binary content type is supported.");
+    }
+
+    // Decode the poll request
+    Decoder decoder = DecoderFactory.get().directBinaryDecoder(new ByteBufInputStream(request.content()), null);
+    DatumReader<GenericData.Array<GenericRecord>> datumReader =
+      new GenericDatumReader<>(Schemas.V1.MultiConsumeRequest.SCHEMA);
+
+    // Fetch the messages
+    MultiTopicMessageFetcher fetcher = messagingService.prepareMultiTopicFetch(namespaceId);
+    for (GenericRecord topicRequest : datumReader.read(null, decoder)) {
+      ByteBuffer startFrom = (ByteBuffer) topicRequest.get("startFrom");
+      Integer limit = (Integer) topicRequest.get("limit");
+      fetcher.addTopic(topicRequest.get("topic").toString(),
+                       startFrom == null ? null : Bytes.toBytes(startFrom),
+                       (Boolean) topicRequest.get("inclusive"),
+                       limit == null ? Integer.MAX_VALUE : limit);
+    }
+
+    CloseableIterator<ImmutablePair<TopicId, RawMessage>> iterator = fetchMessages(fetcher, timeoutMillis);
+    try {
+      responder.sendContent(HttpResponseStatus.OK, new MultiTopicMessagesBodyProducer(iterator, messageChunkSize),
+                            new DefaultHttpHeaders().set(HttpHeaderNames.CONTENT_TYPE, "avro/binary"));
+    } catch (Throwable t) {
+      iterator.close();
+      throw t;
+    }
+  }
+
   /**
    * Creates a {@link CloseableIterator} of {@link RawMessage} based on the given fetch request.
    */
-  private CloseableIterator<RawMessage> fetchMessages(GenericRecord fetchRequest,
-                                                      TopicId topicId) throws IOException, TopicNotFoundException {
+  private CloseableIterator<RawMessage> fetchMessages(GenericRecord fetchRequest, TopicId topicId,
+                                                      long timeoutMillis) throws IOException, TopicNotFoundException {
     MessageFetcher fetcher = messagingService.prepareFetch(topicId);
 
     Object startFrom = fetchRequest.get("startFrom");
@@ -153,98 +201,117 @@ public final class FetchHandler extends AbstractHttpHandler {
       fetcher.setTransaction(TRANSACTION_CODEC.decode(ByteBuffers.getByteArray(encodedTx)));
     }
 
-    return fetcher.fetch();
+    // Only wait for new messages if there is an executor thread available for waiting.
+    // Otherwise just fetch without waiting and the client will poll again.
+    long waitMillis = Math.min(timeoutMillis, maxWaitMillis);
+    if (waitMillis <= 0 || !waitPermits.tryAcquire()) {
+      return fetcher.fetch();
+    }
+    try {
+      return fetcher.setWaitTimeout(waitMillis, TimeUnit.MILLISECONDS).fetch();
+    } finally {
+      waitPermits.release();
+    }
   }
 
   /**
-   * A {@link BodyProducer} to encode and send back messages.
-   * Instead of using GenericDatumWriter, we perform the array encoding manually so that we don't have to buffer
+   * Creates a {@link CloseableIterator} of messages of multiple topics from the given fetcher, waiting for new
+   * messages of any of the topics for up to the given timeout if there is an executor thread available for waiting.
+   */
+  private CloseableIterator<ImmutablePair<TopicId, RawMessage>> fetchMessages(MultiTopicMessageFetcher fetcher,
+                                                                             long timeoutMillis)
+    throws IOException, TopicNotFoundException {
+    long waitMillis = Math.min(timeoutMillis, maxWaitMillis);
+    if (waitMillis <= 0 || !waitPermits.tryAcquire()) {
+      return fetcher.fetch();
+    }
+    try {
+      return fetcher.setWaitTimeout(waitMillis, TimeUnit.MILLISECONDS).fetch();
+    } finally {
+      waitPermits.release();
+    }
+  }
+
+  /**
+   * An abstract {@link BodyProducer} to encode and send back messages.
+   * Instead of using GenericDatumWriter, we perform the Avro encoding manually so that we don't have to buffer
    * all messages in memory before sending out.
+   *
+   * @param <T> type of elements returned by the iterator
    */
-  private static class MessagesBodyProducer extends BodyProducer {
+  private abstract static class AbstractMessagesBodyProducer<T> extends BodyProducer {
 
-    private final CloseableIterator<RawMessage> iterator;
-    private final List<RawMessage> messages;
+    private final CloseableIterator<T> iterator;
+    private final List<T> messages;
     private final int messageChunkSize;
-    private final ByteBuf chunk;
-    private final Encoder encoder;
-    private final GenericRecord messageRecord;
-    private final DatumWriter<GenericRecord> messageWriter;
-    private boolean arrayStarted;
-    private boolean arrayEnded;
+    private boolean ended;
 
-    MessagesBodyProducer(CloseableIterator<RawMessage> iterator, int messageChunkSize) {
+    AbstractMessagesBodyProducer(CloseableIterator<T> iterator, int messageChunkSize) {
       this.iterator = iterator;
       this.messages = new ArrayList<>();
       this.messageChunkSize = messageChunkSize;
-      this.chunk = Unpooled.buffer(messageChunkSize);
-      this.encoder = EncoderFactory.get().directBinaryEncoder(new ByteBufOutputStream(chunk), null);
-
-      // These are for writing individual message (response is an array of messages)
-      this.messageRecord = new GenericData.Record(Schemas.V1.ConsumeResponse.SCHEMA.getElementType());
-      this.messageWriter = new GenericDatumWriter<GenericRecord>(Schemas.V1.ConsumeResponse.SCHEMA.getElementType()) {
-        @Override
-        protected void writeBytes(Object datum, Encoder out) throws IOException {
-          if (datum instanceof byte[]) {
-            out.writeBytes((byte[]) datum);
-          } else {
-            super.writeBytes(datum, out);
-          }
-        }
-      };
     }
 
+    /**
+     * Returns the {@link RawMessage} contained in the given element.
+     */
+    protected abstract RawMessage getMessage(T element);
+
+    /**
+     * Encodes a batch of elements to the given {@link ChunkBuilder}.
+     *
+     * @param elements the elements to encode, which can be empty
+     * @param end {@code true} if there will be no more elements after this batch
+     * @param builder the {@link ChunkBuilder} to write to
+     */
+    protected abstract void encode(List<T> elements, boolean end, ChunkBuilder builder);
+
     @Override
     public ByteBuf nextChunk() throws Exception {
       // Already sent all messages, return empty to signal the end of response
-      if (arrayEnded) {
+      if (ended) {
         return Unpooled.EMPTY_BUFFER;
       }
 
-      chunk.clear();
-
-      if (!arrayStarted) {
-        arrayStarted = true;
-        encoder.writeArrayStart();
-      }
-
       // Try to buffer up to buffer size
       int size = 0;
+      int copySize = 0;
       messages.clear();
       while (iterator.hasNext() && size < messageChunkSize) {
-        RawMessage message = iterator.next();
-        messages.add(message);
+        T element = iterator.next();
+        messages.add(element);
 
         // Avro encodes bytes as (len + bytes), hence adding 8 to cater for the length of the id and payload
         // Straightly speaking it can be up to 9 bytes each (hence 18 bytes),
         // but we don't expect id and payload of such size
-        size += message.getId().length + message.getPayload().length + 8;
-      }
-
-      encoder.setItemCount(messages.size());
-      for (RawMessage message : messages) {
-        encoder.startItem();
-
-        // Write individual message (array element) with DatumWrite.
-        // This provides greater flexibility on schema evolution.
-        // The response will likely always be an array, but the element schema can evolve.
-        messageRecord.put("id", message.getId());
-        messageRecord.put("payload", message.getPayload());
-        messageWriter.write(messageRecord, encoder);
+        RawMessage message = getMessage(element);
+        int payloadSize = message.getPayload().length;
+        size += message.getId().length + payloadSize + 8;
+        copySize += message.getId().length + (payloadSize < ChunkBuilder.MIN_WRAP_SIZE ? payloadSize : 0) + 8;
       }
 
-      if (!iterator.hasNext()) {
-        arrayEnded = true;
-        encoder.writeArrayEnd();
+      ended = !iterator.hasNext();
+      ChunkBuilder builder = new ChunkBuilder(copySize + 20);
+      try {
+        encode(messages, ended, builder);
+      } catch (Throwable t) {
+        builder.release();
+        throw t;
       }
+      return builder.build();
+    }
 
-      return chunk.copy();
+    /**
+     * Writes the given message as a record of the Messages schema in {@link Schemas.V1.ConsumeResponse#SCHEMA}.
+     */
+    protected final void encodeMessage(RawMessage message, ChunkBuilder builder) {
+      builder.writeBytes(message.getId());
+      builder.writeBytes(message.getPayload());
     }
 
     @Override
     public void finished() throws Exception {
       iterator.close();
-      chunk.release();
     }
 
     @Override
@@ -264,4 +331,180 @@ public final class FetchHandler extends AbstractHttpHandler {
       }
     }
   }
+
+  /**
+   * A {@link BodyProducer} to encode and send back messages of one topic.
+   * The encoding must match {@link Schemas.V1.ConsumeResponse#SCHEMA}.
+   */
+  private static final class MessagesBodyProducer extends AbstractMessagesBodyProducer<RawMessage> {
+
+    MessagesBodyProducer(CloseableIterator<RawMessage> iterator, int messageChunkSize) {
+      super(iterator, messageChunkSize);
+    }
+
+    @Override
+    protected RawMessage getMessage(RawMessage element) {
+      return element;
+    }
+
+    @Override
+    protected void encode(List<RawMessage> elements, boolean end, ChunkBuilder builder) {
+      // The item count of an Avro array block. Zero count is the end of the array, hence only write if non-zero.
+      if (!elements.isEmpty()) {
+        builder.writeLong(elements.size());
+      }
+      for (RawMessage message : elements) {
+        encodeMessage(message, builder);
+      }
+      if (end) {
+        builder.writeLong(0L);
+      }
+    }
+  }
+
+  /**
+   * A {@link BodyProducer} to encode and send back messages of multiple topics, grouped by topic.
+   * The encoding must match {@link Schemas.V1.MultiConsumeResponse#SCHEMA}. Each topic is encoded as an
+   * outer array block with one item, which contains the topic name and the array of messages of the topic.
+   * The messages array of a topic can span multiple chunks.
+   */
+  private static final class MultiTopicMessagesBodyProducer
+    extends AbstractMessagesBodyProducer<ImmutablePair<TopicId, RawMessage>> {
+
+    // The topic which the messages array is not yet ended
+    private TopicId openTopicId;
+
+    MultiTopicMessagesBodyProducer(CloseableIterator<ImmutablePair<TopicId, RawMessage>> iterator,
+                                   int messageChunkSize) {
+      super(iterator, messageChunkSize);
+    }
+
+    @Override
+    protected RawMessage getMessage(ImmutablePair<TopicId, RawMessage> element) {
+      return element.getSecond();
+    }
+
+    @Override
+    protected void encode(List<ImmutablePair<TopicId, RawMessage>> elements, boolean end, ChunkBuilder builder) {
+      int idx = 0;
+      while (idx < elements.size()) {
+        TopicId topicId = elements.get(idx).getFirst();
+
+        // Find the run of messages of the same topic
+        int runEnd = idx + 1;
+        while (runEnd < elements.size() && topicId.equals(elements.get(runEnd).getFirst())) {
+          runEnd++;
+        }
+
+        if (!topicId.equals(openTopicId)) {
+          if (openTopicId != null) {
+            // End the messages array of the previous topic
+            builder.writeLong(0L);
+          }
+          // Outer array block with one item, starting with the topic name
+          builder.writeLong(1L);
+          builder.writeString(topicId.getTopic());
+          openTopicId = topicId;
+        }
+
+        builder.writeLong(runEnd - idx);
+        for (int i = idx; i < runEnd; i++) {
+          encodeMessage(elements.get(i).getSecond(), builder);
+        }
+        idx = runEnd;
+      }
+
+      if (end) {
+        if (openTopicId != null) {
+          builder.writeLong(0L);
+          openTopicId = null;
+        }
+        builder.writeLong(0L);
+      }
+    }
+  }
+
+  /**
+   * Helper class to build a response chunk with Avro binary encoding. Small values are copied into a
+   * heap buffer, while large byte arrays are added to the resulting {@link CompositeByteBuf} as separate
+   * components to avoid copying.
+   */
+  private static final class ChunkBuilder {
+
+    // Byte arrays smaller than this size are copied into the buffer, since it is cheaper than adding a component
+    static final int MIN_WRAP_SIZE = 256;
+
+    private final ByteBuf buffer;
+    private final CompositeByteBuf chunk;
+    private int sliceStart;
+
+    ChunkBuilder(int initialSize) {
+      this.buffer = Unpooled.buffer(initialSize);
+      this.chunk = Unpooled.compositeBuffer(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Writes a long value with Avro zig-zag variable length encoding.
+     */
+    void writeLong(long value) {
+      long n = (value << 1) ^ (value >> 63);
+      while ((n & ~0x7FL) != 0) {
+        buffer.writeByte((int) ((n & 0x7F) | 0x80));
+        n >>>= 7;
+      }
+      buffer.writeByte((int) n);
+    }
+
+    /**
+     * Writes a byte array with Avro bytes encoding.
+     */
+    void writeBytes(byte[] bytes) {
+      writeLong(bytes.length);
+      if (bytes.length < MIN_WRAP_SIZE) {
+        buffer.writeBytes(bytes);
+      } else {
+        flushSlice();
+        chunk.addComponent(true, Unpooled.wrappedBuffer(bytes));
+      }
+    }
+
+    /**
+     * Writes a string with Avro string encoding.
+     */
+    void writeString(String str) {
+      byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+      writeLong(bytes.length);
+      buffer.writeBytes(bytes);
+    }
+
+    /**
+     * Returns the chunk built so far. This builder cannot be used afterwards.
+     */
+    ByteBuf build() {
+      try {
+        flushSlice();
+      } catch (Throwable t) {
+        chunk.release();
+        throw t;
+      } finally {
+        buffer.release();
+      }
+      return chunk;
+    }
+
+    /**
+     * Releases all resources held by this builder without building the chunk.
+     */
+    void release() {
+      chunk.release();
+      buffer.release();
+    }
+
+    private void flushSlice() {
+      if (buffer.writerIndex() > sliceStart) {
+        chunk.addComponent(true, buffer.retainedSlice(sliceStart, buffer.writerIndex() - sliceStart));
+        sliceStart = buffer.writerIndex();
+      }
+    }
+  }
 }
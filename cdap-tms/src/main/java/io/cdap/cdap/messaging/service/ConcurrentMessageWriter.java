@@ -31,42 +31,55 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
 /**
  * Class to support writing to message/payload tables with high concurrency.
  *
- * It uses a non-blocking algorithm to batch writes from concurrent threads. The algorithm is the same as
- * the one used in ConcurrentStreamWriter.
- *
- * The algorithm is like this:
+ * It uses a group commit algorithm to batch writes from concurrent threads. The algorithm is like this:
  *
  * When a thread that received a request, performs the following:
  *
  * <pre>
  * 1. Constructs a PendingStoreRequest locally and enqueue it to a ConcurrentLinkedQueue.
  * 2. Use CAS to set an AtomicBoolean flag to true.
- * 3. If successfully set the flag to true, this thread becomes the writer and proceed to run step 4-7.
- * 4. Provides an Iterator of PendingStoreRequest, which consumes from the ConcurrentLinkedQueue mentioned in step 1.
- * 5. The message table store method will consume the Iterator until it is empty
- * 6. Set the state of each PendingStoreRequest that are written to COMPLETED (succeed/failure).
- * 7. Set the AtomicBoolean flag back to false.
- * 8. If the PendingStoreRequest enqueued by this thread is NOT COMPLETED, go back to step 2.
+ * 3. If successfully set the flag to true, this thread becomes the writer (leader) and proceed to run step 4-9.
+ * 4. If a batch linger time is configured, waits until either the linger time passed or
+ *    the max batch size worth of requests were enqueued.
+ * 5. Drains at most max batch size of PendingStoreRequest from the ConcurrentLinkedQueue mentioned in step 1.
+ * 6. The message table store method will consume the Iterator until it is empty
+ * 7. Set the state of each PendingStoreRequest that are written to COMPLETED (succeed/failure) and
+ *    unpark the thread that is waiting for it.
+ * 8. Set the AtomicBoolean flag back to false.
+ * 9. Unpark the thread that owns the head of the queue (if any) so that it can become the next leader.
+ * 10. If the PendingStoreRequest enqueued by this thread is NOT COMPLETED, park the thread and go back to step 2
+ *     after being unparked.
  * </pre>
  *
- * The spin lock between step 2 to step 8 is necessary as it guarantees events enqueued by all threads would eventually
- * get written and flushed.
+ * Threads that failed to become the leader are parked instead of spinning. Step 9 guarantees that
+ * requests enqueued by all threads would eventually get written and flushed. The park is also bounded by a timeout
+ * as a safety net against missed wakeup.
  */
 @ThreadSafe
 final class ConcurrentMessageWriter implements Closeable {
 
+  static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+
+  // Maximum time for a thread to park before re-checking the state. It is only a safety net against missed wakeup.
+  private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
   private final StoreRequestWriter<?> messagesWriter;
   private final MetricsCollector metricsCollector;
   private final PendingStoreQueue pendingStoreQueue;
   private final AtomicBoolean writerFlag;
   private final AtomicBoolean closed;
+  private final long batchLingerNanos;
+  private volatile Thread leaderThread;
 
   /**
    * Constructor with a {@link NoopMetricsContext}. This constructor should only be used in unit-testing.
@@ -83,11 +96,32 @@ final class ConcurrentMessageWriter implements Closeable {
    * @param metricsCollector the {@link MetricsCollector} for collecting metrics emitted by this class.
    */
   ConcurrentMessageWriter(StoreRequestWriter<?> messagesWriter, MetricsCollector metricsCollector) {
+    this(messagesWriter, metricsCollector, DEFAULT_MAX_BATCH_SIZE, 0L);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param messagesWriter the {@link StoreRequestWriter} for persisting {@link StoreRequest}.
+   * @param metricsCollector the {@link MetricsCollector} for collecting metrics emitted by this class.
+   * @param maxBatchSize maximum number of {@link StoreRequest} to be written in one batch
+   * @param batchLingerMicros maximum time in microseconds for the writer thread to wait for more requests
+   *                          to be batched before writing. If it is {@code 0}, no waiting will be done.
+   */
+  ConcurrentMessageWriter(StoreRequestWriter<?> messagesWriter, MetricsCollector metricsCollector,
+                          int maxBatchSize, long batchLingerMicros) {
+    if (maxBatchSize <= 0) {
+      throw new IllegalArgumentException("Max batch size must be > 0");
+    }
+    if (batchLingerMicros < 0) {
+      throw new IllegalArgumentException("Batch linger time must be >= 0");
+    }
     this.messagesWriter = messagesWriter;
     this.metricsCollector = metricsCollector;
-    this.pendingStoreQueue = new PendingStoreQueue(metricsCollector);
+    this.pendingStoreQueue = new PendingStoreQueue(metricsCollector, maxBatchSize);
     this.writerFlag = new AtomicBoolean();
     this.closed = new AtomicBoolean();
+    this.batchLingerNanos = TimeUnit.MICROSECONDS.toNanos(batchLingerMicros);
   }
 
   /**
@@ -106,16 +140,32 @@ final class ConcurrentMessageWriter implements Closeable {
       throw new IOException("Message writer is already closed");
     }
 
-    PendingStoreRequest pendingStoreRequest = new PendingStoreRequest(storeRequest, metadata);
-    pendingStoreQueue.enqueue(pendingStoreRequest);
+    long startTime = System.nanoTime();
+    PendingStoreRequest pendingStoreRequest = new PendingStoreRequest(storeRequest, metadata, Thread.currentThread());
+    if (pendingStoreQueue.enqueue(pendingStoreRequest)) {
+      // Wake up the leader if it is lingering for more requests
+      Thread leader = leaderThread;
+      if (leader != null) {
+        LockSupport.unpark(leader);
+      }
+    }
 
     metricsCollector.increment("persist.requested", 1L);
 
+    boolean interrupted = false;
     while (!pendingStoreRequest.isCompleted()) {
-      if (!tryWrite()) {
-        Thread.yield();
+      if (!tryWrite() && !pendingStoreRequest.isCompleted()) {
+        LockSupport.parkNanos(this, MAX_PARK_NANOS);
+        // The persist cannot be abandoned once enqueued, hence clear the interrupt flag to avoid busy looping
+        // and restore it before returning.
+        interrupted = Thread.interrupted() || interrupted;
       }
     }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+
+    metricsCollector.increment("persist.wait.micros", TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime));
 
     if (pendingStoreRequest.isSuccess()) {
       metricsCollector.increment("persist.success", 1L);
@@ -144,49 +194,108 @@ final class ConcurrentMessageWriter implements Closeable {
       return false;
     }
     try {
+      if (batchLingerNanos > 0 && !closed.get()) {
+        linger();
+      }
       pendingStoreQueue.persist(messagesWriter);
     } finally {
       writerFlag.set(false);
     }
+
+    // Wake up the thread that owns the head of the queue, so that it can become the next writer.
+    // This must happen after the writer flag is released, otherwise that thread might miss it.
+    pendingStoreQueue.signalNext();
     return true;
   }
 
+  /**
+   * Waits for more requests to be enqueued until the batch is full or the linger time passed.
+   * This method must be called while holding the writer flag.
+   */
+  private void linger() {
+    leaderThread = Thread.currentThread();
+    try {
+      long deadline = System.nanoTime() + batchLingerNanos;
+      long remaining = batchLingerNanos;
+      while (remaining > 0 && !pendingStoreQueue.isBatchFull()) {
+        LockSupport.parkNanos(this, remaining);
+        if (Thread.currentThread().isInterrupted()) {
+          break;
+        }
+        remaining = deadline - System.nanoTime();
+      }
+    } finally {
+      leaderThread = null;
+    }
+  }
+
   @Override
   public void close() throws IOException {
     if (!closed.compareAndSet(false, true)) {
       return;
     }
     // Flush everything in the queue.
-    // When this thread can grab the writer flag, all pending write requests must be completed since the closed
-    // flag was already set to false.
-    while (!tryWrite()) {
-      Thread.yield();
+    // Since the closed flag was already set to true, no more requests can be enqueued, hence the queue will
+    // eventually be drained.
+    while (!tryWrite() || !pendingStoreQueue.isEmpty()) {
+      LockSupport.parkNanos(this, MAX_PARK_NANOS);
     }
     messagesWriter.close();
   }
 
   /**
    * A resettable {@link Iterator} to provide {@link StoreRequest} to {@link StoreRequestWriter}.
-   * Except the {@link #enqueue(PendingStoreRequest)} method, all methods on this class can only be
-   * called while holding the writer flag.
+   * Except the {@link #enqueue(PendingStoreRequest)}, {@link #isBatchFull()}, {@link #isEmpty()} and
+   * {@link #signalNext()} methods, all methods on this class can only be called while holding the writer flag.
    */
   private static final class PendingStoreQueue {
 
     private final MetricsCollector metricsCollector;
+    private final int maxBatchSize;
     private final Queue<PendingStoreRequest> writeQueue;
+    private final AtomicInteger queueSize;
     private final List<PendingStoreRequest> inflightRequests;
 
-    private PendingStoreQueue(MetricsCollector metricsCollector) {
+    private PendingStoreQueue(MetricsCollector metricsCollector, int maxBatchSize) {
       this.metricsCollector = metricsCollector;
+      this.maxBatchSize = maxBatchSize;
       this.writeQueue = new ConcurrentLinkedQueue<>();
-      this.inflightRequests = new ArrayList<>(100);
+      this.queueSize = new AtomicInteger();
+      this.inflightRequests = new ArrayList<>(Math.min(maxBatchSize, 100));
     }
 
     /**
      * Puts the given {@link PendingStoreRequest} to the concurrent queue.
+     *
+     * @return {@code true} if the queue reached the max batch size after adding the given request
      */
-    void enqueue(PendingStoreRequest storeRequest) {
+    boolean enqueue(PendingStoreRequest storeRequest) {
       writeQueue.add(storeRequest);
+      return queueSize.incrementAndGet() == maxBatchSize;
+    }
+
+    /**
+     * Returns {@code true} if there are at least max batch size of requests in the queue.
+     */
+    boolean isBatchFull() {
+      return queueSize.get() >= maxBatchSize;
+    }
+
+    /**
+     * Returns {@code true} if there is no request in the queue.
+     */
+    boolean isEmpty() {
+      return writeQueue.isEmpty();
+    }
+
+    /**
+     * Unparks the thread that owns the request at the head of the queue.
+     */
+    void signalNext() {
+      PendingStoreRequest request = writeQueue.peek();
+      if (request != null) {
+        LockSupport.unpark(request.getOwnerThread());
+      }
     }
 
     /**
@@ -199,14 +308,21 @@ final class ConcurrentMessageWriter implements Closeable {
       // The number of requests in the queue is bounded by the number of threads that call this method.
       // Since this method is expected to be called (indirectly) from a http handler thread, that is bounded by
       // the thread pool size used by the http service.
+      // The number of requests captured is also bounded by the max batch size, with the remaining ones
+      // being written by the next writer.
       inflightRequests.clear();
       PendingStoreRequest request = writeQueue.poll();
       while (request != null) {
+        queueSize.decrementAndGet();
         inflightRequests.add(request);
+        if (inflightRequests.size() >= maxBatchSize) {
+          break;
+        }
         request = writeQueue.poll();
       }
 
-      metricsCollector.gauge("persist.queue.size", inflightRequests.size());
+      metricsCollector.gauge("persist.queue.size", queueSize.get());
+      metricsCollector.gauge("persist.batch.size", inflightRequests.size());
 
       try {
         writer.write(inflightRequests.iterator());
@@ -217,14 +333,17 @@ final class ConcurrentMessageWriter implements Closeable {
     }
 
     /**
-     * Marks all inflight requests as collected through the {@link Iterator#next()} method as completed.
+     * Marks all inflight requests as collected through the {@link Iterator#next()} method as completed
+     * and unparks the threads waiting for them.
      * This method must be called while holding the writer flag.
      */
     void completeAll(@Nullable Throwable failureCause) {
       Iterator<PendingStoreRequest> iterator = inflightRequests.iterator();
       while (iterator.hasNext()) {
-        iterator.next().completed(failureCause);
+        PendingStoreRequest request = iterator.next();
+        request.completed(failureCause);
         iterator.remove();
+        LockSupport.unpark(request.getOwnerThread());
       }
     }
   }
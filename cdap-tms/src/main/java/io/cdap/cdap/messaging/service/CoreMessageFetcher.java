@@ -19,6 +19,7 @@ package io.cdap.cdap.messaging.service;
 import com.google.common.base.Throwables;
 import io.cdap.cdap.api.dataset.lib.CloseableIterator;
 import io.cdap.cdap.messaging.MessageFetcher;
+import io.cdap.cdap.messaging.PayloadCompression;
 import io.cdap.cdap.messaging.TopicMetadata;
 import io.cdap.cdap.messaging.data.MessageId;
 import io.cdap.cdap.messaging.data.RawMessage;
@@ -44,17 +45,95 @@ final class CoreMessageFetcher extends MessageFetcher {
   private final TopicMetadata topicMetadata;
   private final TableProvider<MessageTable> messageTableProvider;
   private final TableProvider<PayloadTable> payloadTableProvider;
+  private final WriteWatermark writeWatermark;
+  private final MessageArrivalNotifier arrivalNotifier;
+  private final long maxAwaitMillis;
+  private final PayloadCompression compression;
 
   CoreMessageFetcher(TopicMetadata topicMetadata,
                      TableProvider<MessageTable> messageTableProvider,
                      TableProvider<PayloadTable> payloadTableProvider) {
+    this(topicMetadata, messageTableProvider, payloadTableProvider, null, null, Long.MAX_VALUE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param topicMetadata the metadata of the topic to fetch from
+   * @param messageTableProvider provider for the {@link MessageTable}
+   * @param payloadTableProvider provider for the {@link PayloadTable}
+   * @param writeWatermark if not {@code null}, only messages with publish timestamp smaller than the
+   *                       {@link WriteWatermark#getVisibleUpperBound()} will be fetched. It is used when
+   *                       the topic is written by multiple writer lanes.
+   * @param arrivalNotifier if not {@code null}, it is used to wait for new messages when a wait timeout is set
+   *                        and there is no message available
+   * @param maxAwaitMillis the maximum time to wait for a notification before fetching again, which is used
+   *                       when messages can be published without notifying the arrivalNotifier
+   */
+  CoreMessageFetcher(TopicMetadata topicMetadata,
+                     TableProvider<MessageTable> messageTableProvider,
+                     TableProvider<PayloadTable> payloadTableProvider,
+                     @Nullable WriteWatermark writeWatermark,
+                     @Nullable MessageArrivalNotifier arrivalNotifier,
+                     long maxAwaitMillis) {
     this.topicMetadata = topicMetadata;
     this.messageTableProvider = messageTableProvider;
     this.payloadTableProvider = payloadTableProvider;
+    this.writeWatermark = writeWatermark;
+    this.arrivalNotifier = arrivalNotifier;
+    this.maxAwaitMillis = maxAwaitMillis;
+    this.compression = topicMetadata.getCompression();
   }
 
   @Override
   public CloseableIterator<RawMessage> fetch() throws IOException {
+    long waitTimeoutMillis = getWaitTimeoutMillis();
+    if (arrivalNotifier == null || waitTimeoutMillis <= 0) {
+      return createIterator();
+    }
+
+    long deadline = System.currentTimeMillis() + waitTimeoutMillis;
+    boolean notified = false;
+    while (true) {
+      // Acquire the version before fetching so that messages published after the fetch started won't be missed
+      long version = arrivalNotifier.getVersion();
+      CloseableIterator<RawMessage> iterator = createIterator();
+      try {
+        if (iterator.hasNext()) {
+          return iterator;
+        }
+      } catch (Throwable t) {
+        iterator.close();
+        throw t;
+      }
+
+      long remainingMillis = deadline - System.currentTimeMillis();
+      if (remainingMillis <= 0) {
+        return iterator;
+      }
+      iterator.close();
+
+      try {
+        if (notified && writeWatermark != null) {
+          // With multiple writer lanes, newly published messages only become visible when the write watermark
+          // moves past their publish timestamp, which happens within a millisecond.
+          notified = false;
+          TimeUnit.MILLISECONDS.sleep(1L);
+        } else {
+          notified = arrivalNotifier.await(version, Math.min(remainingMillis, maxAwaitMillis), TimeUnit.MILLISECONDS);
+        }
+      } catch (InterruptedException e) {
+        // Stop waiting and fetch one more time
+        Thread.currentThread().interrupt();
+        return createIterator();
+      }
+    }
+  }
+
+  /**
+   * Creates a {@link CloseableIterator} for reading messages from the tables based on the fetch settings.
+   */
+  private CloseableIterator<RawMessage> createIterator() throws IOException {
     MessageTable messageTable = messageTableProvider.get();
     try {
       return new MessageCloseableIterator(messageTable);
@@ -127,6 +206,10 @@ final class CoreMessageFetcher extends MessageFetcher {
     private final CloseableIterator<MessageTable.Entry> messageIterator;
     private final TopicId topicId;
     private final MessageTable messageTable;
+    private final long publishTimeUpperBound;
+    @Nullable
+    private final PayloadCompression.Codec codec;
+    private boolean reachedUpperBound;
     private RawMessage nextMessage;
     private MessageTable.Entry messageEntry;
     private CloseableIterator<PayloadTable.Entry> payloadIterator;
@@ -137,9 +220,12 @@ final class CoreMessageFetcher extends MessageFetcher {
 
     MessageCloseableIterator(MessageTable messageTable) throws IOException {
       this.topicId = topicMetadata.getTopicId();
+      this.codec = compression == PayloadCompression.NONE ? null : compression.newCodec();
       this.messageTable = messageTable;
       this.inclusive = isIncludeStart();
       this.messageLimit = getLimit();
+      // The upper bound must be acquired before scanning the table
+      this.publishTimeUpperBound = writeWatermark == null ? Long.MAX_VALUE : writeWatermark.getVisibleUpperBound();
 
       long ttl = topicMetadata.getTTL();
       startOffset = getStartOffset() == null ? null : new MessageId(getStartOffset());
@@ -180,13 +266,19 @@ final class CoreMessageFetcher extends MessageFetcher {
         if (payloadIterator != null && payloadIterator.hasNext()) {
           PayloadTable.Entry payloadEntry = payloadIterator.next();
           // messageEntry is guaranteed to be non-null if payloadIterator is non-null
-          nextMessage = new RawMessage(createMessageId(messageEntry, payloadEntry), payloadEntry.getPayload());
+          nextMessage = createRawMessage(createMessageId(messageEntry, payloadEntry), payloadEntry.getPayload());
           break;
         }
 
         // If there is no payload iterator or it has been exhausted, read the next message from the message iterator
-        if (messageIterator.hasNext()) {
+        if (!reachedUpperBound && messageIterator.hasNext()) {
           messageEntry = messageIterator.next();
+          if (messageEntry.getPublishTimestamp() >= publishTimeUpperBound) {
+            // Messages beyond the upper bound might not be fully written by all writer lanes yet.
+            // They will be fetched by the next fetch call.
+            reachedUpperBound = true;
+            break;
+          }
           if (messageEntry.isPayloadReference()) {
             // If the message entry is a reference to payload table, create the payload iterator
             try {
@@ -211,7 +303,7 @@ final class CoreMessageFetcher extends MessageFetcher {
             }
           } else {
             // Otherwise, the message entry is the next message
-            nextMessage = new RawMessage(createMessageId(messageEntry, null), messageEntry.getPayload());
+            nextMessage = createRawMessage(createMessageId(messageEntry, null), messageEntry.getPayload());
           }
         } else {
           // If there is no more message from the message iterator as well, then no more message to fetch
@@ -245,6 +337,41 @@ final class CoreMessageFetcher extends MessageFetcher {
       closeQuietly(messageIterator);
       closeQuietly(payloadTable);
       closeQuietly(messageTable);
+      closeQuietly(codec);
+    }
+
+    /**
+     * Creates a {@link RawMessage} from the given id and the payload as stored in the table. If the topic has
+     * payload compression, the payload is only decompressed when it is first accessed.
+     */
+    private RawMessage createRawMessage(byte[] id, byte[] storedPayload) {
+      if (codec == null) {
+        return new RawMessage(id, storedPayload);
+      }
+      return new CompressedRawMessage(id, storedPayload, codec);
+    }
+  }
+
+  /**
+   * A {@link RawMessage} that holds the compressed payload and decompresses it on first access. The codec of the
+   * fetch is shared by all messages, and still works after the fetch is closed.
+   */
+  private static final class CompressedRawMessage extends RawMessage {
+
+    private final PayloadCompression.Codec codec;
+    private byte[] payload;
+
+    CompressedRawMessage(byte[] id, byte[] storedPayload, PayloadCompression.Codec codec) {
+      super(id, storedPayload);
+      this.codec = codec;
+    }
+
+    @Override
+    public byte[] getPayload() {
+      if (payload == null) {
+        payload = codec.decompress(super.getPayload());
+      }
+      return payload;
     }
   }
 }
@@ -18,6 +18,7 @@ package io.cdap.cdap.messaging.service;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
@@ -38,6 +39,8 @@ import io.cdap.cdap.messaging.MessageFetcher;
 import io.cdap.cdap.messaging.MessagingService;
 import io.cdap.cdap.messaging.MessagingServiceUtils;
 import io.cdap.cdap.messaging.MessagingUtils;
+import io.cdap.cdap.messaging.MultiTopicMessageFetcher;
+import io.cdap.cdap.messaging.PayloadCompression;
 import io.cdap.cdap.messaging.RollbackDetail;
 import io.cdap.cdap.messaging.StoreRequest;
 import io.cdap.cdap.messaging.TopicMetadata;
@@ -54,6 +57,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -61,6 +66,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -77,11 +84,19 @@ public class CoreMessagingService extends AbstractIdleService implements Messagi
 
   private static final Logger LOG = LoggerFactory.getLogger(CoreMessagingService.class);
 
+  // Fetchers check the write progress of every lane of a topic, hence limit the number of lanes
+  private static final int MAX_WRITER_LANES = 64;
+
   private final CConfiguration cConf;
   private final TableFactory tableFactory;
   private final LoadingCache<TopicId, TopicMetadata> topicCache;
-  private final LoadingCache<TopicId, ConcurrentMessageWriter> messageTableWriterCache;
-  private final LoadingCache<TopicId, ConcurrentMessageWriter> payloadTableWriterCache;
+  private final LoadingCache<TopicId, MultiLaneMessageWriter> messageTableWriterCache;
+  private final LoadingCache<TopicId, MultiLaneMessageWriter> payloadTableWriterCache;
+  private final ConcurrentMap<TopicId, WriteWatermark> writeWatermarks;
+  private final Set<TopicId> cachedTopics;
+  private final ConcurrentMap<TopicId, MessageArrivalNotifier> arrivalNotifiers;
+  private final int writerLanes;
+  private final long fetchWaitCheckIntervalMillis;
   private final TimeProvider timeProvider;
   private final MetricsCollectionService metricsCollectionService;
   private final long txMaxLifeTimeInMillis;
@@ -97,6 +112,21 @@ public class CoreMessagingService extends AbstractIdleService implements Messagi
                        TimeProvider timeProvider, MetricsCollectionService metricsCollectionService) {
     this.cConf = cConf;
     this.tableFactory = tableFactory;
+    this.writerLanes = cConf.getInt(Constants.MessagingSystem.WRITER_LANES);
+    // Fetchers are only notified of messages published through this instance,
+    // hence they need to check the tables periodically if there are other instances.
+    this.fetchWaitCheckIntervalMillis = cConf.getInt(Constants.MessagingSystem.CONTAINER_INSTANCES, 1) > 1
+      ? cConf.getLong(Constants.MessagingSystem.FETCH_WAIT_CHECK_INTERVAL_MS) : Long.MAX_VALUE;
+    Preconditions.checkArgument(writerLanes > 0 && writerLanes <= MAX_WRITER_LANES,
+                                "The %s configuration must be between 1 and %s",
+                                Constants.MessagingSystem.WRITER_LANES, MAX_WRITER_LANES);
+    this.writeWatermarks = new ConcurrentHashMap<>();
+    // The MessageCache of a topic requires messages to be added in message id order, hence topics with cache
+    // are always written with a single lane.
+    this.cachedTopics = cConf.getInt(Constants.MessagingSystem.CACHE_SIZE_MB) > 0
+      ? MessagingServiceUtils.getSystemTopics(cConf, true)
+      : Collections.<TopicId>emptySet();
+    this.arrivalNotifiers = new ConcurrentHashMap<>();
     this.topicCache = createTopicCache();
     this.messageTableWriterCache = createTableWriterCache(true, cConf);
     this.payloadTableWriterCache = createTableWriterCache(false, cConf);
@@ -130,6 +160,16 @@ public class CoreMessagingService extends AbstractIdleService implements Messagi
     try (MetadataTable metadataTable = createMetadataTable()) {
       Map<String, String> properties = createDefaultProperties();
       properties.putAll(topicMetadata.getProperties());
+
+      // Payloads already stored are encoded with the topic compression, hence it cannot be changed
+      PayloadCompression compression = metadataTable.getMetadata(topicMetadata.getTopicId()).getCompression();
+      String newCompression = topicMetadata.getProperties().get(TopicMetadata.COMPRESSION_KEY);
+      if (newCompression != null && PayloadCompression.fromName(newCompression) != compression) {
+        throw new IllegalArgumentException("The compression of topic " + topicMetadata.getTopicId()
+                                             + " cannot be changed from '" + compression + "' to '"
+                                             + newCompression + "'");
+      }
+      properties.put(TopicMetadata.COMPRESSION_KEY, compression.getName());
       metadataTable.updateTopic(new TopicMetadata(topicMetadata.getTopicId(), properties, true));
       topicCache.invalidate(topicMetadata.getTopicId());
     }
@@ -142,6 +182,8 @@ public class CoreMessagingService extends AbstractIdleService implements Messagi
       topicCache.invalidate(topicId);
       messageTableWriterCache.invalidate(topicId);
       payloadTableWriterCache.invalidate(topicId);
+      writeWatermarks.remove(topicId);
+      arrivalNotifiers.remove(topicId);
     }
   }
 
@@ -168,7 +210,14 @@ public class CoreMessagingService extends AbstractIdleService implements Messagi
     final TopicMetadata metadata = getTopic(topicId);
     return new CoreMessageFetcher(metadata,
                                   () -> createMessageTable(metadata),
-                                  () -> createPayloadTable(metadata));
+                                  () -> createPayloadTable(metadata),
+                                  getWriterLanes(topicId) > 1 ? getWriteWatermark(topicId) : null,
+                                  getArrivalNotifier(topicId), fetchWaitCheckIntervalMillis);
+  }
+
+  @Override
+  public MultiTopicMessageFetcher prepareMultiTopicFetch(NamespaceId namespaceId) {
+    return new CoreMultiTopicMessageFetcher(namespaceId, this, this::getArrivalNotifier, fetchWaitCheckIntervalMillis);
   }
 
   @Nullable
@@ -179,7 +228,14 @@ public class CoreMessagingService extends AbstractIdleService implements Messagi
       if (request.isTransactional()) {
         ensureValidTxLifetime(request.getTransactionWritePointer());
       }
-      return messageTableWriterCache.get(request.getTopicId()).persist(request, metadata);
+      RollbackDetail rollbackDetail = messageTableWriterCache.get(request.getTopicId()).persist(request, metadata);
+
+      // Wake up fetchers that are waiting for new messages
+      MessageArrivalNotifier notifier = arrivalNotifiers.get(request.getTopicId());
+      if (notifier != null) {
+        notifier.notifyArrival();
+      }
+      return rollbackDetail;
     } catch (ExecutionException e) {
       Throwable cause = Objects.firstNonNull(e.getCause(), e);
       Throwables.propagateIfPossible(cause, TopicNotFoundException.class, IOException.class);
@@ -308,6 +364,27 @@ public class CoreMessagingService extends AbstractIdleService implements Messagi
     }
   }
 
+  /**
+   * Returns the {@link MessageArrivalNotifier} that is notified when messages are published to the given topic.
+   */
+  private MessageArrivalNotifier getArrivalNotifier(TopicId topicId) {
+    return arrivalNotifiers.computeIfAbsent(topicId, id -> new MessageArrivalNotifier());
+  }
+
+  /**
+   * Returns the {@link WriteWatermark} shared by all writer lanes and fetchers of the given topic.
+   */
+  private WriteWatermark getWriteWatermark(TopicId topicId) {
+    return writeWatermarks.computeIfAbsent(topicId, id -> new WriteWatermark(timeProvider, writerLanes));
+  }
+
+  /**
+   * Returns the number of {@link MessageTable} writer lanes of the given topic.
+   */
+  private int getWriterLanes(TopicId topicId) {
+    return cachedTopics.contains(topicId) ? 1 : writerLanes;
+  }
+
   /**
    * Creates a loading cache for {@link TopicMetadata}.
    */
@@ -323,24 +400,28 @@ public class CoreMessagingService extends AbstractIdleService implements Messagi
   }
 
   /**
-   * Creates a {@link LoadingCache} for {@link ConcurrentMessageWriter}
-   * for writing to {@link MessageTable} or {@link PayloadTable}.
+   * Creates a {@link LoadingCache} for {@link MultiLaneMessageWriter}
+   * for writing to {@link MessageTable} or {@link PayloadTable}. Writes to the {@link MessageTable} are
+   * split into multiple lanes if configured and the topic has no message cache, while writes to
+   * the {@link PayloadTable} always use a single lane.
    *
    * @param messageTable {@code true} for building a cache for the {@link MessageTable};
    *                     {@code false} for the {@link PayloadTable}
    * @param cConf the system configuration
    * @return a {@link LoadingCache} for
    */
-  private LoadingCache<TopicId, ConcurrentMessageWriter> createTableWriterCache(final boolean messageTable,
-                                                                                final CConfiguration cConf) {
+  private LoadingCache<TopicId, MultiLaneMessageWriter> createTableWriterCache(final boolean messageTable,
+                                                                               final CConfiguration cConf) {
     long expireSecs = cConf.getLong(Constants.MessagingSystem.TABLE_CACHE_EXPIRATION_SECONDS);
+    final int maxBatchSize = cConf.getInt(Constants.MessagingSystem.WRITER_MAX_BATCH_SIZE);
+    final long batchLingerMicros = cConf.getLong(Constants.MessagingSystem.WRITER_BATCH_LINGER_MICROS);
 
     return CacheBuilder.newBuilder()
       .expireAfterAccess(expireSecs, TimeUnit.SECONDS)
-      .removalListener(new RemovalListener<TopicId, ConcurrentMessageWriter>() {
+      .removalListener(new RemovalListener<TopicId, MultiLaneMessageWriter>() {
         @Override
-        public void onRemoval(RemovalNotification<TopicId, ConcurrentMessageWriter> notification) {
-          ConcurrentMessageWriter writer = notification.getValue();
+        public void onRemoval(RemovalNotification<TopicId, MultiLaneMessageWriter> notification) {
+          MultiLaneMessageWriter writer = notification.getValue();
           if (writer != null) {
             try {
               writer.close();
@@ -350,14 +431,10 @@ public class CoreMessagingService extends AbstractIdleService implements Messagi
           }
         }
       })
-      .build(new CacheLoader<TopicId, ConcurrentMessageWriter>() {
+      .build(new CacheLoader<TopicId, MultiLaneMessageWriter>() {
         @Override
-        public ConcurrentMessageWriter load(TopicId topicId) throws Exception {
+        public MultiLaneMessageWriter load(TopicId topicId) throws Exception {
           TopicMetadata metadata = getTopic(topicId);
-          StoreRequestWriter<?> messagesWriter = messageTable
-            ? new MessageTableStoreRequestWriter(createMessageTable(metadata), timeProvider)
-            : new PayloadTableStoreRequestWriter(createPayloadTable(metadata), timeProvider);
-
           MetricsContext metricsContext = metricsCollectionService.getContext(ImmutableMap.of(
             Constants.Metrics.Tag.COMPONENT, Constants.Service.MESSAGING_SERVICE,
             Constants.Metrics.Tag.INSTANCE_ID, cConf.get(Constants.MessagingSystem.CONTAINER_INSTANCE_ID, "0"),
@@ -365,7 +442,30 @@ public class CoreMessagingService extends AbstractIdleService implements Messagi
             Constants.Metrics.Tag.TABLE, messageTable ? "message" : "payload"
           ));
 
-          return new ConcurrentMessageWriter(messagesWriter, metricsContext);
+          int lanes = messageTable ? getWriterLanes(topicId) : 1;
+          List<ConcurrentMessageWriter> writers = new ArrayList<>(lanes);
+          MessageIdAllocator idAllocator = new MessageIdAllocator();
+          try {
+            for (int i = 0; i < lanes; i++) {
+              StoreRequestWriter<?> messagesWriter = messageTable
+                ? new MessageTableStoreRequestWriter(createMessageTable(metadata), timeProvider)
+                : new PayloadTableStoreRequestWriter(createPayloadTable(metadata), timeProvider);
+              if (lanes > 1) {
+                messagesWriter.setLane(i, idAllocator, getWriteWatermark(topicId));
+              }
+              writers.add(new ConcurrentMessageWriter(messagesWriter, metricsContext, maxBatchSize, batchLingerMicros));
+            }
+          } catch (Exception e) {
+            for (ConcurrentMessageWriter writer : writers) {
+              try {
+                writer.close();
+              } catch (IOException ioe) {
+                e.addSuppressed(ioe);
+              }
+            }
+            throw e;
+          }
+          return new MultiLaneMessageWriter(writers);
         }
       });
   }
@@ -393,6 +493,7 @@ public class CoreMessagingService extends AbstractIdleService implements Messagi
 
     // Default properties
     properties.put(TopicMetadata.TTL_KEY, cConf.get(Constants.MessagingSystem.TOPIC_DEFAULT_TTL_SECONDS));
+    properties.put(TopicMetadata.COMPRESSION_KEY, cConf.get(Constants.MessagingSystem.TOPIC_DEFAULT_COMPRESSION));
     properties.put(TopicMetadata.GENERATION_KEY, MessagingUtils.Constants.DEFAULT_GENERATION);
     return properties;
   }
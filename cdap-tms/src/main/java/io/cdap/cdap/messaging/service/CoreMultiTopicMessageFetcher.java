@@ -0,0 +1,178 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.cdap.messaging.service;
+
+import com.google.common.base.Throwables;
+import io.cdap.cdap.api.dataset.lib.AbstractCloseableIterator;
+import io.cdap.cdap.api.dataset.lib.CloseableIterator;
+import io.cdap.cdap.api.messaging.TopicNotFoundException;
+import io.cdap.cdap.common.utils.ImmutablePair;
+import io.cdap.cdap.messaging.MessageFetcher;
+import io.cdap.cdap.messaging.MessagingService;
+import io.cdap.cdap.messaging.MultiTopicMessageFetcher;
+import io.cdap.cdap.messaging.data.RawMessage;
+import io.cdap.cdap.proto.id.NamespaceId;
+import io.cdap.cdap.proto.id.TopicId;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Implementation of {@link MultiTopicMessageFetcher} that fetches from each topic in sequence
+ * through the {@link MessageFetcher} returned by {@link MessagingService#prepareFetch(TopicId)}.
+ * If a wait timeout is set and there is no message in any of the topics, it waits for new messages
+ * through the {@link MessageArrivalNotifier} of each topic.
+ */
+final class CoreMultiTopicMessageFetcher extends MultiTopicMessageFetcher {
+
+  private final MessagingService messagingService;
+  private final Function<TopicId, MessageArrivalNotifier> arrivalNotifierProvider;
+  private final long maxAwaitMillis;
+
+  /**
+   * Constructor.
+   *
+   * @param namespaceId the namespace of the topics to fetch from
+   * @param messagingService the {@link MessagingService} for fetching from each topic
+   * @param arrivalNotifierProvider provides the {@link MessageArrivalNotifier} of a topic for waiting for new
+   *                                messages when a wait timeout is set
+   * @param maxAwaitMillis the maximum time to wait for a notification before fetching again, which is used
+   *                       when messages can be published without notifying the arrival notifiers
+   */
+  CoreMultiTopicMessageFetcher(NamespaceId namespaceId, MessagingService messagingService,
+                               Function<TopicId, MessageArrivalNotifier> arrivalNotifierProvider,
+                               long maxAwaitMillis) {
+    super(namespaceId);
+    this.messagingService = messagingService;
+    this.arrivalNotifierProvider = arrivalNotifierProvider;
+    this.maxAwaitMillis = maxAwaitMillis;
+  }
+
+  @Override
+  public CloseableIterator<ImmutablePair<TopicId, RawMessage>> fetch() throws TopicNotFoundException, IOException {
+    // Prepare all fetchers first so that missing topics are reported before any message is returned
+    List<TopicId> topicIds = new ArrayList<>();
+    List<MessageFetcher> fetchers = new ArrayList<>();
+    for (TopicFetch topicFetch : getTopicFetches()) {
+      MessageFetcher fetcher = messagingService.prepareFetch(topicFetch.getTopicId()).setLimit(topicFetch.getLimit());
+      if (topicFetch.getStartOffset() != null) {
+        fetcher.setStartMessage(topicFetch.getStartOffset(), topicFetch.isIncludeStart());
+      }
+      topicIds.add(topicFetch.getTopicId());
+      fetchers.add(fetcher);
+    }
+
+    long waitTimeoutMillis = getWaitTimeoutMillis();
+    if (waitTimeoutMillis <= 0 || topicIds.isEmpty()) {
+      return createIterator(topicIds, fetchers);
+    }
+
+    List<MessageArrivalNotifier> notifiers = new ArrayList<>();
+    for (TopicId topicId : topicIds) {
+      notifiers.add(arrivalNotifierProvider.apply(topicId));
+    }
+    long[] versions = new long[notifiers.size()];
+    long deadline = System.currentTimeMillis() + waitTimeoutMillis;
+    boolean notified = false;
+    while (true) {
+      // Acquire the versions before fetching so that messages published after the fetch started won't be missed
+      for (int i = 0; i < versions.length; i++) {
+        versions[i] = notifiers.get(i).getVersion();
+      }
+      CloseableIterator<ImmutablePair<TopicId, RawMessage>> iterator = createIterator(topicIds, fetchers);
+      try {
+        if (iterator.hasNext()) {
+          return iterator;
+        }
+      } catch (Throwable t) {
+        iterator.close();
+        throw t;
+      }
+
+      long remainingMillis = deadline - System.currentTimeMillis();
+      if (remainingMillis <= 0) {
+        return iterator;
+      }
+      iterator.close();
+
+      try {
+        if (notified) {
+          // For topics with multiple writer lanes, newly published messages only become visible when the write
+          // watermark moves past their publish timestamp, which happens within a millisecond.
+          notified = false;
+          TimeUnit.MILLISECONDS.sleep(1L);
+        } else {
+          notified = MessageArrivalNotifier.awaitAny(notifiers, versions, Math.min(remainingMillis, maxAwaitMillis),
+                                                     TimeUnit.MILLISECONDS);
+        }
+      } catch (InterruptedException e) {
+        // Stop waiting and fetch one more time
+        Thread.currentThread().interrupt();
+        return createIterator(topicIds, fetchers);
+      }
+    }
+  }
+
+  /**
+   * Creates a {@link CloseableIterator} that fetches from the given fetchers in sequence.
+   */
+  private CloseableIterator<ImmutablePair<TopicId, RawMessage>> createIterator(List<TopicId> topicIds,
+                                                                              List<MessageFetcher> fetchers) {
+    return new AbstractCloseableIterator<ImmutablePair<TopicId, RawMessage>>() {
+
+      private int index;
+      private TopicId currentTopicId;
+      private CloseableIterator<RawMessage> currentIterator;
+
+      @Override
+      protected ImmutablePair<TopicId, RawMessage> computeNext() {
+        while (true) {
+          if (currentIterator != null) {
+            if (currentIterator.hasNext()) {
+              return ImmutablePair.of(currentTopicId, currentIterator.next());
+            }
+            currentIterator.close();
+            currentIterator = null;
+          }
+          if (index >= fetchers.size()) {
+            return endOfData();
+          }
+
+          // Only open the iterator of the next topic when the previous one is exhausted
+          currentTopicId = topicIds.get(index);
+          try {
+            currentIterator = fetchers.get(index++).fetch();
+          } catch (TopicNotFoundException | IOException e) {
+            throw Throwables.propagate(e);
+          }
+        }
+      }
+
+      @Override
+      public void close() {
+        if (currentIterator != null) {
+          currentIterator.close();
+          currentIterator = null;
+        }
+        index = fetchers.size();
+      }
+    };
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.cdap.messaging.service;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Notifies fetchers waiting for new messages of a topic. Each notification increments a version number, so that
+ * a fetcher can remember the version before fetching and wait for a version change if the fetch was empty.
+ * Publishers only need to acquire a monitor lock if there are waiting fetchers. A fetcher can wait for new messages
+ * of multiple topics at once through {@link #awaitAny(List, long[], long, TimeUnit)}.
+ */
+final class MessageArrivalNotifier {
+
+  private final AtomicLong version = new AtomicLong();
+  // The monitors of the waiting fetchers. Each waiting fetcher has its own monitor, which is registered
+  // with the notifiers of all the topics it waits for.
+  private final Set<Object> waiters = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+  /**
+   * Returns the current version. It must be called before fetching.
+   */
+  long getVersion() {
+    return version.get();
+  }
+
+  /**
+   * Notifies that new messages are available and wakes up all waiting fetchers.
+   */
+  void notifyArrival() {
+    version.incrementAndGet();
+    for (Object waiter : waiters) {
+      synchronized (waiter) {
+        waiter.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Waits until the version is different from the given one, or the timeout expired.
+   *
+   * @param seenVersion the version acquired by {@link #getVersion()} before the last fetch
+   * @param timeout the maximum time to wait
+   * @param unit the unit of the timeout
+   * @return {@code true} if new messages arrived; {@code false} if the timeout expired
+   * @throws InterruptedException if the current thread is interrupted while waiting
+   */
+  boolean await(long seenVersion, long timeout, TimeUnit unit) throws InterruptedException {
+    return awaitAny(Collections.singletonList(this), new long[] { seenVersion }, timeout, unit);
+  }
+
+  /**
+   * Waits until the version of any of the given notifiers is different from the corresponding seen version,
+   * or the timeout expired.
+   *
+   * @param notifiers the notifiers to wait for
+   * @param seenVersions the versions acquired by {@link #getVersion()} of each notifier before the last fetch
+   * @param timeout the maximum time to wait
+   * @param unit the unit of the timeout
+   * @return {@code true} if new messages arrived; {@code false} if the timeout expired
+   * @throws InterruptedException if the current thread is interrupted while waiting
+   */
+  static boolean awaitAny(List<MessageArrivalNotifier> notifiers, long[] seenVersions,
+                          long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    Object monitor = new Object();
+    // Register as waiter before checking the versions, so that a concurrent notifyArrival either is seen
+    // through the version change or will acquire the monitor lock to wake up this thread.
+    for (MessageArrivalNotifier notifier : notifiers) {
+      notifier.waiters.add(monitor);
+    }
+    try {
+      synchronized (monitor) {
+        while (!isChanged(notifiers, seenVersions)) {
+          long remainingNanos = deadline - System.nanoTime();
+          if (remainingNanos <= 0) {
+            return false;
+          }
+          TimeUnit.NANOSECONDS.timedWait(monitor, remainingNanos);
+        }
+        return true;
+      }
+    } finally {
+      for (MessageArrivalNotifier notifier : notifiers) {
+        notifier.waiters.remove(monitor);
+      }
+    }
+  }
+
+  private static boolean isChanged(List<MessageArrivalNotifier> notifiers, long[] seenVersions) {
+    for (int i = 0; i < seenVersions.length; i++) {
+      if (notifiers.get(i).getVersion() != seenVersions[i]) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
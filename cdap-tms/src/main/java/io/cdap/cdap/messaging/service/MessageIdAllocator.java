@@ -0,0 +1,52 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.cdap.messaging.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Allocates message ids, in the form of publish timestamp and sequence id, for all writer lanes of a topic.
+ * Ids are allocated in strictly increasing order, so that messages of a topic are ordered by the time they
+ * are published, regardless of which lane writes them.
+ *
+ * If all sequence ids of a millisecond are used up, the next id is allocated with the next millisecond,
+ * even if the current time has not advanced yet.
+ */
+@ThreadSafe
+final class MessageIdAllocator {
+
+  // The last allocated id, encoded as (timestamp * SEQUENCE_ID_LIMIT + sequenceId)
+  private final AtomicLong lastId = new AtomicLong();
+
+  /**
+   * Allocates the next message id.
+   *
+   * @param currentTime the current time in milliseconds
+   * @return the message id encoded as {@code timestamp * SEQUENCE_ID_LIMIT + sequenceId}
+   */
+  long allocate(long currentTime) {
+    long minId = currentTime * StoreRequestWriter.SEQUENCE_ID_LIMIT;
+    while (true) {
+      long last = lastId.get();
+      long id = Math.max(minId, last + 1);
+      if (lastId.compareAndSet(last, id)) {
+        return id;
+      }
+    }
+  }
+}
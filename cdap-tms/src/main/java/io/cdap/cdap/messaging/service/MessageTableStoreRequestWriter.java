@@ -62,7 +62,11 @@ final class MessageTableStoreRequestWriter extends StoreRequestWriter<MessageTab
 
   @Override
   public void close() throws IOException {
-    messageTable.close();
+    try {
+      messageTable.close();
+    } finally {
+      super.close();
+    }
   }
 
   /**
@@ -0,0 +1,84 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.cdap.messaging.service;
+
+import io.cdap.cdap.messaging.RollbackDetail;
+import io.cdap.cdap.messaging.StoreRequest;
+import io.cdap.cdap.messaging.TopicMetadata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A writer that splits the write path of a topic into multiple independently committing
+ * {@link ConcurrentMessageWriter} lanes. Each calling thread is assigned to a lane based on the thread id.
+ */
+@ThreadSafe
+final class MultiLaneMessageWriter implements Closeable {
+
+  private final List<ConcurrentMessageWriter> lanes;
+
+  /**
+   * Constructor.
+   *
+   * @param lanes list of {@link ConcurrentMessageWriter}, one per lane. If there are more than one lane,
+   *              the {@link StoreRequestWriter} used by each lane must have {@link StoreRequestWriter#setLane}
+   *              called with the corresponding lane index.
+   */
+  MultiLaneMessageWriter(List<ConcurrentMessageWriter> lanes) {
+    if (lanes.isEmpty()) {
+      throw new IllegalArgumentException("There must be at least one writer lane");
+    }
+    this.lanes = lanes;
+  }
+
+  /**
+   * Persists the given {@link StoreRequest} through one of the lanes.
+   *
+   * @see ConcurrentMessageWriter#persist(StoreRequest, TopicMetadata)
+   */
+  @Nullable
+  RollbackDetail persist(StoreRequest storeRequest, TopicMetadata metadata) throws IOException {
+    int size = lanes.size();
+    ConcurrentMessageWriter writer = size == 1
+      ? lanes.get(0)
+      : lanes.get((int) (Thread.currentThread().getId() % size));
+    return writer.persist(storeRequest, metadata);
+  }
+
+  @Override
+  public void close() throws IOException {
+    IOException failure = null;
+    for (ConcurrentMessageWriter writer : lanes) {
+      try {
+        writer.close();
+      } catch (IOException e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+}
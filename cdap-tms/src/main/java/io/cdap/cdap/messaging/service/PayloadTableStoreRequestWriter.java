@@ -61,7 +61,11 @@ final class PayloadTableStoreRequestWriter extends StoreRequestWriter<PayloadTab
 
   @Override
   public void close() throws IOException {
-    payloadTable.close();
+    try {
+      payloadTable.close();
+    } finally {
+      super.close();
+    }
   }
 
   /**
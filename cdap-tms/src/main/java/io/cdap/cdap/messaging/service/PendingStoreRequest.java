@@ -29,25 +29,34 @@ final class PendingStoreRequest extends StoreRequest {
 
   private final StoreRequest originalRequest;
   private final TopicMetadata metadata;
+  private final Thread ownerThread;
 
-  private boolean completed;
+  private volatile boolean completed;
   private long startTimestamp;
   private long endTimestamp;
   private int startSequenceId;
   private int endSequenceId;
   private Throwable failureCause;
 
-  PendingStoreRequest(StoreRequest originalRequest, TopicMetadata topicMetadata) {
+  PendingStoreRequest(StoreRequest originalRequest, TopicMetadata topicMetadata, Thread ownerThread) {
     super(originalRequest.getTopicId(), originalRequest.isTransactional(),
           originalRequest.getTransactionWritePointer());
     this.originalRequest = originalRequest;
     this.metadata = topicMetadata;
+    this.ownerThread = ownerThread;
   }
 
   TopicMetadata getTopicMetadata() {
     return metadata;
   }
 
+  /**
+   * Returns the {@link Thread} that submitted this request and is waiting for its completion.
+   */
+  Thread getOwnerThread() {
+    return ownerThread;
+  }
+
   boolean isCompleted() {
     return completed;
   }
@@ -65,8 +74,9 @@ final class PendingStoreRequest extends StoreRequest {
   }
 
   void completed(@Nullable Throwable failureCause) {
-    completed = true;
     this.failureCause = failureCause;
+    // Set the volatile flag last so that the failure cause is visible to the owner thread
+    completed = true;
   }
 
   void setStartTimestamp(long startTimestamp) {
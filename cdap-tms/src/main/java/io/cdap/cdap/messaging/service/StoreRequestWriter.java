@@ -20,6 +20,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.util.concurrent.Uninterruptibles;
 import io.cdap.cdap.common.utils.TimeProvider;
+import io.cdap.cdap.messaging.PayloadCompression;
 import io.cdap.cdap.messaging.StoreRequest;
 import io.cdap.cdap.messaging.TopicMetadata;
 
@@ -49,6 +50,9 @@ abstract class StoreRequestWriter<T> implements Closeable {
   private long writeTimestamp;
   private long lastWriteTimestamp;
   private int seqId;
+  private MessageIdAllocator idAllocator;
+  private WriteWatermark watermark;
+  private int lane;
 
   private final PayloadTransformIterator payloadTransformIterator;
 
@@ -64,12 +68,46 @@ abstract class StoreRequestWriter<T> implements Closeable {
     this.payloadTransformIterator = new PayloadTransformIterator(generateNullPayloadEntry);
   }
 
+  /**
+   * Makes this writer to be one of the writer lanes of a topic. Message ids are allocated from the given
+   * {@link MessageIdAllocator} so that messages are ordered by publish time across all lanes, and writes are
+   * tracked by the given {@link WriteWatermark} so that fetchers can determine which messages are fully written
+   * by all lanes.
+   *
+   * @param lane the lane index, which must be in the range of {@code [0, totalLanes)}
+   * @param idAllocator the {@link MessageIdAllocator} shared by all lanes of the topic
+   * @param watermark the {@link WriteWatermark} shared by all lanes of the topic
+   */
+  final void setLane(int lane, MessageIdAllocator idAllocator, WriteWatermark watermark) {
+    this.idAllocator = idAllocator;
+    this.watermark = watermark;
+    this.lane = lane;
+  }
+
   /**
    * Writes the given list of {@link PendingStoreRequest} through this writer.
    */
   final void write(final Iterator<? extends PendingStoreRequest> requests) throws IOException {
+    if (watermark == null) {
+      writeRequests(requests);
+      return;
+    }
+
+    watermark.startWrite(lane);
+    try {
+      writeRequests(requests);
+    } finally {
+      watermark.endWrite(lane);
+    }
+  }
+
+  private void writeRequests(final Iterator<? extends PendingStoreRequest> requests) throws IOException {
     // Make sure we start with the current timestamp
     updateTimeSequence();
+    if (watermark != null) {
+      // All entries written in this batch will have publish timestamp >= the starting write timestamp
+      watermark.setWriteTimestamp(lane, writeTimestamp);
+    }
 
     // Transform payloads inside each PendingStoreRequest into individual write entry
     doWrite(new AbstractIterator<T>() {
@@ -103,7 +141,7 @@ abstract class StoreRequestWriter<T> implements Closeable {
    * @param transactionWritePointer the transaction write pointer if the request is transactional
    * @param writeTimestamp the timestamp to be used as the write timestamp
    * @param sequenceId the sequence id to be used
-   * @param payload the message payload
+   * @param payload the message payload, already encoded with the {@link PayloadCompression} of the topic
    * @return an entry of type {@code <T>}.
    */
   abstract T getEntry(TopicMetadata metadata, boolean transactional, long transactionWritePointer,
@@ -114,11 +152,23 @@ abstract class StoreRequestWriter<T> implements Closeable {
    */
   abstract void doWrite(Iterator<T> entries) throws IOException;
 
+  /**
+   * Releases the payload compression resources of this writer. Sub-classes overriding this method must call it.
+   */
+  @Override
+  public void close() throws IOException {
+    payloadTransformIterator.closeCodec();
+  }
+
   /**
    * Advances the sequence id. If the sequence id exceeded the max limit, the timestamp will get updated and the
    * sequence id will get reset to 0.
    */
   private void incrementSequenceId() {
+    if (idAllocator != null) {
+      allocateId();
+      return;
+    }
     seqId++;
     if (seqId >= SEQUENCE_ID_LIMIT) {
       updateTimeSequence();
@@ -130,6 +180,10 @@ abstract class StoreRequestWriter<T> implements Closeable {
    * used one.
    */
   private void updateTimeSequence() {
+    if (idAllocator != null) {
+      allocateId();
+      return;
+    }
     writeTimestamp = timeProvider.currentTimeMillis();
     if (writeTimestamp == lastWriteTimestamp && seqId >= SEQUENCE_ID_LIMIT) {
       // Force the writeTimestamp to advance if we used up all sequence id.
@@ -143,6 +197,15 @@ abstract class StoreRequestWriter<T> implements Closeable {
     }
   }
 
+  /**
+   * Allocates the write timestamp and sequence id from the {@link MessageIdAllocator} shared with other lanes.
+   */
+  private void allocateId() {
+    long id = idAllocator.allocate(timeProvider.currentTimeMillis());
+    writeTimestamp = id / SEQUENCE_ID_LIMIT;
+    seqId = (int) (id % SEQUENCE_ID_LIMIT);
+  }
+
   /**
    * A resettable {@link Iterator} to transform payloads in a {@link PendingStoreRequest} to entries using
    * the {@link #getEntry(TopicMetadata, boolean, long, long, short, byte[])} method.
@@ -152,6 +215,9 @@ abstract class StoreRequestWriter<T> implements Closeable {
     private final boolean generateNullPayloadEntry;
     private PendingStoreRequest storeRequest;
     private Iterator<byte[]> payloadIterator;
+    private PayloadCompression compression;
+    // Reused across requests, so that the compression resources are not allocated for every payload
+    private PayloadCompression.Codec codec;
     private boolean computedFirst;
     private T nextEntry;
     private boolean completed = true;   // Initially, it is an empty iterator
@@ -172,7 +238,7 @@ abstract class StoreRequestWriter<T> implements Closeable {
       // If the request has next payload
       // or if the iterator is empty but we wanted to generate an entry with null payload
       if (payloadIterator.hasNext() || (generateNullPayloadEntry && !computedFirst)) {
-        byte[] payload = payloadIterator.hasNext() ? payloadIterator.next() : null;
+        byte[] payload = payloadIterator.hasNext() ? codec.compress(payloadIterator.next()) : null;
         nextEntry = getEntry(storeRequest.getTopicMetadata(), storeRequest.isTransactional(),
                              storeRequest.getTransactionWritePointer(), writeTimestamp, (short) seqId, payload);
       }
@@ -204,10 +270,23 @@ abstract class StoreRequestWriter<T> implements Closeable {
       this.storeRequest.setStartTimestamp(writeTimestamp);
       this.storeRequest.setStartSequenceId(seqId);
       this.payloadIterator = storeRequest.iterator();
+      PayloadCompression compression = storeRequest.getTopicMetadata().getCompression();
+      if (codec == null || compression != this.compression) {
+        closeCodec();
+        this.compression = compression;
+        this.codec = compression.newCodec();
+      }
       this.nextEntry = null;
       this.computedFirst = false;
       this.completed = false;
       return this;
     }
+
+    private void closeCodec() {
+      if (codec != null) {
+        codec.close();
+        codec = null;
+      }
+    }
   }
 }
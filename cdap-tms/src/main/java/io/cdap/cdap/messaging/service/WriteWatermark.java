@@ -0,0 +1,92 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.cdap.messaging.service;
+
+import io.cdap.cdap.common.utils.TimeProvider;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Tracks the publish timestamps being written by the writer lanes of a topic. Since lanes commit independently,
+ * a message written by one lane can become visible before a message with a smaller message id written by
+ * another lane. To preserve the ordering guarantee to subscribers, fetchers must only return messages with
+ * publish timestamp smaller than the visible upper bound as returned by {@link #getVisibleUpperBound()}.
+ *
+ * The rule is, a message is visible only if its publish timestamp is smaller than the current time and
+ * the starting write timestamp of every in progress lane write. It relies on each lane acquiring its write
+ * timestamp after marking the write as started.
+ */
+@ThreadSafe
+final class WriteWatermark {
+
+  // Lane is not writing
+  private static final long IDLE = Long.MAX_VALUE;
+  // Lane started writing, but yet to acquire the write timestamp
+  private static final long ACQUIRING = Long.MIN_VALUE;
+
+  private final TimeProvider timeProvider;
+  private final AtomicLongArray laneTimestamps;
+
+  WriteWatermark(TimeProvider timeProvider, int lanes) {
+    this.timeProvider = timeProvider;
+    this.laneTimestamps = new AtomicLongArray(lanes);
+    for (int i = 0; i < lanes; i++) {
+      laneTimestamps.set(i, IDLE);
+    }
+  }
+
+  /**
+   * Marks the given lane starts writing. This method must be called before the lane acquires the write timestamp.
+   */
+  void startWrite(int lane) {
+    laneTimestamps.set(lane, ACQUIRING);
+  }
+
+  /**
+   * Sets the smallest publish timestamp of the ongoing write of the given lane.
+   */
+  void setWriteTimestamp(int lane, long timestamp) {
+    laneTimestamps.set(lane, timestamp);
+  }
+
+  /**
+   * Marks the given lane completed the ongoing write.
+   */
+  void endWrite(int lane) {
+    laneTimestamps.set(lane, IDLE);
+  }
+
+  /**
+   * Returns the exclusive upper bound of publish timestamp that messages are guaranteed to be fully written
+   * by all lanes. This method must be called before the fetcher starts reading from the table.
+   */
+  long getVisibleUpperBound() {
+    // Get the current time first. Any lane that starts writing after this will acquire a timestamp >= this time.
+    long upperBound = timeProvider.currentTimeMillis();
+    for (int i = 0; i < laneTimestamps.length(); i++) {
+      long timestamp = laneTimestamps.get(i);
+      // The lane is acquiring the timestamp, which only takes a very short time.
+      while (timestamp == ACQUIRING) {
+        Thread.yield();
+        timestamp = laneTimestamps.get(i);
+      }
+      upperBound = Math.min(upperBound, timestamp);
+    }
+    return upperBound;
+  }
+}
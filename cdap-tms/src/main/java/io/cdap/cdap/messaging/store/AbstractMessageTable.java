@@ -46,10 +46,12 @@ public abstract class AbstractMessageTable implements MessageTable {
 
   /**
    * Rollback the transactionally published messages in the Table in the given key range.
+   * Only messages published with the given transaction are rolled back, since the key range can contain
+   * messages written by other writer lanes of the same topic.
    *
    * @param startKey start row to delete (inclusive)
    * @param stopKey stop row to delete (exclusive)
-   * @param txWritePointer transaction write pointer for messages that are being roll backed
+   * @param txWritePointer the negated transaction write pointer for messages that are being roll backed
    * @throws IOException thrown if there was an error while trying to delete the entries
    */
   protected abstract void rollback(byte[] startKey, byte[] stopKey, byte[] txWritePointer) throws IOException;
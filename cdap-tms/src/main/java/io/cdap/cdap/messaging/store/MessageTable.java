@@ -86,6 +86,9 @@ public interface MessageTable extends Closeable {
 
   /**
    * Fetches message table entries in the given topic that were publish on or after the given start time.
+   * Since the publish timestamp is part of the row key right after the topic and generation prefix,
+   * implementations should seek to the first row of the start time directly instead of scanning from the
+   * beginning of the topic.
    *
    * @param metadata metadata of the topic to fetch from
    * @param startTime the publish time to start from
@@ -27,6 +27,7 @@ import io.cdap.cdap.common.utils.TimeProvider;
 import io.cdap.cdap.messaging.RollbackDetail;
 import io.cdap.cdap.messaging.TopicMetadata;
 import io.cdap.cdap.messaging.cache.MessageCache;
+import io.cdap.cdap.messaging.cache.OffHeapRingBuffer;
 import io.cdap.cdap.messaging.data.MessageId;
 import io.cdap.cdap.messaging.store.MessageFilter;
 import io.cdap.cdap.messaging.store.MessageTable;
@@ -162,7 +163,11 @@ final class CachingMessageTable implements MessageTable {
                                               + CacheMessageTableEntry.class.getName()
                                               + ", but got type " + entry.getClass().getName() + " instead.");
           }
-          ((CacheMessageTableEntry) entry).rollback();
+          // Only rollback entries published by the transaction, since the range can contain entries
+          // written by other writer lanes of the same topic
+          if (entry.getTransactionWritePointer() == rollbackDetail.getTransactionWritePointer()) {
+            ((CacheMessageTableEntry) entry).rollback();
+          }
         }
       });
     }
@@ -332,6 +337,7 @@ final class CachingMessageTable implements MessageTable {
   /**
    * A {@link Entry} implementation used for entries in {@link MessageCache}, which allows
    * altering the transaction write point for rollback purpose of messages that were published transactionally.
+   * The payload can either be kept on heap or in an {@link OffHeapRingBuffer}.
    */
   @VisibleForTesting
   static final class CacheMessageTableEntry implements Entry {
@@ -343,6 +349,9 @@ final class CachingMessageTable implements MessageTable {
     private final byte[] payload;
     private final long publishTimestamp;
     private final short sequenceId;
+    private final OffHeapRingBuffer payloadBuffer;
+    private final long payloadPosition;
+    private final int payloadLength;
     private long transactionWritePointer;
     private boolean rollback;
 
@@ -354,17 +363,47 @@ final class CachingMessageTable implements MessageTable {
       this.payload = null;
       this.publishTimestamp = publishTimestamp;
       this.sequenceId = sequenceId;
+      this.payloadBuffer = null;
+      this.payloadPosition = -1L;
+      this.payloadLength = 0;
     }
 
     CacheMessageTableEntry(Entry other) {
+      this(other, other.getPayload(), 0, null, -1L);
+    }
+
+    /**
+     * Creates an entry with the payload of the given length stored in the given {@link OffHeapRingBuffer}.
+     */
+    CacheMessageTableEntry(Entry other, OffHeapRingBuffer payloadBuffer, long payloadPosition, int payloadLength) {
+      this(other, null, payloadLength, payloadBuffer, payloadPosition);
+    }
+
+    private CacheMessageTableEntry(Entry other, @Nullable byte[] payload, int payloadLength,
+                                   @Nullable OffHeapRingBuffer payloadBuffer, long payloadPosition) {
       this.lookupOnly = false;
       this.topicId = other.getTopicId();
       this.generation = other.getGeneration();
       this.transactional = other.isTransactional();
       this.transactionWritePointer = other.getTransactionWritePointer();
-      this.payload = other.getPayload();
+      this.payload = payload;
       this.publishTimestamp = other.getPublishTimestamp();
       this.sequenceId = other.getSequenceId();
+      this.payloadBuffer = payloadBuffer;
+      this.payloadPosition = payloadPosition;
+      this.payloadLength = payload == null ? payloadLength : payload.length;
+      if (other instanceof CacheMessageTableEntry) {
+        this.rollback = ((CacheMessageTableEntry) other).rollback;
+      }
+    }
+
+    /**
+     * Releases the space used by the payload in the {@link OffHeapRingBuffer}.
+     */
+    void releasePayload() {
+      if (payloadBuffer != null) {
+        payloadBuffer.release(payloadPosition);
+      }
     }
 
     void rollback() {
@@ -389,7 +428,7 @@ final class CachingMessageTable implements MessageTable {
 
     @Override
     public boolean isPayloadReference() {
-      return getPayload() == null;
+      return payloadBuffer == null && getPayload() == null;
     }
 
     @Override
@@ -414,6 +453,9 @@ final class CachingMessageTable implements MessageTable {
       if (lookupOnly) {
         throw new UnsupportedOperationException();
       }
+      if (payloadBuffer != null) {
+        return payloadBuffer.read(payloadPosition, payloadLength);
+      }
       return payload;
     }
 
@@ -24,6 +24,7 @@ import io.cdap.cdap.common.conf.CConfiguration;
 import io.cdap.cdap.common.conf.Constants;
 import io.cdap.cdap.messaging.MessagingServiceUtils;
 import io.cdap.cdap.messaging.cache.MessageCache;
+import io.cdap.cdap.messaging.cache.OffHeapRingBuffer;
 import io.cdap.cdap.messaging.store.MessageTable;
 import io.cdap.cdap.proto.id.TopicId;
 
@@ -61,6 +62,7 @@ public class DefaultMessageTableCacheProvider implements MessageTableCacheProvid
           Map<TopicId, MessageCache<MessageTable.Entry>> caches = new HashMap<>();
 
           long cacheSize = cConf.getInt(Constants.MessagingSystem.CACHE_SIZE_MB) * 1024 * 1024;
+          boolean offHeap = cConf.getBoolean(Constants.MessagingSystem.CACHE_OFF_HEAP);
           Set<TopicId> systemTopics = MessagingServiceUtils.getSystemTopics(cConf, true);
           if (cacheSize > 0 && !systemTopics.isEmpty()) {
             MessageTableEntryWeigher weigher = new MessageTableEntryWeigher();
@@ -76,8 +78,17 @@ public class DefaultMessageTableCacheProvider implements MessageTableCacheProvid
               // In future, it can be adjusted dynamically based on metrics
               MessageCache.Limits limits = new MessageCache.Limits(hardLimit / 2, hardLimit * 7 / 10, hardLimit);
               for (TopicId topic : systemTopics) {
-                caches.put(topic, new MessageCache<>(comparator, weigher, limits,
-                                                     createMetricsContext(cConf, topic, metricsCollectionService)));
+                MetricsContext metricsContext = createMetricsContext(cConf, topic, metricsCollectionService);
+                if (offHeap) {
+                  // The payload size is always smaller than the entry weight, hence a buffer of the hard limit size
+                  // is large enough to hold all payloads in the cache. Payloads of removed entries that are still
+                  // being scanned can take extra space, in which case new entries are kept on heap.
+                  OffHeapRingBuffer buffer = new OffHeapRingBuffer((int) Math.min(hardLimit, Integer.MAX_VALUE));
+                  caches.put(topic, new MessageCache<>(comparator, weigher, limits, metricsContext,
+                                                       new OffHeapMessageTableEntryStore(buffer)));
+                } else {
+                  caches.put(topic, new MessageCache<>(comparator, weigher, limits, metricsContext));
+                }
               }
             }
           }
@@ -0,0 +1,62 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.cdap.messaging.store.cache;
+
+import io.cdap.cdap.messaging.cache.MessageCache;
+import io.cdap.cdap.messaging.cache.OffHeapRingBuffer;
+import io.cdap.cdap.messaging.store.MessageTable;
+
+/**
+ * A {@link MessageCache.EntryStore} that keeps payloads of cached {@link MessageTable.Entry} in an
+ * {@link OffHeapRingBuffer}. Entries with payload that cannot fit into the buffer are kept on heap.
+ * Entries are returned by scans as views of the buffer, without copying.
+ */
+final class OffHeapMessageTableEntryStore implements MessageCache.EntryStore<MessageTable.Entry> {
+
+  private final OffHeapRingBuffer buffer;
+
+  OffHeapMessageTableEntryStore(OffHeapRingBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  @Override
+  public MessageTable.Entry store(MessageTable.Entry entry) {
+    byte[] payload = entry.getPayload();
+    if (payload == null) {
+      return entry;
+    }
+    long position = buffer.allocate(payload);
+    if (position < 0) {
+      return entry;
+    }
+    return new CachingMessageTable.CacheMessageTableEntry(entry, buffer, position, payload.length);
+  }
+
+  @Override
+  public MessageTable.Entry load(MessageTable.Entry entry) {
+    // The cached entry is returned as a view, which copies the payload out of the buffer when it is requested.
+    // The MessageCache doesn't release the entry while a scanner that can return it is open.
+    return entry;
+  }
+
+  @Override
+  public void release(MessageTable.Entry entry) {
+    if (entry instanceof CachingMessageTable.CacheMessageTableEntry) {
+      ((CachingMessageTable.CacheMessageTableEntry) entry).releasePayload();
+    }
+  }
+}
@@ -16,6 +16,7 @@
 
 package io.cdap.cdap.messaging.store.hbase;
 
+import io.cdap.cdap.api.common.Bytes;
 import io.cdap.cdap.api.dataset.lib.AbstractCloseableIterator;
 import io.cdap.cdap.api.dataset.lib.CloseableIterator;
 import io.cdap.cdap.data2.util.hbase.HBaseTableUtil;
@@ -152,9 +153,14 @@ final class HBaseMessageTable extends AbstractMessageTable {
       .setCaching(scanCacheRows)
       .build();
 
+    byte[] publishTxWritePtr = Bytes.toBytes(-1 * Bytes.toLong(txWritePtr));
     List<Put> batchPuts = new ArrayList<>();
     try (ResultScanner scanner = DistributedScanner.create(hTable, scan, rowKeyDistributor, scanExecutor)) {
       for (Result result : scanner) {
+        // Skip messages that are not published by the transaction being rolled back
+        if (!Arrays.equals(publishTxWritePtr, result.getValue(columnFamily, TX_COL))) {
+          continue;
+        }
         // No need to turn the key back to the original row key because we want to put with the actual row key
         PutBuilder putBuilder = tableUtil.buildPut(result.getRow());
         putBuilder.add(columnFamily, TX_COL, txWritePtr);
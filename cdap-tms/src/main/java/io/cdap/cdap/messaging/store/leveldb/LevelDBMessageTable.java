@@ -127,12 +127,17 @@ final class LevelDBMessageTable extends AbstractMessageTable {
 
   @Override
   protected void rollback(byte[] startKey, byte[] stopKey, byte[] txWritePtr) throws IOException {
+    byte[] publishTxWritePtr = Bytes.toBytes(-1 * Bytes.toLong(txWritePtr));
     WriteBatch writeBatch = levelDB.createWriteBatch();
     try (CloseableIterator<Map.Entry<byte[], byte[]>> rowIterator = new DBScanIterator(levelDB, startKey, stopKey)) {
       while (rowIterator.hasNext()) {
         Map.Entry<byte[], byte[]> rowValue = rowIterator.next();
         byte[] value = rowValue.getValue();
         Map<String, byte[]> columns = decodeValue(value);
+        // Skip messages that are not published by the transaction being rolled back
+        if (!Arrays.equals(publishTxWritePtr, columns.get(TX_COL))) {
+          continue;
+        }
         writeBatch.put(rowValue.getKey(), encodeValue(txWritePtr, columns.get(PAYLOAD_COL)));
       }
     }
@@ -30,6 +30,7 @@ import io.cdap.cdap.common.logging.Loggers;
 import io.cdap.cdap.common.service.AbstractRetryableScheduledService;
 import io.cdap.cdap.common.service.RetryStrategy;
 import io.cdap.cdap.common.utils.ImmutablePair;
+import io.cdap.cdap.messaging.context.LongPollMessageFetcher;
 import io.cdap.cdap.messaging.data.MessageId;
 import io.cdap.cdap.proto.id.TopicId;
 import org.slf4j.Logger;
@@ -150,14 +151,15 @@ public abstract class AbstractMessagingPollingService<T> extends AbstractRetryab
   }
 
   /**
-   * Fetching messages from TMS.
+   * Fetching messages from TMS. If the {@link MessageFetcher} supports long polling, the fetch waits for up to
+   * the empty fetch delay for new messages, so that messages published during the delay are processed
+   * without waiting for the next poll.
    */
   protected List<Message> fetchMessages(@Nullable String messageId) throws TopicNotFoundException, IOException {
     List<Message> messages = new ArrayList<>();
     LOG.trace("Fetching from topic '{}' with messageId '{}'", topicId, messageId);
     MessageFetcher messageFetcher = getMessagingContext().getMessageFetcher();
-    try (CloseableIterator<Message> iterator = messageFetcher.fetch(getTopicId().getNamespace(),
-                                                                    getTopicId().getTopic(), fetchSize, messageId)) {
+    try (CloseableIterator<Message> iterator = fetch(messageFetcher, messageId)) {
       while (iterator.hasNext() && state() == State.RUNNING) {
         messages.add(iterator.next());
       }
@@ -165,6 +167,20 @@ public abstract class AbstractMessagingPollingService<T> extends AbstractRetryab
     return messages;
   }
 
+  /**
+   * Opens a {@link CloseableIterator} for fetching messages, using long polling if supported.
+   */
+  private CloseableIterator<Message> fetch(MessageFetcher messageFetcher,
+                                           @Nullable String messageId) throws TopicNotFoundException, IOException {
+    String namespace = getTopicId().getNamespace();
+    String topic = getTopicId().getTopic();
+    if (emptyFetchDelayMillis > 0 && messageFetcher instanceof LongPollMessageFetcher) {
+      return ((LongPollMessageFetcher) messageFetcher).fetch(namespace, topic, fetchSize,
+                                                             messageId, emptyFetchDelayMillis);
+    }
+    return messageFetcher.fetch(namespace, topic, fetchSize, messageId);
+  }
+
   /**
    * The method has the main logic to perform one fetch from TMS and process the fetched messages.
    *
@@ -0,0 +1,73 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.cdap.messaging;
+
+import com.google.common.base.Strings;
+import io.cdap.cdap.api.common.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for {@link PayloadCompression}.
+ */
+public class PayloadCompressionTest {
+
+  @Test
+  public void testCodecReuse() {
+    Random random = new Random();
+    List<byte[]> payloads = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      // Mix of small, compressible and incompressible payloads
+      switch (i % 3) {
+        case 0:
+          payloads.add(Bytes.toBytes("small" + i));
+          break;
+        case 1:
+          payloads.add(Bytes.toBytes(Strings.repeat("compressible" + i, 100)));
+          break;
+        default:
+          byte[] bytes = new byte[1024];
+          random.nextBytes(bytes);
+          payloads.add(bytes);
+      }
+    }
+
+    List<byte[]> encoded = new ArrayList<>();
+    try (PayloadCompression.Codec codec = PayloadCompression.DEFLATE.newCodec()) {
+      for (byte[] payload : payloads) {
+        encoded.add(codec.compress(payload));
+      }
+    }
+
+    PayloadCompression.Codec codec = PayloadCompression.DEFLATE.newCodec();
+    for (int i = 0; i < payloads.size(); i++) {
+      Assert.assertArrayEquals(payloads.get(i), codec.decompress(encoded.get(i)));
+      if (i % 3 == 1) {
+        Assert.assertTrue(encoded.get(i).length < payloads.get(i).length);
+      }
+    }
+
+    // The codec can still be used after it is closed
+    codec.close();
+    Assert.assertArrayEquals(payloads.get(1), codec.decompress(encoded.get(1)));
+    Assert.assertArrayEquals(payloads.get(1), PayloadCompression.DEFLATE.decompress(codec.compress(payloads.get(1))));
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.cdap.messaging.cache;
+
+import io.cdap.cdap.api.common.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link OffHeapRingBuffer}.
+ */
+public class OffHeapRingBufferTest {
+
+  @Test
+  public void testAllocateAndRelease() {
+    OffHeapRingBuffer buffer = new OffHeapRingBuffer(10);
+
+    long pos1 = buffer.allocate(Bytes.toBytes("1234"));
+    long pos2 = buffer.allocate(Bytes.toBytes("5678"));
+    Assert.assertEquals(0L, pos1);
+    Assert.assertEquals(4L, pos2);
+    Assert.assertEquals(8L, buffer.getUsed());
+
+    // Not enough space
+    Assert.assertEquals(-1L, buffer.allocate(Bytes.toBytes("abc")));
+
+    Assert.assertEquals("1234", Bytes.toString(buffer.read(pos1, 4)));
+    Assert.assertEquals("5678", Bytes.toString(buffer.read(pos2, 4)));
+
+    // Release the first one. The next allocation should wrap around to the beginning of the buffer,
+    // skipping the last 2 bytes.
+    buffer.release(pos1);
+    long pos3 = buffer.allocate(Bytes.toBytes("abc"));
+    Assert.assertEquals(10L, pos3);
+    Assert.assertEquals("abc", Bytes.toString(buffer.read(pos3, 3)));
+    Assert.assertEquals("5678", Bytes.toString(buffer.read(pos2, 4)));
+
+    // Release everything, the whole buffer should be available
+    buffer.release(pos2);
+    buffer.release(pos3);
+    Assert.assertEquals(0L, buffer.getUsed());
+    long pos4 = buffer.allocate(Bytes.toBytes("0123456789"));
+    Assert.assertEquals(20L, pos4);
+    Assert.assertEquals("0123456789", Bytes.toString(buffer.read(pos4, 10)));
+
+    // Data larger than the capacity can never be stored
+    buffer.release(pos4);
+    Assert.assertEquals(-1L, buffer.allocate(new byte[11]));
+  }
+
+  @Test
+  public void testReleaseOutOfOrder() {
+    OffHeapRingBuffer buffer = new OffHeapRingBuffer(10);
+
+    long pos1 = buffer.allocate(Bytes.toBytes("123"));
+    long pos2 = buffer.allocate(Bytes.toBytes("456"));
+    long pos3 = buffer.allocate(Bytes.toBytes("789"));
+    Assert.assertEquals(9L, buffer.getUsed());
+
+    // Releasing a later allocation doesn't free the space before it
+    buffer.release(pos2);
+    Assert.assertEquals(9L, buffer.getUsed());
+    Assert.assertEquals(-1L, buffer.allocate(Bytes.toBytes("ab")));
+    Assert.assertEquals("123", Bytes.toString(buffer.read(pos1, 3)));
+    Assert.assertEquals("789", Bytes.toString(buffer.read(pos3, 3)));
+
+    // Once the oldest allocation is released, the space up to the next allocated one is reused
+    buffer.release(pos1);
+    Assert.assertEquals(3L, buffer.getUsed());
+    long pos4 = buffer.allocate(Bytes.toBytes("abcdef"));
+    Assert.assertEquals(10L, pos4);
+    Assert.assertEquals("789", Bytes.toString(buffer.read(pos3, 3)));
+    Assert.assertEquals("abcdef", Bytes.toString(buffer.read(pos4, 6)));
+    Assert.assertEquals(-1L, buffer.allocate(Bytes.toBytes("g")));
+
+    buffer.release(pos3);
+    buffer.release(pos4);
+    Assert.assertEquals(0L, buffer.getUsed());
+
+    // Releasing the same space twice is an error
+    try {
+      buffer.release(pos4);
+      Assert.fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
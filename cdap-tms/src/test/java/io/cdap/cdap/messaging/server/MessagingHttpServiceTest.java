@@ -31,7 +31,9 @@ import io.cdap.cdap.common.conf.Constants;
 import io.cdap.cdap.common.guice.ConfigModule;
 import io.cdap.cdap.common.guice.InMemoryDiscoveryModule;
 import io.cdap.cdap.common.metrics.NoOpMetricsCollectionService;
+import io.cdap.cdap.common.utils.ImmutablePair;
 import io.cdap.cdap.messaging.MessagingService;
+import io.cdap.cdap.messaging.PayloadCompression;
 import io.cdap.cdap.messaging.RollbackDetail;
 import io.cdap.cdap.messaging.StoreRequest;
 import io.cdap.cdap.messaging.TopicMetadata;
@@ -58,7 +60,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -79,6 +84,8 @@ public class MessagingHttpServiceTest {
     cConf.set(Constants.CFG_LOCAL_DATA_DIR, TEMP_FOLDER.newFolder().getAbsolutePath());
     cConf.set(Constants.MessagingSystem.HTTP_SERVER_BIND_ADDRESS, InetAddress.getLocalHost().getHostName());
     cConf.setInt(Constants.MessagingSystem.HTTP_SERVER_CONSUME_CHUNK_SIZE, 128);
+    // Use executor threads so that fetch requests can wait for new messages
+    cConf.setInt(Constants.MessagingSystem.HTTP_SERVER_EXECUTOR_THREADS, 4);
     // Set max life time to a high value so that dummy tx ids that we create in the tests still work
     cConf.setLong(TxConstants.Manager.CFG_TX_MAX_LIFETIME, 10000000000L);
 
@@ -442,6 +449,234 @@ public class MessagingHttpServiceTest {
     client.deleteTopic(topicId);
   }
 
+  @Test
+  public void testMixedSizeConsume() throws Exception {
+    // This test is to verify the message fetching body producer encodes both small and large payloads correctly
+    TopicId topicId = new NamespaceId("ns1").topic("testMixedSizeConsume");
+
+    client.createTopic(new TopicMetadata(topicId));
+
+    // Publish messages with payload sizes alternating between small and large
+    List<String> payloads = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      String payload = Strings.repeat(Integer.toString(i % 10), i % 2 == 0 ? i + 1 : 1000 + i);
+      payloads.add(payload);
+      client.publish(StoreRequestBuilder.of(topicId).addPayload(payload).build());
+    }
+
+    // Also publish an empty payload
+    payloads.add("");
+    client.publish(StoreRequestBuilder.of(topicId).addPayload("").build());
+
+    List<RawMessage> messages = new ArrayList<>();
+    try (CloseableIterator<RawMessage> iterator = client.prepareFetch(topicId).fetch()) {
+      Iterators.addAll(messages, iterator);
+    }
+    Assert.assertEquals(payloads.size(), messages.size());
+    for (int i = 0; i < payloads.size(); i++) {
+      Assert.assertEquals(payloads.get(i), Bytes.toString(messages.get(i).getPayload()));
+    }
+
+    client.deleteTopic(topicId);
+  }
+
+  @Test
+  public void testCompressedTopic() throws Exception {
+    TopicId topicId = new NamespaceId("ns1").topic("testCompressedTopic");
+    client.createTopic(new TopicMetadata(topicId, TopicMetadata.COMPRESSION_KEY, PayloadCompression.DEFLATE.getName()));
+    Assert.assertEquals(PayloadCompression.DEFLATE, client.getTopic(topicId).getCompression());
+
+    // Publish small, compressible and incompressible payloads
+    Random random = new Random();
+    List<byte[]> payloads = new ArrayList<>();
+    payloads.add(new byte[0]);
+    payloads.add(Bytes.toBytes("small"));
+    payloads.add(Bytes.toBytes(Strings.repeat("compressible", 1000)));
+    byte[] randomPayload = new byte[4096];
+    random.nextBytes(randomPayload);
+    payloads.add(randomPayload);
+
+    for (byte[] payload : payloads) {
+      client.publish(StoreRequestBuilder.of(topicId).addPayload(payload).build());
+    }
+
+    List<RawMessage> messages = new ArrayList<>();
+    try (CloseableIterator<RawMessage> iterator = client.prepareFetch(topicId).fetch()) {
+      Iterators.addAll(messages, iterator);
+    }
+    Assert.assertEquals(payloads.size(), messages.size());
+    for (int i = 0; i < payloads.size(); i++) {
+      Assert.assertArrayEquals(payloads.get(i), messages.get(i).getPayload());
+    }
+
+    // Updating other properties should retain the compression
+    client.updateTopic(new TopicMetadata(topicId, TopicMetadata.TTL_KEY, "100"));
+    Assert.assertEquals(PayloadCompression.DEFLATE, client.getTopic(topicId).getCompression());
+
+    // Changing the compression is not allowed
+    try {
+      client.updateTopic(new TopicMetadata(topicId, TopicMetadata.COMPRESSION_KEY, PayloadCompression.NONE.getName()));
+      Assert.fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+
+    client.deleteTopic(topicId);
+  }
+
+  @Test
+  public void testLongPoll() throws Exception {
+    TopicId topicId = new NamespaceId("ns1").topic("testLongPoll");
+    client.createTopic(new TopicMetadata(topicId));
+
+    // Fetch from an empty topic should wait for the timeout and return nothing
+    long startTime = System.currentTimeMillis();
+    try (CloseableIterator<RawMessage> iterator = client.prepareFetch(topicId)
+      .setWaitTimeout(500, TimeUnit.MILLISECONDS).fetch()) {
+      Assert.assertFalse(iterator.hasNext());
+    }
+    Assert.assertTrue(System.currentTimeMillis() - startTime >= 500);
+
+    // Fetch with a long timeout and publish while it is waiting. The fetch should return once the message is published
+    CompletableFuture<List<RawMessage>> future = CompletableFuture.supplyAsync(() -> {
+      List<RawMessage> messages = new ArrayList<>();
+      try (CloseableIterator<RawMessage> iterator = client.prepareFetch(topicId)
+        .setWaitTimeout(60, TimeUnit.SECONDS).fetch()) {
+        Iterators.addAll(messages, iterator);
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+      return messages;
+    });
+
+    TimeUnit.MILLISECONDS.sleep(200);
+    startTime = System.currentTimeMillis();
+    client.publish(StoreRequestBuilder.of(topicId).addPayload("long-poll").build());
+
+    List<RawMessage> messages = future.get(30, TimeUnit.SECONDS);
+    Assert.assertTrue(System.currentTimeMillis() - startTime < 30000);
+    Assert.assertEquals(1, messages.size());
+    Assert.assertEquals("long-poll", Bytes.toString(messages.get(0).getPayload()));
+
+    client.deleteTopic(topicId);
+  }
+
+  @Test
+  public void testMultiTopicLongPoll() throws Exception {
+    NamespaceId namespaceId = new NamespaceId("ns1");
+    List<TopicId> topicIds = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      TopicId topicId = namespaceId.topic("testMultiTopicLongPoll" + i);
+      client.createTopic(new TopicMetadata(topicId));
+      topicIds.add(topicId);
+    }
+
+    // Fetch from empty topics should wait for the timeout and return nothing
+    long startTime = System.currentTimeMillis();
+    try (CloseableIterator<ImmutablePair<TopicId, RawMessage>> iterator = client.prepareMultiTopicFetch(namespaceId)
+      .addTopic(topicIds.get(0).getTopic(), null, true, Integer.MAX_VALUE)
+      .addTopic(topicIds.get(1).getTopic(), null, true, Integer.MAX_VALUE)
+      .setWaitTimeout(500, TimeUnit.MILLISECONDS).fetch()) {
+      Assert.assertFalse(iterator.hasNext());
+    }
+    Assert.assertTrue(System.currentTimeMillis() - startTime >= 500);
+
+    // Fetch with a long timeout and publish to the second topic while it is waiting.
+    // The fetch should return once the message is published
+    CompletableFuture<List<ImmutablePair<TopicId, RawMessage>>> future = CompletableFuture.supplyAsync(() -> {
+      List<ImmutablePair<TopicId, RawMessage>> messages = new ArrayList<>();
+      try (CloseableIterator<ImmutablePair<TopicId, RawMessage>> iterator = client.prepareMultiTopicFetch(namespaceId)
+        .addTopic(topicIds.get(0).getTopic(), null, true, Integer.MAX_VALUE)
+        .addTopic(topicIds.get(1).getTopic(), null, true, Integer.MAX_VALUE)
+        .setWaitTimeout(60, TimeUnit.SECONDS).fetch()) {
+        Iterators.addAll(messages, iterator);
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+      return messages;
+    });
+
+    TimeUnit.MILLISECONDS.sleep(200);
+    startTime = System.currentTimeMillis();
+    client.publish(StoreRequestBuilder.of(topicIds.get(1)).addPayload("long-poll").build());
+
+    List<ImmutablePair<TopicId, RawMessage>> messages = future.get(30, TimeUnit.SECONDS);
+    Assert.assertTrue(System.currentTimeMillis() - startTime < 30000);
+    Assert.assertEquals(1, messages.size());
+    Assert.assertEquals(topicIds.get(1), messages.get(0).getFirst());
+    Assert.assertEquals("long-poll", Bytes.toString(messages.get(0).getSecond().getPayload()));
+
+    for (TopicId topicId : topicIds) {
+      client.deleteTopic(topicId);
+    }
+  }
+
+  @Test
+  public void testMultiTopicFetch() throws Exception {
+    NamespaceId namespaceId = new NamespaceId("ns1");
+    List<TopicId> topicIds = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      TopicId topicId = namespaceId.topic("testMultiTopicFetch" + i);
+      client.createTopic(new TopicMetadata(topicId));
+      topicIds.add(topicId);
+    }
+
+    // Publish 10 messages to the first and the last topic, with some large payloads. Leave the second topic empty.
+    for (int i = 0; i < 10; i++) {
+      client.publish(StoreRequestBuilder.of(topicIds.get(0)).addPayload("0-" + i).build());
+      client.publish(StoreRequestBuilder.of(topicIds.get(2)).addPayload(Strings.repeat("2-" + i, 100)).build());
+    }
+
+    // Fetch from all topics, with a limit on the last topic
+    List<ImmutablePair<TopicId, RawMessage>> messages = new ArrayList<>();
+    try (CloseableIterator<ImmutablePair<TopicId, RawMessage>> iterator = client.prepareMultiTopicFetch(namespaceId)
+      .addTopic(topicIds.get(0).getTopic(), null, true, Integer.MAX_VALUE)
+      .addTopic(topicIds.get(1).getTopic(), null, true, Integer.MAX_VALUE)
+      .addTopic(topicIds.get(2).getTopic(), null, true, 5)
+      .fetch()) {
+      Iterators.addAll(messages, iterator);
+    }
+
+    Assert.assertEquals(15, messages.size());
+    for (int i = 0; i < 10; i++) {
+      Assert.assertEquals(topicIds.get(0), messages.get(i).getFirst());
+      Assert.assertEquals("0-" + i, Bytes.toString(messages.get(i).getSecond().getPayload()));
+    }
+    for (int i = 0; i < 5; i++) {
+      Assert.assertEquals(topicIds.get(2), messages.get(10 + i).getFirst());
+      Assert.assertEquals(Strings.repeat("2-" + i, 100), Bytes.toString(messages.get(10 + i).getSecond().getPayload()));
+    }
+
+    // Fetch again from the last fetched message of each topic
+    byte[] lastMessageId = messages.get(9).getSecond().getId();
+    messages.clear();
+    try (CloseableIterator<ImmutablePair<TopicId, RawMessage>> iterator = client.prepareMultiTopicFetch(namespaceId)
+      .addTopic(topicIds.get(0).getTopic(), lastMessageId, false, Integer.MAX_VALUE)
+      .addTopic(topicIds.get(2).getTopic(), null, true, Integer.MAX_VALUE)
+      .fetch()) {
+      Iterators.addAll(messages, iterator);
+    }
+    Assert.assertEquals(10, messages.size());
+    for (ImmutablePair<TopicId, RawMessage> message : messages) {
+      Assert.assertEquals(topicIds.get(2), message.getFirst());
+    }
+
+    // Fetching from a non-existing topic should fail
+    try {
+      client.prepareMultiTopicFetch(namespaceId)
+        .addTopic(topicIds.get(0).getTopic(), null, true, Integer.MAX_VALUE)
+        .addTopic("nonExisting", null, true, Integer.MAX_VALUE)
+        .fetch();
+      Assert.fail("Expected TopicNotFoundException");
+    } catch (TopicNotFoundException e) {
+      Assert.assertEquals("nonExisting", e.getTopic());
+    }
+
+    for (TopicId topicId : topicIds) {
+      client.deleteTopic(topicId);
+    }
+  }
+
   @Test
   public void testPayloadTable() throws Exception {
     // This test is to verify storing transaction messages to the payload table
@@ -37,6 +37,7 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -45,7 +46,9 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nullable;
 
 /**
@@ -268,6 +271,212 @@ public class ConcurrentMessageWriterTest {
     }
   }
 
+  @Test
+  public void testBatchLinger() throws InterruptedException {
+    final TopicId topicId = NamespaceId.DEFAULT.topic("t");
+    final TopicMetadata metadata = new TopicMetadata(topicId, new HashMap<String, String>(), 1);
+    TestStoreRequestWriter testWriter = new TestStoreRequestWriter(new TimeProvider.IncrementalTimeProvider());
+
+    // With a long linger time, the writer should wait until the batch is full and write all requests together
+    int requestCount = 5;
+    final BatchSizeMetricsCollector metricsCollector = new BatchSizeMetricsCollector();
+    final ConcurrentMessageWriter writer = new ConcurrentMessageWriter(testWriter, metricsCollector, requestCount,
+                                                                       TimeUnit.MINUTES.toMicros(1));
+    Stopwatch stopwatch = new Stopwatch().start();
+    ExecutorService executor = Executors.newFixedThreadPool(requestCount);
+    for (int i = 0; i < requestCount; i++) {
+      final String payload = Integer.toString(i);
+      executor.submit(() -> {
+        try {
+          writer.persist(new TestStoreRequest(topicId, Collections.singletonList(payload)), metadata);
+        } catch (IOException e) {
+          LOG.error("Failed to persist", e);
+        }
+      });
+    }
+    executor.shutdown();
+    Assert.assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+    // The writer should be woken up when the batch is full, instead of waiting for the whole linger time
+    Assert.assertTrue(stopwatch.elapsedTime(TimeUnit.SECONDS) < 30);
+    Assert.assertEquals(requestCount, testWriter.getMessages().get(topicId).size());
+    Assert.assertEquals(requestCount, metricsCollector.getMaxBatchSize());
+  }
+
+  @Test
+  public void testMaxBatchSize() throws InterruptedException {
+    final TopicId topicId = NamespaceId.DEFAULT.topic("t");
+    final TopicMetadata metadata = new TopicMetadata(topicId, new HashMap<String, String>(), 1);
+    TestStoreRequestWriter testWriter = new TestStoreRequestWriter(new TimeProvider.IncrementalTimeProvider(), 5L);
+
+    int threadCount = 10;
+    final int requestPerThread = 10;
+    final BatchSizeMetricsCollector metricsCollector = new BatchSizeMetricsCollector();
+    final ConcurrentMessageWriter writer = new ConcurrentMessageWriter(testWriter, metricsCollector, 2, 0L);
+
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    for (int i = 0; i < threadCount; i++) {
+      executor.submit(() -> {
+        try {
+          for (int j = 0; j < requestPerThread; j++) {
+            writer.persist(new TestStoreRequest(topicId, Arrays.asList("a", "b")), metadata);
+          }
+        } catch (IOException e) {
+          LOG.error("Failed to persist", e);
+        }
+      });
+    }
+    executor.shutdown();
+    Assert.assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+    // All messages should be written, with no batch larger than the max batch size
+    Assert.assertEquals(threadCount * requestPerThread * 2, testWriter.getMessages().get(topicId).size());
+    Assert.assertTrue(metricsCollector.getMaxBatchSize() <= 2);
+  }
+
+  @Test
+  public void testWriterLanes() throws IOException {
+    TopicId topicId = NamespaceId.DEFAULT.topic("t");
+    TopicMetadata metadata = new TopicMetadata(topicId, new HashMap<String, String>(), 1);
+
+    AtomicLong currentTime = new AtomicLong(10L);
+    TimeProvider timeProvider = currentTime::get;
+    WriteWatermark watermark = new WriteWatermark(timeProvider, 2);
+    MessageIdAllocator idAllocator = new MessageIdAllocator();
+
+    List<TestStoreRequestWriter> testWriters = new ArrayList<>();
+    List<ConcurrentMessageWriter> writers = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      TestStoreRequestWriter testWriter = new TestStoreRequestWriter(timeProvider);
+      testWriter.setLane(i, idAllocator, watermark);
+      testWriters.add(testWriter);
+      writers.add(new ConcurrentMessageWriter(testWriter));
+    }
+
+    // Write to both lanes alternately with the same timestamp.
+    // Messages should be ordered by message id in the same order as they were published.
+    List<String> published = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      List<String> payloads = Arrays.asList(i + "-1", i + "-2", i + "-3");
+      writers.get(i % 2).persist(new TestStoreRequest(topicId, payloads), metadata);
+      published.addAll(payloads);
+    }
+
+    List<RawMessage> messages = new ArrayList<>();
+    for (TestStoreRequestWriter testWriter : testWriters) {
+      messages.addAll(testWriter.getMessages().get(topicId));
+    }
+    List<String> fetched = new ArrayList<>();
+    for (RawMessage message : sortById(messages)) {
+      Assert.assertEquals(10L, new MessageId(message.getId()).getPublishTimestamp());
+      fetched.add(Bytes.toString(message.getPayload()));
+    }
+    Assert.assertEquals(published, fetched);
+
+    // With no write in progress, the upper bound is the current time
+    Assert.assertEquals(10L, watermark.getVisibleUpperBound());
+
+    // With a write in progress, the upper bound is the write timestamp of that write
+    watermark.startWrite(1);
+    watermark.setWriteTimestamp(1, 10L);
+    currentTime.set(20L);
+    Assert.assertEquals(10L, watermark.getVisibleUpperBound());
+    watermark.endWrite(1);
+    Assert.assertEquals(20L, watermark.getVisibleUpperBound());
+  }
+
+  @Test
+  public void testMultiLaneConcurrentPublish() throws Exception {
+    final TopicId topicId = NamespaceId.DEFAULT.topic("t");
+    final TopicMetadata metadata = new TopicMetadata(topicId, new HashMap<String, String>(), 1);
+
+    // All writes happen in the same millisecond, so that sequence ids from all lanes are interleaved
+    TimeProvider timeProvider = () -> 10L;
+    int lanes = 4;
+    WriteWatermark watermark = new WriteWatermark(timeProvider, lanes);
+    MessageIdAllocator idAllocator = new MessageIdAllocator();
+    List<TestStoreRequestWriter> testWriters = new ArrayList<>();
+    List<ConcurrentMessageWriter> writers = new ArrayList<>();
+    for (int i = 0; i < lanes; i++) {
+      TestStoreRequestWriter testWriter = new TestStoreRequestWriter(timeProvider);
+      testWriter.setLane(i, idAllocator, watermark);
+      testWriters.add(testWriter);
+      writers.add(new ConcurrentMessageWriter(testWriter));
+    }
+    final MultiLaneMessageWriter writer = new MultiLaneMessageWriter(writers);
+
+    final int threadCount = 8;
+    final int requestPerThread = 200;
+    final CyclicBarrier barrier = new CyclicBarrier(threadCount);
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < threadCount; i++) {
+      final int threadId = i;
+      futures.add(executor.submit(() -> {
+        barrier.await();
+        for (int j = 0; j < requestPerThread; j++) {
+          writer.persist(new TestStoreRequest(topicId, Collections.singletonList(threadId + ":" + j)), metadata);
+        }
+        return null;
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get(1, TimeUnit.MINUTES);
+    }
+    executor.shutdown();
+
+    List<RawMessage> messages = new ArrayList<>();
+    for (TestStoreRequestWriter testWriter : testWriters) {
+      messages.addAll(testWriter.getMessages().get(topicId));
+    }
+    Assert.assertEquals(threadCount * requestPerThread, messages.size());
+
+    // Message ids across all lanes should be strictly increasing,
+    // and messages published by each thread should be in publish order.
+    byte[] lastId = null;
+    int[] nextSeq = new int[threadCount];
+    for (RawMessage message : sortById(messages)) {
+      if (lastId != null) {
+        Assert.assertTrue(Bytes.compareTo(lastId, message.getId()) < 0);
+      }
+      lastId = message.getId();
+
+      String[] parts = Bytes.toString(message.getPayload()).split(":");
+      int threadId = Integer.parseInt(parts[0]);
+      Assert.assertEquals(nextSeq[threadId]++, Integer.parseInt(parts[1]));
+    }
+  }
+
+  private List<RawMessage> sortById(List<RawMessage> messages) {
+    List<RawMessage> sorted = new ArrayList<>(messages);
+    Collections.sort(sorted, (m1, m2) -> Bytes.compareTo(m1.getId(), m2.getId()));
+    return sorted;
+  }
+
+  /**
+   * A {@link MetricsCollector} that tracks the max batch size written by the {@link ConcurrentMessageWriter}.
+   */
+  private static final class BatchSizeMetricsCollector implements MetricsCollector {
+
+    private final AtomicLong maxBatchSize = new AtomicLong();
+
+    @Override
+    public void increment(String metricName, long value) {
+      // No-op
+    }
+
+    @Override
+    public void gauge(String metricName, long value) {
+      if ("persist.batch.size".equals(metricName)) {
+        maxBatchSize.accumulateAndGet(value, Math::max);
+      }
+    }
+
+    long getMaxBatchSize() {
+      return maxBatchSize.get();
+    }
+  }
+
   /**
    * A {@link StoreRequestWriter} that turns all payloads to {@link RawMessage} and stores it in a List.
    */
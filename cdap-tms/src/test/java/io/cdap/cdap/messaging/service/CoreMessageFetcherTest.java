@@ -0,0 +1,122 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.cdap.messaging.service;
+
+import io.cdap.cdap.api.common.Bytes;
+import io.cdap.cdap.api.dataset.lib.CloseableIterator;
+import io.cdap.cdap.common.conf.CConfiguration;
+import io.cdap.cdap.common.conf.Constants;
+import io.cdap.cdap.messaging.MessagingUtils;
+import io.cdap.cdap.messaging.TopicMetadata;
+import io.cdap.cdap.messaging.data.RawMessage;
+import io.cdap.cdap.messaging.store.ImmutableMessageTableEntry;
+import io.cdap.cdap.messaging.store.MessageTable;
+import io.cdap.cdap.messaging.store.MetadataTable;
+import io.cdap.cdap.messaging.store.TableFactory;
+import io.cdap.cdap.messaging.store.leveldb.LevelDBTableFactory;
+import io.cdap.cdap.proto.id.NamespaceId;
+import io.cdap.cdap.proto.id.TopicId;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tests for {@link CoreMessageFetcher}.
+ */
+public class CoreMessageFetcherTest {
+
+  @ClassRule
+  public static TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private static final int GENERATION = 1;
+
+  private static TableFactory tableFactory;
+
+  @BeforeClass
+  public static void init() throws Exception {
+    CConfiguration cConf = CConfiguration.create();
+    cConf.set(Constants.CFG_LOCAL_DATA_DIR, tmpFolder.newFolder().getAbsolutePath());
+    tableFactory = new LevelDBTableFactory(cConf);
+  }
+
+  @Test
+  public void testWriteWatermark() throws Exception {
+    TopicId topicId = NamespaceId.DEFAULT.topic("watermark");
+    TopicMetadata metadata = new TopicMetadata(topicId, TopicMetadata.TTL_KEY, 10000,
+                                               TopicMetadata.GENERATION_KEY, GENERATION);
+    try (MetadataTable metadataTable = tableFactory.createMetadataTable()) {
+      metadataTable.createTopic(metadata);
+    }
+
+    // Messages written by different lanes with consecutive publish timestamps
+    long now = System.currentTimeMillis();
+    try (MessageTable table = tableFactory.createMessageTable(metadata)) {
+      table.store(Arrays.asList(createEntry(topicId, now, "1"),
+                                createEntry(topicId, now + 1, "2"),
+                                createEntry(topicId, now + 2, "3")).iterator());
+    }
+
+    AtomicLong currentTime = new AtomicLong(now + 10);
+    WriteWatermark watermark = new WriteWatermark(currentTime::get, 2);
+
+    // Without any write in progress, all messages published before the current time are visible
+    Assert.assertEquals(Arrays.asList("1", "2", "3"), fetch(metadata, watermark));
+
+    // Messages at or beyond the write timestamp of an in progress write are not visible
+    watermark.startWrite(1);
+    watermark.setWriteTimestamp(1, now + 1);
+    Assert.assertEquals(Arrays.asList("1"), fetch(metadata, watermark));
+
+    // Messages are visible again once the write completed
+    watermark.endWrite(1);
+    Assert.assertEquals(Arrays.asList("1", "2", "3"), fetch(metadata, watermark));
+
+    // Messages published at or after the current time are not visible, since a lane can still be writing with it
+    currentTime.set(now + 2);
+    Assert.assertEquals(Arrays.asList("1", "2"), fetch(metadata, watermark));
+
+    // Without a watermark, all messages are visible
+    Assert.assertEquals(Arrays.asList("1", "2", "3"), fetch(metadata, null));
+  }
+
+  private List<String> fetch(TopicMetadata metadata, WriteWatermark watermark) throws Exception {
+    CoreMessageFetcher fetcher = new CoreMessageFetcher(metadata,
+                                                        () -> tableFactory.createMessageTable(metadata),
+                                                        () -> tableFactory.createPayloadTable(metadata),
+                                                        watermark, null, Long.MAX_VALUE);
+    List<String> payloads = new ArrayList<>();
+    try (CloseableIterator<RawMessage> iterator = fetcher.fetch()) {
+      while (iterator.hasNext()) {
+        payloads.add(Bytes.toString(iterator.next().getPayload()));
+      }
+    }
+    return payloads;
+  }
+
+  private MessageTable.Entry createEntry(TopicId topicId, long publishTimestamp, String payload) {
+    byte[] key = Bytes.concat(MessagingUtils.toDataKeyPrefix(topicId, GENERATION),
+                              Bytes.toBytes(publishTimestamp), Bytes.toBytes((short) 0));
+    return new ImmutableMessageTableEntry(key, Bytes.toBytes(payload), null);
+  }
+}
@@ -208,6 +208,89 @@ public abstract class MessageTableTest {
     }
   }
 
+  @Test
+  public void testFetchByTime() throws Exception {
+    TopicId topicId = NamespaceId.DEFAULT.topic("testFetchByTime");
+    TopicMetadata metadata = new TopicMetadata(topicId, DEFAULT_PROPERTY);
+
+    try (MessageTable table = getMessageTable(metadata);
+         MetadataTable metadataTable = getMetadataTable()) {
+      metadataTable.createTopic(metadata);
+
+      // Store messages with publish timestamps 0, 10, 20, ..., 9990, with two messages per timestamp
+      List<MessageTable.Entry> entries = new ArrayList<>();
+      for (int i = 0; i < 1000; i++) {
+        for (int seqId = 0; seqId < 2; seqId++) {
+          entries.add(new TestMessageEntry(topicId, GENERATION, i * 10L, seqId, null,
+                                           Bytes.toBytes("message " + i + " " + seqId)));
+        }
+      }
+      table.store(entries.iterator());
+
+      // Fetch from a start time that matches a publish timestamp exactly
+      try (CloseableIterator<MessageTable.Entry> iterator = table.fetch(metadata, 5000L, 3, null)) {
+        List<MessageTable.Entry> fetched = new ArrayList<>();
+        Iterators.addAll(fetched, iterator);
+        Assert.assertEquals(3, fetched.size());
+        Assert.assertEquals("message 500 0", Bytes.toString(fetched.get(0).getPayload()));
+        Assert.assertEquals("message 500 1", Bytes.toString(fetched.get(1).getPayload()));
+        Assert.assertEquals("message 501 0", Bytes.toString(fetched.get(2).getPayload()));
+      }
+
+      // Fetch from a start time that falls between publish timestamps
+      try (CloseableIterator<MessageTable.Entry> iterator = table.fetch(metadata, 9985L, Integer.MAX_VALUE, null)) {
+        List<MessageTable.Entry> fetched = new ArrayList<>();
+        Iterators.addAll(fetched, iterator);
+        Assert.assertEquals(2, fetched.size());
+        Assert.assertEquals(9990L, fetched.get(0).getPublishTimestamp());
+        Assert.assertEquals(9990L, fetched.get(1).getPublishTimestamp());
+      }
+
+      // Fetch from a start time after the last message
+      try (CloseableIterator<MessageTable.Entry> iterator = table.fetch(metadata, 9991L, Integer.MAX_VALUE, null)) {
+        Assert.assertFalse(iterator.hasNext());
+      }
+    }
+  }
+
+  @Test
+  public void testRollbackInterleaved() throws Exception {
+    TopicId topicId = NamespaceId.DEFAULT.topic("testRollbackInterleaved");
+    TopicMetadata metadata = new TopicMetadata(topicId, DEFAULT_PROPERTY);
+
+    try (MessageTable table = getMessageTable(metadata);
+         MetadataTable metadataTable = getMetadataTable()) {
+      metadataTable.createTopic(metadata);
+
+      // Messages of two transactions written by different writer lanes are interleaved in the same key range
+      List<MessageTable.Entry> entries = new ArrayList<>();
+      for (int seqId = 0; seqId < 6; seqId++) {
+        long txWritePtr = seqId % 2 == 0 ? 100L : 101L;
+        entries.add(new TestMessageEntry(topicId, GENERATION, 1L, seqId, txWritePtr,
+                                         Bytes.toBytes(txWritePtr + " " + seqId)));
+      }
+      table.store(entries.iterator());
+
+      // Rollback the first transaction, which covers the messages of the second transaction in its key range
+      table.rollback(metadata, new TestRollbackDetail(100L, 1L, 0, 1L, 4));
+
+      // Only messages of the rolled back transaction are hidden from transactional fetch
+      Transaction tx = new Transaction(200, 200, new long[0], new long[0], -1);
+      try (CloseableIterator<MessageTable.Entry> iterator = table.fetch(metadata, 0L, Integer.MAX_VALUE, tx)) {
+        List<String> payloads = new ArrayList<>();
+        while (iterator.hasNext()) {
+          payloads.add(Bytes.toString(iterator.next().getPayload()));
+        }
+        Assert.assertEquals(Arrays.asList("101 1", "101 3", "101 5"), payloads);
+      }
+
+      // Non-transactional fetch still returns all messages
+      try (CloseableIterator<MessageTable.Entry> iterator = table.fetch(metadata, 0L, Integer.MAX_VALUE, null)) {
+        Assert.assertEquals(6, Iterators.size(iterator));
+      }
+    }
+  }
+
   @Test
   public void testEmptyPayload() throws Exception {
     TopicId topicId = NamespaceId.DEFAULT.topic("testEmptyPayload");
@@ -0,0 +1,109 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.cdap.messaging.store.cache;
+
+import com.google.common.collect.Lists;
+import io.cdap.cdap.api.common.Bytes;
+import io.cdap.cdap.api.metrics.NoopMetricsContext;
+import io.cdap.cdap.messaging.MessagingUtils;
+import io.cdap.cdap.messaging.cache.MessageCache;
+import io.cdap.cdap.messaging.cache.OffHeapRingBuffer;
+import io.cdap.cdap.messaging.store.ImmutableMessageTableEntry;
+import io.cdap.cdap.messaging.store.MessageFilter;
+import io.cdap.cdap.messaging.store.MessageTable;
+import io.cdap.cdap.proto.id.NamespaceId;
+import io.cdap.cdap.proto.id.TopicId;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Unit test for {@link MessageCache} with the {@link OffHeapMessageTableEntryStore}.
+ */
+public class OffHeapMessageTableEntryStoreTest {
+
+  private static final TopicId TOPIC = NamespaceId.SYSTEM.topic("offheap");
+  // Each payload is 10 bytes, which gives an entry weight of 50
+  private static final int PAYLOAD_SIZE = 10;
+
+  @Test
+  public void testScanAndRelease() {
+    // A buffer that can hold the payloads of 6 entries
+    OffHeapRingBuffer buffer = new OffHeapRingBuffer(PAYLOAD_SIZE * 6);
+    MessageCache<MessageTable.Entry> cache = new MessageCache<>(new MessageTableEntryComparator(),
+                                                                new MessageTableEntryWeigher(),
+                                                                new MessageCache.Limits(200, 300, 300),
+                                                                new NoopMetricsContext(),
+                                                                new OffHeapMessageTableEntryStore(buffer));
+    for (int i = 0; i < 5; i++) {
+      cache.addAll(Collections.singleton(createEntry(i)).iterator());
+    }
+    Assert.assertEquals(PAYLOAD_SIZE * 5, buffer.getUsed());
+
+    // Scan all entries without exhausting the scanner, so that it stays open
+    MessageCache.Scanner<MessageTable.Entry> scanner = cache.scan(createEntry(0), true, 10,
+                                                                  MessageFilter.alwaysAccept());
+    List<MessageTable.Entry> entries = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      entries.add(scanner.next());
+    }
+
+    // Adding more entries removes the first three from the cache. Their payloads are not released, since they can
+    // still be read from the open scanner. The last entry doesn't fit into the buffer, hence is kept on heap.
+    cache.addAll(Collections.singleton(createEntry(5)).iterator());
+    cache.addAll(Collections.singleton(createEntry(6)).iterator());
+    Assert.assertEquals(PAYLOAD_SIZE * 6, buffer.getUsed());
+    for (int i = 0; i < 5; i++) {
+      Assert.assertEquals(createPayload(i), Bytes.toString(entries.get(i).getPayload()));
+    }
+
+    // Closing the scanner releases the payloads of the removed entries
+    scanner.close();
+    Assert.assertEquals(PAYLOAD_SIZE * 3, buffer.getUsed());
+
+    // The released space is reused by new entries
+    cache.addAll(Collections.singleton(createEntry(7)).iterator());
+    Assert.assertEquals(PAYLOAD_SIZE * 4, buffer.getUsed());
+    try (MessageCache.Scanner<MessageTable.Entry> newScanner = cache.scan(createEntry(0), true, 10,
+                                                                          MessageFilter.alwaysAccept())) {
+      List<String> payloads = new ArrayList<>();
+      for (MessageTable.Entry entry : Lists.newArrayList(newScanner)) {
+        payloads.add(Bytes.toString(entry.getPayload()));
+      }
+      Assert.assertEquals(Lists.newArrayList(createPayload(3), createPayload(4), createPayload(5),
+                                             createPayload(6), createPayload(7)), payloads);
+    }
+
+    // Without an open scanner, payloads of removed entries are released right away
+    cache.clear();
+    Assert.assertEquals(0L, buffer.getUsed());
+  }
+
+  private MessageTable.Entry createEntry(int i) {
+    byte[] key = Bytes.concat(MessagingUtils.toDataKeyPrefix(TOPIC, 1), Bytes.toBytes((long) i),
+                              Bytes.toBytes((short) 0));
+    return new CachingMessageTable.CacheMessageTableEntry(
+      new ImmutableMessageTableEntry(key, Bytes.toBytes(createPayload(i)), null));
+  }
+
+  private String createPayload(int i) {
+    return String.format("payload-%02d", i);
+  }
+}
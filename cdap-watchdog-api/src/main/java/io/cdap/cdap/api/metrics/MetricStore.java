@@ -49,6 +49,17 @@ public interface MetricStore {
    */
   Collection<MetricTimeSeries> query(MetricDataQuery query);
 
+  /**
+   * Returns the query that the given query is executed as by {@link #query(MetricDataQuery)}, which can have a
+   * coarser resolution than the given query if the store doesn't retain the start of its time range at the requested
+   * resolution.
+   * @param query query to execute
+   * @return query with the resolution of the data points that executing the given query returns
+   */
+  default MetricDataQuery getEffectiveQuery(MetricDataQuery query) {
+    return query;
+  }
+
   /**
    * Deletes all metric data before given timestamp. Used for applying TTL policy.
    *
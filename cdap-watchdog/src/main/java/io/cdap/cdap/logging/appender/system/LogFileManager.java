@@ -22,6 +22,7 @@ import com.google.common.util.concurrent.Uninterruptibles;
 import io.cdap.cdap.common.io.Locations;
 import io.cdap.cdap.common.io.Syncable;
 import io.cdap.cdap.logging.meta.FileMetaDataWriter;
+import io.cdap.cdap.logging.write.LogFileIndex;
 import org.apache.twill.filesystem.Location;
 import org.apache.twill.filesystem.LocationFactory;
 import org.slf4j.Logger;
@@ -110,6 +111,11 @@ final class LogFileManager implements Flushable, Syncable {
       // delete created file as there was exception while writing meta data
       Closeables.closeQuietly(logFileOutputStream);
       Locations.deleteQuietly(location.getLocation());
+      try {
+        LogFileIndex.delete(location.getLocation());
+      } catch (IOException ioe) {
+        LOG.warn("Failed to delete index of log file {}", location.getLocation(), ioe);
+      }
       throw new IOException(e);
     }
 
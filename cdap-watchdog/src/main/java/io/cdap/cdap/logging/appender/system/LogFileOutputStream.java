@@ -22,6 +22,7 @@ import io.cdap.cdap.common.io.ByteBuffers;
 import io.cdap.cdap.common.io.Syncable;
 import io.cdap.cdap.logging.serialize.LoggingEvent;
 import io.cdap.cdap.logging.serialize.LoggingEventSerializer;
+import io.cdap.cdap.logging.write.LogFileIndex;
 import org.apache.avro.Schema;
 import org.apache.avro.file.DataFileWriter;
 import org.apache.avro.generic.GenericDatumWriter;
@@ -35,12 +36,16 @@ import java.io.Flushable;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import javax.annotation.Nullable;
 
 /**
  * Represents output stream for a log file.
  *
  * Since there is no way to check the state of the underlying file on an exception,
  * all methods of this class assume that the file state is bad on any exception and close the file.
+ *
+ * A {@link LogFileIndex} of the file is written along with it, with one segment for the events appended between
+ * two flushes. Failures of writing the index only stop the indexing.
  */
 
 class LogFileOutputStream implements Closeable, Flushable, Syncable {
@@ -55,6 +60,11 @@ class LogFileOutputStream implements Closeable, Flushable, Syncable {
   private DataFileWriter<GenericRecord> dataFileWriter;
   private long fileSize;
 
+  @Nullable
+  private LogFileIndex.Writer indexWriter;
+  // position of the events appended since the last flush
+  private long segmentStart;
+
   LogFileOutputStream(Location location, String filePermissions,
                       int syncIntervalBytes, long createTime, Closeable closeable) throws IOException {
     this.location = location;
@@ -75,6 +85,13 @@ class LogFileOutputStream implements Closeable, Flushable, Syncable {
       Closeables.closeQuietly(dataFileWriter);
       throw e;
     }
+
+    try {
+      this.indexWriter = new LogFileIndex.Writer(location, filePermissions);
+    } catch (IOException e) {
+      LOG.warn("Failed to create index for log file {}. The file will not be indexed.", location, e);
+    }
+    this.segmentStart = -1L;
   }
 
   Location getLocation() {
@@ -82,6 +99,10 @@ class LogFileOutputStream implements Closeable, Flushable, Syncable {
   }
 
   void append(ILoggingEvent event) throws IOException {
+    if (indexWriter != null) {
+      indexWriter.append(event);
+    }
+
     // If the event is already a LoggingEvent, we don't need to re-encode.
     if (event instanceof LoggingEvent) {
       ByteBuffer encoded = ((LoggingEvent) event).getEncoded();
@@ -115,6 +136,19 @@ class LogFileOutputStream implements Closeable, Flushable, Syncable {
   @Override
   public void flush() throws IOException {
     fileSize = dataFileWriter.sync();
+    if (indexWriter != null) {
+      try {
+        if (segmentStart >= 0) {
+          indexWriter.add(segmentStart, fileSize);
+          indexWriter.flush();
+        } else {
+          indexWriter.resetSegment();
+        }
+      } catch (IOException e) {
+        closeIndex(e);
+      }
+    }
+    segmentStart = fileSize;
   }
 
   @Override
@@ -125,15 +159,38 @@ class LogFileOutputStream implements Closeable, Flushable, Syncable {
     } else {
       outputStream.flush();
     }
+    if (indexWriter != null) {
+      try {
+        indexWriter.sync();
+      } catch (IOException e) {
+        closeIndex(e);
+      }
+    }
   }
 
   @Override
   public void close() throws IOException {
     LOG.trace("Closing file {}", location);
     try {
-      dataFileWriter.close();
+      try {
+        // Flush the remaining events first, so that they are indexed
+        flush();
+      } finally {
+        dataFileWriter.close();
+      }
     } finally {
+      Closeables.closeQuietly(indexWriter);
       closeable.close();
     }
   }
+
+  /**
+   * Stops indexing on failure. The segments written so far remain valid, since readers always read the file
+   * from the end of the last segment.
+   */
+  private void closeIndex(IOException cause) {
+    LOG.warn("Failed to write index for log file {}. The rest of the file will not be indexed.", location, cause);
+    Closeables.closeQuietly(indexWriter);
+    indexWriter = null;
+  }
 }
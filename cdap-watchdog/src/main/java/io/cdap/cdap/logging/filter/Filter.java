@@ -16,14 +16,28 @@
 
 package io.cdap.cdap.logging.filter;
 
+import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 
+import java.util.function.BiPredicate;
+
 /**
  * Represents a generic filter to filter ILoggingEvent objects.
  */
 public interface Filter {
   boolean match(ILoggingEvent event);
 
+  /**
+   * Returns {@code false} if no event with any of the given levels and MDC values can match this filter, which allows
+   * readers to skip such events without decoding them. Returns {@code true} by default.
+   *
+   * @param levels the log levels of the events
+   * @param mdc {@link BiPredicate} that tests whether any of the events may have the given MDC key and value
+   */
+  default boolean mayMatch(Iterable<Level> levels, BiPredicate<String, String> mdc) {
+    return true;
+  }
+
   Filter EMPTY_FILTER = new EmptyFilter();
 
   /**
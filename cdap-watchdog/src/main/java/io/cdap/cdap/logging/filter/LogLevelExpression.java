@@ -19,6 +19,8 @@ package io.cdap.cdap.logging.filter;
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 
+import java.util.function.BiPredicate;
+
 /**
  * Represents an expression that matches log level.
  */
@@ -34,6 +36,16 @@ public class LogLevelExpression implements Filter {
     return event.getLevel().isGreaterOrEqual(getLevel());
   }
 
+  @Override
+  public boolean mayMatch(Iterable<Level> levels, BiPredicate<String, String> mdc) {
+    for (Level level : levels) {
+      if (level.isGreaterOrEqual(getLevel())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   public Level getLevel() {
     return level;
   }
@@ -16,9 +16,12 @@
 
 package io.cdap.cdap.logging.filter;
 
+import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import com.google.common.base.Objects;
 
+import java.util.function.BiPredicate;
+
 /**
  * Represents an expression that can match a key,value in MDC.
  */
@@ -37,6 +40,11 @@ public class MdcExpression implements Filter {
     return value != null && value.equals(getValue());
   }
 
+  @Override
+  public boolean mayMatch(Iterable<Level> levels, BiPredicate<String, String> mdc) {
+    return mdc.test(getKey(), getValue());
+  }
+
   public String getKey() {
     return key;
   }
@@ -16,11 +16,13 @@
 
 package io.cdap.cdap.logging.filter;
 
+import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableList;
 
 import java.util.List;
+import java.util.function.BiPredicate;
 
 /**
  * Represents an Or filter where all sub expressions are or-ed together.
@@ -42,6 +44,16 @@ public class OrFilter implements Filter {
     return false;
   }
 
+  @Override
+  public boolean mayMatch(Iterable<Level> levels, BiPredicate<String, String> mdc) {
+    for (Filter expression : expressions) {
+      if (expression.mayMatch(levels, mdc)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   @Override
   public String toString() {
     return Objects.toStringHelper(this)
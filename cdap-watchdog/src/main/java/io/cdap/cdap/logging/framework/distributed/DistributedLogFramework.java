@@ -17,6 +17,7 @@
 package io.cdap.cdap.logging.framework.distributed;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
 import com.google.common.collect.Iterables;
 import com.google.common.util.concurrent.AbstractIdleService;
 import com.google.common.util.concurrent.Futures;
@@ -42,11 +43,13 @@ import org.apache.twill.discovery.DiscoveryServiceClient;
 import org.apache.twill.kafka.client.BrokerService;
 import org.apache.twill.zookeeper.ZKClient;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import javax.annotation.Nullable;
 
 /**
  * A {@link ResourceBalancerService} for log processing in distributed mode
@@ -94,7 +97,8 @@ public class DistributedLogFramework extends ResourceBalancerService {
         topic, partitions, bufferSize,
         cConf.getLong(Constants.Logging.PIPELINE_EVENT_DELAY_MS),
         cConf.getInt(Constants.Logging.PIPELINE_KAFKA_FETCH_SIZE),
-        cConf.getLong(Constants.Logging.PIPELINE_CHECKPOINT_INTERVAL_MS)
+        cConf.getLong(Constants.Logging.PIPELINE_CHECKPOINT_INTERVAL_MS),
+        getSpillDir(cConf), cConf.getLong(Constants.Logging.PIPELINE_SPILL_MAX_SIZE)
       );
 
       RetryStrategy retryStrategy = RetryStrategies.fromConfiguration(cConf, "system.log.process.");
@@ -153,6 +157,15 @@ public class DistributedLogFramework extends ResourceBalancerService {
     }
   }
 
+  /**
+   * Returns the directory to spill buffered log events to, or {@code null} if spilling is disabled.
+   */
+  @Nullable
+  private File getSpillDir(CConfiguration cConf) {
+    String spillDir = cConf.get(Constants.Logging.PIPELINE_SPILL_DIR);
+    return Strings.isNullOrEmpty(spillDir) ? null : new File(spillDir);
+  }
+
   /**
    * Determines the buffer size for one pipeline.
    */
@@ -49,12 +49,15 @@ import javax.annotation.concurrent.ThreadSafe;
  * 3. If successfully set the flag to true, this thread becomes the writer and proceed to run step 4-7.
  * 4. Provides an Iterator of PendingLogBufferRequest to log buffer writer, which consumes from the
  * ConcurrentLinkedQueue.
- * 5. Log buffer writer returns list of log events with file offset. These events are sent to log processor pipeline
- * for further processing.
+ * 5. Log buffer writer returns list of log events with file offset, after the events are forced to the disk if
+ * sync is enabled. These events are sent to log processor pipeline for further processing.
  * 6. Set the state of each PendingLogBufferRequest that are written to COMPLETED (succeed/failure).
  * 7. Set the AtomicBoolean flag back to false.
  * 8. If the PendingLogBufferRequest enqueued by this thread is NOT COMPLETED, go back to step 2.
  * </pre>
+ *
+ * Since the events of all the requests collected in step 4 are written as one batch, concurrent requests share a
+ * single fsync when sync is enabled.
  */
 @ThreadSafe
 public class ConcurrentLogBufferWriter implements Closeable {
@@ -71,6 +74,7 @@ public class ConcurrentLogBufferWriter implements Closeable {
     this.pendingRequestQueue = new PendingRequestQueue();
     this.logBufferWriter = new LogBufferWriter(cConf.get(Constants.LogBuffer.LOG_BUFFER_BASE_DIR),
                                                cConf.getLong(Constants.LogBuffer.LOG_BUFFER_MAX_FILE_SIZE_BYTES),
+                                               cConf.getBoolean(Constants.LogBuffer.LOG_BUFFER_SYNC_ENABLED),
                                                cleaner);
     this.pipelines = pipelines;
     this.writerFlag = new AtomicBoolean();
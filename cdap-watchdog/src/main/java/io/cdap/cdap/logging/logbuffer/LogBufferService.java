@@ -17,6 +17,7 @@
 package io.cdap.cdap.logging.logbuffer;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
 import com.google.common.collect.Iterables;
 import com.google.common.util.concurrent.AbstractIdleService;
 import com.google.common.util.concurrent.Futures;
@@ -48,11 +49,13 @@ import org.apache.twill.common.Cancellable;
 import org.apache.twill.discovery.Discoverable;
 import org.apache.twill.discovery.DiscoveryService;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
 
 /**
  * Log Buffer Service responsible for:
@@ -161,7 +164,8 @@ public class LogBufferService extends AbstractIdleService {
       LogBufferPipelineConfig config =
         new LogBufferPipelineConfig(bufferSize, cConf.getLong(Constants.Logging.PIPELINE_EVENT_DELAY_MS),
                                     cConf.getLong(Constants.Logging.PIPELINE_CHECKPOINT_INTERVAL_MS),
-                                    cConf.getLong(Constants.LogBuffer.LOG_BUFFER_PIPELINE_BATCH_SIZE, 1000));
+                                    cConf.getLong(Constants.LogBuffer.LOG_BUFFER_PIPELINE_BATCH_SIZE, 1000),
+                                    getSpillDir(cConf), cConf.getLong(Constants.Logging.PIPELINE_SPILL_MAX_SIZE));
 
       CheckpointManager checkpointManager = checkpointManagerFactory.create(pipelineSpec.getCheckpointPrefix(),
                                                                             CheckpointManagerFactory.Type.LOG_BUFFER);
@@ -178,6 +182,15 @@ public class LogBufferService extends AbstractIdleService {
     return bufferPipelines;
   }
 
+  /**
+   * Returns the directory to spill buffered log events to, or {@code null} if spilling is disabled.
+   */
+  @Nullable
+  private File getSpillDir(CConfiguration cConf) {
+    String spillDir = cConf.get(Constants.Logging.PIPELINE_SPILL_DIR);
+    return Strings.isNullOrEmpty(spillDir) ? null : new File(spillDir);
+  }
+
   /**
    * Determines the buffer size for one pipeline.
    */
@@ -20,19 +20,18 @@ import com.google.common.io.Closeables;
 import io.cdap.cdap.api.common.Bytes;
 import io.cdap.cdap.logging.serialize.LoggingEventSerializer;
 import org.apache.twill.common.Threads;
-import org.apache.twill.filesystem.LocalLocationFactory;
-import org.apache.twill.filesystem.Location;
-import org.apache.twill.filesystem.LocationFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedOutputStream;
 import java.io.Closeable;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.Flushable;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -50,19 +49,26 @@ import java.util.concurrent.Future;
  * <length> <log_event>
  * length = Avro encoded int32 for size in bytes for the log event
  * log_event = Avro encoded log bytes
+ *
+ * Each call to {@link #write(Iterator)} writes the events as one batch. If sync is enabled, the batch is forced to
+ * the disk before the call returns, so that all the events of the batch share a single fsync.
  */
 public class LogBufferWriter implements Flushable, Closeable {
   private static final Logger LOG = LoggerFactory.getLogger(LogBufferWriter.class);
   private static final String FILE_SUFFIX = ".buf";
+  private static final int BUFFER_SIZE = 64 * 1024; // 64k buffer
   private final LoggingEventSerializer logEventSerializer;
-  private final LocationFactory locationFactory;
+  private final File baseDir;
   private final long maxFileSizeInBytes;
+  private final boolean syncEnabled;
   private final Runnable cleaner;
   private final ExecutorService executorService;
   private Future<?> cleanerFuture;
 
   // output stream to write to
-  private OutputStream currOutputStream;
+  private DataOutputStream currOutputStream;
+  // channel of the current file, used to force the written events to the disk
+  private FileChannel currChannel;
   // offset in current open file
   private long currOffset;
   // cache to store monotonically increasing id for file id
@@ -70,12 +76,17 @@ public class LogBufferWriter implements Flushable, Closeable {
   private long writtenBytes;
 
   public LogBufferWriter(String logBufferBaseDir, long maxFileSize, Runnable cleaner) throws IOException {
-    File baseDir = new File(logBufferBaseDir);
+    this(logBufferBaseDir, maxFileSize, false, cleaner);
+  }
+
+  public LogBufferWriter(String logBufferBaseDir, long maxFileSize, boolean syncEnabled,
+                         Runnable cleaner) throws IOException {
+    this.baseDir = new File(logBufferBaseDir);
     // make sure base dir already exists, if not create it.
     Files.createDirectories(baseDir.toPath());
-    this.locationFactory = new LocalLocationFactory(baseDir);
     // max file size after which rotation should happen.
     this.maxFileSizeInBytes = maxFileSize;
+    this.syncEnabled = syncEnabled;
     this.cleaner = cleaner;
     // Mark cleaner future as completed when its initialized
     this.cleanerFuture =  CompletableFuture.completedFuture(0);
@@ -84,11 +95,12 @@ public class LogBufferWriter implements Flushable, Closeable {
 
     // scan file names under base dir and get next monotonically increasing file id
     this.currFileId = getNextFileId(baseDir);
-    this.currOutputStream = new BufferedOutputStream(locationFactory.create(getFileName(currFileId)).getOutputStream());
+    openFile();
   }
 
   /**
-   * Write events to log buffer.
+   * Write events to log buffer. The events are flushed, and forced to the disk if sync is enabled, before this
+   * method returns.
    *
    * @param events iterator of events to be written
    * @return iterator of log buffer file offsets
@@ -101,7 +113,7 @@ public class LogBufferWriter implements Flushable, Closeable {
       LogBufferFileOffset offset = write(event);
       offsets.add(new LogBufferEvent(logEventSerializer.fromBytes(ByteBuffer.wrap(event)), event.length, offset));
     }
-    currOutputStream.flush();
+    flush();
     return offsets;
   }
 
@@ -118,7 +130,7 @@ public class LogBufferWriter implements Flushable, Closeable {
     long startOffset = currOffset;
 
     // write size of the log event
-    currOutputStream.write(Bytes.toBytes(eventBytes.length));
+    currOutputStream.writeInt(eventBytes.length);
     currOffset = currOffset + Bytes.SIZEOF_INT;
     // write actual log event
     currOutputStream.write(eventBytes);
@@ -129,7 +141,7 @@ public class LogBufferWriter implements Flushable, Closeable {
 
     // If number of written bytes exceed the max file size, then rotate the file
     if (writtenBytes >= maxFileSizeInBytes) {
-      currOutputStream = new BufferedOutputStream(rotateFile(currOutputStream).getOutputStream());
+      rotateFile();
     }
 
     // the file id and file pos in offset is where current event is written.
@@ -139,12 +151,15 @@ public class LogBufferWriter implements Flushable, Closeable {
   @Override
   public void flush() throws IOException {
     currOutputStream.flush();
+    if (syncEnabled) {
+      currChannel.force(false);
+    }
   }
 
   @Override
   public void close() throws IOException {
     try {
-      currOutputStream.flush();
+      flush();
     } catch (IOException e) {
       LOG.warn("Error while flushing log buffer output stream.", e);
     }
@@ -173,11 +188,24 @@ public class LogBufferWriter implements Flushable, Closeable {
     return maxFileId + 1;
   }
 
+  /**
+   * Opens the file of the current file id for writing.
+   */
+  private void openFile() throws IOException {
+    FileOutputStream fos = new FileOutputStream(new File(baseDir, getFileName(currFileId)));
+    currChannel = fos.getChannel();
+    currOutputStream = new DataOutputStream(new BufferedOutputStream(fos, BUFFER_SIZE));
+  }
+
   /**
    * Rotates the log buffer file.
    */
-  private Location rotateFile(OutputStream currOutputStream) throws IOException {
+  private void rotateFile() throws IOException {
     currOutputStream.flush();
+    // the events written to the current file so far must be on disk before moving on to the next file
+    if (syncEnabled) {
+      currChannel.force(false);
+    }
     // close current location output stream
     Closeables.closeQuietly(currOutputStream);
 
@@ -185,13 +213,12 @@ public class LogBufferWriter implements Flushable, Closeable {
     currOffset = 0;
     // update current file id to next monotonically increasing file id
     currFileId = currFileId + 1;
-    Location rotatedLocation = locationFactory.create(getFileName(currFileId));
+    openFile();
     // executes log buffer cleaner runnable. Only submit cleaner thread if future is complete. This is because if the
     // rotation is happening faster than clean up, there can be multiple clean up tasks in executorService.
     if (cleanerFuture.isDone()) {
       cleanerFuture = executorService.submit(cleaner);
     }
-    return rotatedLocation;
   }
 
   private String getFileName(long fileId) {
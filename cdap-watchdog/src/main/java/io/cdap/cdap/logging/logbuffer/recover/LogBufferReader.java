@@ -155,7 +155,8 @@ public class LogBufferReader implements Closeable {
     LogBufferEvent read() throws IOException {
       int length = inputStream.readInt();
       byte[] eventBytes = new byte[length];
-      inputStream.read(eventBytes);
+      // a partially written event at the end of the file is treated as the end of the file
+      inputStream.readFully(eventBytes);
       LogBufferEvent event = new LogBufferEvent(serializer.fromBytes(ByteBuffer.wrap(eventBytes)),
                                                 eventBytes.length, new LogBufferFileOffset(fileId, pos));
       // update curr position to point to next event
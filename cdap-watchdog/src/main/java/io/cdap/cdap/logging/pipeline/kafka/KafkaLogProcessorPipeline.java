@@ -106,7 +106,8 @@ public final class KafkaLogProcessorPipeline extends AbstractExecutionThreadServ
     this.offsets = new Int2LongOpenHashMap();
     this.checkpoints = new Int2ObjectOpenHashMap<>();
     this.eventQueueProcessor = new TimeEventQueueProcessor<>(context, config.getMaxBufferSize(),
-                                                             config.getEventDelayMillis(), config.getPartitions());
+                                                             config.getEventDelayMillis(), config.getPartitions(),
+                                                             config.getSpillDir(), config.getMaxSpillSize());
     this.serializer = new LoggingEventSerializer();
     this.metricsContext = context;
     this.kafkaConsumers = new HashMap<>();
@@ -216,6 +217,7 @@ public final class KafkaLogProcessorPipeline extends AbstractExecutionThreadServ
         LOG.warn("Exception raised when closing Kafka consumer.", e);
       }
     }
+    eventQueueProcessor.close();
     LOG.info("Log processor pipeline for {} stopped with latest checkpoints {}", name, checkpoints);
   }
 
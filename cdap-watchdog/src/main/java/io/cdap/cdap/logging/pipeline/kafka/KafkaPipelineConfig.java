@@ -18,7 +18,9 @@ package io.cdap.cdap.logging.pipeline.kafka;
 
 import com.google.common.collect.ImmutableSet;
 
+import java.io.File;
 import java.util.Set;
+import javax.annotation.Nullable;
 
 /**
  * A class to hold configurations for a {@link KafkaLogProcessorPipeline}.
@@ -31,15 +33,25 @@ public final class KafkaPipelineConfig {
   private final long eventDelayMillis;
   private final int kafkaFetchBufferSize;
   private final long checkpointIntervalMillis;
+  private final File spillDir;
+  private final long maxSpillSize;
 
   public KafkaPipelineConfig(String topic, Set<Integer> partitions, long maxBufferSize,
                              long eventDelayMillis, int kafkaFetchBufferSize, long checkpointIntervalMillis) {
+    this(topic, partitions, maxBufferSize, eventDelayMillis, kafkaFetchBufferSize, checkpointIntervalMillis, null, 0L);
+  }
+
+  public KafkaPipelineConfig(String topic, Set<Integer> partitions, long maxBufferSize,
+                             long eventDelayMillis, int kafkaFetchBufferSize, long checkpointIntervalMillis,
+                             @Nullable File spillDir, long maxSpillSize) {
     this.topic = topic;
     this.partitions = ImmutableSet.copyOf(partitions);
     this.maxBufferSize = maxBufferSize;
     this.eventDelayMillis = eventDelayMillis;
     this.kafkaFetchBufferSize = kafkaFetchBufferSize;
     this.checkpointIntervalMillis = checkpointIntervalMillis;
+    this.spillDir = spillDir;
+    this.maxSpillSize = maxSpillSize;
   }
 
   String getTopic() {
@@ -66,6 +78,15 @@ public final class KafkaPipelineConfig {
     return checkpointIntervalMillis;
   }
 
+  @Nullable
+  File getSpillDir() {
+    return spillDir;
+  }
+
+  long getMaxSpillSize() {
+    return maxSpillSize;
+  }
+
   @Override
   public String toString() {
     return "KafkaPipelineConfig{" +
@@ -75,6 +96,8 @@ public final class KafkaPipelineConfig {
       ", eventDelayMillis=" + eventDelayMillis +
       ", kafkaFetchBufferSize=" + kafkaFetchBufferSize +
       ", checkpointIntervalMillis=" + checkpointIntervalMillis +
+      ", spillDir=" + spillDir +
+      ", maxSpillSize=" + maxSpillSize +
       '}';
   }
 }
@@ -16,6 +16,9 @@
 
 package io.cdap.cdap.logging.pipeline.logbuffer;
 
+import java.io.File;
+import javax.annotation.Nullable;
+
 /**
  * Config for log buffer pipeline.
  */
@@ -24,13 +27,22 @@ public class LogBufferPipelineConfig {
   private final long eventDelayMillis;
   private final long checkpointIntervalMillis;
   private final long batchSize;
+  private final File spillDir;
+  private final long maxSpillSize;
 
   public LogBufferPipelineConfig(long maxBufferSize, long eventDelayMillis, long checkpointIntervalMillis,
                                  long batchSize) {
+    this(maxBufferSize, eventDelayMillis, checkpointIntervalMillis, batchSize, null, 0L);
+  }
+
+  public LogBufferPipelineConfig(long maxBufferSize, long eventDelayMillis, long checkpointIntervalMillis,
+                                 long batchSize, @Nullable File spillDir, long maxSpillSize) {
     this.maxBufferSize = maxBufferSize;
     this.eventDelayMillis = eventDelayMillis;
     this.checkpointIntervalMillis = checkpointIntervalMillis;
     this.batchSize = batchSize;
+    this.spillDir = spillDir;
+    this.maxSpillSize = maxSpillSize;
   }
 
   public long getMaxBufferSize() {
@@ -48,4 +60,13 @@ public class LogBufferPipelineConfig {
   public long getBatchSize() {
     return batchSize;
   }
+
+  @Nullable
+  public File getSpillDir() {
+    return spillDir;
+  }
+
+  public long getMaxSpillSize() {
+    return maxSpillSize;
+  }
 }
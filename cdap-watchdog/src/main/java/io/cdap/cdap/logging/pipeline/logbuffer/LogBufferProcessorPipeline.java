@@ -77,7 +77,8 @@ public class LogBufferProcessorPipeline extends AbstractExecutionThreadService {
     this.checkpointManager = checkpointManager;
     this.metricsContext = context;
     this.eventQueueProcessor = new TimeEventQueueProcessor<>(context, config.getMaxBufferSize(),
-                                                             config.getEventDelayMillis(), ImmutableSet.of(instanceId));
+                                                             config.getEventDelayMillis(), ImmutableSet.of(instanceId),
+                                                             config.getSpillDir(), config.getMaxSpillSize());
     this.incomingEventQueue = new ArrayBlockingQueue<>(INCOMING_EVENT_QUEUE_SIZE);
     this.checkpoints = new HashMap<>();
     this.stopLatch = new CountDownLatch(1);
@@ -133,6 +134,7 @@ public class LogBufferProcessorPipeline extends AbstractExecutionThreadService {
     }
 
     persistCheckpoints();
+    eventQueueProcessor.close();
     LOG.info("Log processor pipeline for {} stopped with latest checkpoint {}", name, checkpoints);
   }
 
@@ -0,0 +1,325 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.cdap.logging.pipeline.queue;
+
+import io.cdap.cdap.common.utils.DirUtils;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Stores serialized events in segment files on local disk for a {@link TimeEventQueue}, so that events beyond the
+ * memory budget of the queue don't have to be kept in memory. Events are appended to the current segment, and a
+ * segment file is deleted once all of its events are removed. The store is transient, hence nothing is kept after
+ * it is closed.
+ *
+ * The size of the segment files counts against the max size of the store, including the space of removed events in
+ * segments that are not fully drained yet. The store holds a lock on its directory, so that directories left behind
+ * by a process that didn't close its store are deleted when a store with the same prefix is created.
+ *
+ * @param <EVENT> Type of event stored.
+ */
+@NotThreadSafe
+public final class EventSpillStore<EVENT> implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(EventSpillStore.class);
+  private static final long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+  private static final String LOCK_FILE = "spill.lock";
+
+  private final File baseDir;
+  private final String prefix;
+  private final long maxSize;
+  private final long segmentSize;
+  private final Function<EVENT, byte[]> encoder;
+  private final Decoder<EVENT> decoder;
+  private final Int2ObjectMap<Segment> segments;
+
+  // directory of the segment files, created on the first write
+  private File dir;
+  private FileChannel lockChannel;
+  private Segment currentSegment;
+  private int nextSegmentId;
+  private long size;
+  private long diskSize;
+
+  /**
+   * Creates a store that writes segment files under a new directory in the given base directory.
+   *
+   * @param baseDir the base directory
+   * @param prefix prefix of the name of the directory of the store
+   * @param maxSize the max size of the segment files of the store
+   * @param encoder {@link Function} to serialize an event
+   * @param decoder {@link Decoder} to deserialize an event serialized by the encoder
+   */
+  public EventSpillStore(File baseDir, String prefix, long maxSize, Function<EVENT, byte[]> encoder,
+                         Decoder<EVENT> decoder) {
+    this(baseDir, prefix, maxSize, DEFAULT_SEGMENT_SIZE, encoder, decoder);
+  }
+
+  EventSpillStore(File baseDir, String prefix, long maxSize, long segmentSize, Function<EVENT, byte[]> encoder,
+                  Decoder<EVENT> decoder) {
+    this.baseDir = baseDir;
+    this.prefix = prefix;
+    this.maxSize = maxSize;
+    this.segmentSize = segmentSize;
+    this.encoder = encoder;
+    this.decoder = decoder;
+    this.segments = new Int2ObjectOpenHashMap<>();
+    deleteStaleDirectories();
+  }
+
+  /**
+   * Writes the given event to the store.
+   *
+   * @return the {@link Entry} for reading the event back
+   */
+  public Entry write(EVENT event) throws IOException {
+    byte[] bytes = encoder.apply(event);
+    if (currentSegment == null || currentSegment.position >= segmentSize) {
+      currentSegment = createSegment();
+    }
+    Segment segment = currentSegment;
+    long position = segment.position;
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    while (buffer.hasRemaining()) {
+      segment.channel.write(buffer, position + buffer.position());
+    }
+    segment.position += bytes.length;
+    segment.entries++;
+    size += bytes.length;
+    diskSize += bytes.length;
+    return new Entry(segment.id, position, bytes.length);
+  }
+
+  /**
+   * Reads the event of the given {@link Entry}.
+   */
+  public EVENT read(Entry entry) throws IOException {
+    Segment segment = getSegment(entry);
+    ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+    while (buffer.hasRemaining()) {
+      if (segment.channel.read(buffer, entry.position + buffer.position()) < 0) {
+        throw new EOFException("Unexpected end of spill segment " + segment.file);
+      }
+    }
+    buffer.flip();
+    return decoder.decode(buffer);
+  }
+
+  /**
+   * Removes the event of the given {@link Entry} from the store. The segment of the event is deleted if it has no
+   * more events.
+   */
+  public void remove(Entry entry) {
+    Segment segment = getSegment(entry);
+    size -= entry.length;
+    if (--segment.entries > 0) {
+      return;
+    }
+    diskSize -= segment.position;
+    if (segment == currentSegment) {
+      // Reuse the current segment from the start
+      segment.position = 0;
+      return;
+    }
+    segments.remove(segment.id);
+    segment.delete();
+  }
+
+  /**
+   * Returns the total size of the events in the store.
+   */
+  public long getSize() {
+    return size;
+  }
+
+  /**
+   * Returns the total size of the segment files of the store.
+   */
+  public long getDiskSize() {
+    return diskSize;
+  }
+
+  /**
+   * Returns {@code true} if the size of the segment files has reached the max size of the store.
+   */
+  public boolean isFull() {
+    return diskSize >= maxSize;
+  }
+
+  /**
+   * Deletes all segments of the store.
+   */
+  @Override
+  public void close() {
+    for (Segment segment : segments.values()) {
+      segment.delete();
+    }
+    segments.clear();
+    currentSegment = null;
+    size = 0;
+    diskSize = 0;
+    if (dir != null) {
+      try {
+        lockChannel.close();
+        DirUtils.deleteDirectoryContents(dir);
+      } catch (IOException e) {
+        LOG.warn("Failed to delete spill directory {}", dir, e);
+      }
+      dir = null;
+      lockChannel = null;
+    }
+  }
+
+  private Segment createSegment() throws IOException {
+    if (dir == null) {
+      Files.createDirectories(baseDir.toPath());
+      File newDir = Files.createTempDirectory(baseDir.toPath(), prefix).toFile();
+      FileChannel channel = FileChannel.open(new File(newDir, LOCK_FILE).toPath(),
+                                             StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      try {
+        if (channel.tryLock() == null) {
+          throw new IOException("Failed to lock spill directory " + newDir);
+        }
+      } catch (IOException | RuntimeException e) {
+        channel.close();
+        throw e;
+      }
+      dir = newDir;
+      lockChannel = channel;
+    }
+    int id = nextSegmentId++;
+    Segment segment = new Segment(id, new File(dir, id + ".spill"));
+    segments.put(segment.id, segment);
+    return segment;
+  }
+
+  /**
+   * Deletes the directories of stores with the same prefix that are not locked, which are left behind by processes
+   * that didn't close their stores.
+   */
+  private void deleteStaleDirectories() {
+    // Directories created by Files.createTempDirectory are named by the prefix followed by a random number
+    Pattern pattern = Pattern.compile(Pattern.quote(prefix) + "\\d+");
+    File[] files = baseDir.listFiles(file -> file.isDirectory() && pattern.matcher(file.getName()).matches());
+    if (files == null) {
+      return;
+    }
+    for (File staleDir : files) {
+      File lockFile = new File(staleDir, LOCK_FILE);
+      // No segment is written to a directory before it is locked
+      if (!lockFile.isFile()) {
+        continue;
+      }
+      try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.WRITE)) {
+        FileLock lock;
+        try {
+          lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+          // Locked by a store in this process
+          continue;
+        }
+        if (lock == null) {
+          continue;
+        }
+        LOG.info("Deleting stale spill directory {}", staleDir);
+        DirUtils.deleteDirectoryContents(staleDir);
+      } catch (IOException e) {
+        LOG.warn("Failed to delete stale spill directory {}", staleDir, e);
+      }
+    }
+  }
+
+  private Segment getSegment(Entry entry) {
+    Segment segment = segments.get(entry.segmentId);
+    if (segment == null) {
+      throw new IllegalArgumentException("Segment " + entry.segmentId + " does not exist in the spill store");
+    }
+    return segment;
+  }
+
+  /**
+   * Deserializes an event.
+   *
+   * @param <EVENT> Type of event.
+   */
+  public interface Decoder<EVENT> {
+    EVENT decode(ByteBuffer buffer) throws IOException;
+  }
+
+  /**
+   * The location of an event in the store.
+   */
+  public static final class Entry {
+    private final int segmentId;
+    private final long position;
+    private final int length;
+
+    private Entry(int segmentId, long position, int length) {
+      this.segmentId = segmentId;
+      this.position = position;
+      this.length = length;
+    }
+  }
+
+  /**
+   * A segment file of the store.
+   */
+  private static final class Segment {
+    private final int id;
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    // the position to write the next event at, and the number of events not yet removed
+    private long position;
+    private int entries;
+
+    Segment(int id, File file) throws IOException {
+      this.id = id;
+      this.file = file;
+      this.raf = new RandomAccessFile(file, "rw");
+      this.channel = raf.getChannel();
+    }
+
+    void delete() {
+      try {
+        raf.close();
+      } catch (IOException e) {
+        LOG.warn("Failed to close spill segment {}", file, e);
+      }
+      if (!file.delete() && file.exists()) {
+        LOG.warn("Failed to delete spill segment {}", file);
+      }
+    }
+  }
+}
@@ -16,29 +16,55 @@
 
 package io.cdap.cdap.logging.pipeline.queue;
 
+import com.google.common.base.Throwables;
 import it.unimi.dsi.fastutil.ints.Int2ObjectArrayMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
 /**
  * A queue for storing time based events with offsets association.
  *
+ * If an {@link EventSpillStore} is given, events added beyond the memory budget of the queue are written to the
+ * store, and only their timestamp, partition, offset and size are kept in memory. They are read back from the store
+ * when iterated, in the same time order as the events in memory.
+ *
  * @param <EVENT> Type of event stored in the queue.
  * @param <OFFSET> Type of event offset associated with the event.
  */
 @NotThreadSafe
-public final class TimeEventQueue<EVENT, OFFSET extends Comparable<OFFSET>> implements Iterable<EVENT> {
+public final class TimeEventQueue<EVENT, OFFSET extends Comparable<OFFSET>> implements Iterable<EVENT>, Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TimeEventQueue.class);
 
   private final SortedSet<TimeEvent<EVENT, OFFSET>> events;
   private final Int2ObjectMap<SortedSet<OFFSET>> partitionOffsets;
+  private final long maxMemorySize;
+  @Nullable
+  private final EventSpillStore<EVENT> spillStore;
   private long totalSize;
+  private long memorySize;
 
   public TimeEventQueue(Iterable<Integer> partitions) {
+    this(partitions, Long.MAX_VALUE, null);
+  }
+
+  /**
+   * Creates a queue that writes events to the given {@link EventSpillStore} once the size of the events in memory
+   * would exceed the given size. Events are kept in memory if the store is full.
+   */
+  public TimeEventQueue(Iterable<Integer> partitions, long maxMemorySize, @Nullable EventSpillStore<EVENT> spillStore) {
     this.events = new TreeSet<>();
+    this.maxMemorySize = maxMemorySize;
+    this.spillStore = spillStore;
     this.partitionOffsets = new Int2ObjectArrayMap<>();
 
     for (int partition : partitions) {
@@ -49,14 +75,25 @@ public final class TimeEventQueue<EVENT, OFFSET extends Comparable<OFFSET>> impl
   public void add(EVENT event, long eventTimestamp, int eventSize, int partition, OFFSET offset) {
     SortedSet<OFFSET> offsets = getOffsets(partition);
     TimeEvent<EVENT, OFFSET> timeEvent = new TimeEvent<>(eventTimestamp, partition, offset, event, eventSize);
-    if (events.add(timeEvent)) {
-      if (!offsets.add(offset)) {
-        events.remove(timeEvent);
-        throw new IllegalArgumentException("Adding different event with the same offset "
-                                             + offset + ", " + event);
+    if (events.contains(timeEvent)) {
+      return;
+    }
+    if (!offsets.add(offset)) {
+      throw new IllegalArgumentException("Adding different event with the same offset "
+                                           + offset + ", " + event);
+    }
+    if (spillStore != null && memorySize + eventSize > maxMemorySize && !spillStore.isFull()) {
+      try {
+        timeEvent = new TimeEvent<>(eventTimestamp, partition, offset, spillStore.write(event), eventSize);
+      } catch (IOException e) {
+        // Keep the event in memory if it cannot be spilled
+        LOG.warn("Failed to spill event to disk, keeping it in memory.", e);
       }
-
-      totalSize += eventSize;
+    }
+    events.add(timeEvent);
+    totalSize += eventSize;
+    if (!timeEvent.isSpilled()) {
+      memorySize += eventSize;
     }
   }
 
@@ -64,7 +101,7 @@ public final class TimeEventQueue<EVENT, OFFSET extends Comparable<OFFSET>> impl
    * Returns the event in the queue with the smallest timestamp.
    */
   public EVENT first() {
-    return events.first().getEvent();
+    return getEvent(events.first());
   }
 
   /**
@@ -95,6 +132,13 @@ public final class TimeEventQueue<EVENT, OFFSET extends Comparable<OFFSET>> impl
     return totalSize;
   }
 
+  /**
+   * Returns the size of the events in the queue that are kept in memory.
+   */
+  public long getMemoryEventSize() {
+    return memorySize;
+  }
+
   /**
    * Returns the smallest offset stored for the given partition.
    */
@@ -121,7 +165,7 @@ public final class TimeEventQueue<EVENT, OFFSET extends Comparable<OFFSET>> impl
       @Override
       public EVENT next() {
         currentEvent = iterator.next();
-        return currentEvent.getEvent();
+        return getEvent(currentEvent);
       }
 
       @Override
@@ -132,6 +176,11 @@ public final class TimeEventQueue<EVENT, OFFSET extends Comparable<OFFSET>> impl
         iterator.remove();
         partitionOffsets.get(currentEvent.getPartition()).remove(currentEvent.getOffset());
         totalSize -= currentEvent.getEventSize();
+        if (currentEvent.isSpilled()) {
+          spillStore.remove(currentEvent.getSpillEntry());
+        } else {
+          memorySize -= currentEvent.getEventSize();
+        }
         currentEvent = null;
       }
 
@@ -153,6 +202,27 @@ public final class TimeEventQueue<EVENT, OFFSET extends Comparable<OFFSET>> impl
     };
   }
 
+  /**
+   * Deletes the events spilled to disk, if any.
+   */
+  @Override
+  public void close() {
+    if (spillStore != null) {
+      spillStore.close();
+    }
+  }
+
+  private EVENT getEvent(TimeEvent<EVENT, OFFSET> timeEvent) {
+    if (!timeEvent.isSpilled()) {
+      return timeEvent.getEvent();
+    }
+    try {
+      return spillStore.read(timeEvent.getSpillEntry());
+    } catch (IOException e) {
+      throw Throwables.propagate(e);
+    }
+  }
+
   private SortedSet<OFFSET> getOffsets(int partition) {
     SortedSet<OFFSET> offsets = partitionOffsets.get(partition);
     if (offsets == null) {
@@ -182,7 +252,8 @@ public final class TimeEventQueue<EVENT, OFFSET extends Comparable<OFFSET>> impl
   }
 
   /**
-   * This class represent an event stored in the event set.
+   * This class represent an event stored in the event set. The event is either kept in memory, or in the
+   * {@link EventSpillStore} of the queue.
    */
   private static final class TimeEvent<EVENT, OFFSET extends Comparable<OFFSET>>
                         implements Comparable<TimeEvent<EVENT, OFFSET>> {
@@ -190,13 +261,24 @@ public final class TimeEventQueue<EVENT, OFFSET extends Comparable<OFFSET>> impl
     private final int partition;
     private final OFFSET offset;
     private final EVENT event;
+    private final EventSpillStore.Entry spillEntry;
     private final int eventSize;
 
     TimeEvent(long eventTime, int partition, OFFSET offset, EVENT event, int eventSize) {
+      this(eventTime, partition, offset, event, null, eventSize);
+    }
+
+    TimeEvent(long eventTime, int partition, OFFSET offset, EventSpillStore.Entry spillEntry, int eventSize) {
+      this(eventTime, partition, offset, null, spillEntry, eventSize);
+    }
+
+    private TimeEvent(long eventTime, int partition, OFFSET offset, @Nullable EVENT event,
+                      @Nullable EventSpillStore.Entry spillEntry, int eventSize) {
       this.eventTime = eventTime;
       this.partition = partition;
       this.offset = offset;
       this.event = event;
+      this.spillEntry = spillEntry;
       this.eventSize = eventSize;
     }
 
@@ -216,6 +298,14 @@ public final class TimeEventQueue<EVENT, OFFSET extends Comparable<OFFSET>> impl
       return event;
     }
 
+    boolean isSpilled() {
+      return spillEntry != null;
+    }
+
+    EventSpillStore.Entry getSpillEntry() {
+      return spillEntry;
+    }
+
     int getEventSize() {
       return eventSize;
     }
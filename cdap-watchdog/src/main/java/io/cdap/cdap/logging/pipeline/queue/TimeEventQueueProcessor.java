@@ -23,19 +23,27 @@ import io.cdap.cdap.common.logging.LogSamplers;
 import io.cdap.cdap.common.logging.Loggers;
 import io.cdap.cdap.logging.meta.Checkpoint;
 import io.cdap.cdap.logging.pipeline.LogProcessorPipelineContext;
+import io.cdap.cdap.logging.serialize.LoggingEventSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import javax.annotation.Nullable;
 
 /**
  * The {@link TimeEventQueue} processor to enqueue the log events to {@link TimeEventQueue}, and process them.
+ *
+ * If a spill directory is given, events beyond the max buffer size are spilled to local disk, up to the max spill
+ * size, instead of forcing the events to be appended before their event delay has passed.
+ *
  * @param <OFFSET> type of the offset
  */
-public class TimeEventQueueProcessor<OFFSET extends Comparable<OFFSET>> {
+public class TimeEventQueueProcessor<OFFSET extends Comparable<OFFSET>> implements Closeable {
   private static final Logger LOG = LoggerFactory.getLogger(TimeEventQueueProcessor.class);
   // For outage, only log once per 60 seconds per message.
   private static final Logger OUTAGE_LOG =
@@ -45,6 +53,7 @@ public class TimeEventQueueProcessor<OFFSET extends Comparable<OFFSET>> {
   private final LogProcessorPipelineContext context;
   private final MetricsContext metricsContext;
   private final long maxBufferSize;
+  private final long maxQueueSize;
   private final long eventDelayMillis;
 
   /**
@@ -52,11 +61,30 @@ public class TimeEventQueueProcessor<OFFSET extends Comparable<OFFSET>> {
    */
   public TimeEventQueueProcessor(LogProcessorPipelineContext context, long maxBufferSize, long eventDelayMillis,
                                  Iterable<Integer> partitions) {
+    this(context, maxBufferSize, eventDelayMillis, partitions, null, 0L);
+  }
+
+  /**
+   * Time event queue processor that spills events beyond the max buffer size to the given directory.
+   *
+   * @param spillDir the directory to spill events to, or {@code null} to keep all events in memory
+   * @param maxSpillSize the max size of the spill files on disk
+   */
+  public TimeEventQueueProcessor(LogProcessorPipelineContext context, long maxBufferSize, long eventDelayMillis,
+                                 Iterable<Integer> partitions, @Nullable File spillDir, long maxSpillSize) {
     this.context = context;
     this.maxBufferSize = maxBufferSize;
     this.eventDelayMillis = eventDelayMillis;
     this.metricsContext = context;
-    this.eventQueue = new TimeEventQueue<>(partitions);
+
+    EventSpillStore<ILoggingEvent> spillStore = null;
+    if (spillDir != null && maxSpillSize > 0) {
+      LoggingEventSerializer serializer = new LoggingEventSerializer();
+      spillStore = new EventSpillStore<>(spillDir, context.getName() + "-", maxSpillSize, serializer::toBytes,
+                                         serializer::fromBytes);
+    }
+    this.maxQueueSize = spillStore == null ? maxBufferSize : maxBufferSize + maxSpillSize;
+    this.eventQueue = new TimeEventQueue<>(partitions, maxBufferSize, spillStore);
   }
 
   /**
@@ -73,8 +101,8 @@ public class TimeEventQueueProcessor<OFFSET extends Comparable<OFFSET>> {
 
     // iterate through all the events if buffer size has not reached max
     while (eventIterator.hasNext()) {
-      if (eventQueue.getEventSize() >= maxBufferSize) {
-        OUTAGE_LOG.info("Maximum queue size {} reached for log pipeline {}.", maxBufferSize, context.getName());
+      if (isQueueFull()) {
+        OUTAGE_LOG.info("Maximum queue size {} reached for log pipeline {}.", maxQueueSize, context.getName());
 
         // Event queue is full. So try to append events to log appenders. If none of the events are appended to log
         // appenders, then do not enqueue any more events.
@@ -104,8 +132,7 @@ public class TimeEventQueueProcessor<OFFSET extends Comparable<OFFSET>> {
 
   private ProcessedEventMetadata<OFFSET> append() {
     long minEventTime = System.currentTimeMillis() - eventDelayMillis;
-    long maxRetainSize = eventQueue.getEventSize() >= maxBufferSize ?
-      (long) (maxBufferSize * MIN_FREE_FACTOR) : Long.MAX_VALUE;
+    long maxRetainSize = isQueueFull() ? (long) (maxQueueSize * MIN_FREE_FACTOR) : Long.MAX_VALUE;
 
     int eventsAppended = 0;
     long minDelay = Long.MAX_VALUE;
@@ -153,6 +180,7 @@ public class TimeEventQueueProcessor<OFFSET extends Comparable<OFFSET>> {
       LOG.warn("Failed to flush in pipeline {}. Will be retried.", context.getName(), e);
     }
     metricsContext.gauge("event.queue.size.bytes", eventQueue.getEventSize());
+    metricsContext.gauge("event.queue.spilled.size.bytes", eventQueue.getEventSize() - eventQueue.getMemoryEventSize());
 
     // If no event was appended and the buffer is not full, so just return with 0 events appended.
     if (eventsAppended == 0) {
@@ -173,4 +201,20 @@ public class TimeEventQueueProcessor<OFFSET extends Comparable<OFFSET>> {
   public boolean isQueueEmpty(int partition) {
     return eventQueue.isEmpty(partition);
   }
+
+  /**
+   * Deletes the events spilled to disk, if any. The events will be processed again from the last checkpoints.
+   */
+  @Override
+  public void close() {
+    eventQueue.close();
+  }
+
+  /**
+   * Returns {@code true} if the queue has reached its max size. The events in memory can only exceed the max buffer
+   * size if spilling to disk failed.
+   */
+  private boolean isQueueFull() {
+    return eventQueue.getEventSize() >= maxQueueSize || eventQueue.getMemoryEventSize() > maxBufferSize;
+  }
 }
@@ -16,40 +16,76 @@
 
 package io.cdap.cdap.logging.read;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
 import io.cdap.cdap.api.dataset.lib.AbstractCloseableIterator;
 import io.cdap.cdap.api.dataset.lib.CloseableIterator;
+import io.cdap.cdap.common.conf.CConfiguration;
+import io.cdap.cdap.common.conf.Constants;
 import io.cdap.cdap.common.logging.LoggingContext;
 import io.cdap.cdap.logging.context.LoggingContextHelper;
 import io.cdap.cdap.logging.filter.AndFilter;
 import io.cdap.cdap.logging.filter.Filter;
 import io.cdap.cdap.logging.meta.FileMetaDataReader;
 import io.cdap.cdap.logging.write.LogLocation;
+import org.apache.twill.common.Threads;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
 
 /**
- * Reads log events from a file.
+ * Reads log events from a file. When reading a page of log events, up to
+ * {@link Constants.LogQuery#FILE_READ_PARALLELISM} files are read ahead concurrently, while the events are
+ * still handed out in the order of the files. The files of all concurrent reads are read by a shared pool of up to
+ * {@link Constants.LogQuery#FILE_READ_THREADS} threads.
  */
+@Singleton
 public class FileLogReader implements LogReader {
   private static final Logger LOG = LoggerFactory.getLogger(FileLogReader.class);
 
   private final FileMetaDataReader fileMetadataReader;
+  private final int parallelism;
+  @Nullable
+  private final ExecutorService executor;
 
   @Inject
-  public FileLogReader(FileMetaDataReader fileMetadataReader) {
+  public FileLogReader(CConfiguration cConf, FileMetaDataReader fileMetadataReader) {
     this.fileMetadataReader = fileMetadataReader;
+    this.parallelism = cConf.getInt(Constants.LogQuery.FILE_READ_PARALLELISM);
+    this.executor = parallelism > 1 ? createExecutor(cConf.getInt(Constants.LogQuery.FILE_READ_THREADS)) : null;
+  }
+
+  private static ExecutorService createExecutor(int threads) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                                                         new LinkedBlockingQueue<>(),
+                                                         Threads.createDaemonThreadFactory("file-log-reader-%d"));
+    // Idle threads are released, hence there are no threads if there is no log read
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
   }
 
   @Override
@@ -75,13 +111,36 @@ public class FileLogReader implements LogReader {
         return;
       }
 
-      for (LogLocation file : sortedFilesInRange) {
-        LOG.trace("Reading file {}", file);
-        file.readLog(logFilter, fromTimeMs, Long.MAX_VALUE, maxEvents - callback.getCount(), callback);
-        if (callback.getCount() >= maxEvents) {
-          break;
+      if (executor == null || sortedFilesInRange.size() == 1) {
+        for (LogLocation file : sortedFilesInRange) {
+          LOG.trace("Reading file {}", file);
+          file.readLog(logFilter, fromTimeMs, Long.MAX_VALUE, maxEvents - callback.getCount(), callback);
+          if (callback.getCount() >= maxEvents) {
+            break;
+          }
         }
+        return;
       }
+
+      // Each file is read for up to maxEvents events, since it is not known yet how many events the files before
+      // it have. All the events read from a file are handed to the callback, as the read of a file continues past
+      // maxEvents until the timestamp changes, so that the next page, which starts after the timestamp of the last
+      // event, doesn't miss any event. Same as for the sequential read, the page only ends at a file boundary.
+      readFiles(sortedFilesInRange, file -> {
+        List<LogEvent> events = new ArrayList<>();
+        try (CloseableIterator<LogEvent> iterator = file.readLog(logFilter, fromTimeMs, Long.MAX_VALUE, maxEvents)) {
+          // Stop reading if the read is cancelled
+          while (!Thread.currentThread().isInterrupted() && iterator.hasNext()) {
+            events.add(iterator.next());
+          }
+        }
+        return events;
+      }, events -> {
+        for (LogEvent event : events) {
+          callback.handle(event);
+        }
+        return callback.getCount() < maxEvents;
+      });
     } catch (Throwable e) {
       LOG.error("Got exception: ", e);
       throw  Throwables.propagate(e);
@@ -108,20 +167,41 @@ public class FileLogReader implements LogReader {
 
       LOG.trace("Using fromTimeMs={}, readRange={}", fromTimeMs, readRange);
       List<Collection<LogEvent>> logSegments = Lists.newLinkedList();
-      int count = 0;
-      for (LogLocation file : Lists.reverse(sortedFilesInRange)) {
-        try {
-          LOG.trace("Reading file {}", file);
+      if (executor == null || sortedFilesInRange.size() == 1) {
+        int count = 0;
+        for (LogLocation file : Lists.reverse(sortedFilesInRange)) {
+          try {
+            LOG.trace("Reading file {}", file);
 
-          Collection<LogEvent> events = file.readLogPrev(logFilter, fromTimeMs, maxEvents - count);
-          logSegments.add(events);
-          count += events.size();
-          if (count >= maxEvents) {
-            break;
+            Collection<LogEvent> events = file.readLogPrev(logFilter, fromTimeMs, maxEvents - count);
+            logSegments.add(events);
+            count += events.size();
+            if (count >= maxEvents) {
+              break;
+            }
+          } catch (IOException e) {
+            LOG.warn("Got exception reading log file {}", file, e);
           }
-        } catch (IOException e) {
-          LOG.warn("Got exception reading log file {}", file, e);
         }
+      } else {
+        // Each file is read for the last maxEvents events, and only the last ones that are needed are kept
+        int[] count = { 0 };
+        readFiles(Lists.reverse(sortedFilesInRange), file -> {
+          try {
+            return file.readLogPrev(logFilter, fromTimeMs, maxEvents);
+          } catch (IOException e) {
+            // A read that is cancelled can fail with the interruption, which is not an error
+            if (!Thread.currentThread().isInterrupted()) {
+              LOG.warn("Got exception reading log file {}", file, e);
+            }
+            return ImmutableList.<LogEvent>of();
+          }
+        }, events -> {
+          int skip = Math.max(0, events.size() - (maxEvents - count[0]));
+          logSegments.add(skip == 0 ? events : Lists.newArrayList(Iterables.skip(events, skip)));
+          count[0] += events.size() - skip;
+          return count[0] < maxEvents;
+        });
       }
 
       for (LogEvent event : Iterables.concat(Lists.reverse(logSegments))) {
@@ -201,6 +281,48 @@ public class FileLogReader implements LogReader {
     }
   }
 
+  /**
+   * Reads the given files with the executor of this reader, see
+   * {@link #readFiles(ExecutorService, int, List, Function, Predicate)}.
+   */
+  private <T> void readFiles(List<LogLocation> files, Function<LogLocation, T> reader,
+                             Predicate<T> consumer) throws ExecutionException {
+    readFiles(executor, parallelism, files, file -> {
+      LOG.trace("Reading file {}", file);
+      return reader.apply(file);
+    }, consumer);
+  }
+
+  /**
+   * Reads the given files with the given reader function, with up to the given parallelism of files being read
+   * concurrently. The results are passed to the given consumer in the order of the files, until the consumer returns
+   * {@code false}. Files that are read ahead are bounded by the parallelism, so that the memory used is bounded by the
+   * parallelism times the result size of each file. Reads that are not needed anymore are cancelled with
+   * interruption, which the reader function can check for between events.
+   */
+  @VisibleForTesting
+  static <F, T> void readFiles(ExecutorService executor, int parallelism, List<F> files, Function<F, T> reader,
+                               Predicate<T> consumer) throws ExecutionException {
+    Deque<Future<T>> futures = new ArrayDeque<>();
+    Iterator<F> iterator = files.iterator();
+    try {
+      while (true) {
+        while (futures.size() < parallelism && iterator.hasNext()) {
+          F file = iterator.next();
+          futures.add(executor.submit(() -> reader.apply(file)));
+        }
+        Future<T> future = futures.poll();
+        if (future == null || !consumer.test(Uninterruptibles.getUninterruptibly(future))) {
+          return;
+        }
+      }
+    } finally {
+      for (Future<T> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+
   /**
    * See {@link com.google.common.collect.Iterators#concat(Iterator)}. The difference is that the input types and return
    * type are CloseableIterator, which closes the inputs that it has opened.
@@ -0,0 +1,407 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.cdap.logging.write;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import io.cdap.cdap.common.io.Locations;
+import io.cdap.cdap.common.io.Syncable;
+import org.apache.twill.filesystem.Location;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * A sparse index of an Avro log file, stored in a sidecar file next to it. The log file is divided into segments
+ * at the positions the log file is flushed at, and each segment is indexed by its start and end position, the
+ * minimum and maximum timestamp, the log levels and the MDC values of its events. Readers use it to skip segments
+ * without decoding them.
+ *
+ * The MDC values are kept per MDC key, like a column of the segment, and are dictionary encoded, such that each
+ * distinct string is written to the index only once. Keys with too many distinct values in a segment are not indexed
+ * for that segment.
+ *
+ * The index is written as the log file is flushed, hence it only covers a prefix of an open log file. Readers
+ * must read the log file from the end of the last segment in the index.
+ */
+public final class LogFileIndex {
+
+  private static final String SUFFIX = ".idx";
+  private static final int MAGIC = 0x4c464958;
+  // Version 1 has no MDC values
+  private static final byte VERSION_1 = 1;
+  private static final byte VERSION = 2;
+  // levels in the order of the bits in the level mask
+  private static final Level[] LEVELS = { Level.TRACE, Level.DEBUG, Level.INFO, Level.WARN, Level.ERROR };
+  private static final int ALL_LEVELS = (1 << LEVELS.length) - 1;
+  // Limits of the MDC values indexed for a segment
+  private static final int MAX_MDC_KEYS = 32;
+  private static final int MAX_MDC_VALUES = 16;
+  private static final int MAX_MDC_LENGTH = 256;
+  // Marker of a new string in the dictionary encoding, and of MDC keys and values that are not indexed
+  private static final int NEW_STRING = -1;
+  private static final int NOT_INDEXED = -1;
+
+  private LogFileIndex() {
+  }
+
+  /**
+   * Returns the {@link Location} of the index of the given log file.
+   */
+  public static Location getIndexLocation(Location logLocation) throws IOException {
+    Location parent = Locations.getParent(logLocation);
+    if (parent == null) {
+      throw new IOException("Log file location " + logLocation + " has no parent");
+    }
+    return parent.append(logLocation.getName() + SUFFIX);
+  }
+
+  /**
+   * Returns the bit of the given {@link Level} in the level mask of a segment.
+   */
+  public static int getLevelMask(Level level) {
+    for (int i = 0; i < LEVELS.length; i++) {
+      if (LEVELS[i].equals(level)) {
+        return 1 << i;
+      }
+    }
+    // Custom levels are not expected, but they shouldn't be skipped by readers
+    return ALL_LEVELS;
+  }
+
+  /**
+   * Reads the segments of the index of the given log file.
+   *
+   * @return the list of segments ordered by position, or {@code null} if the log file has no index
+   */
+  @Nullable
+  public static List<Segment> read(Location logLocation) throws IOException {
+    Location indexLocation = getIndexLocation(logLocation);
+    List<Segment> segments = new ArrayList<>();
+    List<String> dictionary = new ArrayList<>();
+    try (DataInputStream is = new DataInputStream(new BufferedInputStream(indexLocation.getInputStream()))) {
+      if (is.readInt() != MAGIC) {
+        return null;
+      }
+      byte version = is.readByte();
+      if (version != VERSION && version != VERSION_1) {
+        return null;
+      }
+      while (true) {
+        long startPosition = is.readLong();
+        long endPosition = is.readLong();
+        long minTimestamp = is.readLong();
+        long maxTimestamp = is.readLong();
+        int levelMask = is.readByte();
+        Map<String, Set<String>> mdcValues = version == VERSION_1 ? null : readMdcValues(is, dictionary);
+        segments.add(new Segment(startPosition, endPosition, minTimestamp, maxTimestamp, levelMask, mdcValues));
+      }
+    } catch (FileNotFoundException e) {
+      return null;
+    } catch (EOFException e) {
+      // The end of the index. A partially written last segment is ignored.
+      return Collections.unmodifiableList(segments);
+    }
+  }
+
+  /**
+   * Reads the MDC values of a segment.
+   *
+   * @return the MDC values by key, with {@code null} values for keys that are not indexed, or {@code null} if the
+   *         MDC values of the segment are not indexed
+   */
+  @Nullable
+  private static Map<String, Set<String>> readMdcValues(DataInputStream is,
+                                                        List<String> dictionary) throws IOException {
+    int keys = is.readInt();
+    if (keys == NOT_INDEXED) {
+      return null;
+    }
+    Map<String, Set<String>> mdcValues = new HashMap<>();
+    for (int i = 0; i < keys; i++) {
+      String key = readString(is, dictionary);
+      int size = is.readInt();
+      Set<String> values = size == NOT_INDEXED ? null : new HashSet<>();
+      for (int j = 0; j < size; j++) {
+        values.add(readString(is, dictionary));
+      }
+      mdcValues.put(key, values);
+    }
+    return mdcValues;
+  }
+
+  private static String readString(DataInputStream is, List<String> dictionary) throws IOException {
+    int id = is.readInt();
+    if (id == NEW_STRING) {
+      String str = is.readUTF();
+      dictionary.add(str);
+      return str;
+    }
+    if (id < 0 || id >= dictionary.size()) {
+      throw new IOException("Invalid dictionary id " + id);
+    }
+    return dictionary.get(id);
+  }
+
+  /**
+   * Deletes the index of the given log file if it exists.
+   */
+  public static void delete(Location logLocation) throws IOException {
+    Location indexLocation = getIndexLocation(logLocation);
+    if (indexLocation.exists()) {
+      indexLocation.delete();
+    }
+  }
+
+  /**
+   * A segment of a log file.
+   */
+  public static final class Segment {
+    private final long startPosition;
+    private final long endPosition;
+    private final long minTimestamp;
+    private final long maxTimestamp;
+    private final int levelMask;
+    @Nullable
+    private final Map<String, Set<String>> mdcValues;
+
+    Segment(long startPosition, long endPosition, long minTimestamp, long maxTimestamp, int levelMask,
+            @Nullable Map<String, Set<String>> mdcValues) {
+      this.startPosition = startPosition;
+      this.endPosition = endPosition;
+      this.minTimestamp = minTimestamp;
+      this.maxTimestamp = maxTimestamp;
+      this.levelMask = levelMask;
+      this.mdcValues = mdcValues;
+    }
+
+    /**
+     * Returns the sync position of the first block of the segment.
+     */
+    public long getStartPosition() {
+      return startPosition;
+    }
+
+    /**
+     * Returns the sync position right after the last block of the segment.
+     */
+    public long getEndPosition() {
+      return endPosition;
+    }
+
+    public long getMinTimestamp() {
+      return minTimestamp;
+    }
+
+    public long getMaxTimestamp() {
+      return maxTimestamp;
+    }
+
+    /**
+     * Returns the log levels of the events in the segment.
+     */
+    public List<Level> getLevels() {
+      List<Level> levels = new ArrayList<>(LEVELS.length);
+      for (int i = 0; i < LEVELS.length; i++) {
+        if ((levelMask & (1 << i)) != 0) {
+          levels.add(LEVELS[i]);
+        }
+      }
+      return levels;
+    }
+
+    /**
+     * Returns {@code false} if no event in the segment has the given MDC value, {@code true} if some event has it or
+     * if it is not known.
+     */
+    public boolean mayContainMdc(String key, String value) {
+      if (mdcValues == null) {
+        return true;
+      }
+      if (!mdcValues.containsKey(key)) {
+        // No event in the segment has the key
+        return false;
+      }
+      Set<String> values = mdcValues.get(key);
+      return values == null || values.contains(value);
+    }
+
+    @Override
+    public String toString() {
+      return "Segment{" +
+        "startPosition=" + startPosition +
+        ", endPosition=" + endPosition +
+        ", minTimestamp=" + minTimestamp +
+        ", maxTimestamp=" + maxTimestamp +
+        ", levels=" + getLevels() +
+        ", mdcValues=" + mdcValues +
+        '}';
+    }
+  }
+
+  /**
+   * Writes the index of a log file. The events of a segment are passed to {@link #append(ILoggingEvent)}, and the
+   * segment is written to the index by {@link #add(long, long)}.
+   */
+  public static final class Writer implements Closeable, Flushable, Syncable {
+
+    private final OutputStream outputStream;
+    private final DataOutputStream output;
+    // dictionary of the strings written to the index so far
+    private final Map<String, Integer> dictionary;
+
+    // stats of the events appended since the last segment
+    private long minTimestamp;
+    private long maxTimestamp;
+    private int levelMask;
+    // MDC values by key, with null values for keys with too many values, or null if there are too many keys
+    private Map<String, Set<String>> mdcValues;
+
+    public Writer(Location logLocation, String filePermissions) throws IOException {
+      Location indexLocation = getIndexLocation(logLocation);
+      this.outputStream =
+        filePermissions.isEmpty() ? indexLocation.getOutputStream() : indexLocation.getOutputStream(filePermissions);
+      this.output = new DataOutputStream(new BufferedOutputStream(outputStream));
+      this.dictionary = new HashMap<>();
+      output.writeInt(MAGIC);
+      output.writeByte(VERSION);
+      resetSegment();
+    }
+
+    /**
+     * Adds the given event to the stats of the current segment.
+     */
+    public void append(ILoggingEvent event) {
+      minTimestamp = Math.min(minTimestamp, event.getTimeStamp());
+      maxTimestamp = Math.max(maxTimestamp, event.getTimeStamp());
+      levelMask |= getLevelMask(event.getLevel());
+
+      if (mdcValues == null) {
+        return;
+      }
+      for (Map.Entry<String, String> entry : event.getMDCPropertyMap().entrySet()) {
+        String key = entry.getKey();
+        if (!mdcValues.containsKey(key)) {
+          if (mdcValues.size() >= MAX_MDC_KEYS || key.length() > MAX_MDC_LENGTH) {
+            // Absent keys are taken as keys no event has, hence no key of the segment can be indexed
+            mdcValues = null;
+            return;
+          }
+          mdcValues.put(key, new HashSet<>());
+        }
+        Set<String> values = mdcValues.get(key);
+        if (values == null || values.contains(entry.getValue())) {
+          continue;
+        }
+        if (values.size() >= MAX_MDC_VALUES || entry.getValue() == null
+          || entry.getValue().length() > MAX_MDC_LENGTH) {
+          mdcValues.put(key, null);
+        } else {
+          values.add(entry.getValue());
+        }
+      }
+    }
+
+    /**
+     * Adds the current segment to the index if there are events appended since the last segment. Segments must be
+     * added in the order of their positions.
+     */
+    public void add(long startPosition, long endPosition) throws IOException {
+      if (levelMask == 0) {
+        return;
+      }
+      output.writeLong(startPosition);
+      output.writeLong(endPosition);
+      output.writeLong(minTimestamp);
+      output.writeLong(maxTimestamp);
+      output.writeByte(levelMask);
+      if (mdcValues == null) {
+        output.writeInt(NOT_INDEXED);
+      } else {
+        output.writeInt(mdcValues.size());
+        for (Map.Entry<String, Set<String>> entry : mdcValues.entrySet()) {
+          writeString(entry.getKey());
+          Set<String> values = entry.getValue();
+          if (values == null) {
+            output.writeInt(NOT_INDEXED);
+            continue;
+          }
+          output.writeInt(values.size());
+          for (String value : values) {
+            writeString(value);
+          }
+        }
+      }
+      resetSegment();
+    }
+
+    /**
+     * Starts a new segment without adding the current one.
+     */
+    public void resetSegment() {
+      minTimestamp = Long.MAX_VALUE;
+      maxTimestamp = Long.MIN_VALUE;
+      levelMask = 0;
+      mdcValues = new HashMap<>();
+    }
+
+    private void writeString(String str) throws IOException {
+      Integer id = dictionary.get(str);
+      if (id != null) {
+        output.writeInt(id);
+        return;
+      }
+      output.writeInt(NEW_STRING);
+      output.writeUTF(str);
+      dictionary.put(str, dictionary.size());
+    }
+
+    @Override
+    public void flush() throws IOException {
+      output.flush();
+    }
+
+    @Override
+    public void sync() throws IOException {
+      output.flush();
+      if (outputStream instanceof org.apache.hadoop.fs.Syncable) {
+        ((org.apache.hadoop.fs.Syncable) outputStream).hsync();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      output.close();
+    }
+  }
+}
@@ -46,13 +46,18 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Deque;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.concurrent.Callable;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
 
 /**
- * LogLocation representing a log file and methods to read the file's contents.
+ * LogLocation representing a log file and methods to read the file's contents. If the file has a
+ * {@link LogFileIndex}, the parts of the file that cannot match the time range, or the log level and MDC filters of
+ * a read, are skipped without decoding them.
  */
 public class LogLocation {
   private static final Logger LOG = LoggerFactory.getLogger(LogLocation.class);
@@ -159,6 +164,24 @@ public class LogLocation {
           return ImmutableList.of();
         }
 
+        List<PositionRange> ranges = getIndexedRanges(
+          segment -> segment.getMinTimestamp() <= fromTimeMs
+            && logFilter.mayMatch(segment.getLevels(), segment::mayContainMdc), false);
+        if (ranges != null) {
+          // Read the segments that may contain matching events backward, until there are enough events
+          for (int i = ranges.size() - 1; i >= 0 && count < maxEvents; i--) {
+            PositionRange range = ranges.get(i);
+            dataFileReader.seek(range.getStart());
+            List<LogEvent> logSegment = readToEndSyncPosition(dataFileReader, logFilter, fromTimeMs, range.getEnd());
+            if (!logSegment.isEmpty()) {
+              logSegments.addFirst(logSegment);
+              count = count + logSegment.size();
+            }
+          }
+          int skip = count >= maxEvents ? count - maxEvents : 0;
+          return Lists.newArrayList(Iterables.skip(Iterables.concat(logSegments), skip));
+        }
+
         // Calculate skipLen based on fileLength
         long length = location.length();
         LOG.trace("File length {} {}", location, length);
@@ -251,6 +274,54 @@ public class LogLocation {
     return startPosition;
   }
 
+  /**
+   * Returns the ranges of positions to read based on the {@link LogFileIndex} of the file, or {@code null} if the
+   * file has no index. The ranges contain the indexed segments that are accepted by the given {@link Predicate},
+   * followed by an open ended range of the part of the file that is not indexed yet.
+   *
+   * @param include {@link Predicate} to decide if an indexed segment may contain events to read
+   * @param merge whether to merge adjacent segments into one range
+   */
+  @Nullable
+  private List<PositionRange> getIndexedRanges(Predicate<LogFileIndex.Segment> include, boolean merge) {
+    if (!VERSION_1.equals(frameworkVersion)) {
+      // Only the files written by the CDAPLogAppender have an index
+      return null;
+    }
+    List<LogFileIndex.Segment> segments;
+    try {
+      segments = LogFileIndex.read(location);
+    } catch (IOException e) {
+      READ_FAILURE_LOG.warn("Failed to read index of log file {}. Reading the file without the index.", location, e);
+      return null;
+    }
+    if (segments == null || segments.isEmpty()) {
+      return null;
+    }
+
+    List<PositionRange> ranges = new ArrayList<>();
+    for (LogFileIndex.Segment segment : segments) {
+      if (!include.test(segment)) {
+        continue;
+      }
+      PositionRange last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+      if (merge && last != null && last.getEnd() == segment.getStartPosition()) {
+        ranges.set(ranges.size() - 1, new PositionRange(last.getStart(), segment.getEndPosition()));
+      } else {
+        ranges.add(new PositionRange(segment.getStartPosition(), segment.getEndPosition()));
+      }
+    }
+
+    long indexEnd = segments.get(segments.size() - 1).getEndPosition();
+    PositionRange last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+    if (merge && last != null && last.getEnd() == indexEnd) {
+      ranges.set(ranges.size() - 1, new PositionRange(last.getStart(), -1L));
+    } else {
+      ranges.add(new PositionRange(indexEnd, -1L));
+    }
+    return ranges;
+  }
+
   private final class LogEventIterator implements CloseableIterator<LogEvent> {
 
     private final Filter logFilter;
@@ -259,6 +330,10 @@ public class LogLocation {
     private final long maxEvents;
 
     private DataFileReader<GenericRecord> dataFileReader;
+    // ranges of positions to read, based on the index of the file
+    private Iterator<PositionRange> ranges;
+    // the end position of the current range, or -1 to read to the end of the file
+    private long rangeEnd = -1L;
 
     private ILoggingEvent loggingEvent;
     private GenericRecord datum;
@@ -276,7 +351,14 @@ public class LogLocation {
 
       try {
         dataFileReader = createReader();
-        if (dataFileReader.hasNext()) {
+        List<PositionRange> indexedRanges = getIndexedRanges(
+          segment -> segment.getMaxTimestamp() >= fromTimeMs
+            && logFilter.mayMatch(segment.getLevels(), segment::mayContainMdc), true);
+        if (indexedRanges != null) {
+          ranges = indexedRanges.iterator();
+          // Seek to the first range to read
+          nextRange();
+        } else if (dataFileReader.hasNext()) {
           datum = dataFileReader.next();
           loggingEvent = new LoggingEvent(datum);
           loggingEvent.prepareForDeferredProcessing();
@@ -315,7 +397,7 @@ public class LogLocation {
     private void computeNext() {
       try {
         // read events from file
-        while (next == null && dataFileReader.hasNext()) {
+        while (next == null && hasNextEvent()) {
           loggingEvent = new LoggingEvent(dataFileReader.next(datum));
           loggingEvent.prepareForDeferredProcessing();
 
@@ -338,6 +420,24 @@ public class LogLocation {
       }
     }
 
+    /**
+     * Returns whether there are more events to read, moving to the next range of positions to read if the current
+     * range is exhausted.
+     */
+    private boolean hasNextEvent() throws IOException {
+      // The previous sync is the start position of the block of the next event
+      while (rangeEnd >= 0 && dataFileReader.previousSync() >= rangeEnd) {
+        nextRange();
+      }
+      return dataFileReader.hasNext();
+    }
+
+    private void nextRange() throws IOException {
+      PositionRange range = ranges.next();
+      dataFileReader.seek(range.getStart());
+      rangeEnd = range.getEnd();
+    }
+
     @Override
     public void close() {
       try {
@@ -377,6 +477,30 @@ public class LogLocation {
                                 new GenericDatumReader<GenericRecord>(LogSchema.LoggingEvent.SCHEMA));
   }
 
+  /**
+   * A range of sync positions in a log file.
+   */
+  private static final class PositionRange {
+    private final long start;
+    private final long end;
+
+    PositionRange(long start, long end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    long getStart() {
+      return start;
+    }
+
+    /**
+     * Returns the end position (exclusive) of the range, or {@code -1} if the range ends at the end of the file.
+     */
+    long getEnd() {
+      return end;
+    }
+  }
+
   /**
    * An implementation of Avro SeekableInput over Location.
    */
@@ -15,6 +15,7 @@
  */
 package io.cdap.cdap.metrics.collect;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
@@ -22,6 +23,7 @@ import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.AbstractExecutionThreadService;
 import com.google.common.util.concurrent.Uninterruptibles;
 import io.cdap.cdap.api.metrics.MetricType;
@@ -36,13 +38,17 @@ import org.slf4j.LoggerFactory;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Base class for {@link MetricsCollectionService} which collect metrics through a set of cached
- * {@link AggregatedMetricsEmitter}.
+ * {@link AggregatedMetricsEmitter}. Each {@link MetricsContext} holds the emitters of its own metrics,
+ * so that updating a metric only requires a lookup by the metric name.
  */
 public abstract class AggregatedMetricsCollectionService extends AbstractExecutionThreadService
                                                          implements MetricsCollectionService {
@@ -51,7 +57,8 @@ public abstract class AggregatedMetricsCollectionService extends AbstractExecuti
   private static final long CACHE_EXPIRE_MINUTES = 1;
 
   private final LoadingCache<Map<String, String>, MetricsContext> collectors;
-  private final LoadingCache<Map<String, String>, LoadingCache<String, AggregatedMetricsEmitter>> emitters;
+  // contexts that have metrics to be published
+  private final Set<MetricsContextImpl> activeContexts;
   // maximum number of milliseconds to sleep between each publish
   private final long publishIntervalInMillis;
   private final CountDownLatch shutdownLatch;
@@ -64,24 +71,7 @@ public abstract class AggregatedMetricsCollectionService extends AbstractExecuti
       .expireAfterAccess(CACHE_EXPIRE_MINUTES, TimeUnit.MINUTES)
       .build(createCollectorLoader());
 
-    this.emitters = CacheBuilder.newBuilder()
-      // NOTE : we don't need to have removalListener to  emit metrics, as we have expireAfterAccess set for a minute,
-      // emitters.get() is used to increment/gauge and that would reset the access time,
-      // and since runOneIteration() emits all the metrics for the scheduled duration (every 1 second)
-      // there wont be any loss of emitter entries.
-      .expireAfterAccess(CACHE_EXPIRE_MINUTES, TimeUnit.MINUTES)
-      .build(new CacheLoader<Map<String, String>, LoadingCache<String, AggregatedMetricsEmitter>>() {
-        @Override
-        public LoadingCache<String, AggregatedMetricsEmitter> load(Map<String, String> tags) throws Exception {
-          return CacheBuilder.newBuilder().expireAfterAccess(CACHE_EXPIRE_MINUTES, TimeUnit.MINUTES).
-            build(new CacheLoader<String, AggregatedMetricsEmitter>() {
-              @Override
-              public AggregatedMetricsEmitter load(String metricName) throws Exception {
-                return new AggregatedMetricsEmitter(metricName);
-              }
-            });
-        }
-      });
+    this.activeContexts = Sets.newConcurrentHashSet();
   }
 
   /**
@@ -123,12 +113,13 @@ public abstract class AggregatedMetricsCollectionService extends AbstractExecuti
     }
   }
 
-  private void publishMetrics(long currentTimeMillis) {
+  @VisibleForTesting
+  void publishMetrics(long currentTimeMillis) {
     long timestamp = TimeUnit.MILLISECONDS.toSeconds(currentTimeMillis);
 
     LOG.trace("Start log collection for timestamp {}", timestamp);
 
-    Iterator<MetricValues> metrics = getMetrics(timestamp);
+    Iterator<MetricValues> metrics = getMetrics(timestamp, currentTimeMillis);
     try {
       publish(metrics);
     } catch (Throwable t) {
@@ -171,38 +162,36 @@ public abstract class AggregatedMetricsCollectionService extends AbstractExecuti
     shutdownLatch.countDown();
   }
 
-  private Iterator<MetricValues> getMetrics(final long timestamp) {
-    // NOTE : emitters.asMap does not reset the access time in cache,
-    // so it's the preferred way to access the cache entries. as we access and emit metrics every second.
-    final Iterator<Map.Entry<Map<String, String>, LoadingCache<String, AggregatedMetricsEmitter>>> iterator =
-      emitters.asMap().entrySet().iterator();
+  private Iterator<MetricValues> getMetrics(final long timestamp, final long currentTimeMillis) {
+    final long expireTime = currentTimeMillis - TimeUnit.MINUTES.toMillis(CACHE_EXPIRE_MINUTES);
+    final Iterator<MetricsContextImpl> iterator = activeContexts.iterator();
     return new AbstractIterator<MetricValues>() {
       @Override
       protected MetricValues computeNext() {
         while (iterator.hasNext()) {
-          Map.Entry<Map<String, String>, LoadingCache<String, AggregatedMetricsEmitter>> entry = iterator.next();
-          Map<String, AggregatedMetricsEmitter> metricEmitters = entry.getValue().asMap();
-          // +1 because we add extra metric about how many metric values did we emit in this context (see below)
-          List<MetricValue> metricValues = Lists.newArrayListWithCapacity(metricEmitters.size() + 1);
-          for (Map.Entry<String, AggregatedMetricsEmitter> emitterEntry : metricEmitters.entrySet()) {
-            MetricValue metricValue = emitterEntry.getValue().emit();
-            // skip increment by 0
-            if (metricValue.getType() == MetricType.COUNTER && metricValue.getValue() == 0) {
-              continue;
-            }
-            metricValues.add(metricValue);
-          }
+          MetricsContextImpl context = iterator.next();
+          List<MetricValue> metricValues = context.emit();
 
           if (metricValues.isEmpty()) {
+            // Stop publishing the context if it has no update for a while. It will be added back on the next update.
+            if (context.getLastUpdateTime() < expireTime) {
+              context.deactivate();
+              // Emit again to make sure updates that happened before the deactivation are published
+              metricValues = context.emit();
+            }
             // skip if there are no metric values to send
-            continue;
+            if (metricValues.isEmpty()) {
+              continue;
+            }
+          } else {
+            context.setLastUpdateTime(currentTimeMillis);
           }
 
           // number of emitted metrics
           metricValues.add(new MetricValue("metrics.emitted.count", MetricType.COUNTER, metricValues.size() + 1));
 
           LOG.trace("Emit metric {}", metricValues);
-          return new MetricValues(entry.getKey(), timestamp, metricValues);
+          return new MetricValues(context.getTags(), timestamp, metricValues);
         }
         return endOfData();
       }
@@ -221,19 +210,27 @@ public abstract class AggregatedMetricsCollectionService extends AbstractExecuti
   private final class MetricsContextImpl implements MetricsContext {
 
     private final Map<String, String> tags;
+    private final ConcurrentMap<String, AggregatedMetricsEmitter> emitters;
+    private volatile boolean active;
+    // last time that this context has metrics emitted; only accessed by the publishing thread
+    private long lastUpdateTime;
 
     private MetricsContextImpl(final Map<String, String> tags) {
       this.tags = ImmutableMap.copyOf(tags);
+      this.emitters = new ConcurrentHashMap<>();
+      this.lastUpdateTime = System.currentTimeMillis();
     }
 
     @Override
     public void increment(String metricName, long value) {
-      emitters.getUnchecked(tags).getUnchecked(metricName).increment(value);
+      getEmitter(metricName).increment(value);
+      activate();
     }
 
     @Override
     public void gauge(String metricName, long value) {
-      emitters.getUnchecked(tags).getUnchecked(metricName).gauge(value);
+      getEmitter(metricName).gauge(value);
+      activate();
     }
 
     @Override
@@ -259,5 +256,59 @@ public abstract class AggregatedMetricsCollectionService extends AbstractExecuti
       allTags.putAll(tags);
       return collectors.getUnchecked(allTags);
     }
+
+    /**
+     * Returns the {@link AggregatedMetricsEmitter} for the given metric name.
+     */
+    private AggregatedMetricsEmitter getEmitter(String metricName) {
+      AggregatedMetricsEmitter emitter = emitters.get(metricName);
+      return emitter == null ? emitters.computeIfAbsent(metricName, AggregatedMetricsEmitter::new) : emitter;
+    }
+
+    /**
+     * Adds this context to the set of contexts to be published. It must be called after the metric is updated,
+     * so that the update is either published by the publisher or the context gets activated again.
+     */
+    private void activate() {
+      if (!active) {
+        active = true;
+        activeContexts.add(this);
+      }
+    }
+
+    /**
+     * Removes this context from the set of contexts to be published. The context is removed before it is marked
+     * inactive, so that a concurrent update either sees it inactive and adds it back, or sees it active before the
+     * publisher emits again.
+     */
+    private void deactivate() {
+      activeContexts.remove(this);
+      active = false;
+    }
+
+    /**
+     * Emits all metrics that were updated since the last emit.
+     *
+     * @return a mutable {@link List} of {@link MetricValue}
+     */
+    private List<MetricValue> emit() {
+      // +1 because we add extra metric about how many metric values did we emit in this context
+      List<MetricValue> metricValues = Lists.newArrayListWithCapacity(emitters.size() + 1);
+      for (AggregatedMetricsEmitter emitter : emitters.values()) {
+        MetricValue metricValue = emitter.emitIfChanged();
+        if (metricValue != null) {
+          metricValues.add(metricValue);
+        }
+      }
+      return metricValues;
+    }
+
+    private long getLastUpdateTime() {
+      return lastUpdateTime;
+    }
+
+    private void setLastUpdateTime(long lastUpdateTime) {
+      this.lastUpdateTime = lastUpdateTime;
+    }
   }
 }
@@ -21,18 +21,29 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
 
 /**
  * {@link MetricsEmitter} that aggregates  values for a metric
  * during collection and emit the aggregated value when emit.
+ *
+ * Counter increments are accumulated in a {@link LongAdder} so that concurrent updates from many threads
+ * don't contend on a single memory location and never allocate. The {@link #emit()} method must only be called
+ * from a single thread.
  */
+@ThreadSafe
 final class AggregatedMetricsEmitter implements MetricsEmitter {
   private static final Logger LOG = LoggerFactory.getLogger(AggregatedMetricsEmitter.class);
 
   private final String name;
-  // metric value
-  private final AtomicLong value;
+  // accumulated counter value since this emitter was created
+  private final LongAdder value;
+  // the accumulated counter value at the last emit; only accessed by the emitting thread
+  private long emittedValue;
+  // the last gauge value
+  private volatile long gaugeValue;
   // specifies if the metric type is gauge or counter
   private final AtomicBoolean gaugeUsed;
 
@@ -42,25 +53,44 @@ final class AggregatedMetricsEmitter implements MetricsEmitter {
     }
 
     this.name = name;
-    this.value = new AtomicLong();
+    this.value = new LongAdder();
     this.gaugeUsed = new AtomicBoolean(false);
   }
 
   void increment(long value) {
-    this.value.addAndGet(value);
+    this.value.add(value);
   }
 
-
+  /**
+   * Emits the aggregated value since the last emit. If gauge was used since the last emit, the last gauge value
+   * is emitted and increments in between are discarded.
+   */
   @Override
   public MetricValue emit() {
-    // todo CDAP-2195 - potential race condition , reseting value and type has to be done together
-    long value = this.value.getAndSet(0);
-    MetricType type = gaugeUsed.getAndSet(false) ? MetricType.GAUGE : MetricType.COUNTER;
-    return new MetricValue(name, type, value);
+    MetricValue metricValue = emitIfChanged();
+    return metricValue == null ? new MetricValue(name, MetricType.COUNTER, 0L) : metricValue;
+  }
+
+  /**
+   * Same as {@link #emit()}, except that it returns {@code null} instead of a counter with zero value
+   * to avoid creating {@link MetricValue} for metrics that were not updated.
+   */
+  @Nullable
+  MetricValue emitIfChanged() {
+    // Counter is computed as the difference between the current sum and the sum at the last emit
+    // instead of resetting the adder, since LongAdder doesn't support atomic reset
+    long total = this.value.sum();
+    long delta = total - emittedValue;
+    emittedValue = total;
+
+    if (gaugeUsed.getAndSet(false)) {
+      return new MetricValue(name, MetricType.GAUGE, gaugeValue);
+    }
+    return delta == 0 ? null : new MetricValue(name, MetricType.COUNTER, delta);
   }
 
   public void gauge(long value) {
-    this.value.set(value);
+    this.gaugeValue = value;
     this.gaugeUsed.set(true);
   }
 }
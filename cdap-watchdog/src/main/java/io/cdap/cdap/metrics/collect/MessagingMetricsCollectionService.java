@@ -18,6 +18,8 @@ package io.cdap.cdap.metrics.collect;
 
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import io.cdap.cdap.api.messaging.TopicNotFoundException;
@@ -45,10 +47,14 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 
 /**
  * An {@link AggregatedMetricsCollectionService} that uses TMS to publish {@link io.cdap.cdap.api.metrics.MetricValues}.
+ * Optionally metrics are combined by a {@link MetricValuesCombiner} before publishing, and multiple encoded
+ * {@link MetricValues} are packed into one message.
  */
 @Singleton
 public class MessagingMetricsCollectionService extends AggregatedMetricsCollectionService {
@@ -60,6 +66,9 @@ public class MessagingMetricsCollectionService extends AggregatedMetricsCollecti
   private final ByteArrayOutputStream encoderOutputStream;
   private final Encoder encoder;
   private final Map<Integer, TopicPayload> topicPayloads;
+  private final int batchSize;
+  @Nullable
+  private final MetricValuesCombiner combiner;
 
   @Inject
   MessagingMetricsCollectionService(CConfiguration cConf,
@@ -71,6 +80,8 @@ public class MessagingMetricsCollectionService extends AggregatedMetricsCollecti
     int totalTopicNum = cConf.getInt(Constants.Metrics.MESSAGING_TOPIC_NUM);
 
     Preconditions.checkArgument(totalTopicNum > 0, "Constants.Metrics.MESSAGING_TOPIC_NUM must be a positive integer");
+    this.batchSize = cConf.getInt(Constants.Metrics.PUBLISH_BATCH_SIZE);
+    Preconditions.checkArgument(batchSize > 0, "Constants.Metrics.PUBLISH_BATCH_SIZE must be a positive integer");
     this.messagingService = messagingService;
     this.recordWriter = recordWriter;
 
@@ -83,10 +94,23 @@ public class MessagingMetricsCollectionService extends AggregatedMetricsCollecti
     for (int i = 0; i < totalTopicNum; i++) {
       topicPayloads.put(i, new TopicPayload(NamespaceId.SYSTEM.topic(topicPrefix + i), retryStrategy));
     }
+
+    Set<String> dropTags = ImmutableSet.copyOf(
+      Splitter.on(',').trimResults().omitEmptyStrings().split(cConf.get(Constants.Metrics.PUBLISH_COMBINE_DROP_TAGS)));
+    long windowSeconds = cConf.getLong(Constants.Metrics.PUBLISH_COMBINE_WINDOW_SECONDS);
+    this.combiner = dropTags.isEmpty() && windowSeconds <= 0 ? null : new MetricValuesCombiner(dropTags, windowSeconds);
   }
 
   @Override
   protected void publish(Iterator<MetricValues> metrics) throws Exception {
+    if (combiner != null) {
+      while (metrics.hasNext()) {
+        combiner.add(metrics.next());
+      }
+      // Publish everything that is held by the combiner when shutting down
+      metrics = combiner.flush(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()), !isRunning());
+    }
+
     int size = topicPayloads.size();
     while (metrics.hasNext()) {
       encoderOutputStream.reset();
@@ -96,8 +120,7 @@ public class MessagingMetricsCollectionService extends AggregatedMetricsCollecti
       TopicPayload topicPayload = topicPayloads.get(Math.abs(metricValues.getTags().hashCode() % size));
       // Calculate the topic number with the hashcode of MetricValues' tags and store the encoded payload in the
       // corresponding list of the topic number
-      topicPayload.addPayload(encoderOutputStream.toByteArray(), metricValues.getTags(),
-                              metricValues.getMetrics().size());
+      topicPayload.addPayload(encoderOutputStream, metricValues.getTags(), metricValues.getMetrics().size());
     }
     publishMetric(topicPayloads.values());
   }
@@ -109,12 +132,15 @@ public class MessagingMetricsCollectionService extends AggregatedMetricsCollecti
   }
 
   /**
-   * Private to carry payloads to be published to a topic.
+   * Private to carry payloads to be published to a topic. Up to {@link #batchSize} encoded {@link MetricValues}
+   * are concatenated into one payload.
    */
   private final class TopicPayload {
     private final TopicId topicId;
     private final List<byte[]> payloads;
     private final RetryStrategy retryStrategy;
+    private final ByteArrayOutputStream batch;
+    private int batchCount;
     private int payloadSize;
     private int metricsCount;
     private Map<String, String> metricsTags;
@@ -124,20 +150,38 @@ public class MessagingMetricsCollectionService extends AggregatedMetricsCollecti
       this.topicId = topicId;
       this.retryStrategy = retryStrategy;
       this.payloads = new ArrayList<>();
+      this.batch = new ByteArrayOutputStream(1024);
       this.payloadSize = 0;
       this.metricsCount = 0;
     }
 
-    void addPayload(byte[] payload, Map<String, String> metricsTags, int metricsCount) {
-      payloadSize += payload.length;
+    void addPayload(ByteArrayOutputStream payload, Map<String, String> metricsTags,
+                    int metricsCount) throws IOException {
+      payloadSize += payload.size();
       if (this.metricsTags == null) {
         this.metricsTags = metricsTags;
       }
       this.metricsCount += metricsCount;
-      payloads.add(payload);
+      if (batchSize == 1) {
+        payloads.add(payload.toByteArray());
+        return;
+      }
+      payload.writeTo(batch);
+      if (++batchCount >= batchSize) {
+        flushBatch();
+      }
+    }
+
+    private void flushBatch() {
+      if (batchCount > 0) {
+        payloads.add(batch.toByteArray());
+        batch.reset();
+        batchCount = 0;
+      }
     }
 
     void publish(MessagingService messagingService) throws IOException {
+      flushBatch();
       if (payloads.isEmpty()) {
         return;
       }
@@ -0,0 +1,111 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.cdap.metrics.collect;
+
+import io.cdap.cdap.api.metrics.MetricType;
+import io.cdap.cdap.api.metrics.MetricValue;
+import io.cdap.cdap.api.metrics.MetricValues;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Combines {@link MetricValues} before they get published. The configured tags are removed from the metrics
+ * contexts, so that contexts only differ by those tags are merged, and metrics are held over a time window.
+ * Counters of the same context are summed up, while for gauges the latest value wins.
+ *
+ * The window is measured in wall clock time of the flushes, so that held metrics are published once the window
+ * has passed even if no new metrics are added.
+ *
+ * This class is not thread safe.
+ */
+final class MetricValuesCombiner {
+
+  private final Set<String> dropTags;
+  private final long windowSeconds;
+  private final Map<Map<String, String>, Map<String, MetricValue>> pending;
+  private long windowStart;
+  private long latestTimestamp;
+
+  MetricValuesCombiner(Set<String> dropTags, long windowSeconds) {
+    this.dropTags = dropTags;
+    this.windowSeconds = windowSeconds;
+    this.pending = new LinkedHashMap<>();
+    this.windowStart = -1L;
+  }
+
+  /**
+   * Adds the given {@link MetricValues} to the current window.
+   */
+  void add(MetricValues metricValues) {
+    latestTimestamp = Math.max(latestTimestamp, metricValues.getTimestamp());
+
+    Map<String, MetricValue> metrics = pending.computeIfAbsent(removeTags(metricValues.getTags()),
+                                                               k -> new LinkedHashMap<>());
+    for (MetricValue metricValue : metricValues.getMetrics()) {
+      MetricValue existing = metrics.get(metricValue.getName());
+      if (existing != null && existing.getType() == MetricType.COUNTER
+        && metricValue.getType() == MetricType.COUNTER) {
+        metricValue = new MetricValue(metricValue.getName(), MetricType.COUNTER,
+                                      existing.getValue() + metricValue.getValue());
+      }
+      metrics.put(metricValue.getName(), metricValue);
+    }
+  }
+
+  /**
+   * Returns the combined metrics if the current window has passed and starts a new window. Otherwise returns an
+   * empty {@link Iterator} unless {@code force} is {@code true}. A window starts at the first flush with metrics
+   * held. The combined metrics carry the latest timestamp of the metrics added to the window.
+   *
+   * @param currentTimeSeconds the current wall clock time in seconds
+   * @param force {@code true} to return the metrics held regardless of the window
+   */
+  Iterator<MetricValues> flush(long currentTimeSeconds, boolean force) {
+    if (pending.isEmpty()) {
+      return Collections.emptyIterator();
+    }
+    if (windowStart < 0) {
+      windowStart = currentTimeSeconds;
+    }
+    if (!force && currentTimeSeconds - windowStart < windowSeconds) {
+      return Collections.emptyIterator();
+    }
+    List<MetricValues> result = new ArrayList<>(pending.size());
+    for (Map.Entry<Map<String, String>, Map<String, MetricValue>> entry : pending.entrySet()) {
+      result.add(new MetricValues(entry.getKey(), latestTimestamp, new ArrayList<>(entry.getValue().values())));
+    }
+    pending.clear();
+    windowStart = -1L;
+    return result.iterator();
+  }
+
+  private Map<String, String> removeTags(Map<String, String> tags) {
+    if (dropTags.isEmpty() || Collections.disjoint(tags.keySet(), dropTags)) {
+      return tags;
+    }
+    Map<String, String> result = new HashMap<>(tags);
+    result.keySet().removeAll(dropTags);
+    return result;
+  }
+}
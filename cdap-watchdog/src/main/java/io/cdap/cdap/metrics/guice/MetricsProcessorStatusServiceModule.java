@@ -22,6 +22,7 @@ import com.google.inject.multibindings.Multibinder;
 import com.google.inject.name.Names;
 import io.cdap.cdap.common.conf.Constants;
 import io.cdap.cdap.gateway.handlers.CommonHandlers;
+import io.cdap.cdap.metrics.process.MetricsExportHandler;
 import io.cdap.cdap.metrics.process.MetricsProcessorStatusService;
 import io.cdap.http.HttpHandler;
 
@@ -36,6 +37,7 @@ public class MetricsProcessorStatusServiceModule extends PrivateModule {
     Multibinder<HttpHandler> handlerBinder = Multibinder.newSetBinder
       (binder(), HttpHandler.class, Names.named(Constants.MetricsProcessor.METRICS_PROCESSOR_STATUS_HANDLER));
     CommonHandlers.add(handlerBinder);
+    handlerBinder.addBinding().to(MetricsExportHandler.class);
     expose(MetricsProcessorStatusService.class);
   }
 }
@@ -21,6 +21,7 @@ import com.google.common.base.Throwables;
 import com.google.common.reflect.TypeToken;
 import com.google.common.util.concurrent.AbstractExecutionThreadService;
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import com.google.inject.assistedinject.Assisted;
 import io.cdap.cdap.api.common.Bytes;
 import io.cdap.cdap.api.data.schema.Schema;
@@ -38,10 +39,11 @@ import io.cdap.cdap.common.io.BinaryDecoder;
 import io.cdap.cdap.common.io.DatumReader;
 import io.cdap.cdap.common.logging.LogSamplers;
 import io.cdap.cdap.common.logging.Loggers;
+import io.cdap.cdap.common.utils.ImmutablePair;
 import io.cdap.cdap.internal.io.DatumReaderFactory;
 import io.cdap.cdap.internal.io.SchemaGenerator;
-import io.cdap.cdap.messaging.MessageFetcher;
 import io.cdap.cdap.messaging.MessagingService;
+import io.cdap.cdap.messaging.MultiTopicMessageFetcher;
 import io.cdap.cdap.messaging.data.RawMessage;
 import io.cdap.cdap.metrics.store.MetricDatasetFactory;
 import io.cdap.cdap.proto.id.NamespaceId;
@@ -54,22 +56,24 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Deque;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingDeque;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 
 /**
  * Process metrics by consuming metrics being published to TMS.
+ * The metrics topics are divided into shards. Each shard is processed by its own thread, which persists
+ * to its own {@link MetricStore} and checkpoints the offsets of its own topics. Since metrics are published
+ * to topics based on the hash of the metrics context, metrics of the same context are always processed by the
+ * same shard.
  */
 public class MessagingMetricsProcessorService extends AbstractExecutionThreadService {
   private static final Logger LOG = LoggerFactory.getLogger(MessagingMetricsProcessorService.class);
@@ -79,25 +83,22 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
   private final MetricDatasetFactory metricDatasetFactory;
   private final List<TopicId> metricsTopics;
   private final MessagingService messagingService;
-  private final DatumReader<MetricValues> metricReader;
+  private final DatumReaderFactory readerFactory;
   private final Schema metricSchema;
-  private final MetricStore metricStore;
+  private final Provider<MetricStore> metricStoreProvider;
+  private final MetricsExportSnapshot exportSnapshot;
+  private final MetricsContext metricsContext;
   private final Map<String, String> metricsContextMap;
+  private final int shards;
   private final int fetcherLimit;
   private final long maxDelayMillis;
   private final int queueSize;
-  private final BlockingDeque<MetricValues> metricsFromAllTopics;
-  private final ConcurrentMap<TopicIdMetaKey, TopicProcessMeta> topicProcessMetaMap;
-  private final AtomicBoolean persistingFlag;
   // maximum number of milliseconds to sleep between each run of fetching & processing new metrics, the max sleep time
   // is 1 min
   private final long metricsProcessIntervalMillis;
   private final List<ProcessMetricsThread> processMetricsThreads;
   private final String processMetricName;
   private final String metricsPrefixForDelayMetrics;
-  private long metricsProcessedCount;
-
-  private MetricsConsumerMetaTable metaTable;
 
   private volatile boolean stopping;
 
@@ -107,12 +108,13 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
                                    MessagingService messagingService,
                                    SchemaGenerator schemaGenerator,
                                    DatumReaderFactory readerFactory,
-                                   MetricStore metricStore,
+                                   Provider<MetricStore> metricStoreProvider,
+                                   MetricsExportSnapshot exportSnapshot,
                                    @Assisted Set<Integer> topicNumbers,
                                    @Assisted MetricsContext metricsContext,
                                    @Assisted Integer instanceId) {
     this(cConf, metricDatasetFactory, messagingService,
-         schemaGenerator, readerFactory, metricStore, topicNumbers, metricsContext,
+         schemaGenerator, readerFactory, metricStoreProvider, exportSnapshot, topicNumbers, metricsContext,
          TimeUnit.SECONDS.toMillis(cConf.getInt(Constants.Metrics.METRICS_MINIMUM_RESOLUTION_SECONDS)), instanceId);
   }
 
@@ -122,7 +124,8 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
                                    MessagingService messagingService,
                                    SchemaGenerator schemaGenerator,
                                    DatumReaderFactory readerFactory,
-                                   MetricStore metricStore,
+                                   Provider<MetricStore> metricStoreProvider,
+                                   MetricsExportSnapshot exportSnapshot,
                                    Set<Integer> topicNumbers,
                                    MetricsContext metricsContext,
                                    long metricsProcessIntervalMillis,
@@ -135,30 +138,37 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
       .map(n -> NamespaceId.SYSTEM.topic(topicPrefix + n))
       .collect(Collectors.toList());
     this.messagingService = messagingService;
+    this.readerFactory = readerFactory;
     try {
       this.metricSchema = schemaGenerator.generate(MetricValues.class);
-      this.metricReader = readerFactory.create(TypeToken.of(MetricValues.class), metricSchema);
     } catch (UnsupportedTypeException e) {
       // This should never happen
       throw Throwables.propagate(e);
     }
-    this.metricStore = metricStore;
-    this.metricStore.setMetricsContext(metricsContext);
+    this.metricStoreProvider = metricStoreProvider;
+    this.exportSnapshot = exportSnapshot;
+    this.metricsContext = metricsContext;
     this.maxDelayMillis = cConf.getLong(Constants.Metrics.PROCESSOR_MAX_DELAY_MS);
-    this.queueSize = cConf.getInt(Constants.Metrics.QUEUE_SIZE);
-    this.fetcherLimit = Math.max(1, queueSize / topicNumbers.size()); // fetcherLimit is at least one
+    this.shards = Math.max(1, Math.min(cConf.getInt(Constants.Metrics.PROCESSOR_SHARDS), metricsTopics.size()));
+    // The queue size is divided among shards so that the total number of metrics in memory stays the same
+    this.queueSize = Math.max(1, cConf.getInt(Constants.Metrics.QUEUE_SIZE) / shards);
+    this.fetcherLimit = Math.max(1, queueSize * shards / topicNumbers.size()); // fetcherLimit is at least one
     this.metricsContextMap = metricsContext.getTags();
     this.processMetricsThreads = new ArrayList<>();
-    this.metricsFromAllTopics = new LinkedBlockingDeque<>(queueSize);
-    this.topicProcessMetaMap = new ConcurrentHashMap<>();
-    this.persistingFlag = new AtomicBoolean();
     // the max sleep time will be 1 min
     this.metricsProcessIntervalMillis = metricsProcessIntervalMillis < Constants.Metrics.PROCESS_INTERVAL_MILLIS ?
       metricsProcessIntervalMillis : Constants.Metrics.PROCESS_INTERVAL_MILLIS;
     this.processMetricName = String.format("metrics.%s.process.count", instanceId);
   }
 
-  private MetricsConsumerMetaTable getMetaTable() {
+  /**
+   * Creates a new {@link MetricsConsumerMetaTable}. It retries until succeeded or the service is being stopped.
+   *
+   * @return a new {@link MetricsConsumerMetaTable} or {@code null} if the service is being stopped
+   */
+  @Nullable
+  private MetricsConsumerMetaTable createMetaTable() {
+    MetricsConsumerMetaTable metaTable = null;
     while (metaTable == null) {
       if (stopping) {
         LOG.info("We are shutting down, giving up on acquiring consumer metaTable.");
@@ -181,22 +191,37 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
 
   @Override
   protected void run() {
-    LOG.info("Start running MessagingMetricsProcessorService");
-    MetricsConsumerMetaTable metaTable = getMetaTable();
-    if (metaTable == null) {
-      LOG.info("Could not get MetricsConsumerMetaTable, seems like we are being shut down");
-      return;
-    }
+    LOG.info("Start running MessagingMetricsProcessorService with {} shards", shards);
 
-    for (TopicId topic : metricsTopics) {
-      TopicProcessMeta topicProcessMeta = null;
-      TopicIdMetaKey topicRowKey = new TopicIdMetaKey(topic);
-      try {
-        topicProcessMeta = metaTable.getTopicProcessMeta(topicRowKey);
-      } catch (Exception e) {
-        LOG.warn("Cannot retrieve last processed MessageId for topic: {}", topic, e);
+    for (int shard = 0; shard < shards; shard++) {
+      MetricsConsumerMetaTable metaTable = createMetaTable();
+      if (metaTable == null) {
+        LOG.info("Could not get MetricsConsumerMetaTable, seems like we are being shut down");
+        return;
+      }
+
+      // Assign topics to shards in round robin order
+      Map<TopicIdMetaKey, TopicProcessMeta> topicProcessMetas = new LinkedHashMap<>();
+      for (int i = shard; i < metricsTopics.size(); i += shards) {
+        TopicId topic = metricsTopics.get(i);
+        TopicProcessMeta topicProcessMeta = null;
+        TopicIdMetaKey topicRowKey = new TopicIdMetaKey(topic);
+        try {
+          topicProcessMeta = metaTable.getTopicProcessMeta(topicRowKey);
+        } catch (Exception e) {
+          LOG.warn("Cannot retrieve last processed MessageId for topic: {}", topic, e);
+        }
+        topicProcessMetas.put(topicRowKey, topicProcessMeta);
+      }
+
+      MetricStore metricStore = metricStoreProvider.get();
+      metricStore.setMetricsContext(metricsContext);
+      synchronized (processMetricsThreads) {
+        if (stopping) {
+          break;
+        }
+        processMetricsThreads.add(new ProcessMetricsThread(shard, topicProcessMetas, metaTable, metricStore));
       }
-      processMetricsThreads.add(new ProcessMetricsThread(topicRowKey, topicProcessMeta));
     }
 
     if (!isRunning()) {
@@ -206,7 +231,6 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
     for (ProcessMetricsThread thread : processMetricsThreads) {
       thread.start();
     }
-
     for (ProcessMetricsThread thread : processMetricsThreads) {
       try {
         thread.join();
@@ -216,111 +240,87 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
       }
     }
 
-    // Persist metricsFromAllTopics and messageId's after all ProcessMetricsThread's complete.
-    // No need to make a copy of metricsFromAllTopics and topicProcessMetaMap because no thread is writing to them
-    persistMetricsAndTopicProcessMeta(metricsFromAllTopics, topicProcessMetaMap);
+    // Persist the remaining metrics and messageId's of each shard after all ProcessMetricsThreads complete.
+    for (ProcessMetricsThread thread : processMetricsThreads) {
+      thread.persistRemaining();
+    }
   }
 
   @Override
   protected void triggerShutdown() {
     LOG.info("Stopping Metrics Processing Service.");
-    stopping = true;
-    for (ProcessMetricsThread thread : processMetricsThreads) {
-      thread.interrupt();
-    }
-    LOG.info("Metrics Processing Service stopped.");
-  }
-
-  /**
-   * Persist metrics from all topics into metric store and messageId's of the last persisted metrics of each topic
-   * into metrics meta table
-   *
-   * @param metricValues a deque of {@link MetricValues}
-   * @param topicProcessMetaMap a map with each key {@link TopicIdMetaKey} representing a topic
-   *                            and {@link TopicProcessMeta} which has info on messageId and processing stats
-   */
-  private void persistMetricsAndTopicProcessMeta(Deque<MetricValues> metricValues,
-                                                 Map<TopicIdMetaKey, TopicProcessMeta> topicProcessMetaMap) {
-    try {
-      if (!metricValues.isEmpty()) {
-        persistMetrics(metricValues, topicProcessMetaMap);
-      }
-      persistTopicProcessMeta(topicProcessMetaMap);
-    } catch (Exception e) {
-      LOG.warn("Failed to persist metrics.", e);
-    }
-  }
-
-  private void persistTopicProcessMeta(Map<TopicIdMetaKey, TopicProcessMeta> messageIds) {
-    try {
-      // messageIds can be empty if the current thread fetches nothing while other threads keep fetching new metrics
-      // and haven't updated messageId's of the corresponding topics
-      if (!messageIds.isEmpty()) {
-        metaTable.saveMetricsProcessorStats(messageIds);
+    synchronized (processMetricsThreads) {
+      stopping = true;
+      for (ProcessMetricsThread thread : processMetricsThreads) {
+        thread.interrupt();
       }
-    } catch (Exception e) {
-      LOG.warn("Failed to update processing stats of consumed messages.", e);
     }
+    LOG.info("Metrics Processing Service stopped.");
   }
 
   /**
-   * Persist metrics into metric store
-   *
-   * @param metricValues a non-empty deque of {@link MetricValues}
+   * Thread for fetching metrics from the metrics topics of one shard with one multi-topic fetch per run,
+   * and persisting them to the {@link MetricStore} of the shard.
    */
-  private void persistMetrics(Deque<MetricValues> metricValues,
-                              Map<TopicIdMetaKey, TopicProcessMeta> topicProcessMetaMap) {
-    long now = System.currentTimeMillis();
-    long lastMetricTime = metricValues.peekLast().getTimestamp();
-    List<MetricValue> topicLevelDelays = new ArrayList<>();
-
-    //add topic level delay metrics
-    for (Map.Entry<TopicIdMetaKey, TopicProcessMeta> entry : topicProcessMetaMap.entrySet()) {
-      TopicProcessMeta topicProcessMeta = entry.getValue();
-      long delay = now - TimeUnit.SECONDS.toMillis(topicProcessMeta.getOldestMetricsTimestamp());
-      topicLevelDelays.add(new MetricValue(topicProcessMeta.getOldestMetricsTimestampMetricName(),
-                                           MetricType.GAUGE, delay));
-      delay = now - TimeUnit.SECONDS.toMillis(topicProcessMeta.getLatestMetricsTimestamp());
-      topicLevelDelays.add(new MetricValue(topicProcessMeta.getLatestMetricsTimestampMetricName(),
-                                           MetricType.GAUGE, delay));
-    }
-    List<MetricValue> processorMetrics = new ArrayList<>(topicLevelDelays);
-    processorMetrics.add(new MetricValue(processMetricName, MetricType.COUNTER, metricValues.size()));
-
-    metricValues.add(new MetricValues(metricsContextMap, TimeUnit.MILLISECONDS.toSeconds(now), processorMetrics));
-    metricStore.add(metricValues);
-    metricsProcessedCount += metricValues.size();
-    PROGRESS_LOG.debug("{} metrics persisted. Last metric's timestamp: {}",
-                       metricsProcessedCount, lastMetricTime);
-  }
-
   private class ProcessMetricsThread extends Thread {
-    private final TopicIdMetaKey topicIdMetaKey;
+    private final List<TopicIdMetaKey> topicIdMetaKeys;
+    private final Map<TopicId, TopicIdMetaKey> topicIdMetaKeyMap;
+    private final Map<TopicIdMetaKey, String> oldestTsMetricNames;
+    private final Map<TopicIdMetaKey, String> latestTsMetricNames;
+    private final MetricsConsumerMetaTable metaTable;
+    private final MetricStore metricStore;
+    private final DatumReader<MetricValues> metricReader;
+    private final BlockingDeque<MetricValues> metricsFromTopics;
+    private final Map<TopicIdMetaKey, TopicProcessMeta> topicProcessMetaMap;
+    // The topicProcessMetaMap as of the last metrics persisted successfully
+    private final Map<TopicIdMetaKey, TopicProcessMeta> persistedTopicProcessMetaMap;
     private final PayloadInputStream payloadInput;
     private final BinaryDecoder decoder;
-    private final String oldestTsMetricName;
-    private final String latestTsMetricName;
-    private long lastMetricTimeSecs;
+    private final List<MetricValues> messageMetrics;
+    private long metricsProcessedCount;
 
-    ProcessMetricsThread(TopicIdMetaKey topicIdMetaKey, @Nullable TopicProcessMeta topicProcessMeta) {
-      super(String.format("ProcessMetricsThread-%s", topicIdMetaKey.getTopicId()));
+    ProcessMetricsThread(int shard, Map<TopicIdMetaKey, TopicProcessMeta> topicProcessMetas,
+                         MetricsConsumerMetaTable metaTable, MetricStore metricStore) {
+      super("ProcessMetricsThread-" + shard);
       setDaemon(true);
-      oldestTsMetricName = String.format("%s.topic.%s.oldest.delay.ms",
-                                                metricsPrefixForDelayMetrics, topicIdMetaKey.getTopicId().getTopic());
-      latestTsMetricName = String.format("%s.topic.%s.latest.delay.ms",
-                                                metricsPrefixForDelayMetrics, topicIdMetaKey.getTopicId().getTopic());
-      if (topicProcessMeta != null && topicProcessMeta.getMessageId() != null) {
-        // message-id already for this topic in metaTable, we create a new TopicProcessMeta with existing values,
-        // add metric names and put it in map
-        byte[] persistedMessageId = topicProcessMeta.getMessageId();
-        topicProcessMetaMap.put(topicIdMetaKey,
-                                new TopicProcessMeta(persistedMessageId, topicProcessMeta.getOldestMetricsTimestamp(),
-                                                     topicProcessMeta.getLatestMetricsTimestamp(),
-                                                     topicProcessMeta.getMessagesProcessed(),
-                                                     topicProcessMeta.getLastProcessedTimestamp(),
-                                                     oldestTsMetricName, latestTsMetricName));
+      this.topicIdMetaKeys = new ArrayList<>(topicProcessMetas.keySet());
+      this.topicIdMetaKeyMap = new HashMap<>();
+      this.oldestTsMetricNames = new HashMap<>();
+      this.latestTsMetricNames = new HashMap<>();
+      this.metaTable = metaTable;
+      this.metricStore = metricStore;
+      this.metricReader = new MetricValuesDatumReader(metricSchema,
+                                                      readerFactory.create(TypeToken.of(MetricValues.class),
+                                                                           metricSchema));
+      // The queue size is enforced when adding the metrics of a message, since a message can carry multiple metrics
+      this.metricsFromTopics = new LinkedBlockingDeque<>();
+      this.messageMetrics = new ArrayList<>();
+      this.topicProcessMetaMap = new HashMap<>();
+
+      for (Map.Entry<TopicIdMetaKey, TopicProcessMeta> entry : topicProcessMetas.entrySet()) {
+        TopicIdMetaKey topicIdMetaKey = entry.getKey();
+        TopicProcessMeta topicProcessMeta = entry.getValue();
+        String oldestTsMetricName = String.format("%s.topic.%s.oldest.delay.ms", metricsPrefixForDelayMetrics,
+                                                  topicIdMetaKey.getTopicId().getTopic());
+        String latestTsMetricName = String.format("%s.topic.%s.latest.delay.ms", metricsPrefixForDelayMetrics,
+                                                  topicIdMetaKey.getTopicId().getTopic());
+        topicIdMetaKeyMap.put(topicIdMetaKey.getTopicId(), topicIdMetaKey);
+        oldestTsMetricNames.put(topicIdMetaKey, oldestTsMetricName);
+        latestTsMetricNames.put(topicIdMetaKey, latestTsMetricName);
+
+        if (topicProcessMeta != null && topicProcessMeta.getMessageId() != null) {
+          // message-id already for this topic in metaTable, we create a new TopicProcessMeta with existing values,
+          // add metric names and put it in map
+          byte[] persistedMessageId = topicProcessMeta.getMessageId();
+          topicProcessMetaMap.put(topicIdMetaKey,
+                                  new TopicProcessMeta(persistedMessageId, topicProcessMeta.getOldestMetricsTimestamp(),
+                                                       topicProcessMeta.getLatestMetricsTimestamp(),
+                                                       topicProcessMeta.getMessagesProcessed(),
+                                                       topicProcessMeta.getLastProcessedTimestamp(),
+                                                       oldestTsMetricName, latestTsMetricName));
+        }
       }
-      this.topicIdMetaKey = topicIdMetaKey;
+      this.persistedTopicProcessMetaMap = new HashMap<>(topicProcessMetaMap);
       this.payloadInput = new PayloadInputStream();
       this.decoder = new BinaryDecoder(payloadInput);
     }
@@ -342,7 +342,14 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
     }
 
     /**
-     * Fetch at most {@code fetcherLimit} metrics to process, and calculate the estimated sleep time
+     * Persists metrics and messageId's that are not yet persisted. It must be called after this thread completed.
+     */
+    void persistRemaining() {
+      persistMetricsAndTopicProcessMeta();
+    }
+
+    /**
+     * Fetch at most {@code fetcherLimit} metrics from each topic to process, and calculate the estimated sleep time
      * before the next run with the best effort to avoid accumulating unprocessed metrics
      *
      * @return the estimated sleep time before the next run with the best effort to avoid accumulating
@@ -351,111 +358,163 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
     private long processMetrics() {
       long startTime = System.currentTimeMillis();
       try {
-        MessageFetcher fetcher = messagingService.prepareFetch(topicIdMetaKey.getTopicId());
-        fetcher.setLimit(fetcherLimit);
-        TopicProcessMeta persistMetaInfo = topicProcessMetaMap.get(topicIdMetaKey);
-        byte[] lastMessageId = null;
-
-        if (persistMetaInfo != null) {
-          lastMessageId = persistMetaInfo.getMessageId();
-        }
-
-        if (lastMessageId != null) {
-          fetcher.setStartMessage(lastMessageId, false);
-        } else {
-          fetcher.setStartTime(0L);
+        // Fetch from all topics in one request
+        MultiTopicMessageFetcher fetcher = messagingService.prepareMultiTopicFetch(NamespaceId.SYSTEM);
+        // Wait for new metrics in any of the topics for up to the process interval if there is none, so that new
+        // metrics are processed as soon as they arrive, instead of after the next sleep
+        fetcher.setWaitTimeout(metricsProcessIntervalMillis, TimeUnit.MILLISECONDS);
+        Map<TopicIdMetaKey, TopicProcessMeta> localTopicProcessMetas = new HashMap<>();
+        for (TopicIdMetaKey topicIdMetaKey : topicIdMetaKeys) {
+          TopicProcessMeta persistMetaInfo = topicProcessMetaMap.get(topicIdMetaKey);
+          byte[] lastMessageId = persistMetaInfo == null ? null : persistMetaInfo.getMessageId();
+
+          // If there is no last message id, fetch from the first available message
+          fetcher.addTopic(topicIdMetaKey.getTopicId().getTopic(), lastMessageId, false, fetcherLimit);
+          localTopicProcessMetas.put(topicIdMetaKey,
+                                     new TopicProcessMeta(lastMessageId, Long.MAX_VALUE, Long.MIN_VALUE, 0,
+                                                          TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()),
+                                                          oldestTsMetricNames.get(topicIdMetaKey),
+                                                          latestTsMetricNames.get(topicIdMetaKey)));
         }
 
-        byte[] currentMessageId = null;
-        TopicProcessMeta localTopicProcessMeta =
-          new TopicProcessMeta(lastMessageId, Long.MAX_VALUE, Long.MIN_VALUE, 0,
-                               TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()),
-                               oldestTsMetricName, latestTsMetricName);
-        try (CloseableIterator<RawMessage> iterator = fetcher.fetch()) {
+        Set<TopicIdMetaKey> processedTopics = new HashSet<>();
+        try (CloseableIterator<ImmutablePair<TopicId, RawMessage>> iterator = fetcher.fetch()) {
           while (iterator.hasNext() && isRunning()) {
-            RawMessage input = iterator.next();
+            ImmutablePair<TopicId, RawMessage> topicMessage = iterator.next();
+            TopicIdMetaKey topicIdMetaKey = topicIdMetaKeyMap.get(topicMessage.getFirst());
+            RawMessage input = topicMessage.getSecond();
+            if (metricsFromTopics.size() >= queueSize) {
+              break;
+            }
             try {
+              // A message can carry multiple MetricValues packed by the publisher
+              messageMetrics.clear();
               payloadInput.reset(input.getPayload());
-              MetricValues metricValues = metricReader.read(decoder, metricSchema);
-              if (!metricsFromAllTopics.offer(metricValues)) {
-                break;
-              }
-              lastMetricTimeSecs = metricValues.getTimestamp();
-              currentMessageId = input.getId();
+              do {
+                messageMetrics.add(metricReader.read(decoder, metricSchema));
+              } while (payloadInput.available() > 0);
+              metricsFromTopics.addAll(messageMetrics);
+
+              byte[] currentMessageId = input.getId();
               if (LOG.isTraceEnabled()) {
-                LOG.trace("Received message {} with metrics: {}", Bytes.toStringBinary(currentMessageId), metricValues);
+                LOG.trace("Received message {} with metrics: {}", Bytes.toStringBinary(currentMessageId),
+                          messageMetrics);
+              }
+              TopicProcessMeta topicProcessMeta = localTopicProcessMetas.get(topicIdMetaKey);
+              for (MetricValues metricValues : messageMetrics) {
+                topicProcessMeta.updateTopicProcessingStats(currentMessageId, metricValues.getTimestamp());
               }
-              localTopicProcessMeta.updateTopicProcessingStats(currentMessageId, lastMetricTimeSecs);
+              processedTopics.add(topicIdMetaKey);
             } catch (IOException e) {
               LOG.warn("Failed to decode message to MetricValue. Skipped. {}", e.getMessage());
             }
           }
         }
 
-        if (currentMessageId != null) {
+        for (TopicIdMetaKey topicIdMetaKey : processedTopics) {
           // update the last processed timestamp in local topic meta and update the topicProcessMetaMap with this
           // local topic meta for the topic
+          TopicProcessMeta localTopicProcessMeta = localTopicProcessMetas.get(topicIdMetaKey);
           localTopicProcessMeta.updateLastProcessedTimestamp();
           topicProcessMetaMap.put(topicIdMetaKey, localTopicProcessMeta);
         }
-        // Try to persist metrics and messageId's of the last metrics to be persisted if no other thread is persisting
-        tryPersist();
+        // Persist metrics and messageId's of the last metrics to be persisted
+        persistMetricsAndTopicProcessMeta();
 
         long endTime = System.currentTimeMillis();
-        // use currentMessageId != null to ensure that the current fetching is not empty and
-        // lastMetricTimeSecs is updated
-        if (currentMessageId != null && endTime - TimeUnit.SECONDS.toMillis(lastMetricTimeSecs) > maxDelayMillis) {
-          // Don't sleep if falling behind
-          return 0L;
-        } else {
-          long timeSpent = endTime - startTime;
-          return Math.max(0L, metricsProcessIntervalMillis - timeSpent);
+        // Don't sleep if falling behind in any of the topics that have new metrics
+        for (TopicIdMetaKey topicIdMetaKey : processedTopics) {
+          long lastMetricTimeSecs = localTopicProcessMetas.get(topicIdMetaKey).getLatestMetricsTimestamp();
+          if (endTime - TimeUnit.SECONDS.toMillis(lastMetricTimeSecs) > maxDelayMillis) {
+            return 0L;
+          }
         }
+        long timeSpent = endTime - startTime;
+        return Math.max(0L, metricsProcessIntervalMillis - timeSpent);
       } catch (ServiceUnavailableException e) {
         LOG.trace("Could not fetch metrics. Will be retried in next iteration.", e);
       } catch (Exception e) {
         LOG.warn("Failed to process metrics. Will be retried in next iteration.", e);
       }
+      dropUnpersisted();
       return metricsProcessIntervalMillis;
     }
 
     /**
-     * Persist metrics and messageId's of the last metrics to be persisted if no other thread is persisting
+     * Persist metrics fetched from the topics of this shard into metric store and messageId's of the last persisted
+     * metrics of each topic into metrics meta table. The metrics are removed from the queue whether they are
+     * persisted or not. If persisting them fails, the messageId's are not saved, and the fetch position of each topic
+     * goes back to the one of the last persisted metrics, so that the dropped metrics are fetched again from the
+     * messaging system in the next run. As with any redelivery, metrics that the metric store partially added before
+     * failing are added again.
      */
-    private void tryPersist() {
-      // Ensure there's only one thread can persist metricsFromAllTopics and messageId's.
-      // This is because the underlying metrics table is not thread safe.
-      // If persistingFlag is false, set it to true and start persisting. Otherwise, log and return.
-      if (!persistingFlag.compareAndSet(false, true)) {
-        LOG.trace("There is another thread performing persisting. No need to persist in this thread.");
-        return;
+    private void persistMetricsAndTopicProcessMeta() {
+      if (!metricsFromTopics.isEmpty()) {
+        Deque<MetricValues> metricValues = new LinkedList<>(metricsFromTopics);
+        try {
+          persistMetrics(metricValues);
+        } catch (Exception e) {
+          LOG.warn("Failed to persist metrics. They will be fetched again in next iteration.", e);
+          dropUnpersisted();
+          return;
+        }
+        metricsFromTopics.clear();
       }
+      persistedTopicProcessMetaMap.clear();
+      persistedTopicProcessMetaMap.putAll(topicProcessMetaMap);
+      persistTopicProcessMeta(topicProcessMetaMap);
+    }
+
+    /**
+     * Drops the metrics that are not persisted yet, and moves the fetch position of each topic back to the one of
+     * the last persisted metrics, so that the messages of the dropped metrics are fetched again.
+     */
+    private void dropUnpersisted() {
+      metricsFromTopics.clear();
+      topicProcessMetaMap.clear();
+      topicProcessMetaMap.putAll(persistedTopicProcessMetaMap);
+    }
+
+    private void persistTopicProcessMeta(Map<TopicIdMetaKey, TopicProcessMeta> messageIds) {
       try {
-        // Make a copy of topicProcessMetaMap before copying metrics from metricsFromAllTopics to ensure that
-        // topicMessageIdsCopy will not contain new MessageId's in metricsFromAllTopics but not in metricsCopy.
-        // This guarantees the metrics corresponding to last persisted MessageId's of each topic are persisted.
-        Map<TopicIdMetaKey, TopicProcessMeta> topicProcessMetaMapCopy = new HashMap<>(topicProcessMetaMap);
-        // Remove at most queueSize of metrics from metricsFromAllTopics and put into metricsCopy to limit
-        // the number of metrics being persisted each time
-        Deque<MetricValues> metricsCopy = new LinkedList<>();
-        Iterator<MetricValues> iterator = metricsFromAllTopics.iterator();
-        // Though the blocking queue(metricsFromAllTopics) has upper bound on its size (which is the "queueSize")
-        // there can be a scenario, as the current thread is removing entries from blocking queue
-        // and adding it to a copy list, other threads are simultaneously adding entries to the queue and
-        // the current list might become very big causing out of memory issues, we avoid this
-        // by making the copy list size also to be limited by the max queue size.
-        while (iterator.hasNext() && metricsCopy.size() < queueSize) {
-          metricsCopy.add(iterator.next());
-          iterator.remove();
+        // messageIds can be empty if nothing has been fetched from the topics of this shard yet
+        if (!messageIds.isEmpty()) {
+          metaTable.saveMetricsProcessorStats(messageIds);
         }
-        // Persist the copy of metrics and MessageId's
-        persistMetricsAndTopicProcessMeta(metricsCopy, topicProcessMetaMapCopy);
       } catch (Exception e) {
-        LOG.warn("Failed to persist metrics. Will be retried in next iteration.", e);
-      } finally {
-        // Set persistingFlag back to false after persisting completes.
-        persistingFlag.set(false);
+        LOG.warn("Failed to update processing stats of consumed messages.", e);
+      }
+    }
+
+    /**
+     * Persist metrics into metric store
+     *
+     * @param metricValues a non-empty deque of {@link MetricValues}
+     */
+    private void persistMetrics(Deque<MetricValues> metricValues) {
+      long now = System.currentTimeMillis();
+      long lastMetricTime = metricValues.peekLast().getTimestamp();
+      List<MetricValue> topicLevelDelays = new ArrayList<>();
+
+      //add topic level delay metrics
+      for (Map.Entry<TopicIdMetaKey, TopicProcessMeta> entry : topicProcessMetaMap.entrySet()) {
+        TopicProcessMeta topicProcessMeta = entry.getValue();
+        long delay = now - TimeUnit.SECONDS.toMillis(topicProcessMeta.getOldestMetricsTimestamp());
+        topicLevelDelays.add(new MetricValue(topicProcessMeta.getOldestMetricsTimestampMetricName(),
+                                             MetricType.GAUGE, delay));
+        delay = now - TimeUnit.SECONDS.toMillis(topicProcessMeta.getLatestMetricsTimestamp());
+        topicLevelDelays.add(new MetricValue(topicProcessMeta.getLatestMetricsTimestampMetricName(),
+                                             MetricType.GAUGE, delay));
       }
+      List<MetricValue> processorMetrics = new ArrayList<>(topicLevelDelays);
+      processorMetrics.add(new MetricValue(processMetricName, MetricType.COUNTER, metricValues.size()));
+
+      metricValues.add(new MetricValues(metricsContextMap, TimeUnit.MILLISECONDS.toSeconds(now), processorMetrics));
+      metricStore.add(metricValues);
+      exportSnapshot.update(metricValues);
+      metricsProcessedCount += metricValues.size();
+      PROGRESS_LOG.debug("{} metrics persisted by {}. Last metric's timestamp: {}",
+                         metricsProcessedCount, getName(), lastMetricTime);
     }
   }
 
@@ -0,0 +1,325 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.cdap.metrics.process;
+
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.cdap.api.metrics.MetricType;
+import io.cdap.cdap.api.metrics.MetricValue;
+import io.cdap.cdap.api.metrics.MetricValues;
+import io.cdap.cdap.common.io.DatumReader;
+import io.cdap.cdap.common.io.Decoder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link DatumReader} for {@link MetricValues} that is specialized for the schema the metrics are written with.
+ * The decoding steps are resolved from the schema once, so that decoding doesn't use reflection. Tag names, tag
+ * values and metric names are interned, so that the repeated strings of the metrics in the processor queue share
+ * the same instances.
+ *
+ * If the schema is not the one this reader is specialized for, the decoding is delegated to the given fallback
+ * {@link DatumReader}.
+ *
+ * This class is not thread safe.
+ */
+final class MetricValuesDatumReader implements DatumReader<MetricValues> {
+
+  // Upper bound of the number of interned strings, the interned strings are cleared when it is reached
+  private static final int MAX_INTERNED = 100000;
+
+  private final Schema schema;
+  private final DatumReader<MetricValues> fallback;
+  private final Map<String, String> interned;
+  @Nullable
+  private final ValueReader reader;
+
+  MetricValuesDatumReader(Schema schema, DatumReader<MetricValues> fallback) {
+    this.schema = schema;
+    this.fallback = fallback;
+    this.interned = new HashMap<>();
+    this.reader = createMetricValuesReader(schema);
+  }
+
+  @Override
+  public MetricValues read(Decoder decoder, Schema sourceSchema) throws IOException {
+    if (reader == null || (sourceSchema != schema && !sourceSchema.equals(schema))) {
+      return fallback.read(decoder, sourceSchema);
+    }
+    return (MetricValues) reader.read(decoder);
+  }
+
+  /**
+   * Returns a {@link ValueReader} for the {@link MetricValues} record or {@code null} if the schema is not supported.
+   */
+  @Nullable
+  private ValueReader createMetricValuesReader(Schema schema) {
+    if (schema.getType() != Schema.Type.RECORD) {
+      return null;
+    }
+    List<Schema.Field> fields = schema.getFields();
+    ValueReader[] fieldReaders = new ValueReader[fields.size()];
+    // Index of each MetricValues field in the fieldReaders
+    int tagsIdx = -1;
+    int metricsIdx = -1;
+    int timestampIdx = -1;
+    for (int i = 0; i < fields.size(); i++) {
+      Schema.Field field = fields.get(i);
+      switch (field.getName()) {
+        case "tags":
+          fieldReaders[i] = createNullable(field.getSchema(), this::createTagsReader);
+          tagsIdx = i;
+          break;
+        case "metrics":
+          fieldReaders[i] = createNullable(field.getSchema(), this::createMetricsReader);
+          metricsIdx = i;
+          break;
+        case "timestamp":
+          fieldReaders[i] = createNullable(field.getSchema(), MetricValuesDatumReader::createLongReader);
+          timestampIdx = i;
+          break;
+        default:
+          return null;
+      }
+      if (fieldReaders[i] == null) {
+        return null;
+      }
+    }
+    if (tagsIdx < 0 || metricsIdx < 0 || timestampIdx < 0) {
+      return null;
+    }
+
+    int finalTagsIdx = tagsIdx;
+    int finalMetricsIdx = metricsIdx;
+    int finalTimestampIdx = timestampIdx;
+    return decoder -> {
+      Object[] values = new Object[fieldReaders.length];
+      for (int i = 0; i < fieldReaders.length; i++) {
+        values[i] = fieldReaders[i].read(decoder);
+      }
+      Object timestamp = values[finalTimestampIdx];
+      if (timestamp == null) {
+        throw new IOException("Missing timestamp in MetricValues");
+      }
+      @SuppressWarnings("unchecked")
+      Map<String, String> tags = (Map<String, String>) values[finalTagsIdx];
+      @SuppressWarnings("unchecked")
+      Collection<MetricValue> metrics = (Collection<MetricValue>) values[finalMetricsIdx];
+      return new MetricValues(tags, (Long) timestamp, metrics);
+    };
+  }
+
+  @Nullable
+  private ValueReader createTagsReader(Schema schema) {
+    if (schema.getType() != Schema.Type.MAP) {
+      return null;
+    }
+    Map.Entry<Schema, Schema> mapSchema = schema.getMapSchema();
+    ValueReader keyReader = createNullable(mapSchema.getKey(), this::createStringReader);
+    ValueReader valueReader = createNullable(mapSchema.getValue(), this::createStringReader);
+    if (keyReader == null || valueReader == null) {
+      return null;
+    }
+    return decoder -> {
+      Map<String, String> tags = new HashMap<>();
+      int len = decoder.readInt();
+      while (len != 0) {
+        for (int i = 0; i < len; i++) {
+          tags.put((String) keyReader.read(decoder), (String) valueReader.read(decoder));
+        }
+        len = decoder.readInt();
+      }
+      return tags;
+    };
+  }
+
+  @Nullable
+  private ValueReader createMetricsReader(Schema schema) {
+    if (schema.getType() != Schema.Type.ARRAY) {
+      return null;
+    }
+    ValueReader metricReader = createNullable(schema.getComponentSchema(), this::createMetricValueReader);
+    if (metricReader == null) {
+      return null;
+    }
+    return decoder -> {
+      List<MetricValue> metrics = new ArrayList<>();
+      int len = decoder.readInt();
+      while (len != 0) {
+        for (int i = 0; i < len; i++) {
+          metrics.add((MetricValue) metricReader.read(decoder));
+        }
+        len = decoder.readInt();
+      }
+      return metrics;
+    };
+  }
+
+  @Nullable
+  private ValueReader createMetricValueReader(Schema schema) {
+    if (schema.getType() != Schema.Type.RECORD) {
+      return null;
+    }
+    List<Schema.Field> fields = schema.getFields();
+    ValueReader[] fieldReaders = new ValueReader[fields.size()];
+    int nameIdx = -1;
+    int typeIdx = -1;
+    int valueIdx = -1;
+    for (int i = 0; i < fields.size(); i++) {
+      Schema.Field field = fields.get(i);
+      switch (field.getName()) {
+        case "name":
+          fieldReaders[i] = createNullable(field.getSchema(), this::createStringReader);
+          nameIdx = i;
+          break;
+        case "type":
+          fieldReaders[i] = createNullable(field.getSchema(), MetricValuesDatumReader::createMetricTypeReader);
+          typeIdx = i;
+          break;
+        case "value":
+          fieldReaders[i] = createNullable(field.getSchema(), MetricValuesDatumReader::createLongReader);
+          valueIdx = i;
+          break;
+        default:
+          return null;
+      }
+      if (fieldReaders[i] == null) {
+        return null;
+      }
+    }
+    if (nameIdx < 0 || typeIdx < 0 || valueIdx < 0) {
+      return null;
+    }
+
+    int finalNameIdx = nameIdx;
+    int finalTypeIdx = typeIdx;
+    int finalValueIdx = valueIdx;
+    return decoder -> {
+      Object[] values = new Object[fieldReaders.length];
+      for (int i = 0; i < fieldReaders.length; i++) {
+        values[i] = fieldReaders[i].read(decoder);
+      }
+      Object value = values[finalValueIdx];
+      if (value == null) {
+        throw new IOException("Missing value in MetricValue");
+      }
+      return new MetricValue((String) values[finalNameIdx], (MetricType) values[finalTypeIdx], (Long) value);
+    };
+  }
+
+  @Nullable
+  private ValueReader createStringReader(Schema schema) {
+    if (schema.getType() != Schema.Type.STRING) {
+      return null;
+    }
+    return decoder -> intern(decoder.readString());
+  }
+
+  @Nullable
+  private static ValueReader createLongReader(Schema schema) {
+    switch (schema.getType()) {
+      case LONG:
+        return Decoder::readLong;
+      case INT:
+        return decoder -> (long) decoder.readInt();
+      default:
+        return null;
+    }
+  }
+
+  @Nullable
+  private static ValueReader createMetricTypeReader(Schema schema) {
+    if (schema.getType() != Schema.Type.ENUM) {
+      return null;
+    }
+    // Resolves the enum symbols of the schema to MetricType by the index used in the encoding
+    MetricType[] types = new MetricType[schema.getEnumValues().size()];
+    for (int i = 0; i < types.length; i++) {
+      try {
+        types[i] = MetricType.valueOf(schema.getEnumValue(i));
+      } catch (IllegalArgumentException e) {
+        return null;
+      }
+    }
+    return decoder -> {
+      int idx = decoder.readInt();
+      if (idx < 0 || idx >= types.length) {
+        throw new IOException("Invalid MetricType index " + idx);
+      }
+      return types[idx];
+    };
+  }
+
+  /**
+   * Creates a {@link ValueReader} for the given schema, which can be a union of {@code null} and the schema that
+   * is supported by the given {@link ReaderFactory}.
+   */
+  @Nullable
+  private static ValueReader createNullable(Schema schema, ReaderFactory factory) {
+    if (schema.getType() != Schema.Type.UNION) {
+      return factory.create(schema);
+    }
+    List<Schema> unionSchemas = schema.getUnionSchemas();
+    ValueReader[] readers = new ValueReader[unionSchemas.size()];
+    for (int i = 0; i < readers.length; i++) {
+      Schema unionSchema = unionSchemas.get(i);
+      readers[i] = unionSchema.getType() == Schema.Type.NULL ? Decoder::readNull : factory.create(unionSchema);
+      if (readers[i] == null) {
+        return null;
+      }
+    }
+    return decoder -> {
+      int idx = decoder.readInt();
+      if (idx < 0 || idx >= readers.length) {
+        throw new IOException("Invalid union index " + idx);
+      }
+      return readers[idx].read(decoder);
+    };
+  }
+
+  private String intern(String str) {
+    String result = interned.putIfAbsent(str, str);
+    if (result != null) {
+      return result;
+    }
+    if (interned.size() > MAX_INTERNED) {
+      interned.clear();
+    }
+    return str;
+  }
+
+  /**
+   * Reads a value from a {@link Decoder}.
+   */
+  private interface ValueReader {
+    @Nullable
+    Object read(Decoder decoder) throws IOException;
+  }
+
+  /**
+   * Creates a {@link ValueReader} for a {@link Schema}, or returns {@code null} if the schema is not supported.
+   */
+  private interface ReaderFactory {
+    @Nullable
+    ValueReader create(Schema schema);
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.cdap.metrics.process;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.inject.Inject;
+import io.cdap.cdap.api.metrics.MetricType;
+import io.cdap.cdap.common.conf.Constants;
+import io.cdap.http.AbstractHttpHandler;
+import io.cdap.http.BodyProducer;
+import io.cdap.http.HttpResponder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import javax.annotation.Nullable;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+
+/**
+ * Handler for scraping the {@link MetricsExportSnapshot} of the metrics processor in the Prometheus text
+ * exposition format. Metric names are prefixed with "cdap_" and have the characters not allowed by Prometheus
+ * replaced with '_', the tags of the metrics context become the labels.
+ */
+@Path(Constants.Gateway.API_VERSION_3 + "/system/metrics")
+public class MetricsExportHandler extends AbstractHttpHandler {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MetricsExportHandler.class);
+  private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+  private static final int BUFFER_CHARS = 8192;
+
+  private final MetricsExportSnapshot snapshot;
+
+  @Inject
+  MetricsExportHandler(MetricsExportSnapshot snapshot) {
+    this.snapshot = snapshot;
+  }
+
+  @GET
+  @Path("/export")
+  public void export(HttpRequest request, HttpResponder responder) {
+    if (!snapshot.isEnabled()) {
+      responder.sendString(HttpResponseStatus.NOT_FOUND, String.format(
+        "Metrics export is disabled. Set '%s' to enable it.", Constants.MetricsProcessor.EXPORT_CONTEXTS));
+      return;
+    }
+    responder.sendContent(HttpResponseStatus.OK, new ExportBodyProducer(snapshot.getMetricFamilies()),
+                          new DefaultHttpHeaders().set(HttpHeaderNames.CONTENT_TYPE, CONTENT_TYPE));
+  }
+
+  /**
+   * Writes the given metric family in the Prometheus text exposition format.
+   */
+  @VisibleForTesting
+  static void writeMetricFamily(MetricsExportSnapshot.MetricFamily family, StringBuilder builder) {
+    Map<Map<String, String>, Long> values = family.getValues();
+    if (values.isEmpty()) {
+      return;
+    }
+    String name = "cdap_" + sanitize(family.getName());
+    builder.append("# TYPE ").append(name).append(' ')
+      .append(family.getType() == MetricType.COUNTER ? "counter" : "gauge").append('\n');
+    for (Map.Entry<Map<String, String>, Long> entry : values.entrySet()) {
+      builder.append(name);
+      String separator = "{";
+      for (Map.Entry<String, String> tag : entry.getKey().entrySet()) {
+        builder.append(separator).append(sanitize(tag.getKey())).append("=\"");
+        appendEscaped(tag.getValue(), builder);
+        builder.append('"');
+        separator = ",";
+      }
+      if (!entry.getKey().isEmpty()) {
+        builder.append('}');
+      }
+      builder.append(' ').append(entry.getValue()).append('\n');
+    }
+  }
+
+  /**
+   * Replaces the characters that are not allowed in Prometheus metric and label names with '_'.
+   */
+  private static String sanitize(String name) {
+    StringBuilder builder = new StringBuilder(name.length() + 1);
+    if (name.isEmpty() || Character.isDigit(name.charAt(0))) {
+      builder.append('_');
+    }
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+      builder.append(valid ? c : '_');
+    }
+    return builder.toString();
+  }
+
+  private static void appendEscaped(@Nullable String value, StringBuilder builder) {
+    if (value == null) {
+      return;
+    }
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '\\' || c == '"') {
+        builder.append('\\').append(c);
+      } else if (c == '\n') {
+        builder.append("\\n");
+      } else {
+        builder.append(c);
+      }
+    }
+  }
+
+  /**
+   * {@link BodyProducer} that streams the metric families in chunks, so that the whole export is never
+   * materialized in memory.
+   */
+  private static final class ExportBodyProducer extends BodyProducer {
+
+    private final Iterator<MetricsExportSnapshot.MetricFamily> families;
+
+    ExportBodyProducer(Iterator<MetricsExportSnapshot.MetricFamily> families) {
+      this.families = families;
+    }
+
+    @Override
+    public ByteBuf nextChunk() {
+      StringBuilder builder = new StringBuilder();
+      while (families.hasNext() && builder.length() < BUFFER_CHARS) {
+        writeMetricFamily(families.next(), builder);
+      }
+      return builder.length() == 0 ? Unpooled.EMPTY_BUFFER : Unpooled.copiedBuffer(builder, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void finished() {
+      // no-op
+    }
+
+    @Override
+    public void handleError(@Nullable Throwable cause) {
+      LOG.warn("Failed to export metrics.", cause);
+    }
+  }
+}
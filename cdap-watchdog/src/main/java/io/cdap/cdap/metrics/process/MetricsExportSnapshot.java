@@ -0,0 +1,218 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.cdap.metrics.process;
+
+import com.google.common.base.Splitter;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import io.cdap.cdap.api.metrics.MetricType;
+import io.cdap.cdap.api.metrics.MetricValue;
+import io.cdap.cdap.api.metrics.MetricValues;
+import io.cdap.cdap.common.conf.CConfiguration;
+import io.cdap.cdap.common.conf.Constants;
+import io.cdap.cdap.common.logging.LogSamplers;
+import io.cdap.cdap.common.logging.Loggers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * In-memory snapshot of the latest metric values of the configured metrics contexts, which is updated by the
+ * {@link MessagingMetricsProcessorService} as it persists metrics and is exported by the
+ * {@link MetricsExportHandler} without reading the metrics tables.
+ *
+ * Counters are accumulated since the snapshot was created, i.e. they restart from zero when the metrics processor
+ * restarts, and gauges hold the value with the latest timestamp.
+ */
+@Singleton
+public class MetricsExportSnapshot {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MetricsExportSnapshot.class);
+  // Log about dropped series no more than once per minute.
+  private static final Logger LIMIT_LOG = Loggers.sampling(LOG, LogSamplers.limitRate(60000));
+
+  private final List<Map<String, String>> contexts;
+  private final int maxSeries;
+  private final AtomicInteger seriesCount;
+  // sorted by metric name, so that the export is stable
+  private final ConcurrentNavigableMap<String, MetricFamily> families;
+
+  @Inject
+  public MetricsExportSnapshot(CConfiguration cConf) {
+    this.contexts = parseContexts(cConf.get(Constants.MetricsProcessor.EXPORT_CONTEXTS));
+    this.maxSeries = cConf.getInt(Constants.MetricsProcessor.EXPORT_MAX_SERIES);
+    this.seriesCount = new AtomicInteger();
+    this.families = new ConcurrentSkipListMap<>();
+  }
+
+  /**
+   * Returns {@code true} if there is any metrics context configured to be exported.
+   */
+  public boolean isEnabled() {
+    return !contexts.isEmpty();
+  }
+
+  /**
+   * Updates the snapshot with the given metrics, which are ignored unless their tags match one of the configured
+   * contexts. Metrics with the same tags are expected to be updated by the same thread.
+   */
+  public void update(Collection<MetricValues> metricValues) {
+    if (contexts.isEmpty()) {
+      return;
+    }
+    for (MetricValues values : metricValues) {
+      if (!isExported(values.getTags())) {
+        continue;
+      }
+      for (MetricValue metricValue : values.getMetrics()) {
+        MetricFamily family = families.computeIfAbsent(metricValue.getName(),
+                                                       name -> new MetricFamily(name, metricValue.getType()));
+        Series series = family.getSeries(values.getTags());
+        if (series == null) {
+          continue;
+        }
+        series.update(metricValue, values.getTimestamp());
+      }
+    }
+  }
+
+  /**
+   * Returns the metric families in the snapshot, ordered by metric name.
+   */
+  public Iterator<MetricFamily> getMetricFamilies() {
+    return families.values().iterator();
+  }
+
+  private boolean isExported(Map<String, String> tags) {
+    for (Map<String, String> context : contexts) {
+      if (tags.entrySet().containsAll(context.entrySet())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Parses the contexts to export, which are separated by ';', each being a ',' separated list of tag=value pairs.
+   */
+  private static List<Map<String, String>> parseContexts(@Nullable String contexts) {
+    if (contexts == null) {
+      return Collections.emptyList();
+    }
+    List<Map<String, String>> result = new ArrayList<>();
+    for (String context : Splitter.on(';').trimResults().omitEmptyStrings().split(contexts)) {
+      result.add(new LinkedHashMap<>(Splitter.on(',').trimResults().omitEmptyStrings()
+                                       .withKeyValueSeparator('=').split(context)));
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+  /**
+   * All the series of a metric in the snapshot.
+   */
+  public final class MetricFamily {
+    private final String name;
+    private final MetricType type;
+    private final ConcurrentMap<Map<String, String>, Series> series;
+
+    private MetricFamily(String name, MetricType type) {
+      this.name = name;
+      this.type = type;
+      this.series = new ConcurrentHashMap<>();
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public MetricType getType() {
+      return type;
+    }
+
+    /**
+     * Returns the current value of each series of this metric, keyed by the tags of the series.
+     */
+    public Map<Map<String, String>, Long> getValues() {
+      Map<Map<String, String>, Long> values = new HashMap<>();
+      for (Map.Entry<Map<String, String>, Series> entry : series.entrySet()) {
+        values.put(entry.getKey(), entry.getValue().getValue());
+      }
+      return values;
+    }
+
+    /**
+     * Returns the series with the given tags, or {@code null} if it doesn't exist and the snapshot is full.
+     */
+    @Nullable
+    private Series getSeries(Map<String, String> tags) {
+      Series result = series.get(tags);
+      if (result != null) {
+        return result;
+      }
+      if (seriesCount.get() >= maxSeries) {
+        LIMIT_LOG.warn("Not exporting metric {} with tags {}, since the limit of {} exported series is reached",
+                       name, tags, maxSeries);
+        return null;
+      }
+      return series.computeIfAbsent(Collections.unmodifiableMap(new HashMap<>(tags)), k -> {
+        seriesCount.incrementAndGet();
+        return new Series(type);
+      });
+    }
+  }
+
+  /**
+   * The value of a single series.
+   */
+  private static final class Series {
+    private final MetricType type;
+    private long value;
+    private long timestamp;
+
+    private Series(MetricType type) {
+      this.type = type;
+      this.timestamp = Long.MIN_VALUE;
+    }
+
+    synchronized void update(MetricValue metricValue, long timestamp) {
+      if (type == MetricType.COUNTER) {
+        value += metricValue.getValue();
+      } else if (timestamp >= this.timestamp) {
+        value = metricValue.getValue();
+        this.timestamp = timestamp;
+      }
+    }
+
+    synchronized long getValue() {
+      return value;
+    }
+  }
+}
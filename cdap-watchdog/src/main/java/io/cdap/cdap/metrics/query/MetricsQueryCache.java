@@ -0,0 +1,268 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.cdap.metrics.query;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.cdap.cdap.api.dataset.lib.cube.AggregationFunction;
+import io.cdap.cdap.api.dataset.lib.cube.AggregationOption;
+import io.cdap.cdap.api.dataset.lib.cube.TimeValue;
+import io.cdap.cdap.api.metrics.MetricDataQuery;
+import io.cdap.cdap.api.metrics.MetricStore;
+import io.cdap.cdap.api.metrics.MetricTimeSeries;
+import io.cdap.cdap.common.conf.CConfiguration;
+import io.cdap.cdap.common.conf.Constants;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Caches the results of time range metrics queries, so that queries polled repeatedly, such as the ones from
+ * dashboards, only need to scan the part of the time range that is not in the cache yet.
+ * <p>
+ * Only data points of buckets that are older than the settle time are cached, since more recent buckets can still
+ * be updated by the metrics processor. On a repeated query, the cached data points are merged with the result of
+ * querying from the first unsettled bucket to the end of the requested range. Entries are evicted by the number of
+ * data points they hold, and are recomputed from scratch once older than the max age, which bounds the staleness
+ * caused by metrics arriving after the settle time.
+ */
+final class MetricsQueryCache {
+
+  private final MetricStore metricStore;
+  @Nullable
+  private final Cache<CacheKey, CacheEntry> cache;
+  private final long settleSeconds;
+  private final long maxAgeMillis;
+
+  MetricsQueryCache(MetricStore metricStore, CConfiguration cConf) {
+    this.metricStore = metricStore;
+    this.settleSeconds = cConf.getLong(Constants.Metrics.Query.CACHE_SETTLE_SECONDS);
+    this.maxAgeMillis = TimeUnit.SECONDS.toMillis(cConf.getLong(Constants.Metrics.Query.CACHE_MAX_AGE_SECONDS));
+    long maxPoints = cConf.getLong(Constants.Metrics.Query.CACHE_MAX_POINTS);
+    this.cache = cConf.getBoolean(Constants.Metrics.Query.CACHE_ENABLED) && maxPoints > 0
+      ? CacheBuilder.newBuilder()
+          .maximumWeight(maxPoints)
+          .<CacheKey, CacheEntry>weigher((key, entry) -> entry.getSize() + 1)
+          .expireAfterWrite(maxAgeMillis, TimeUnit.MILLISECONDS)
+          .build()
+      : null;
+  }
+
+  /**
+   * Executes the given query, using the cached result of a previous query with the same criteria when possible.
+   */
+  Collection<MetricTimeSeries> query(MetricDataQuery query) {
+    return query(query, System.currentTimeMillis());
+  }
+
+  @VisibleForTesting
+  Collection<MetricTimeSeries> query(MetricDataQuery query, long currentTimeMillis) {
+    if (!isCacheable(query)) {
+      return metricStore.query(query);
+    }
+
+    int resolution = query.getResolution();
+    // the bucket of the settled timestamp is the last one that can no longer be updated
+    long settledTs = (TimeUnit.MILLISECONDS.toSeconds(currentTimeMillis) - settleSeconds) / resolution * resolution
+      - resolution;
+
+    CacheKey key = new CacheKey(query);
+    CacheEntry entry = cache.getIfPresent(key);
+    if (entry != null && (entry.getStartTs() > query.getStartTs()
+      || currentTimeMillis - entry.getCreateTime() > maxAgeMillis)) {
+      entry = null;
+    }
+
+    Collection<MetricTimeSeries> result;
+    if (entry == null) {
+      result = metricStore.query(query);
+    } else {
+      long scanStartTs = Math.max(query.getStartTs(), entry.getSettledTs() + 1);
+      Collection<MetricTimeSeries> scanned = scanStartTs > query.getEndTs()
+        ? new ArrayList<>()
+        : metricStore.query(new MetricDataQuery(scanStartTs, query.getEndTs(), resolution, query.getLimit(),
+                                                query.getMetrics(), query.getSliceByTags(), query.getGroupByTags(),
+                                                query.getAggregationOption(), query.getInterpolator()));
+      result = merge(entry.getTimeSeries(), scanned, query.getStartTs(),
+                     Math.min(entry.getSettledTs(), query.getEndTs()));
+    }
+
+    long newSettledTs = Math.min(settledTs, query.getEndTs());
+    if (newSettledTs >= query.getStartTs()) {
+      List<MetricTimeSeries> settled = merge(result, new ArrayList<>(), query.getStartTs(), newSettledTs);
+      cache.put(key, new CacheEntry(query.getStartTs(), newSettledTs, settled,
+                                    entry == null ? currentTimeMillis : entry.getCreateTime()));
+    }
+    return result;
+  }
+
+  /**
+   * Returns whether the result of the given query can be built by concatenating the results of querying
+   * consecutive time ranges.
+   */
+  private boolean isCacheable(MetricDataQuery query) {
+    return cache != null
+      && query.getResolution() != Integer.MAX_VALUE
+      && query.getInterpolator() == null
+      && query.getAggregationOption() == AggregationOption.FALSE
+      // with a limit smaller than the number of buckets, the result depends on the whole time range
+      && query.getLimit() > (query.getEndTs() - query.getStartTs()) / query.getResolution();
+  }
+
+  /**
+   * Merges the data points of the cached time series within the given time range with the scanned time series,
+   * which only contain data points after the time range.
+   */
+  private static List<MetricTimeSeries> merge(Collection<MetricTimeSeries> cached, Collection<MetricTimeSeries> scanned,
+                                              long startTs, long endTs) {
+    Map<SeriesKey, List<TimeValue>> merged = new LinkedHashMap<>();
+    for (MetricTimeSeries series : cached) {
+      List<TimeValue> timeValues = merged.computeIfAbsent(new SeriesKey(series), k -> new ArrayList<>());
+      for (TimeValue timeValue : series.getTimeValues()) {
+        if (timeValue.getTimestamp() >= startTs && timeValue.getTimestamp() <= endTs) {
+          timeValues.add(timeValue);
+        }
+      }
+    }
+    for (MetricTimeSeries series : scanned) {
+      merged.computeIfAbsent(new SeriesKey(series), k -> new ArrayList<>()).addAll(series.getTimeValues());
+    }
+
+    List<MetricTimeSeries> result = new ArrayList<>();
+    for (Map.Entry<SeriesKey, List<TimeValue>> entry : merged.entrySet()) {
+      if (!entry.getValue().isEmpty()) {
+        result.add(new MetricTimeSeries(entry.getKey().metricName, entry.getKey().tagValues, entry.getValue()));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Key of the cache, which is made of all the query criteria except the time range and the limit.
+   */
+  private static final class CacheKey {
+    private final int resolution;
+    private final Map<String, AggregationFunction> metrics;
+    private final Map<String, String> sliceByTags;
+    private final List<String> groupByTags;
+
+    CacheKey(MetricDataQuery query) {
+      this.resolution = query.getResolution();
+      // copy, since the query may contain lazily transformed views
+      this.metrics = new HashMap<>(query.getMetrics());
+      this.sliceByTags = new HashMap<>(query.getSliceByTags());
+      this.groupByTags = new ArrayList<>(query.getGroupByTags());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      CacheKey that = (CacheKey) o;
+      return resolution == that.resolution
+        && Objects.equals(metrics, that.metrics)
+        && Objects.equals(sliceByTags, that.sliceByTags)
+        && Objects.equals(groupByTags, that.groupByTags);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(resolution, metrics, sliceByTags, groupByTags);
+    }
+  }
+
+  /**
+   * Cached data points of a query, from the start time up to and including the settled time.
+   */
+  private static final class CacheEntry {
+    private final long startTs;
+    private final long settledTs;
+    private final List<MetricTimeSeries> timeSeries;
+    private final long createTime;
+    private final int size;
+
+    CacheEntry(long startTs, long settledTs, List<MetricTimeSeries> timeSeries, long createTime) {
+      this.startTs = startTs;
+      this.settledTs = settledTs;
+      this.timeSeries = timeSeries;
+      this.createTime = createTime;
+      this.size = timeSeries.stream().mapToInt(series -> series.getTimeValues().size()).sum();
+    }
+
+    long getStartTs() {
+      return startTs;
+    }
+
+    long getSettledTs() {
+      return settledTs;
+    }
+
+    List<MetricTimeSeries> getTimeSeries() {
+      return timeSeries;
+    }
+
+    long getCreateTime() {
+      return createTime;
+    }
+
+    int getSize() {
+      return size;
+    }
+  }
+
+  /**
+   * Identifies a time series in a query result.
+   */
+  private static final class SeriesKey {
+    private final String metricName;
+    private final Map<String, String> tagValues;
+
+    SeriesKey(MetricTimeSeries series) {
+      this.metricName = series.getMetricName();
+      this.tagValues = series.getTagValues();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      SeriesKey that = (SeriesKey) o;
+      return Objects.equals(metricName, that.metricName) && Objects.equals(tagValues, that.tagValues);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(metricName, tagValues);
+    }
+  }
+}
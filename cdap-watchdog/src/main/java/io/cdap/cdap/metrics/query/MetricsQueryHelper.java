@@ -75,6 +75,7 @@ public class MetricsQueryHelper {
   private static final String ANY_TAG_VALUE = "*";
 
   private final MetricStore metricStore;
+  private final MetricsQueryCache queryCache;
   private final int minResolution;
 
   private static final Map<String, String> tagNameToHuman;
@@ -125,6 +126,7 @@ public class MetricsQueryHelper {
   @Inject
   public MetricsQueryHelper(MetricStore metricStore, CConfiguration cConf) {
     this.metricStore = metricStore;
+    this.queryCache = new MetricsQueryCache(metricStore, cConf);
     int minimumResolution = cConf.getInt(Constants.Metrics.METRICS_MINIMUM_RESOLUTION_SECONDS);
     this.minResolution = minimumResolution < 60 ? minimumResolution : 60;
   }
@@ -367,7 +369,10 @@ public class MetricsQueryHelper {
                                                 timeRange.getCount(), toMetrics(queryRequest.getMetrics()),
                                                 tagsSliceBy, transformGroupByTags(queryRequest.getGroupBy()),
                                                 aggregation, timeRange.getInterpolate());
-    Collection<MetricTimeSeries> queryResult = metricStore.query(query);
+    // resolve the resolution the store executes the query with first, so that the result is cached and reported
+    // with the resolution of its data points
+    query = metricStore.getEffectiveQuery(query);
+    Collection<MetricTimeSeries> queryResult = queryCache.query(query);
 
     long endTime = timeRange.getEnd();
     if (timeRange.getResolutionInSeconds() == Integer.MAX_VALUE && endTime == 0) {
@@ -375,7 +380,7 @@ public class MetricsQueryHelper {
       endTime = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
     }
 
-    return decorate(queryResult, timeRange.getStart(), endTime, timeRange.getResolutionInSeconds());
+    return decorate(queryResult, timeRange.getStart(), endTime, query.getResolution());
   }
 
   private Map<String, String> transformTagMap(Map<String, String> tags) {
@@ -82,7 +82,11 @@ public class DefaultMetricDatasetFactory implements MetricDatasetFactory {
     }
 
     MetricsTable table = getOrCreateMetricsTable(tableName, props.build());
-    return new FactTable(table, entityTable.get(), resolution, getRollTime(resolution));
+    FactTable factTable = new FactTable(table, entityTable.get(), resolution, getRollTime(resolution),
+                                        cConf.getBoolean(Constants.Metrics.TIME_SERIES_TABLE_INDEX_ENABLED));
+    // set even if compaction is disabled, since the table can still have data compacted before
+    factTable.setCompactionLag(cConf.getLong(Constants.Metrics.TIME_SERIES_TABLE_COMPACTION_LAG_SECONDS));
+    return factTable;
   }
 
   @Override
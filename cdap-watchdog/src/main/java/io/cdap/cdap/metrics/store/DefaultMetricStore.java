@@ -16,6 +16,7 @@
 
 package io.cdap.cdap.metrics.store;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
@@ -24,7 +25,6 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.inject.Inject;
-import io.cdap.cdap.api.dataset.lib.cube.Cube;
 import io.cdap.cdap.api.dataset.lib.cube.CubeDeleteQuery;
 import io.cdap.cdap.api.dataset.lib.cube.CubeExploreQuery;
 import io.cdap.cdap.api.dataset.lib.cube.CubeFact;
@@ -90,11 +90,15 @@ public class DefaultMetricStore implements MetricStore {
                     new AggregationAlias(ImmutableMap.of(Constants.Metrics.Tag.RUN_ID,
                                                          Constants.Metrics.Tag.WORKFLOW_RUN_ID)));
 
-  private final Supplier<Cube> cube;
+  private final Supplier<DefaultCube> cube;
   private final Supplier<MetricsConsumerMetaTable> metaTableSupplier;
   private MetricsContext metricsContext;
   private final List<TopicId> metricsTopics;
   private final Map<Integer, Long> resolutionTTLMap;
+  private final boolean compactionEnabled;
+  private final boolean resolutionFallback;
+  private final int[] resolutions;
+  private final long compactionLagSecs;
 
 
   static {
@@ -199,7 +203,7 @@ public class DefaultMetricStore implements MetricStore {
   @Inject
   DefaultMetricStore(MetricDatasetFactory dsFactory, CConfiguration cConf) {
     int minimumResolution = cConf.getInt(Constants.Metrics.METRICS_MINIMUM_RESOLUTION_SECONDS);
-    int[] resolutions = minimumResolution < 60 ?
+    this.resolutions = minimumResolution < 60 ?
       new int[] {minimumResolution, 60, 3600, TOTALS_RESOLUTION} : new int[] {60, 3600, TOTALS_RESOLUTION};
     long minRetentionSecs = cConf.getLong(Constants.Metrics.RETENTION_SECONDS + Constants.Metrics.MINUTE_RESOLUTION +
                                             Constants.Metrics.RETENTION_SECONDS_SUFFIX);
@@ -212,14 +216,17 @@ public class DefaultMetricStore implements MetricStore {
       builder.put(minimumResolution, cConf.getLong(Constants.Metrics.MINIMUM_RESOLUTION_RETENTION_SECONDS));
     }
     this.resolutionTTLMap = builder.build();
+    this.compactionEnabled = cConf.getBoolean(Constants.Metrics.TIME_SERIES_TABLE_COMPACTION_ENABLED);
+    this.compactionLagSecs = cConf.getLong(Constants.Metrics.TIME_SERIES_TABLE_COMPACTION_LAG_SECONDS);
+    this.resolutionFallback = cConf.getBoolean(Constants.Metrics.QUERY_RESOLUTION_FALLBACK);
     FactTableSupplier factTableSupplier = (resolution, ignoredRollTime) -> {
       // roll time will be taken from configuration
       // TODO: remove roll time from the supplier api, https://issues.cask.co/browse/CDAP-14730
       return dsFactory.getOrCreateFactTable(resolution);
     };
-    this.cube = Suppliers.memoize(new Supplier<Cube>() {
+    this.cube = Suppliers.memoize(new Supplier<DefaultCube>() {
       @Override
-      public Cube get() {
+      public DefaultCube get() {
         DefaultCube cube = new DefaultCube(resolutions, factTableSupplier, AGGREGATIONS, AGGREGATIONS_ALIAS_DIMENSIONS);
         cube.setMetricsCollector(metricsContext);
         return cube;
@@ -268,6 +275,73 @@ public class DefaultMetricStore implements MetricStore {
 
   @Override
   public Collection<MetricTimeSeries> query(MetricDataQuery query) {
+    return query(query, TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+  }
+
+  @Override
+  public MetricDataQuery getEffectiveQuery(MetricDataQuery query) {
+    return getEffectiveQuery(query, TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+  }
+
+  /**
+   * Queries metrics data. If resolution fallback is enabled and the query starts before the retention period of its
+   * resolution, the whole query is executed with the next coarser resolution that retains its start instead, so that
+   * the result doesn't have a gap. The data points of every time series in the result are then at that coarser
+   * resolution, which callers that report or cache the result by resolution get from
+   * {@link #getEffectiveQuery(MetricDataQuery)}.
+   *
+   * @param query query to execute
+   * @param currentTime current time in seconds, used to determine the retention period
+   * @return time series that satisfy the query
+   */
+  @VisibleForTesting
+  Collection<MetricTimeSeries> query(MetricDataQuery query, long currentTime) {
+    return queryCube(getEffectiveQuery(query, currentTime));
+  }
+
+  /**
+   * Returns the query to execute for the given query. With resolution fallback enabled, it is the query with the
+   * finest resolution that retains the start of the query, and not finer than the resolution of the given query.
+   */
+  @VisibleForTesting
+  MetricDataQuery getEffectiveQuery(MetricDataQuery query, long currentTime) {
+    if (!resolutionFallback) {
+      return query;
+    }
+    MetricDataQuery effectiveQuery = query;
+    Integer coarserResolution = getCoarserResolution(effectiveQuery.getResolution());
+    while (coarserResolution != null
+      && effectiveQuery.getStartTs() < currentTime - resolutionTTLMap.get(effectiveQuery.getResolution())) {
+      effectiveQuery = copyQuery(effectiveQuery, coarserResolution);
+      coarserResolution = getCoarserResolution(coarserResolution);
+    }
+    return effectiveQuery;
+  }
+
+  /**
+   * Returns the next coarser resolution that has a retention period, or {@code null} if the given resolution has no
+   * retention period or there is no coarser one.
+   */
+  @Nullable
+  private Integer getCoarserResolution(int resolution) {
+    if (!resolutionTTLMap.containsKey(resolution)) {
+      return null;
+    }
+    for (int coarserResolution : resolutions) {
+      if (coarserResolution > resolution && resolutionTTLMap.containsKey(coarserResolution)) {
+        return coarserResolution;
+      }
+    }
+    return null;
+  }
+
+  private MetricDataQuery copyQuery(MetricDataQuery query, int resolution) {
+    return new MetricDataQuery(query.getStartTs(), query.getEndTs(), resolution, query.getLimit(), query.getMetrics(),
+                               query.getSliceByTags(), query.getGroupByTags(), query.getAggregationOption(),
+                               query.getInterpolator());
+  }
+
+  private Collection<MetricTimeSeries> queryCube(MetricDataQuery query) {
     Collection<TimeSeries> cubeResult = cube.get().query(buildCubeQuery(query));
     List<MetricTimeSeries> result = Lists.newArrayList();
     for (TimeSeries timeSeries : cubeResult) {
@@ -299,6 +373,23 @@ public class DefaultMetricStore implements MetricStore {
     for (Map.Entry<Integer, Long> resolutionTTL : resolutionTTLMap.entrySet()) {
       deleteMetricsBeforeTimestamp(currentTime - resolutionTTL.getValue(), resolutionTTL.getKey());
     }
+    if (compactionEnabled) {
+      compactBefore(currentTime - compactionLagSecs);
+    }
+  }
+
+  /**
+   * Compacts the data in the minute and hour resolution tables that is older than the given timestamp.
+   * The finer resolution table is left as is, since its data is short lived.
+   *
+   * @param timestamp time up to which to compact metrics data, in seconds since epoch
+   */
+  private void compactBefore(long timestamp) {
+    for (int resolution : resolutionTTLMap.keySet()) {
+      if (resolution >= Constants.Metrics.MINUTE_RESOLUTION) {
+        cube.get().compact(resolution, timestamp);
+      }
+    }
   }
 
   @Override
@@ -19,14 +19,18 @@ package io.cdap.cdap.logging.appender.system;
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
 import ch.qos.logback.classic.spi.LoggingEvent;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import io.cdap.cdap.api.dataset.lib.CloseableIterator;
 import io.cdap.cdap.api.metrics.MetricsCollectionService;
 import io.cdap.cdap.common.conf.CConfiguration;
 import io.cdap.cdap.common.conf.Constants;
 import io.cdap.cdap.common.guice.ConfigModule;
 import io.cdap.cdap.common.guice.NonCustomLocationUnitTestModule;
+import io.cdap.cdap.common.logging.LoggingContext;
 import io.cdap.cdap.common.metrics.NoOpMetricsCollectionService;
 import io.cdap.cdap.common.namespace.NamespaceQueryAdmin;
 import io.cdap.cdap.common.namespace.SimpleNamespaceQueryAdmin;
@@ -34,8 +38,22 @@ import io.cdap.cdap.data.runtime.DataSetsModules;
 import io.cdap.cdap.data.runtime.StorageModule;
 import io.cdap.cdap.data.runtime.SystemDatasetRuntimeModule;
 import io.cdap.cdap.logging.LoggingConfiguration;
+import io.cdap.cdap.logging.appender.LoggingTester;
+import io.cdap.cdap.logging.context.LoggingContextHelper;
+import io.cdap.cdap.logging.context.WorkerLoggingContext;
+import io.cdap.cdap.logging.filter.AndFilter;
+import io.cdap.cdap.logging.filter.Filter;
+import io.cdap.cdap.logging.filter.LogLevelExpression;
+import io.cdap.cdap.logging.filter.MdcExpression;
 import io.cdap.cdap.logging.guice.LocalLogAppenderModule;
+import io.cdap.cdap.logging.meta.FileMetaDataReader;
 import io.cdap.cdap.logging.meta.FileMetaDataWriter;
+import io.cdap.cdap.logging.read.FileLogReader;
+import io.cdap.cdap.logging.read.LogEvent;
+import io.cdap.cdap.logging.read.LogOffset;
+import io.cdap.cdap.logging.read.ReadRange;
+import io.cdap.cdap.logging.write.LogFileIndex;
+import io.cdap.cdap.logging.write.LogLocation;
 import io.cdap.cdap.security.auth.context.AuthenticationContextModules;
 import io.cdap.cdap.security.authorization.AuthorizationEnforcementModule;
 import io.cdap.cdap.security.authorization.AuthorizationTestModule;
@@ -60,6 +78,9 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 public class LogFileManagerTest {
@@ -139,6 +160,160 @@ public class LogFileManagerTest {
     Assert.assertNotEquals(outputStream.getLocation(), newLogOutStream.getLocation());
   }
 
+  @Test
+  public void testIndexedRead() throws Exception {
+    FileMetaDataWriter fileMetaDataWriter = new FileMetaDataWriter(injector.getInstance(TransactionRunner.class));
+    LogFileManager logFileManager = new LogFileManager("700", "600", TimeUnit.HOURS.toMillis(1), 104857600,
+                                                       1024 * 1024, fileMetaDataWriter,
+                                                       injector.getInstance(LocationFactory.class));
+    LogPathIdentifier logPathIdentifier = new LogPathIdentifier("test", "testApp", "testIndex");
+    long timestamp = System.currentTimeMillis();
+    LogFileOutputStream outputStream = logFileManager.getLogFileOutputStream(logPathIdentifier, timestamp);
+    Logger logger = (Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
+
+    // Write three segments, with only one ERROR event in the second segment
+    for (int segment = 0; segment < 3; segment++) {
+      for (int i = 0; i < 10; i++) {
+        Level level = segment == 1 && i == 5 ? Level.ERROR : Level.INFO;
+        LoggingEvent event = getLoggingEvent("io.cdap.Test", logger, level, "message " + segment + " " + i);
+        event.setTimeStamp(timestamp + segment * 10 + i);
+        outputStream.append(event);
+      }
+      outputStream.flush();
+    }
+    logFileManager.close();
+
+    List<LogFileIndex.Segment> segments = LogFileIndex.read(outputStream.getLocation());
+    Assert.assertNotNull(segments);
+    Assert.assertEquals(3, segments.size());
+    Assert.assertEquals(ImmutableList.of(Level.INFO), segments.get(0).getLevels());
+    Assert.assertEquals(ImmutableList.of(Level.INFO, Level.ERROR), segments.get(1).getLevels());
+    Assert.assertEquals(timestamp + 10, segments.get(1).getMinTimestamp());
+    Assert.assertEquals(timestamp + 19, segments.get(1).getMaxTimestamp());
+    Assert.assertEquals(segments.get(0).getEndPosition(), segments.get(1).getStartPosition());
+
+    LogLocation logLocation = new LogLocation(LogLocation.VERSION_1, timestamp, timestamp,
+                                              outputStream.getLocation(), "test", null);
+    Assert.assertEquals(ImmutableList.of("message 1 5"),
+                        readMessages(logLocation, new LogLevelExpression("ERROR"), timestamp));
+    Assert.assertEquals(30, readMessages(logLocation, Filter.EMPTY_FILTER, timestamp).size());
+    Assert.assertEquals(15, readMessages(logLocation, Filter.EMPTY_FILTER, timestamp + 15).size());
+
+    Collection<LogEvent> events = logLocation.readLogPrev(new LogLevelExpression("ERROR"), timestamp + 100, 10);
+    Assert.assertEquals(1, events.size());
+    events = logLocation.readLogPrev(Filter.EMPTY_FILTER, timestamp + 100, 15);
+    Assert.assertEquals(15, events.size());
+    Assert.assertEquals("message 1 5", events.iterator().next().getLoggingEvent().getFormattedMessage());
+  }
+
+  @Test
+  public void testMdcIndexedRead() throws Exception {
+    FileMetaDataWriter fileMetaDataWriter = new FileMetaDataWriter(injector.getInstance(TransactionRunner.class));
+    LogFileManager logFileManager = new LogFileManager("700", "600", TimeUnit.HOURS.toMillis(1), 104857600,
+                                                       1024 * 1024, fileMetaDataWriter,
+                                                       injector.getInstance(LocationFactory.class));
+    LogPathIdentifier logPathIdentifier = new LogPathIdentifier("test", "testApp", "testMdcIndex");
+    long timestamp = System.currentTimeMillis();
+    LogFileOutputStream outputStream = logFileManager.getLogFileOutputStream(logPathIdentifier, timestamp);
+    Logger logger = (Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
+
+    // Write three segments, one per run, with too many distinct values of the "task" key in the last segment
+    for (int segment = 0; segment < 3; segment++) {
+      for (int i = 0; i < 20; i++) {
+        LoggingEvent event = getLoggingEvent("io.cdap.Test", logger, Level.INFO, "message " + segment + " " + i);
+        event.setTimeStamp(timestamp + segment * 20 + i);
+        event.setMDCPropertyMap(ImmutableMap.of(".runId", "run" + segment,
+                                                "task", segment == 2 ? "task" + i : "task"));
+        outputStream.append(event);
+      }
+      outputStream.flush();
+    }
+    logFileManager.close();
+
+    List<LogFileIndex.Segment> segments = LogFileIndex.read(outputStream.getLocation());
+    Assert.assertNotNull(segments);
+    Assert.assertEquals(3, segments.size());
+    Assert.assertTrue(segments.get(1).mayContainMdc(".runId", "run1"));
+    Assert.assertFalse(segments.get(1).mayContainMdc(".runId", "run0"));
+    Assert.assertFalse(segments.get(1).mayContainMdc("other", "run1"));
+    Assert.assertFalse(segments.get(1).mayContainMdc("task", "task1"));
+    // Values of keys with too many values are not indexed
+    Assert.assertTrue(segments.get(2).mayContainMdc("task", "unknown"));
+
+    LogLocation logLocation = new LogLocation(LogLocation.VERSION_1, timestamp, timestamp,
+                                              outputStream.getLocation(), "test", null);
+    List<String> messages = readMessages(logLocation, new MdcExpression(".runId", "run1"), timestamp);
+    Assert.assertEquals(20, messages.size());
+    Assert.assertEquals("message 1 0", messages.get(0));
+    Assert.assertEquals(ImmutableList.of("message 2 3"),
+                        readMessages(logLocation, new AndFilter(ImmutableList.of(
+                          new MdcExpression(".runId", "run2"), new MdcExpression("task", "task3"))), timestamp));
+    Assert.assertTrue(readMessages(logLocation, new MdcExpression(".runId", "run3"), timestamp).isEmpty());
+
+    Collection<LogEvent> events = logLocation.readLogPrev(new MdcExpression(".runId", "run0"), timestamp + 100, 5);
+    Assert.assertEquals(5, events.size());
+    Assert.assertEquals("message 0 15", events.iterator().next().getLoggingEvent().getFormattedMessage());
+  }
+
+  @Test
+  public void testReadPagesWithSameTimestamp() throws Exception {
+    FileMetaDataWriter fileMetaDataWriter = new FileMetaDataWriter(injector.getInstance(TransactionRunner.class));
+    LogFileManager logFileManager = new LogFileManager("700", "600", TimeUnit.HOURS.toMillis(1), 104857600,
+                                                       1024 * 1024, fileMetaDataWriter,
+                                                       injector.getInstance(LocationFactory.class));
+    LoggingContext loggingContext = new WorkerLoggingContext("test", "testApp", "testPages", "run1", "instance1");
+    LogPathIdentifier logPathIdentifier = LoggingContextHelper.getLogPathIdentifier(loggingContext);
+    Logger logger = (Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
+    long timestamp = System.currentTimeMillis();
+
+    // Write three files, with all but the first event of each file having the same timestamp
+    List<String> messages = new ArrayList<>();
+    for (int file = 0; file < 3; file++) {
+      long fileTimestamp = timestamp + file * 10;
+      LogFileOutputStream outputStream = logFileManager.getLogFileOutputStream(logPathIdentifier, fileTimestamp);
+      for (int i = 0; i < 4; i++) {
+        String message = "message " + file + " " + i;
+        LoggingEvent event = getLoggingEvent("io.cdap.Test", logger, Level.INFO, message);
+        event.setTimeStamp(i == 0 ? fileTimestamp : fileTimestamp + 1);
+        event.setMDCPropertyMap(loggingContext.getSystemTagsAsString());
+        outputStream.append(event);
+        messages.add(message);
+      }
+      // The next event is written to a new file
+      logFileManager.close();
+    }
+
+    // Page through the files with less events per page than there are events with the same timestamp
+    CConfiguration cConf = CConfiguration.create();
+    cConf.setInt(Constants.LogQuery.FILE_READ_PARALLELISM, 3);
+    FileLogReader logReader = new FileLogReader(cConf, injector.getInstance(FileMetaDataReader.class));
+    List<String> readMessages = new ArrayList<>();
+    ReadRange readRange = new ReadRange(timestamp - 1, Long.MAX_VALUE, LogOffset.INVALID_KAFKA_OFFSET);
+    for (int page = 0; page < messages.size(); page++) {
+      LoggingTester.LogCallback callback = new LoggingTester.LogCallback();
+      logReader.getLogNext(loggingContext, readRange, 3, Filter.EMPTY_FILTER, callback);
+      if (callback.getEvents().isEmpty()) {
+        break;
+      }
+      for (LogEvent event : callback.getEvents()) {
+        readMessages.add(event.getLoggingEvent().getFormattedMessage());
+      }
+      // The next page starts after the timestamp of the last event
+      readRange = ReadRange.createFromRange(callback.getLastOffset());
+    }
+    Assert.assertEquals(messages, readMessages);
+  }
+
+  private List<String> readMessages(LogLocation logLocation, Filter filter, long fromTimeMs) {
+    List<String> messages = new ArrayList<>();
+    try (CloseableIterator<LogEvent> iterator = logLocation.readLog(filter, fromTimeMs, Long.MAX_VALUE, 100)) {
+      while (iterator.hasNext()) {
+        messages.add(iterator.next().getLoggingEvent().getFormattedMessage());
+      }
+    }
+    return messages;
+  }
+
   private LoggingEvent getLoggingEvent(String fqcn, Logger logger, Level level, String message) {
     return new LoggingEvent(fqcn, logger, level, message, null, null);
   }
@@ -32,7 +32,9 @@ import org.junit.ClassRule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -72,6 +74,28 @@ public class LogBufferReaderTest {
     reader.close();
   }
 
+  @Test
+  public void testPartialEvent() throws Exception {
+    String absolutePath = TMP_FOLDER.newFolder().getAbsolutePath();
+
+    LogBufferWriter writer = new LogBufferWriter(absolutePath, 100000, true, () -> { });
+    ImmutableList<byte[]> events = getLoggingEvents();
+    writer.write(events.iterator());
+    writer.close();
+
+    // truncate the last event, as if the process failed while writing it
+    File file = new File(absolutePath, "0.buf");
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(file.length() - 3);
+    }
+
+    List<LogBufferEvent> logBufferEvents = new LinkedList<>();
+    try (LogBufferReader reader = new LogBufferReader(absolutePath, 10, 0, -1, -1)) {
+      Assert.assertEquals(events.size() - 1, reader.readEvents(logBufferEvents));
+    }
+    Assert.assertEquals("4", logBufferEvents.get(logBufferEvents.size() - 1).getLogEvent().getMessage());
+  }
+
   private void verifyEvents(List<LogBufferEvent> logBufferEvents, LogBufferReader reader,
                             Iterator<LogBufferEvent> iterator) throws IOException {
     while (reader.readEvents(logBufferEvents) > 0) {
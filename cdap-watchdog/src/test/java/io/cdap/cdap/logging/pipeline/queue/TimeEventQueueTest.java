@@ -16,10 +16,15 @@
 
 package io.cdap.cdap.logging.pipeline.queue;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import org.junit.Assert;
+import org.junit.ClassRule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -32,6 +37,9 @@ import java.util.Objects;
  */
 public class TimeEventQueueTest {
 
+  @ClassRule
+  public static final TemporaryFolder TMP_FOLDER = new TemporaryFolder();
+
   @Test
   public void testOrdering() {
     TimeEventQueue<TimestampedEvent, Integer> eventQueue = new TimeEventQueue<>(ImmutableSet.of(1, 3));
@@ -143,6 +151,122 @@ public class TimeEventQueueTest {
     Assert.assertTrue(eventQueue.isEmpty());
   }
 
+  @Test
+  public void testSpill() throws Exception {
+    File spillDir = TMP_FOLDER.newFolder();
+    EventSpillStore<String> spillStore = createSpillStore(spillDir, Long.MAX_VALUE);
+    // Keep up to 3 events of size 10 in memory
+    TimeEventQueue<String, Integer> eventQueue = new TimeEventQueue<>(ImmutableSet.of(1, 2), 30, spillStore);
+
+    // Insert 10 events, with timestamps going back and forth. The first 3 are kept in memory.
+    for (int i = 0; i < 10; i++) {
+      long timestamp = i % 2 == 0 ? 100 - i : i;
+      eventQueue.add(String.format("message%03d", timestamp), timestamp, 10, i % 2 + 1, i);
+    }
+    Assert.assertEquals(10, eventQueue.size());
+    Assert.assertEquals(100, eventQueue.getEventSize());
+    Assert.assertEquals(30, eventQueue.getMemoryEventSize());
+    Assert.assertEquals(70, spillStore.getSize());
+    Assert.assertEquals("message001", eventQueue.first());
+
+    // Events from memory and disk should be time ordered
+    List<String> messages = new ArrayList<>();
+    TimeEventQueue.EventIterator<String, Integer> iterator = eventQueue.iterator();
+    while (iterator.hasNext()) {
+      String message = iterator.next();
+      messages.add(message);
+      // Even timestamps are in partition 1, odd ones in partition 2
+      Assert.assertEquals(Integer.parseInt(message.substring(7)) % 2 == 0 ? 1 : 2, iterator.getPartition());
+      iterator.remove();
+    }
+    Assert.assertEquals(ImmutableList.of("message001", "message003", "message005", "message007", "message009",
+                                         "message092", "message094", "message096", "message098", "message100"),
+                        messages);
+    Assert.assertTrue(eventQueue.isEmpty());
+    Assert.assertEquals(0, eventQueue.getEventSize());
+    Assert.assertEquals(0, eventQueue.getMemoryEventSize());
+    Assert.assertEquals(0, spillStore.getSize());
+
+    // Only the current segment is left
+    File[] dirs = spillDir.listFiles();
+    Assert.assertNotNull(dirs);
+    Assert.assertEquals(1, dirs.length);
+    Assert.assertEquals(1, dirs[0].list((dir, name) -> name.endsWith(".spill")).length);
+
+    eventQueue.close();
+    Assert.assertEquals(0, spillDir.list().length);
+  }
+
+  private EventSpillStore<String> createSpillStore(File spillDir, long maxSize) {
+    // Segments of 20 bytes, so that each segment holds two events
+    return new EventSpillStore<>(spillDir, "test-", maxSize, 20, s -> s.getBytes(StandardCharsets.UTF_8),
+                                 b -> StandardCharsets.UTF_8.decode(b).toString());
+  }
+
+  @Test
+  public void testSpillLimit() throws Exception {
+    File spillDir = TMP_FOLDER.newFolder();
+    EventSpillStore<String> spillStore = createSpillStore(spillDir, 30);
+    TimeEventQueue<String, Integer> eventQueue = new TimeEventQueue<>(ImmutableSet.of(1), 10, spillStore);
+
+    // The first event is kept in memory, the next three are spilled, and the rest are kept in memory
+    for (int i = 0; i < 6; i++) {
+      eventQueue.add(String.format("message%03d", i), i, 10, 1, i);
+    }
+    Assert.assertEquals(30, spillStore.getDiskSize());
+    Assert.assertTrue(spillStore.isFull());
+    Assert.assertEquals(30, eventQueue.getMemoryEventSize());
+
+    // Removing the spilled events in the first segment frees its space, while the space in the current segment is
+    // only freed once it is drained
+    TimeEventQueue.EventIterator<String, Integer> iterator = eventQueue.iterator();
+    for (int i = 0; i < 3; i++) {
+      Assert.assertEquals(String.format("message%03d", i), iterator.next());
+      iterator.remove();
+    }
+    Assert.assertEquals(10, spillStore.getDiskSize());
+    Assert.assertFalse(spillStore.isFull());
+    Assert.assertEquals(10, spillStore.getSize());
+
+    Assert.assertEquals("message003", iterator.next());
+    iterator.remove();
+    Assert.assertEquals(0, spillStore.getDiskSize());
+    eventQueue.close();
+  }
+
+  @Test
+  public void testStaleSpillDirectory() throws Exception {
+    File spillDir = TMP_FOLDER.newFolder();
+    EventSpillStore<String> spillStore = createSpillStore(spillDir, Long.MAX_VALUE);
+    TimeEventQueue<String, Integer> eventQueue = new TimeEventQueue<>(ImmutableSet.of(1), 0, spillStore);
+    eventQueue.add("message", 1, 10, 1, 1);
+
+    // A store with the same prefix must not delete the directory of a store that is still open
+    EventSpillStore<String> otherStore = createSpillStore(spillDir, Long.MAX_VALUE);
+    File[] dirs = spillDir.listFiles();
+    Assert.assertNotNull(dirs);
+    Assert.assertEquals(1, dirs.length);
+    Assert.assertEquals("message", eventQueue.first());
+
+    // Simulate a directory left behind by a process that crashed
+    File staleDir = new File(spillDir, "test-1234");
+    Assert.assertTrue(staleDir.mkdirs());
+    Assert.assertTrue(new File(staleDir, "spill.lock").createNewFile());
+    Assert.assertTrue(new File(staleDir, "0.spill").createNewFile());
+    // A directory of a store with a different prefix should be kept
+    File otherDir = new File(spillDir, "test-other-1234");
+    Assert.assertTrue(otherDir.mkdirs());
+    Assert.assertTrue(new File(otherDir, "spill.lock").createNewFile());
+
+    createSpillStore(spillDir, Long.MAX_VALUE).close();
+    Assert.assertFalse(staleDir.exists());
+    Assert.assertTrue(otherDir.exists());
+    Assert.assertEquals("message", eventQueue.first());
+
+    otherStore.close();
+    eventQueue.close();
+  }
+
   @Test (expected = IllegalArgumentException.class)
   public void testInvalidPartition() {
     TimeEventQueue<String, Integer> eventQueue = new TimeEventQueue<>(Collections.singleton(1));
@@ -0,0 +1,116 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.cdap.logging.read;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for reading log files concurrently in {@link FileLogReader}.
+ */
+public class FileLogReaderTest {
+
+  private static final int PARALLELISM = 3;
+  private static ExecutorService executor;
+
+  @BeforeClass
+  public static void init() {
+    executor = Executors.newCachedThreadPool();
+  }
+
+  @AfterClass
+  public static void finish() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testReadOrder() throws Exception {
+    List<Integer> files = createFiles(10);
+    CountDownLatch started = new CountDownLatch(PARALLELISM);
+    List<Integer> results = new ArrayList<>();
+
+    FileLogReader.readFiles(executor, PARALLELISM, files, file -> {
+      started.countDown();
+      if (file == 0) {
+        // The first file only completes when the files after it are being read concurrently
+        Assert.assertTrue(Uninterruptibles.awaitUninterruptibly(started, 10, TimeUnit.SECONDS));
+      }
+      // Files complete in reverse order within each read ahead window
+      Uninterruptibles.sleepUninterruptibly(PARALLELISM - file % PARALLELISM, TimeUnit.MILLISECONDS);
+      return file;
+    }, results::add);
+
+    // Results are consumed in the order of the files
+    Assert.assertEquals(files, results);
+  }
+
+  @Test
+  public void testStopEarly() throws Exception {
+    List<Integer> files = createFiles(10);
+    Set<Integer> readFiles = ConcurrentHashMap.newKeySet();
+    CountDownLatch started = new CountDownLatch(PARALLELISM);
+    CountDownLatch interrupted = new CountDownLatch(PARALLELISM - 1);
+    List<Integer> results = new ArrayList<>();
+
+    FileLogReader.readFiles(executor, PARALLELISM, files, file -> {
+      readFiles.add(file);
+      started.countDown();
+      if (file == 0) {
+        Assert.assertTrue(Uninterruptibles.awaitUninterruptibly(started, 10, TimeUnit.SECONDS));
+        return file;
+      }
+      // Files after the first one block until the read is cancelled
+      try {
+        TimeUnit.MINUTES.sleep(1);
+      } catch (InterruptedException e) {
+        interrupted.countDown();
+      }
+      return file;
+    }, file -> {
+      results.add(file);
+      // Stop after the first file
+      return false;
+    });
+
+    Assert.assertEquals(ImmutableList.of(0), results);
+    // Files being read ahead are interrupted, and no more files are read
+    Assert.assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+    Assert.assertEquals(ImmutableSet.of(0, 1, 2), readFiles);
+  }
+
+  private List<Integer> createFiles(int count) {
+    List<Integer> files = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      files.add(i);
+    }
+    return files;
+  }
+}
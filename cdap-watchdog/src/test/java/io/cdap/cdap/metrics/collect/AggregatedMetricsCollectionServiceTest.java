@@ -26,11 +26,16 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
@@ -139,6 +144,107 @@ public class AggregatedMetricsCollectionServiceTest {
     }
   }
 
+  @Test
+  public void testConcurrentIncrement() throws Exception {
+    final BlockingQueue<MetricValues> published = new LinkedBlockingQueue<>();
+
+    AggregatedMetricsCollectionService service = new AggregatedMetricsCollectionService(100L) {
+      @Override
+      protected void publish(Iterator<MetricValues> metrics) {
+        Iterators.addAll(published, metrics);
+      }
+    };
+
+    service.startAndWait();
+    try {
+      final MetricsContext context = service.getContext(ImmutableMap.of(Constants.Metrics.Tag.NAMESPACE, NAMESPACE));
+      int threads = 8;
+      final int increments = 100000;
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+          futures.add(executor.submit(() -> {
+            for (int j = 0; j < increments; j++) {
+              context.increment(METRIC, 1);
+            }
+          }));
+        }
+        for (Future<?> future : futures) {
+          future.get(30, TimeUnit.SECONDS);
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+
+      // All increments across publish intervals should be published exactly once
+      verifyCounterMetricsValue(published, ImmutableMap.of(1, ImmutableMap.of(METRIC, (long) threads * increments)));
+    } finally {
+      service.stopAndWait();
+    }
+  }
+
+  @Test
+  public void testDeactivateWithConcurrentUpdates() throws Exception {
+    final BlockingQueue<MetricValues> published = new LinkedBlockingQueue<>();
+
+    // The service is not started, metrics are published by calling publishMetrics directly
+    AggregatedMetricsCollectionService service = new AggregatedMetricsCollectionService(100L) {
+      @Override
+      protected void publish(Iterator<MetricValues> metrics) {
+        Iterators.addAll(published, metrics);
+      }
+    };
+
+    // Many contexts with sparse updates, so that contexts get deactivated while being updated
+    final List<MetricsContext> contexts = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      contexts.add(service.getContext(ImmutableMap.of(Constants.Metrics.Tag.NAMESPACE, NAMESPACE,
+                                                      Constants.Metrics.Tag.INSTANCE_ID, String.valueOf(i))));
+    }
+    int threads = 4;
+    final int rounds = 200;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        futures.add(executor.submit(() -> {
+          for (int j = 0; j < rounds; j++) {
+            for (MetricsContext context : contexts) {
+              context.increment(METRIC, 1);
+            }
+          }
+        }));
+      }
+
+      // Publish as if the contexts had no update for longer than the expiration, so that they get deactivated
+      // whenever there is nothing to emit for them
+      long time = System.currentTimeMillis();
+      for (Future<?> future : futures) {
+        while (!future.isDone()) {
+          time += TimeUnit.MINUTES.toMillis(2);
+          service.publishMetrics(time);
+        }
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // Updates after the last deactivation are still published
+    for (MetricsContext context : contexts) {
+      context.increment(METRIC, 1);
+    }
+    service.publishMetrics(System.currentTimeMillis());
+    long total = 0;
+    MetricValues metricValues;
+    while ((metricValues = published.poll()) != null) {
+      Long value = getMetricValue(metricValues.getMetrics(), METRIC);
+      total += value == null ? 0 : value;
+    }
+    Assert.assertEquals(contexts.size() * (threads * rounds + 1L), total);
+  }
+
   private void verifyCounterMetricsValue(BlockingQueue<MetricValues> published,
                                          Map<Integer, Map<String, Long>> expected) throws InterruptedException {
     Map<Integer, Map<String, Long>> received = new HashMap<>();
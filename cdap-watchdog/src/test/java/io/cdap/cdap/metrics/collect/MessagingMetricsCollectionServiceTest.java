@@ -77,6 +77,37 @@ public class MessagingMetricsCollectionServiceTest extends MetricsTestBase {
     assertMetricsFromMessaging(schema, recordReader, expected);
   }
 
+  @Test
+  public void testCombinedPublish() throws TopicNotFoundException {
+    CConfiguration cConf = CConfiguration.create();
+    cConf.set(Constants.Metrics.PUBLISH_COMBINE_DROP_TAGS, Constants.Metrics.Tag.INSTANCE_ID);
+    cConf.setLong(Constants.Metrics.PUBLISH_COMBINE_WINDOW_SECONDS, 3600L);
+    cConf.setInt(Constants.Metrics.PUBLISH_BATCH_SIZE, 10);
+    cConf.setInt(Constants.Metrics.MESSAGING_TOPIC_NUM, 1);
+
+    MetricsCollectionService collectionService = new MessagingMetricsCollectionService(cConf, messagingService,
+                                                                                       recordWriter);
+    collectionService.startAndWait();
+
+    // contexts only differ by the instance id are combined
+    for (int i = 1; i <= 3; i++) {
+      collectionService.getContext(ImmutableMap.of("tag", "1", Constants.Metrics.Tag.INSTANCE_ID, "" + i))
+        .increment("processed", i);
+      collectionService.getContext(ImmutableMap.of("tag", "2", Constants.Metrics.Tag.INSTANCE_ID, "" + i))
+        .gauge("queued", 5L);
+    }
+
+    // the combined metrics are published when the service stops
+    collectionService.stopAndWait();
+
+    Table<String, String, Long> expected = HashBasedTable.create();
+    expected.put("tag.1", "processed", 6L);
+    expected.put("tag.2", "queued", 5L);
+
+    ReflectionDatumReader<MetricValues> recordReader = new ReflectionDatumReader<>(schema, metricValueType);
+    assertMetricsFromMessaging(schema, recordReader, expected);
+  }
+
   private void assertMetricsFromMessaging(final Schema schema,
                                           ReflectionDatumReader recordReader,
                                           Table<String, String, Long> expected) throws TopicNotFoundException {
@@ -88,20 +119,24 @@ public class MessagingMetricsCollectionServiceTest extends MetricsTestBase {
       try (CloseableIterator<RawMessage> iterator = messagingService.prepareFetch(topicId).fetch()) {
         while (iterator.hasNext()) {
           RawMessage message = iterator.next();
-          MetricValues metricsRecord = (MetricValues) recordReader.read(
-            new BinaryDecoder(new ByteArrayInputStream(message.getPayload())), schema);
-          StringBuilder flattenContext = new StringBuilder();
-          // for verifying expected results, sorting tags
-          Map<String, String> tags = Maps.newTreeMap();
-          tags.putAll(metricsRecord.getTags());
-          for (Map.Entry<String, String> tag : tags.entrySet()) {
-            flattenContext.append(tag.getKey()).append(".").append(tag.getValue()).append(".");
-          }
-          // removing trailing "."
-          if (flattenContext.length() > 0) {
-            flattenContext.deleteCharAt(flattenContext.length() - 1);
+          // a message can carry multiple metrics records
+          ByteArrayInputStream input = new ByteArrayInputStream(message.getPayload());
+          BinaryDecoder decoder = new BinaryDecoder(input);
+          while (input.available() > 0) {
+            MetricValues metricsRecord = (MetricValues) recordReader.read(decoder, schema);
+            StringBuilder flattenContext = new StringBuilder();
+            // for verifying expected results, sorting tags
+            Map<String, String> tags = Maps.newTreeMap();
+            tags.putAll(metricsRecord.getTags());
+            for (Map.Entry<String, String> tag : tags.entrySet()) {
+              flattenContext.append(tag.getKey()).append(".").append(tag.getValue()).append(".");
+            }
+            // removing trailing "."
+            if (flattenContext.length() > 0) {
+              flattenContext.deleteCharAt(flattenContext.length() - 1);
+            }
+            metrics.put(flattenContext.toString(), metricsRecord);
           }
-          metrics.put(flattenContext.toString(), metricsRecord);
         }
       } catch (IOException e) {
         LOG.info("Failed to decode message to MetricValue. Skipped. {}", e.getMessage());
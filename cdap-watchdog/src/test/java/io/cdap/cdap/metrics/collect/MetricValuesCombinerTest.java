@@ -0,0 +1,71 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.cdap.metrics.collect;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import io.cdap.cdap.api.metrics.MetricType;
+import io.cdap.cdap.api.metrics.MetricValue;
+import io.cdap.cdap.api.metrics.MetricValues;
+import io.cdap.cdap.common.conf.Constants;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Iterator;
+
+/**
+ * Tests for {@link MetricValuesCombiner}.
+ */
+public class MetricValuesCombinerTest {
+
+  @Test
+  public void testIdleWindow() {
+    MetricValuesCombiner combiner = new MetricValuesCombiner(ImmutableSet.of(Constants.Metrics.Tag.INSTANCE_ID), 10);
+
+    // Contexts that only differ by the instance id are combined
+    combiner.add(createCounter("1", 100L, 1L));
+    Assert.assertFalse(combiner.flush(1000L, false).hasNext());
+    combiner.add(createCounter("2", 104L, 2L));
+    Assert.assertFalse(combiner.flush(1005L, false).hasNext());
+
+    // The window is closed by the wall clock time, even if no more metrics are added
+    Iterator<MetricValues> iterator = combiner.flush(1010L, false);
+    Assert.assertTrue(iterator.hasNext());
+    MetricValues metricValues = iterator.next();
+    Assert.assertFalse(iterator.hasNext());
+    Assert.assertEquals(ImmutableMap.of("tag", "value"), metricValues.getTags());
+    Assert.assertEquals(104L, metricValues.getTimestamp());
+    MetricValue metricValue = ImmutableList.copyOf(metricValues.getMetrics()).get(0);
+    Assert.assertEquals(3L, metricValue.getValue());
+
+    // Nothing is held after the flush
+    Assert.assertFalse(combiner.flush(1100L, true).hasNext());
+
+    // A new window starts with the next flush that has metrics held, and metrics are returned when forced
+    combiner.add(createCounter("1", 1200L, 5L));
+    Assert.assertFalse(combiner.flush(2000L, false).hasNext());
+    iterator = combiner.flush(2001L, true);
+    Assert.assertTrue(iterator.hasNext());
+    Assert.assertEquals(5L, ImmutableList.copyOf(iterator.next().getMetrics()).get(0).getValue());
+  }
+
+  private MetricValues createCounter(String instance, long timestamp, long value) {
+    return new MetricValues(ImmutableMap.of("tag", "value", Constants.Metrics.Tag.INSTANCE_ID, instance),
+                            "count", timestamp, value, MetricType.COUNTER);
+  }
+}
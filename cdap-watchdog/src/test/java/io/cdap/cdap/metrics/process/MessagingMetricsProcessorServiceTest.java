@@ -45,9 +45,11 @@ import org.junit.Test;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -58,13 +60,7 @@ public class MessagingMetricsProcessorServiceTest extends MetricsProcessorServic
 
   @Test
   public void persistMetricsTests() throws Exception {
-
-    injector.getInstance(TransactionManager.class).startAndWait();
-    StructuredTableRegistry structuredTableRegistry = injector.getInstance(StructuredTableRegistry.class);
-    structuredTableRegistry.initialize();
-    StoreDefinition.createAllTables(injector.getInstance(StructuredTableAdmin.class), structuredTableRegistry);
-    injector.getInstance(DatasetOpExecutorService.class).startAndWait();
-    injector.getInstance(DatasetService.class).startAndWait();
+    startServices();
 
     Set<Integer> partitions = IntStream.range(0, cConf.getInt(Constants.Metrics.MESSAGING_TOPIC_NUM))
       .boxed().collect(Collectors.toSet());
@@ -89,8 +85,9 @@ public class MessagingMetricsProcessorServiceTest extends MetricsProcessorServic
       MessagingMetricsProcessorService messagingMetricsProcessorService =
         new MessagingMetricsProcessorService(cConf, injector.getInstance(MetricDatasetFactory.class), messagingService,
                                              injector.getInstance(SchemaGenerator.class),
-                                             injector.getInstance(DatumReaderFactory.class), metricStore,
-                                             partitions, new NoopMetricsContext(), 50, 0);
+                                             injector.getInstance(DatumReaderFactory.class), () -> metricStore,
+                                             new MetricsExportSnapshot(cConf), partitions, new NoopMetricsContext(),
+                                             50, 0);
       messagingMetricsProcessorService.startAndWait();
 
       // Wait for the 1 aggregated counter metric (with value 50) and 50 gauge metrics to be stored in the metricStore
@@ -124,6 +121,95 @@ public class MessagingMetricsProcessorServiceTest extends MetricsProcessorServic
     }
   }
 
+  @Test
+  public void testPackedMessages() throws Exception {
+    startServices();
+
+    Set<Integer> partitions = IntStream.range(0, cConf.getInt(Constants.Metrics.MESSAGING_TOPIC_NUM))
+      .boxed().collect(Collectors.toSet());
+    long startTime = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+
+    // Each message carries 10 gauges and 10 counters, as packed by publishers
+    for (int i = 0; i < 5; i++) {
+      List<Integer> indices = IntStream.range(i * 10, i * 10 + 10).boxed().collect(Collectors.toList());
+      publishPackedMessagingMetrics(indices, startTime, METRICS_CONTEXT, expected, "", MetricType.GAUGE);
+      publishPackedMessagingMetrics(indices, startTime, METRICS_CONTEXT, expected, "", MetricType.COUNTER);
+    }
+
+    MockMetricStore metricStore = new MockMetricStore();
+    MessagingMetricsProcessorService messagingMetricsProcessorService =
+      new MessagingMetricsProcessorService(cConf, injector.getInstance(MetricDatasetFactory.class), messagingService,
+                                           injector.getInstance(SchemaGenerator.class),
+                                           injector.getInstance(DatumReaderFactory.class), () -> metricStore,
+                                           new MetricsExportSnapshot(cConf), partitions, new NoopMetricsContext(),
+                                           50, 0);
+    messagingMetricsProcessorService.startAndWait();
+    try {
+      // All metrics in the messages are processed: 50 gauges and the aggregated counter
+      Tasks.waitFor(51, () -> metricStore.getAllMetrics().size(), 15, TimeUnit.SECONDS, 100, TimeUnit.MILLISECONDS);
+      Tasks.waitFor(50L, () -> metricStore.getAllMetrics().get(COUNTER_METRIC_NAME),
+                    15, TimeUnit.SECONDS, 100, TimeUnit.MILLISECONDS);
+      assertMetricsResult(expected, metricStore.getAllMetrics());
+    } finally {
+      messagingMetricsProcessorService.stopAndWait();
+    }
+  }
+
+  @Test
+  public void testPersistFailure() throws Exception {
+    startServices();
+
+    Set<Integer> partitions = IntStream.range(0, cConf.getInt(Constants.Metrics.MESSAGING_TOPIC_NUM))
+      .boxed().collect(Collectors.toSet());
+    long startTime = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+
+    for (int i = 0; i < 50; i++) {
+      publishMessagingMetrics(i, startTime, METRICS_CONTEXT, expected, "", MetricType.COUNTER);
+    }
+
+    // The metric store fails the first writes. The metrics of a failed write are fetched again from the topics,
+    // and each of them must be counted exactly once.
+    AtomicInteger failures = new AtomicInteger(3);
+    MockMetricStore metricStore = new MockMetricStore() {
+      @Override
+      public void add(Collection<? extends MetricValues> metricValues) {
+        if (failures.getAndDecrement() > 0) {
+          throw new RuntimeException("Failed to add metrics");
+        }
+        super.add(metricValues);
+      }
+    };
+    MessagingMetricsProcessorService messagingMetricsProcessorService =
+      new MessagingMetricsProcessorService(cConf, injector.getInstance(MetricDatasetFactory.class), messagingService,
+                                           injector.getInstance(SchemaGenerator.class),
+                                           injector.getInstance(DatumReaderFactory.class), () -> metricStore,
+                                           new MetricsExportSnapshot(cConf), partitions, new NoopMetricsContext(),
+                                           50, 0);
+    messagingMetricsProcessorService.startAndWait();
+    try {
+      Tasks.waitFor(50L, () -> metricStore.getAllMetrics().get(COUNTER_METRIC_NAME),
+                    15, TimeUnit.SECONDS, 100, TimeUnit.MILLISECONDS);
+      Assert.assertTrue(failures.get() < 0);
+
+      // publish one more metric and make sure that the metrics of the failed writes are not added again
+      publishMessagingMetrics(50, startTime, METRICS_CONTEXT, expected, "", MetricType.COUNTER);
+      Tasks.waitFor(51L, () -> metricStore.getAllMetrics().get(COUNTER_METRIC_NAME),
+                    15, TimeUnit.SECONDS, 100, TimeUnit.MILLISECONDS);
+      assertMetricsResult(expected, metricStore.getAllMetrics());
+    } finally {
+      messagingMetricsProcessorService.stopAndWait();
+    }
+  }
+
+  private void startServices() throws Exception {
+    injector.getInstance(TransactionManager.class).startAndWait();
+    StructuredTableRegistry structuredTableRegistry = injector.getInstance(StructuredTableRegistry.class);
+    structuredTableRegistry.initialize();
+    StoreDefinition.createAllTables(injector.getInstance(StructuredTableAdmin.class), structuredTableRegistry);
+    injector.getInstance(DatasetOpExecutorService.class).startAndWait();
+    injector.getInstance(DatasetService.class).startAndWait();
+  }
+
   private void assertMetricsResult(Map<String, Long> expected, Map<String, Long> actual) {
     for (Map.Entry<String, Long> metric : expected.entrySet()) {
       Long actualValue = actual.get(metric.getKey());
@@ -0,0 +1,119 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.cdap.metrics.process;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.reflect.TypeToken;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.cdap.api.metrics.MetricType;
+import io.cdap.cdap.api.metrics.MetricValue;
+import io.cdap.cdap.api.metrics.MetricValues;
+import io.cdap.cdap.common.io.BinaryDecoder;
+import io.cdap.cdap.common.io.BinaryEncoder;
+import io.cdap.cdap.common.io.DatumReader;
+import io.cdap.cdap.internal.io.ReflectionDatumReader;
+import io.cdap.cdap.internal.io.ReflectionDatumWriter;
+import io.cdap.cdap.internal.io.ReflectionSchemaGenerator;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Unit test for {@link MetricValuesDatumReader}.
+ */
+public class MetricValuesDatumReaderTest {
+
+  private static final TypeToken<MetricValues> TYPE = TypeToken.of(MetricValues.class);
+
+  @Test
+  public void testRead() throws Exception {
+    Schema schema = new ReflectionSchemaGenerator().generate(MetricValues.class);
+    List<MetricValues> metrics = ImmutableList.of(
+      new MetricValues(ImmutableMap.of("ns", "system", "cmp", "appfabric"), 10L,
+                       ImmutableList.of(new MetricValue("system.requests", MetricType.COUNTER, 3L),
+                                        new MetricValue("system.queue", MetricType.GAUGE, -5L))),
+      new MetricValues(ImmutableMap.of("ns", "system", "cmp", "router"), "system.requests", 11L, 4L,
+                       MetricType.COUNTER),
+      new MetricValues(Collections.emptyMap(), 12L, Collections.emptyList())
+    );
+
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    ReflectionDatumWriter<MetricValues> writer = new ReflectionDatumWriter<>(schema);
+    for (MetricValues metricValues : metrics) {
+      writer.encode(metricValues, new BinaryEncoder(os));
+    }
+
+    // Decodes the same way as the ReflectionDatumReader
+    DatumReader<MetricValues> reader = new MetricValuesDatumReader(schema, new ReflectionDatumReader<>(schema, TYPE));
+    List<MetricValues> expected = decodeAll(new ReflectionDatumReader<>(schema, TYPE), schema, os.toByteArray());
+    List<MetricValues> actual = decodeAll(reader, schema, os.toByteArray());
+    Assert.assertEquals(metrics.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(metrics.get(i), actual.get(i));
+      assertEquals(expected.get(i), actual.get(i));
+    }
+
+    // Repeated strings are interned
+    List<MetricValues> again = decodeAll(reader, schema, os.toByteArray());
+    Assert.assertSame(actual.get(0).getMetrics().iterator().next().getName(),
+                      again.get(0).getMetrics().iterator().next().getName());
+  }
+
+  @Test
+  public void testFallback() throws Exception {
+    // A schema that is not supported by the specialized reader
+    Schema schema = Schema.recordOf(MetricValues.class.getName(),
+                                    Schema.Field.of("tags", Schema.mapOf(Schema.of(Schema.Type.STRING),
+                                                                         Schema.of(Schema.Type.STRING))),
+                                    Schema.Field.of("metrics", Schema.arrayOf(Schema.of(Schema.Type.STRING))),
+                                    Schema.Field.of("timestamp", Schema.of(Schema.Type.LONG)));
+    MetricValues fallbackResult = new MetricValues(Collections.emptyMap(), 1L, Collections.emptyList());
+    DatumReader<MetricValues> reader = new MetricValuesDatumReader(schema, (decoder, sourceSchema) -> fallbackResult);
+    Assert.assertSame(fallbackResult, reader.read(new BinaryDecoder(new ByteArrayInputStream(new byte[0])), schema));
+  }
+
+  private List<MetricValues> decodeAll(DatumReader<MetricValues> reader, Schema schema,
+                                       byte[] bytes) throws Exception {
+    ByteArrayInputStream is = new ByteArrayInputStream(bytes);
+    BinaryDecoder decoder = new BinaryDecoder(is);
+    List<MetricValues> result = new ArrayList<>();
+    while (is.available() > 0) {
+      result.add(reader.read(decoder, schema));
+    }
+    return result;
+  }
+
+  private void assertEquals(MetricValues expected, MetricValues actual) {
+    Assert.assertEquals(expected.getTags(), actual.getTags());
+    Assert.assertEquals(expected.getTimestamp(), actual.getTimestamp());
+    Assert.assertEquals(expected.getMetrics().size(), actual.getMetrics().size());
+    List<MetricValue> actualMetrics = new ArrayList<>(actual.getMetrics());
+    int i = 0;
+    for (MetricValue metricValue : expected.getMetrics()) {
+      MetricValue actualValue = actualMetrics.get(i++);
+      Assert.assertEquals(metricValue.getName(), actualValue.getName());
+      Assert.assertEquals(metricValue.getType(), actualValue.getType());
+      Assert.assertEquals(metricValue.getValue(), actualValue.getValue());
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.cdap.metrics.process;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.cdap.cdap.api.metrics.MetricType;
+import io.cdap.cdap.api.metrics.MetricValues;
+import io.cdap.cdap.common.conf.CConfiguration;
+import io.cdap.cdap.common.conf.Constants;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Unit test for {@link MetricsExportSnapshot} and the formatting of {@link MetricsExportHandler}.
+ */
+public class MetricsExportSnapshotTest {
+
+  @Test
+  public void testDisabled() {
+    MetricsExportSnapshot snapshot = new MetricsExportSnapshot(CConfiguration.create());
+    Assert.assertFalse(snapshot.isEnabled());
+    snapshot.update(ImmutableList.of(new MetricValues(ImmutableMap.of("ns", "system"), "m", 1L, 1L,
+                                                      MetricType.COUNTER)));
+    Assert.assertFalse(snapshot.getMetricFamilies().hasNext());
+  }
+
+  @Test
+  public void testUpdate() {
+    CConfiguration cConf = CConfiguration.create();
+    cConf.set(Constants.MetricsProcessor.EXPORT_CONTEXTS, "ns=system ; ns=default,app=app1");
+    cConf.setInt(Constants.MetricsProcessor.EXPORT_MAX_SERIES, 3);
+    MetricsExportSnapshot snapshot = new MetricsExportSnapshot(cConf);
+    Assert.assertTrue(snapshot.isEnabled());
+
+    Map<String, String> systemTags = ImmutableMap.of("ns", "system", "cmp", "appfabric");
+    Map<String, String> appTags = ImmutableMap.of("ns", "default", "app", "app1");
+    snapshot.update(ImmutableList.of(
+      new MetricValues(systemTags, "system.requests", 10L, 2L, MetricType.COUNTER),
+      new MetricValues(systemTags, "system.requests", 11L, 3L, MetricType.COUNTER),
+      new MetricValues(appTags, "user.queue", 11L, 7L, MetricType.GAUGE),
+      // older gauge value is ignored
+      new MetricValues(appTags, "user.queue", 10L, 5L, MetricType.GAUGE),
+      // not in any exported context
+      new MetricValues(ImmutableMap.of("ns", "default", "app", "app2"), "user.queue", 10L, 1L, MetricType.GAUGE),
+      new MetricValues(ImmutableMap.of("ns", "default"), "user.queue", 10L, 1L, MetricType.GAUGE)
+    ));
+
+    Map<String, Map<Map<String, String>, Long>> values = new HashMap<>();
+    Iterator<MetricsExportSnapshot.MetricFamily> families = snapshot.getMetricFamilies();
+    while (families.hasNext()) {
+      MetricsExportSnapshot.MetricFamily family = families.next();
+      values.put(family.getName(), family.getValues());
+    }
+    Assert.assertEquals(ImmutableMap.of("system.requests", ImmutableMap.of(systemTags, 5L),
+                                        "user.queue", ImmutableMap.of(appTags, 7L)), values);
+
+    // only one more series fits into the snapshot, the "tms" one is dropped
+    snapshot.update(ImmutableList.of(
+      new MetricValues(ImmutableMap.of("ns", "system", "cmp", "router"), "system.requests", 12L, 1L,
+                       MetricType.COUNTER),
+      new MetricValues(ImmutableMap.of("ns", "system", "cmp", "tms"), "system.requests", 12L, 1L,
+                       MetricType.COUNTER)
+    ));
+    Map<Map<String, String>, Long> requests = snapshot.getMetricFamilies().next().getValues();
+    Assert.assertEquals(2, requests.size());
+    Assert.assertEquals(Long.valueOf(1L), requests.get(ImmutableMap.of("ns", "system", "cmp", "router")));
+  }
+
+  @Test
+  public void testFormat() {
+    CConfiguration cConf = CConfiguration.create();
+    cConf.set(Constants.MetricsProcessor.EXPORT_CONTEXTS, "ns=system");
+    MetricsExportSnapshot snapshot = new MetricsExportSnapshot(cConf);
+    snapshot.update(ImmutableList.of(
+      new MetricValues(ImmutableMap.of("ns", "system", "hnd", "a\"b"), "system.request.received", 1L, 4L,
+                       MetricType.COUNTER)));
+
+    StringBuilder builder = new StringBuilder();
+    MetricsExportHandler.writeMetricFamily(snapshot.getMetricFamilies().next(), builder);
+    String output = builder.toString();
+    Assert.assertTrue(output, output.startsWith("# TYPE cdap_system_request_received counter\n"));
+    Assert.assertTrue(output, output.contains("ns=\"system\""));
+    Assert.assertTrue(output, output.contains("hnd=\"a\\\"b\""));
+    Assert.assertTrue(output, output.endsWith("} 4\n"));
+  }
+}
@@ -68,6 +68,8 @@ public class MetricsProcessorServiceTest extends MetricsProcessorServiceTestBase
     injector.getInstance(DatasetService.class).startAndWait();
 
     final MetricStore metricStore = injector.getInstance(MetricStore.class);
+    // Process metrics with multiple shards, each persisting with its own MetricStore
+    cConf.setInt(Constants.Metrics.PROCESSOR_SHARDS, 3);
 
     Set<Integer> partitions = new HashSet<>();
     for (int i = 0; i < cConf.getInt(Constants.Metrics.MESSAGING_TOPIC_NUM); i++) {
@@ -81,7 +83,9 @@ public class MetricsProcessorServiceTest extends MetricsProcessorServiceTestBase
     MessagingMetricsProcessorService messagingMetricsProcessorService =
       new MessagingMetricsProcessorService(cConf, injector.getInstance(MetricDatasetFactory.class),
                                            messagingService, injector.getInstance(SchemaGenerator.class),
-                                           injector.getInstance(DatumReaderFactory.class), metricStore,
+                                           injector.getInstance(DatumReaderFactory.class),
+                                           injector.getProvider(MetricStore.class),
+                                           injector.getInstance(MetricsExportSnapshot.class),
                                            partitions, new NoopMetricsContext(), 50, 0);
     messagingMetricsProcessorService.startAndWait();
 
@@ -99,7 +103,9 @@ public class MetricsProcessorServiceTest extends MetricsProcessorServiceTestBase
     messagingMetricsProcessorService =
       new MessagingMetricsProcessorService(cConf, injector.getInstance(MetricDatasetFactory.class),
                                            messagingService, injector.getInstance(SchemaGenerator.class),
-                                           injector.getInstance(DatumReaderFactory.class), metricStore,
+                                           injector.getInstance(DatumReaderFactory.class),
+                                           injector.getProvider(MetricStore.class),
+                                           injector.getInstance(MetricsExportSnapshot.class),
                                            partitions, new NoopMetricsContext(), 50, 0);
     messagingMetricsProcessorService.startAndWait();
 
@@ -93,6 +93,29 @@ abstract class MetricsProcessorServiceTestBase extends MetricsTestBase {
     }
   }
 
+  /**
+   * Publishes the metrics of the given indices packed in one message, the same way as publishers do with
+   * {@link Constants.Metrics#PUBLISH_BATCH_SIZE}. The message is published to the topic of the first index.
+   */
+  void publishPackedMessagingMetrics(List<Integer> metricIndices, long startTimeSecs,
+                                     Map<String, String> metricsContext, Map<String, Long> expected,
+                                     String expectedMetricPrefix, MetricType metricType) {
+    try {
+      for (int metricIndex : metricIndices) {
+        getMetricValuesAddToExpected(metricIndex, startTimeSecs,
+                                     metricsContext, expected, expectedMetricPrefix, metricType);
+      }
+      int numOfTopics = cConf.getInt(Constants.Metrics.MESSAGING_TOPIC_NUM);
+      messagingService.publish(
+        StoreRequestBuilder.of(NamespaceId.SYSTEM.topic(TOPIC_PREFIX + (metricIndices.get(0) % numOfTopics)))
+          .addPayload(encoderOutputStream.toByteArray()).build());
+    } catch (Exception e) {
+      LOG.error("Failed to publish metrics with indices {} to messaging service", metricIndices, e);
+    } finally {
+      encoderOutputStream.reset();
+    }
+  }
+
   /**
    * Returns expected {@link MetricValues} of the given {@link MetricType}. Add the {@link MetricValues} to the
    * {@code expected} metrics map. If the {@link MetricValues} is of type {@code MetricType.COUNTER} and is present
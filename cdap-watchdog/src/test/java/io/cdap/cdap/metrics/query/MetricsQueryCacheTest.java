@@ -0,0 +1,179 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.cdap.metrics.query;
+
+import com.google.common.collect.ImmutableMap;
+import io.cdap.cdap.api.dataset.lib.cube.AggregationFunction;
+import io.cdap.cdap.api.dataset.lib.cube.TimeValue;
+import io.cdap.cdap.api.metrics.MetricDataQuery;
+import io.cdap.cdap.api.metrics.MetricDeleteQuery;
+import io.cdap.cdap.api.metrics.MetricSearchQuery;
+import io.cdap.cdap.api.metrics.MetricStore;
+import io.cdap.cdap.api.metrics.MetricTimeSeries;
+import io.cdap.cdap.api.metrics.MetricValues;
+import io.cdap.cdap.api.metrics.MetricsContext;
+import io.cdap.cdap.api.metrics.MetricsProcessorStatus;
+import io.cdap.cdap.api.metrics.TagValue;
+import io.cdap.cdap.common.conf.CConfiguration;
+import io.cdap.cdap.common.conf.Constants;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit test for {@link MetricsQueryCache}.
+ */
+public class MetricsQueryCacheTest {
+
+  private static final int RESOLUTION = 60;
+
+  @Test
+  public void testIncrementalQuery() {
+    CConfiguration cConf = CConfiguration.create();
+    cConf.setBoolean(Constants.Metrics.Query.CACHE_ENABLED, true);
+    cConf.setLong(Constants.Metrics.Query.CACHE_SETTLE_SECONDS, 120);
+    cConf.setLong(Constants.Metrics.Query.CACHE_MAX_AGE_SECONDS, 600);
+
+    long now = TimeUnit.MINUTES.toSeconds(TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis()));
+    TestMetricStore metricStore = new TestMetricStore();
+    for (long ts = now - 3600; ts <= now; ts += RESOLUTION) {
+      metricStore.data.put(ts, ts / RESOLUTION);
+    }
+    MetricsQueryCache cache = new MetricsQueryCache(metricStore, cConf);
+
+    // first query scans the whole range
+    MetricDataQuery query = createQuery(now - 600, now);
+    Assert.assertEquals(metricStore.query(query), cache.query(query, TimeUnit.SECONDS.toMillis(now)));
+    Assert.assertEquals(now - 600, metricStore.lastQueryStartTs);
+
+    // query for the next minute only scans from the first bucket that was not settled
+    long settledTs = now - 120 - RESOLUTION;
+    query = createQuery(now - 540, now + RESOLUTION);
+    metricStore.data.put(now + RESOLUTION, 1L);
+    Collection<MetricTimeSeries> result = cache.query(query, TimeUnit.SECONDS.toMillis(now + RESOLUTION));
+    Assert.assertEquals(settledTs + 1, metricStore.lastQueryStartTs);
+    Assert.assertEquals(metricStore.query(query), result);
+
+    // unsettled buckets are always scanned again
+    metricStore.data.put(now, 2L);
+    result = cache.query(query, TimeUnit.SECONDS.toMillis(now + RESOLUTION));
+    Assert.assertEquals(metricStore.query(query), result);
+
+    // a query starting before the cached range scans the whole range
+    query = createQuery(now - 1200, now + RESOLUTION);
+    Assert.assertEquals(metricStore.query(query), cache.query(query, TimeUnit.SECONDS.toMillis(now + RESOLUTION)));
+    Assert.assertEquals(now - 1200, metricStore.lastQueryStartTs);
+
+    // entry older than the max age scans the whole range
+    query = createQuery(now - 600, now + RESOLUTION);
+    cache.query(query, TimeUnit.SECONDS.toMillis(now + 700));
+    Assert.assertEquals(now - 600, metricStore.lastQueryStartTs);
+
+    // query with a limit smaller than the time range is not cached
+    query = new MetricDataQuery(now - 600, now, RESOLUTION, 5, ImmutableMap.of("system.m", AggregationFunction.SUM),
+                                Collections.emptyMap(), Collections.emptyList(), null);
+    cache.query(query, TimeUnit.SECONDS.toMillis(now));
+    cache.query(query, TimeUnit.SECONDS.toMillis(now));
+    Assert.assertEquals(now - 600, metricStore.lastQueryStartTs);
+  }
+
+  private MetricDataQuery createQuery(long startTs, long endTs) {
+    return new MetricDataQuery(startTs, endTs, RESOLUTION, Integer.MAX_VALUE,
+                               ImmutableMap.of("system.m", AggregationFunction.SUM),
+                               Collections.emptyMap(), Collections.emptyList(), null);
+  }
+
+  /**
+   * A {@link MetricStore} that serves a single time series from memory.
+   */
+  private static final class TestMetricStore implements MetricStore {
+
+    private final NavigableMap<Long, Long> data = new TreeMap<>();
+    private long lastQueryStartTs = -1;
+
+    @Override
+    public void setMetricsContext(MetricsContext metricsContext) {
+      // no-op
+    }
+
+    @Override
+    public void add(MetricValues metricValues) {
+      // no-op
+    }
+
+    @Override
+    public void add(Collection<? extends MetricValues> metricValues) {
+      // no-op
+    }
+
+    @Override
+    public Collection<MetricTimeSeries> query(MetricDataQuery query) {
+      lastQueryStartTs = query.getStartTs();
+      List<TimeValue> timeValues = new ArrayList<>();
+      for (Map.Entry<Long, Long> entry : data.subMap(query.getStartTs(), true, query.getEndTs(), true).entrySet()) {
+        timeValues.add(new TimeValue(entry.getKey(), entry.getValue()));
+      }
+      if (timeValues.isEmpty()) {
+        return Collections.emptyList();
+      }
+      return Collections.singletonList(new MetricTimeSeries("system.m", Collections.emptyMap(), timeValues));
+    }
+
+    @Override
+    public void deleteBefore(long timestamp) {
+      // no-op
+    }
+
+    @Override
+    public void deleteTTLExpired() {
+      // no-op
+    }
+
+    @Override
+    public void delete(MetricDeleteQuery query) {
+      // no-op
+    }
+
+    @Override
+    public void deleteAll() {
+      data.clear();
+    }
+
+    @Override
+    public Collection<TagValue> findNextAvailableTags(MetricSearchQuery query) {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public Collection<String> findMetricNames(MetricSearchQuery query) {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public Map<String, MetricsProcessorStatus> getMetricsProcessorStats() {
+      return Collections.emptyMap();
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.cdap.metrics.store;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import io.cdap.cdap.api.dataset.lib.cube.AggregationFunction;
+import io.cdap.cdap.api.dataset.lib.cube.TimeValue;
+import io.cdap.cdap.api.metrics.MetricDataQuery;
+import io.cdap.cdap.api.metrics.MetricTimeSeries;
+import io.cdap.cdap.api.metrics.MetricType;
+import io.cdap.cdap.api.metrics.MetricValues;
+import io.cdap.cdap.common.conf.CConfiguration;
+import io.cdap.cdap.common.conf.Constants;
+import io.cdap.cdap.data2.dataset2.lib.table.inmemory.InMemoryMetricsTable;
+import io.cdap.cdap.data2.dataset2.lib.table.inmemory.InMemoryTableService;
+import io.cdap.cdap.data2.dataset2.lib.timeseries.EntityTable;
+import io.cdap.cdap.data2.dataset2.lib.timeseries.FactTable;
+import io.cdap.cdap.metrics.process.MetricsConsumerMetaTable;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unit test for {@link DefaultMetricStore}.
+ */
+public class DefaultMetricStoreTest {
+
+  private static final Map<String, String> CONTEXT = ImmutableMap.of(Constants.Metrics.Tag.NAMESPACE, "ns1");
+  private static final long MINUTE_RETENTION_SECS = 3600;
+  // aligned to the hour resolution
+  private static final long NOW = 416666L * Constants.Metrics.HOUR_RESOLUTION;
+
+  @Test
+  public void testResolutionFallback() {
+    DefaultMetricStore metricStore = createMetricStore("fallback", true);
+
+    // a query starting before the minute retention is executed with the hour resolution for the whole range
+    Assert.assertEquals(ImmutableList.of(new TimeValue(NOW - 7200, 1), new TimeValue(NOW - 3600, 2)),
+                        query(metricStore, NOW - 3 * MINUTE_RETENTION_SECS));
+    Assert.assertEquals(Constants.Metrics.HOUR_RESOLUTION,
+                        metricStore.getEffectiveQuery(createQuery(NOW - 3 * MINUTE_RETENTION_SECS), NOW)
+                          .getResolution());
+
+    // a query within the minute retention is not changed
+    Assert.assertEquals(ImmutableList.of(new TimeValue(NOW - 1200, 1), new TimeValue(NOW - 600, 1)),
+                        query(metricStore, NOW - MINUTE_RETENTION_SECS));
+    Assert.assertEquals(Constants.Metrics.MINUTE_RESOLUTION,
+                        metricStore.getEffectiveQuery(createQuery(NOW - MINUTE_RETENTION_SECS), NOW).getResolution());
+  }
+
+  @Test
+  public void testResolutionFallbackDisabled() {
+    DefaultMetricStore metricStore = createMetricStore("noFallback", false);
+
+    // the query is executed with the minute resolution, which still has the data since nothing was deleted
+    Assert.assertEquals(ImmutableList.of(new TimeValue(NOW - 7200, 1), new TimeValue(NOW - 1200, 1),
+                                         new TimeValue(NOW - 600, 1)),
+                        query(metricStore, NOW - 3 * MINUTE_RETENTION_SECS));
+    Assert.assertEquals(Constants.Metrics.MINUTE_RESOLUTION,
+                        metricStore.getEffectiveQuery(createQuery(NOW - 3 * MINUTE_RETENTION_SECS), NOW)
+                          .getResolution());
+  }
+
+  private List<TimeValue> query(DefaultMetricStore metricStore, long startTs) {
+    Collection<MetricTimeSeries> result = metricStore.query(createQuery(startTs), NOW);
+    Assert.assertEquals(1, result.size());
+    return Iterables.getOnlyElement(result).getTimeValues();
+  }
+
+  private MetricDataQuery createQuery(long startTs) {
+    return new MetricDataQuery(startTs, NOW, Constants.Metrics.MINUTE_RESOLUTION, Integer.MAX_VALUE,
+                               ImmutableMap.of("system.m", AggregationFunction.SUM), CONTEXT,
+                               Collections.emptyList(), null);
+  }
+
+  private DefaultMetricStore createMetricStore(String tablePrefix, boolean fallback) {
+    CConfiguration cConf = CConfiguration.create();
+    cConf.setInt(Constants.Metrics.METRICS_MINIMUM_RESOLUTION_SECONDS, Constants.Metrics.MINUTE_RESOLUTION);
+    cConf.setLong(Constants.Metrics.RETENTION_SECONDS + Constants.Metrics.MINUTE_RESOLUTION +
+                    Constants.Metrics.RETENTION_SECONDS_SUFFIX, MINUTE_RETENTION_SECS);
+    cConf.setBoolean(Constants.Metrics.QUERY_RESOLUTION_FALLBACK, fallback);
+
+    InMemoryTableService.create(tablePrefix + ".entity");
+    EntityTable entityTable = new EntityTable(new InMemoryMetricsTable(tablePrefix + ".entity"));
+    DefaultMetricStore metricStore = new DefaultMetricStore(new MetricDatasetFactory() {
+      @Override
+      public FactTable getOrCreateFactTable(int resolution) {
+        String tableName = tablePrefix + ".ts." + resolution;
+        InMemoryTableService.create(tableName);
+        return new FactTable(new InMemoryMetricsTable(tableName), entityTable, resolution,
+                             Constants.Metrics.DEFAULT_TIME_SERIES_TABLE_ROLL_TIME);
+      }
+
+      @Override
+      public MetricsConsumerMetaTable createConsumerMeta() {
+        throw new UnsupportedOperationException();
+      }
+    }, cConf);
+
+    metricStore.add(ImmutableList.of(createMetric(NOW - 7200), createMetric(NOW - 1200), createMetric(NOW - 600)));
+    return metricStore;
+  }
+
+  private MetricValues createMetric(long timestamp) {
+    return new MetricValues(CONTEXT, "m", timestamp, 1L, MetricType.COUNTER);
+  }
+}